@@ -40,12 +40,24 @@ package edu.emory.cci.aiw.cvrg.eureka.common.comm;
  * #L%
  */
 
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.TabularFileCompression;
+
 /**
  *
  * @author Andrew Post
  */
 public class EtlTabularFileDestination extends AbstractEtlTabularDestination {
     
+    private TabularFileCompression compression;
+
+    public TabularFileCompression getCompression() {
+        return compression;
+    }
+
+    public void setCompression(TabularFileCompression compression) {
+        this.compression = compression;
+    }
+    
     @Override
     public void accept(EtlDestinationVisitor destinationVisitor) {
         destinationVisitor.visit(this);
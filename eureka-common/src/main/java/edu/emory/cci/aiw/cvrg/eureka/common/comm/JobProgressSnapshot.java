@@ -0,0 +1,133 @@
+package edu.emory.cci.aiw.cvrg.eureka.common.comm;
+
+/*-
+ * #%L
+ * Eureka Common
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Date;
+
+/**
+ * The progress of a running job at a point in time.
+ */
+public class JobProgressSnapshot {
+
+	private Long jobId;
+	private String phase;
+	private long keyIdsProcessed;
+	private long rowsWritten;
+	private long bytesWritten;
+	private Date started;
+	private long elapsedMillis;
+	private boolean running;
+
+	public Long getJobId() {
+		return jobId;
+	}
+
+	public void setJobId(Long jobId) {
+		this.jobId = jobId;
+	}
+
+	/**
+	 * Gets a description of what the job is doing.
+	 *
+	 * @return the phase.
+	 */
+	public String getPhase() {
+		return phase;
+	}
+
+	public void setPhase(String phase) {
+		this.phase = phase;
+	}
+
+	public long getKeyIdsProcessed() {
+		return keyIdsProcessed;
+	}
+
+	public void setKeyIdsProcessed(long keyIdsProcessed) {
+		this.keyIdsProcessed = keyIdsProcessed;
+	}
+
+	public long getRowsWritten() {
+		return rowsWritten;
+	}
+
+	public void setRowsWritten(long rowsWritten) {
+		this.rowsWritten = rowsWritten;
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public void setBytesWritten(long bytesWritten) {
+		this.bytesWritten = bytesWritten;
+	}
+
+	public Date getStarted() {
+		return started;
+	}
+
+	public void setStarted(Date started) {
+		this.started = started;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	public void setElapsedMillis(long elapsedMillis) {
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	/**
+	 * Gets whether the job was still running when the snapshot was taken.
+	 *
+	 * @return <code>true</code> if the job was running.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	public void setRunning(boolean running) {
+		this.running = running;
+	}
+
+}
@@ -302,6 +302,31 @@ public class EtlClient extends EurekaClient {
 		return doPost(path, formParams, PropositionDefinitionList);
 	}
 
+	/**
+	 * Gets proposition definitions together with their descendants in one
+	 * request.
+	 *
+	 * @param sourceConfigId the source configuration id.
+	 * @param inKeys the ids of the proposition definitions to get.
+	 * @param depth how many levels of descendants to get. 1 gets the
+	 * definitions' children.
+	 * @return the requested definitions followed by their descendants, level
+	 * by level.
+	 * @throws ClientException if an error occurred.
+	 */
+	public List<PropositionDefinition> getPropositionDefinitionsWithDescendants(
+			String sourceConfigId, List<String> inKeys, int depth) throws ClientException {
+		MultivaluedMap<String, String> formParams = new MultivaluedMapImpl();
+		for (String key : inKeys) {
+			formParams.add("key", key);
+		}
+		formParams.add("depth", Integer.toString(depth));
+		String path = UriBuilder.fromPath("/api/protected/concepts/")
+				.segment(sourceConfigId)
+				.build().toString();
+		return doPost(path, formParams, PropositionDefinitionList);
+	}
+
 	public void upload(String fileName, String sourceId,
 			String fileTypeId, InputStream inputStream)
 			throws ClientException {
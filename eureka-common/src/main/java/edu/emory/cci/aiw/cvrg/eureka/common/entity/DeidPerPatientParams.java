@@ -50,13 +50,14 @@ import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
 /**
  *
  * @author Andrew Post
  */
 @Entity
-@Table(name = "DEID_PER_PATIENT_PARAMS")
+@Table(name = "DEID_PER_PATIENT_PARAMS", uniqueConstraints = @UniqueConstraint(columnNames = {"DESTINATIONS_ID", "keyId"}))
 public class DeidPerPatientParams {
 	
 	@Id
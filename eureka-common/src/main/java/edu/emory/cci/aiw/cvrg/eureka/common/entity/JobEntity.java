@@ -120,6 +120,26 @@ public class JobEntity {
 	@Temporal(TemporalType.TIMESTAMP)
 	private Date finished;
 
+	/**
+	 * The job's current status, kept up to date as events are saved so that
+	 * jobs can be queried by status without reading their events.
+	 * <code>null</code> for jobs from before this column existed that have
+	 * not been backfilled yet. The column is written when the job is created
+	 * and afterwards only by bulk updates, so that a job entity that was read
+	 * before some of its events were saved cannot overwrite it. The field is
+	 * kept up to date in memory as events are persisted.
+	 */
+	@Column(name = "currentstate", updatable = false)
+	private JobStatus currentStatus;
+
+	/**
+	 * The time stamp of the job's latest event. Written like
+	 * {@link #currentStatus}.
+	 */
+	@Column(updatable = false)
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date lastEventAt;
+
 	public Date getFinished() {
 		return finished;
 	}
@@ -133,6 +153,7 @@ public class JobEntity {
 
 	public JobEntity() {
 		this.jobEvents = new ArrayList<>();
+		this.currentStatus = JobStatus.STARTING;
 	}
 
 	/**
@@ -257,6 +278,57 @@ public class JobEntity {
 	}
 
 	public JobStatus getCurrentStatus() {
+		if (this.currentStatus != null) {
+			return this.currentStatus;
+		} else {
+			return currentStatusFromEvents();
+		}
+	}
+
+	/**
+	 * Gets the time stamp of the job's latest event.
+	 *
+	 * @return the time stamp, or <code>null</code> if the job has no events.
+	 */
+	public Date getLastEventAt() {
+		return this.lastEventAt;
+	}
+
+	/**
+	 * Recomputes the current status and last event time from the job's
+	 * events. Used for jobs that were created before they were stored.
+	 */
+	public void refreshCurrentStatus() {
+		this.currentStatus = currentStatusFromEvents();
+		Date latest = null;
+		for (JobEventEntity jobEvent : this.jobEvents) {
+			Date timeStamp = jobEvent.getTimeStamp();
+			if (timeStamp != null && (latest == null || timeStamp.after(latest))) {
+				latest = timeStamp;
+			}
+		}
+		this.lastEventAt = latest;
+	}
+
+	/**
+	 * Called by {@link JobEventEntity} when one of this job's events is
+	 * persisted.
+	 *
+	 * @param jobEvent the event.
+	 */
+	void jobEventPersisted(JobEventEntity jobEvent) {
+		Integer rank = JobEventEntityComparator.rank(jobEvent.getStatus());
+		Integer currentRank = this.currentStatus != null ? JobEventEntityComparator.rank(this.currentStatus) : null;
+		if (rank != null && (currentRank == null || rank >= currentRank)) {
+			this.currentStatus = jobEvent.getStatus();
+		}
+		Date timeStamp = jobEvent.getTimeStamp();
+		if (timeStamp != null && (this.lastEventAt == null || timeStamp.after(this.lastEventAt))) {
+			this.lastEventAt = timeStamp;
+		}
+	}
+
+	private JobStatus currentStatusFromEvents() {
 		JobStatus result;
 		List<JobEventEntity> jobEventsInReverseOrder = getJobEventsInReverseOrder();
 		if (jobEventsInReverseOrder.isEmpty()) {
@@ -47,6 +47,7 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.PrePersist;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
@@ -155,6 +156,28 @@ public class JobEventEntity {
 		}
 	}
 
+	/**
+	 * Sets the job without adding this event to the job's events. Adding it
+	 * would load all of the job's events. For saving events in bulk.
+	 *
+	 * @param inJob the job to set
+	 */
+	public void setJobReference(JobEntity inJob) {
+		this.job = inJob;
+	}
+
+	/**
+	 * Updates the job's current status and last event time. Done when the
+	 * event is persisted because the event's status is usually set after its
+	 * job.
+	 */
+	@PrePersist
+	void updateJob() {
+		if (this.job != null) {
+			this.job.jobEventPersisted(this);
+		}
+	}
+
 	/**
 	 * @return the status
 	 */
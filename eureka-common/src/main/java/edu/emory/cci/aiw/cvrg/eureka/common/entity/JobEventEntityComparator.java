@@ -69,6 +69,17 @@ public class JobEventEntityComparator implements Comparator<JobEventEntity>,
 
 	@Override
 	public int compare(JobEventEntity a, JobEventEntity b) {
-		return ORDER.get(a.getStatus()).compareTo(ORDER.get(b.getStatus()));
+		return rank(a.getStatus()).compareTo(rank(b.getStatus()));
+	}
+
+	/**
+	 * Gets a status's position in this comparator's order. A job's current
+	 * status is its status with the highest rank.
+	 *
+	 * @param status a status.
+	 * @return the rank, or <code>null</code> if the status is not ordered.
+	 */
+	public static Integer rank(JobStatus status) {
+		return ORDER.get(status);
 	}
 }
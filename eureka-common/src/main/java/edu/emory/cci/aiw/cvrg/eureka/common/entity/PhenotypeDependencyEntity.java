@@ -0,0 +1,117 @@
+package edu.emory.cci.aiw.cvrg.eureka.common.entity;
+
+/*-
+ * #%L
+ * Eureka Common
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+/**
+ * Records that a user-defined phenotype uses another phenotype, for example
+ * as a category member or as what a frequency abstracts from. Kept up to date
+ * when phenotypes are created, updated and deleted so that the phenotypes
+ * that use a phenotype can be found without loading the user's whole
+ * library.
+ */
+@Entity
+@Table(name = "phenotype_dependencies")
+public class PhenotypeDependencyEntity {
+
+	@Id
+	@SequenceGenerator(name = "PHENOTYPE_DEPENDENCY_SEQ_GENERATOR",
+			sequenceName = "PHENOTYPE_DEPENDENCY_SEQ", allocationSize = 1)
+	@GeneratedValue(generator = "PHENOTYPE_DEPENDENCY_SEQ_GENERATOR")
+	private Long id;
+
+	/**
+	 * The phenotype that uses the other phenotype.
+	 */
+	@Column(nullable = false, name = "phenotype_id")
+	private Long phenotypeId;
+
+	/**
+	 * The phenotype that is used.
+	 */
+	@Column(nullable = false, name = "dependency_id")
+	private Long dependencyId;
+
+	public PhenotypeDependencyEntity() {
+	}
+
+	public PhenotypeDependencyEntity(Long inPhenotypeId, Long inDependencyId) {
+		this.phenotypeId = inPhenotypeId;
+		this.dependencyId = inDependencyId;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public Long getPhenotypeId() {
+		return phenotypeId;
+	}
+
+	public void setPhenotypeId(Long phenotypeId) {
+		this.phenotypeId = phenotypeId;
+	}
+
+	public Long getDependencyId() {
+		return dependencyId;
+	}
+
+	public void setDependencyId(Long dependencyId) {
+		this.dependencyId = dependencyId;
+	}
+
+	@Override
+	public String toString() {
+		return "PhenotypeDependencyEntity{" + "id=" + id + ", phenotypeId="
+				+ phenotypeId + ", dependencyId=" + dependencyId + '}';
+	}
+
+}
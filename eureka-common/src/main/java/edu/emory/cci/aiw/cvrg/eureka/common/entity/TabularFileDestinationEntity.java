@@ -44,6 +44,8 @@ import java.util.ArrayList;
 import java.util.List;
 import javax.persistence.CascadeType;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
@@ -58,6 +60,9 @@ public class TabularFileDestinationEntity extends DestinationEntity {
 	@OneToMany(cascade = CascadeType.ALL, mappedBy = "destination")
 	private List<TabularFileDestinationTableColumnEntity> tableColumns;
 
+	@Enumerated(EnumType.STRING)
+	private TabularFileCompression compression;
+
 	public TabularFileDestinationEntity() {
 		this.tableColumns = new ArrayList<>();
 	}
@@ -90,6 +95,14 @@ public class TabularFileDestinationEntity extends DestinationEntity {
 		}
 	}
 	
+	public TabularFileCompression getCompression() {
+		return compression != null ? compression : TabularFileCompression.NONE;
+	}
+
+	public void setCompression(TabularFileCompression compression) {
+		this.compression = compression;
+	}
+	
 	public Character getDelimiter() {
 		return '\t';
 	}
@@ -39,14 +39,22 @@
  */
 package edu.emory.cci.aiw.cvrg.eureka.etl.config;
 
+import com.google.inject.AbstractModule;
 import com.google.inject.Injector;
 import javax.servlet.ServletContextEvent;
 
 import com.google.inject.Module;
+import com.google.inject.persist.PersistService;
 import com.google.inject.persist.jpa.JpaPersistModule;
 import com.google.inject.servlet.GuiceServletContextListener;
+import com.google.inject.util.Modules;
 
+import edu.emory.cci.aiw.cvrg.eureka.etl.job.ProtempaSourcePool;
+import edu.emory.cci.aiw.cvrg.eureka.etl.ksb.ConceptCache;
 import edu.emory.cci.aiw.cvrg.eureka.etl.job.TaskManager;
+import edu.emory.cci.aiw.cvrg.eureka.etl.job.TaskQueueStore;
+import java.io.IOException;
+import java.util.Set;
 import org.eurekaclinical.common.config.InjectorSupport;
 
 /**
@@ -66,6 +74,12 @@ public class BackEndContextListener extends GuiceServletContextListener {
 	public void contextInitialized(ServletContextEvent inServletContextEvent) {
 		super.contextInitialized(inServletContextEvent);
 		initDatabase();
+		/*
+		 * Listeners run before the persist filter is initialized, so the
+		 * persistence service is started here for the resumed jobs.
+		 */
+		this.injector.getInstance(PersistService.class).start();
+		this.injector.getInstance(TaskManager.class).resumeQueuedTasks();
 	}
 
 	@Override
@@ -74,7 +88,12 @@ public class BackEndContextListener extends GuiceServletContextListener {
 				new Module[]{
 					new AppModule(),
 					new ETLServletModule(this.etlProperties),
-					new JpaPersistModule(JPA_UNIT)
+					Modules.override(new JpaPersistModule(JPA_UNIT)).with(new AbstractModule() {
+						@Override
+						protected void configure() {
+							bind(PersistService.class).to(StartOncePersistService.class);
+						}
+					})
 				},
 				this.etlProperties).getInjector();
 		return this.injector;
@@ -87,11 +106,19 @@ public class BackEndContextListener extends GuiceServletContextListener {
 				= this.injector.getInstance(TaskManager.class
 				);
 		taskManager.shutdown();
+		this.injector.getInstance(ProtempaSourcePool.class).close();
+		this.injector.getInstance(ConceptCache.class).close();
 	}
 
 	private void initDatabase() {
+		Set<Long> queuedJobIds;
+		try {
+			queuedJobIds = new TaskQueueStore(this.etlProperties).getJobIds();
+		} catch (IOException ex) {
+			throw new ConfigurationError(ex);
+		}
 		try (EtlJobRepairerExecutor executor
-				= new EtlJobRepairerExecutor(JPA_UNIT)) {
+				= new EtlJobRepairerExecutor(JPA_UNIT, queuedJobIds)) {
 			executor.execute();
 		}
 	}
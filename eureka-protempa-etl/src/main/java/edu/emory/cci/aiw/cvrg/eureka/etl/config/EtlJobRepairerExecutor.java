@@ -40,6 +40,7 @@ package edu.emory.cci.aiw.cvrg.eureka.etl.config;
  * #L%
  */
 
+import java.util.Set;
 import javax.persistence.EntityManager;
 
 /**
@@ -48,12 +49,15 @@ import javax.persistence.EntityManager;
  */
 class EtlJobRepairerExecutor extends JobRepairerExecutor {
 
-	public EtlJobRepairerExecutor(String jpaUnit) {
+	private final Set<Long> queuedJobIds;
+
+	public EtlJobRepairerExecutor(String jpaUnit, Set<Long> inQueuedJobIds) {
 		super(jpaUnit);
+		this.queuedJobIds = inQueuedJobIds;
 	}
 	
 	@Override
 	public void doExecute(EntityManager entityManager) {
-		new JobRepairer(entityManager).repairIfNeeded();
+		new JobRepairer(entityManager, this.queuedJobIds).repairIfNeeded();
 	}
 }
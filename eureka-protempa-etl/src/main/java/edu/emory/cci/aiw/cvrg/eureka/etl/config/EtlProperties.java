@@ -82,6 +82,186 @@ public class EtlProperties extends CasJerseyEurekaClinicalProperties {
 		return this.getIntValue("eureka.etl.threadpool.size", 4);
 	}
 	
+	/**
+	 * Gets the directory in which queued jobs are saved so that they can be
+	 * resumed after a restart.
+	 *
+	 * @return the job queue directory.
+	 * @throws IOException if the directory could not be created.
+	 */
+	public File getJobQueueDirectory() throws IOException {
+		File file = new File(getConfigDir(), "etlqueue");
+		Files.createDirectories(file.toPath());
+		return file;
+	}
+	
+	/**
+	 * Gets the maximum number of idle knowledge, algorithm and term source
+	 * sets that are kept warm for reuse by later jobs.
+	 *
+	 * @return the maximum number of idle source sets.
+	 */
+	public int getSourcePoolSize() {
+		return this.getIntValue("eureka.etl.sourcepool.size", 4);
+	}
+	
+	/**
+	 * Gets how long an idle knowledge, algorithm and term source set is kept
+	 * before it is closed.
+	 *
+	 * @return the idle timeout in seconds.
+	 */
+	public int getSourcePoolIdleTimeout() {
+		return this.getIntValue("eureka.etl.sourcepool.idletimeout", 600);
+	}
+	
+	/**
+	 * Gets the maximum number of source configs whose concepts are cached
+	 * for browsing and search.
+	 *
+	 * @return the maximum number of source configs.
+	 */
+	public int getConceptCacheConfigs() {
+		return this.getIntValue("eureka.etl.conceptcache.configs", 4);
+	}
+	
+	/**
+	 * Gets the maximum number of concepts and search results that are cached
+	 * per source config.
+	 *
+	 * @return the maximum number of cached concepts.
+	 */
+	public int getConceptCacheSize() {
+		return this.getIntValue("eureka.etl.conceptcache.size", 10000);
+	}
+	
+	/**
+	 * Gets how long a cached concept or search result is used before it is
+	 * read again from the knowledge source.
+	 *
+	 * @return the time to live in seconds.
+	 */
+	public int getConceptCacheTtl() {
+		return this.getIntValue("eureka.etl.conceptcache.ttl", 3600);
+	}
+	
+	/**
+	 * Gets the maximum number of concepts in a source config for its concepts
+	 * to be indexed for search.
+	 *
+	 * @return the maximum number of concepts, or 0 to turn off indexing.
+	 */
+	public int getConceptIndexSize() {
+		return this.getIntValue("eureka.etl.conceptcache.indexsize", 1000000);
+	}
+	
+	/**
+	 * Gets the maximum number of patients whose de-identification parameters
+	 * are kept in memory while a job runs.
+	 *
+	 * @return the maximum number of patients.
+	 */
+	public int getDeidCacheSize() {
+		return this.getIntValue("eureka.etl.deidcache.size", 100000);
+	}
+	
+	/**
+	 * Gets whether patient sets are sent to the patient set service while a
+	 * job runs, rather than written to a file and sent when the job is done.
+	 *
+	 * @return <code>true</code> to send patient sets while jobs run.
+	 */
+	public boolean isPatientSetStreamingEnabled() {
+		return Boolean.parseBoolean(this.getValue("eureka.etl.patientset.streaming"));
+	}
+	
+	/**
+	 * Gets how much of a patient set may wait to be sent before a job waits
+	 * for the patient set service.
+	 *
+	 * @return the buffer size in kilobytes.
+	 */
+	public int getPatientSetStreamingBufferSize() {
+		return this.getIntValue("eureka.etl.patientset.streaming.buffersize", 1024);
+	}
+	
+	/**
+	 * Gets how much of a patient set is kept so that sending it can be
+	 * retried. Larger patient sets are not retried.
+	 *
+	 * @return the size in kilobytes.
+	 */
+	public int getPatientSetStreamingRetainSize() {
+		return this.getIntValue("eureka.etl.patientset.streaming.retainsize", 16384);
+	}
+	
+	/**
+	 * Gets how many times sending a patient set is attempted.
+	 *
+	 * @return the number of attempts.
+	 */
+	public int getPatientSetStreamingAttempts() {
+		return this.getIntValue("eureka.etl.patientset.streaming.attempts", 3);
+	}
+	
+	/**
+	 * Gets how many job events are saved to the database at a time.
+	 *
+	 * @return the number of events.
+	 */
+	public int getJobEventBatchSize() {
+		return this.getIntValue("eureka.etl.jobevents.batchsize", 50);
+	}
+	
+	/**
+	 * Gets the longest time that a job event waits before it is saved.
+	 *
+	 * @return the time in milliseconds.
+	 */
+	public int getJobEventFlushInterval() {
+		return this.getIntValue("eureka.etl.jobevents.flushinterval", 1000);
+	}
+	
+	/**
+	 * Gets how many job events may wait to be saved before a job waits for
+	 * them.
+	 *
+	 * @return the number of events.
+	 */
+	public int getJobEventQueueSize() {
+		return this.getIntValue("eureka.etl.jobevents.queuesize", 1000);
+	}
+	
+	/**
+	 * Gets how many warnings of the same type are saved per job. Any more
+	 * are counted and summarized in one event at the end of the job.
+	 *
+	 * @return the number of warnings.
+	 */
+	public int getMaxRepeatedJobWarnings() {
+		return this.getIntValue("eureka.etl.jobevents.maxrepeatedwarnings", 20);
+	}
+	
+	/**
+	 * Gets how often a job's progress is sent to clients that are following
+	 * it.
+	 *
+	 * @return the interval in milliseconds.
+	 */
+	public int getJobProgressInterval() {
+		return this.getIntValue("eureka.etl.jobprogress.interval", 1000);
+	}
+	
+	/**
+	 * Gets how long a client may follow a job's progress before the stream
+	 * is closed and the client must reconnect.
+	 *
+	 * @return the time in milliseconds.
+	 */
+	public int getJobProgressStreamDuration() {
+		return this.getIntValue("eureka.etl.jobprogress.streamduration", 60000);
+	}
+	
 	public File getSourceConfigDirectory() throws IOException {
 		File file = new File(getConfigDir(), "sourceconfig");
 		Files.createDirectories(file.toPath());
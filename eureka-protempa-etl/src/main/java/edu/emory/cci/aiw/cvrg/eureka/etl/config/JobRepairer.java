@@ -40,17 +40,28 @@ package edu.emory.cci.aiw.cvrg.eureka.etl.config;
  * #L%
  */
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEntity;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEntity_;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEventEntity;
+import edu.emory.cci.aiw.cvrg.eureka.etl.dao.JobCurrentStatusUpdater;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
 import org.eurekaclinical.eureka.client.comm.JobStatus;
-import org.eurekaclinical.standardapis.dao.DatabaseSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * On startup, repairs jobs that were running when Eureka backend was shut down.
+ * Jobs that had not started yet and were saved in the job queue are left
+ * alone so that they can be resumed. Only jobs whose current status is not
+ * final are loaded. Jobs from before the current status was stored get it
+ * set the first time this runs.
  *
  * @author Andrew
  */
@@ -58,21 +69,43 @@ public class JobRepairer {
 
 	private static Logger LOGGER
 			= LoggerFactory.getLogger(JobRepairer.class);
+	private static final int BACKFILL_BATCH_SIZE = 500;
 
 	private final EntityManager entityManager;
+	private final Set<Long> queuedJobIds;
 
 	public JobRepairer(EntityManager inEntityManager) {
+		this(inEntityManager, Collections.<Long>emptySet());
+	}
+
+	/**
+	 * Creates a job repairer that skips jobs that are waiting to be resumed.
+	 *
+	 * @param inEntityManager the entity manager.
+	 * @param inQueuedJobIds the ids of the jobs in the job queue. Those that
+	 * have not started are not repaired.
+	 */
+	public JobRepairer(EntityManager inEntityManager, Set<Long> inQueuedJobIds) {
 		if (inEntityManager == null) {
 			throw new IllegalArgumentException("inEntityManager cannot be null");
 		}
+		if (inQueuedJobIds == null) {
+			throw new IllegalArgumentException("inQueuedJobIds cannot be null");
+		}
 		this.entityManager = inEntityManager;
+		this.queuedJobIds = inQueuedJobIds;
 	}
 
 	public final void repairIfNeeded() {
+		setMissingCurrentStatuses();
 		this.entityManager.getTransaction().begin();
 		int numJobsRepaired = 0;
-		for (JobEntity job : getAllJobs()) {
+		for (JobEntity job : getUnfinishedJobs()) {
 			JobStatus currentState = job.getCurrentStatus();
+			if (JobStatus.STARTING.equals(currentState)
+					&& this.queuedJobIds.contains(job.getId())) {
+				continue;
+			}
 			if (!JobStatus.COMPLETED.equals(currentState)
 					&& !JobStatus.FAILED.equals(currentState)) {
 				if (numJobsRepaired == 0) {
@@ -90,9 +123,44 @@ public class JobRepairer {
 		}
 	}
 
-	private List<JobEntity> getAllJobs() {
-		DatabaseSupport dbSupport = new DatabaseSupport(this.entityManager);
-		return dbSupport.getAll(JobEntity.class);
+	/**
+	 * Sets the current status of jobs that do not have one stored, a batch of
+	 * jobs per transaction.
+	 */
+	private void setMissingCurrentStatuses() {
+		CriteriaBuilder builder = this.entityManager.getCriteriaBuilder();
+		CriteriaQuery<JobEntity> query = builder.createQuery(JobEntity.class);
+		Root<JobEntity> root = query.from(JobEntity.class);
+		query.where(builder.isNull(root.get(JobEntity_.currentStatus)));
+		int numJobsUpdated = 0;
+		List<JobEntity> jobs;
+		do {
+			this.entityManager.getTransaction().begin();
+			jobs = this.entityManager.createQuery(query)
+					.setMaxResults(BACKFILL_BATCH_SIZE).getResultList();
+			JobCurrentStatusUpdater updater
+					= new JobCurrentStatusUpdater(this.entityManager);
+			for (JobEntity job : jobs) {
+				job.refreshCurrentStatus();
+				updater.update(job.getId(), job.getCurrentStatus(),
+						job.getLastEventAt());
+			}
+			this.entityManager.getTransaction().commit();
+			this.entityManager.clear();
+			numJobsUpdated += jobs.size();
+		} while (jobs.size() == BACKFILL_BATCH_SIZE);
+		if (numJobsUpdated > 0) {
+			LOGGER.info("Set the current status of {} job(s).", numJobsUpdated);
+		}
+	}
+
+	private List<JobEntity> getUnfinishedJobs() {
+		CriteriaBuilder builder = this.entityManager.getCriteriaBuilder();
+		CriteriaQuery<JobEntity> query = builder.createQuery(JobEntity.class);
+		Root<JobEntity> root = query.from(JobEntity.class);
+		Path<JobStatus> currentStatus = root.get(JobEntity_.currentStatus);
+		query.where(builder.not(currentStatus.in(JobStatus.COMPLETED, JobStatus.FAILED)));
+		return this.entityManager.createQuery(query).getResultList();
 	}
 
 	protected void doRepair(JobEntity job) {
@@ -118,6 +186,9 @@ public class JobRepairer {
 		failedJobEvent.setStatus(JobStatus.FAILED);
 		failedJobEvent.setMessage("Processing failed");
 		entityManager.persist(failedJobEvent);
+		entityManager.flush();
+		new JobCurrentStatusUpdater(entityManager).update(job.getId(),
+				JobStatus.FAILED, jobFinishedDate);
 		JobStatus updatedCurrentState = job.getCurrentStatus();
 		LOGGER.warn("After repair, the job {}'s status is {}",
 				job.getId(), updatedCurrentState);
@@ -0,0 +1,177 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.config;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import edu.emory.cci.aiw.cvrg.eureka.etl.resource.ToConfigFile;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.protempa.backend.Configuration;
+import org.protempa.backend.ConfigurationsLoadException;
+import org.protempa.backend.ConfigurationsNotFoundException;
+
+/**
+ * Parses each source config's INI file once and keeps the result. A cached
+ * configuration is used until the modification time or size of its INI file
+ * changes, which is checked on every call, so edits to the file take effect
+ * on the next request.
+ * <p>
+ * The configurations returned by {@link #get(java.lang.String) } are shared
+ * and must not be modified. Callers that modify a configuration, for example
+ * by merging a job's prompts into it, must get their own copy with
+ * {@link #load(java.lang.String) }.
+ */
+@Singleton
+public class SourceConfigRegistry {
+
+	private final EtlProperties etlProperties;
+	private final Map<String, Entry> configurations;
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+	private final AtomicLong invalidations;
+
+	@Inject
+	public SourceConfigRegistry(EtlProperties inEtlProperties) {
+		this.etlProperties = inEtlProperties;
+		this.configurations = new ConcurrentHashMap<>();
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.invalidations = new AtomicLong();
+	}
+
+	/**
+	 * Gets a source config's configuration, parsing its INI file if it has
+	 * not been parsed yet or has changed since.
+	 *
+	 * @param configId the source config's id.
+	 * @return the shared configuration. Do not modify it.
+	 * @throws IOException if the source config directory could not be
+	 * accessed.
+	 * @throws ConfigurationsLoadException if the INI file could not be
+	 * parsed.
+	 * @throws ConfigurationsNotFoundException if there is no INI file for the
+	 * source config.
+	 */
+	public Configuration get(String configId) throws IOException,
+			ConfigurationsLoadException, ConfigurationsNotFoundException {
+		File file = new File(this.etlProperties.getSourceConfigDirectory(),
+				ToConfigFile.fromSourceConfigId(configId));
+		long lastModified = file.lastModified();
+		long length = file.length();
+		Entry entry = this.configurations.get(configId);
+		if (entry != null && entry.lastModified == lastModified
+				&& entry.length == length) {
+			this.hits.incrementAndGet();
+			return entry.configuration;
+		}
+		this.misses.incrementAndGet();
+		if (entry != null) {
+			this.invalidations.incrementAndGet();
+			this.configurations.remove(configId, entry);
+		}
+		/*
+		 * The modification time is read before parsing, so a change made
+		 * while parsing is picked up by the next call.
+		 */
+		Configuration configuration = load(configId);
+		this.configurations.put(configId,
+				new Entry(configuration, lastModified, length));
+		return configuration;
+	}
+
+	/**
+	 * Parses a source config's INI file without using or updating the cache.
+	 *
+	 * @param configId the source config's id.
+	 * @return a new configuration that the caller may modify.
+	 * @throws IOException if the source config directory could not be
+	 * accessed.
+	 * @throws ConfigurationsLoadException if the INI file could not be
+	 * parsed.
+	 * @throws ConfigurationsNotFoundException if there is no INI file for the
+	 * source config.
+	 */
+	public Configuration load(String configId) throws IOException,
+			ConfigurationsLoadException, ConfigurationsNotFoundException {
+		return new EurekaProtempaConfigurations(this.etlProperties).load(configId);
+	}
+
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	public long getInvalidations() {
+		return this.invalidations.get();
+	}
+
+	public int getSize() {
+		return this.configurations.size();
+	}
+
+	@Override
+	public String toString() {
+		return "SourceConfigRegistry{hits=" + getHits() + ", misses="
+				+ getMisses() + ", invalidations=" + getInvalidations()
+				+ ", size=" + getSize() + '}';
+	}
+
+	private static final class Entry {
+
+		private final Configuration configuration;
+		private final long lastModified;
+		private final long length;
+
+		Entry(Configuration inConfiguration, long inLastModified,
+				long inLength) {
+			this.configuration = inConfiguration;
+			this.lastModified = inLastModified;
+			this.length = inLength;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.config;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.persist.PersistService;
+import com.google.inject.persist.UnitOfWork;
+
+/**
+ * The persistence service, which may be started more than once. The context
+ * listener starts it so that queued jobs can be resumed at startup, and the
+ * persist filter starts it again when it is initialized. guice-persist's own
+ * service fails if it is started twice, so later calls are ignored.
+ */
+@Singleton
+class StartOncePersistService implements PersistService {
+
+	private final PersistService persistService;
+	private boolean started;
+
+	@Inject
+	StartOncePersistService(UnitOfWork inUnitOfWork) {
+		/*
+		 * JpaPersistModule binds the unit of work and the persistence
+		 * service to the same object, whose class is not public.
+		 */
+		this.persistService = (PersistService) inUnitOfWork;
+	}
+
+	@Override
+	public synchronized void start() {
+		if (!this.started) {
+			this.persistService.start();
+			this.started = true;
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (this.started) {
+			this.persistService.stop();
+			this.started = false;
+		}
+	}
+
+}
@@ -42,6 +42,7 @@ package edu.emory.cci.aiw.cvrg.eureka.etl.dao;
 
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.DestinationEntity;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.DeidPerPatientParams;
+import java.util.List;
 import org.eurekaclinical.standardapis.dao.Dao;
 
 /**
@@ -52,4 +53,18 @@ public interface DeidPerPatientParamsDao extends Dao<DeidPerPatientParams, Long>
 	void deleteAll(DestinationEntity destination);
 
 	DeidPerPatientParams getByKeyId(String keyId);
+
+	DeidPerPatientParams getByKeyId(DestinationEntity destination, String keyId);
+
+	/**
+	 * Gets a destination's per-patient parameters in id order, starting after
+	 * the given id.
+	 *
+	 * @param destination the destination.
+	 * @param afterId the id of the last parameters of the previous page, or
+	 * <code>null</code> for the first page.
+	 * @param maxResults the maximum number of parameters to return.
+	 * @return the parameters.
+	 */
+	List<DeidPerPatientParams> getPage(DestinationEntity destination, Long afterId, int maxResults);
 }
@@ -42,6 +42,7 @@ package edu.emory.cci.aiw.cvrg.eureka.etl.dao;
 
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.DeidPerPatientParams;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.DestinationEntity;
+import java.util.List;
 import java.util.Random;
 
 /**
@@ -56,6 +57,56 @@ public interface EurekaDeidConfigDao extends AutoCloseable {
 	
 	void update(DeidPerPatientParams inDeidPerPatientParams);
 	
+	DeidPerPatientParams getPatientParams(String inKeyId, DestinationEntity inDestination);
+	
+	/**
+	 * Gets a destination's per-patient parameters in id order, starting after
+	 * the given id.
+	 *
+	 * @param inDestination the destination.
+	 * @param inAfterId the id of the last parameters of the previous page, or
+	 * <code>null</code> for the first page.
+	 * @param inMaxResults the maximum number of parameters to return.
+	 * @return the parameters, detached from the persistence context.
+	 */
+	List<DeidPerPatientParams> getPatientParams(DestinationEntity inDestination, Long inAfterId, int inMaxResults);
+	
+	/**
+	 * Inserts new per-patient parameters in their own transaction. If another
+	 * job already inserted parameters for the same patient and destination,
+	 * those are returned instead.
+	 *
+	 * @param inDeidPerPatientParams the new parameters.
+	 * @return the stored parameters, detached from the persistence context.
+	 */
+	DeidPerPatientParams insertOrGet(DeidPerPatientParams inDeidPerPatientParams);
+	
+	/**
+	 * Inserts new per-patient parameters in one transaction, so that the
+	 * inserts can be sent to the database in JDBC batches. If any insert
+	 * fails, for example because another job already inserted parameters for
+	 * one of the patients, none of them are inserted.
+	 *
+	 * @param inDeidPerPatientParams the new parameters.
+	 * @return the stored parameters in the same order, detached from the
+	 * persistence context.
+	 * @throws javax.persistence.PersistenceException if any insert fails.
+	 */
+	List<DeidPerPatientParams> insertAll(List<DeidPerPatientParams> inDeidPerPatientParams);
+	
+	/**
+	 * Saves the values of existing per-patient parameters that are still
+	 * <code>null</code> in the database, in their own transaction. Values
+	 * that another job saved first are kept.
+	 *
+	 * @param inDeidPerPatientParams the parameters, with the values to fill
+	 * in.
+	 * @return the stored parameters, detached from the persistence context.
+	 */
+	DeidPerPatientParams fillIn(DeidPerPatientParams inDeidPerPatientParams);
+	
+	int newOffset();
+	
 	Random getRandom();
     
 }
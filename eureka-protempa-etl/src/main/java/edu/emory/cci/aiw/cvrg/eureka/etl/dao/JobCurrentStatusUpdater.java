@@ -0,0 +1,135 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.dao;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEntity;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEventEntityComparator;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import org.eurekaclinical.eureka.client.comm.JobStatus;
+
+/**
+ * Updates the current status and last event time that are stored with a job
+ * after some of the job's events have been saved. The columns are updated
+ * only by this class, with one UPDATE statement that keeps the status with
+ * the highest rank and the latest time stamp. Jobs' entities do not write
+ * them, so a job entity that was read before the events were saved cannot
+ * overwrite them. Must be called in a transaction.
+ */
+public final class JobCurrentStatusUpdater {
+
+	private final EntityManager entityManager;
+
+	public JobCurrentStatusUpdater(EntityManager inEntityManager) {
+		this.entityManager = inEntityManager;
+	}
+
+	/**
+	 * Updates a job's current status and last event time.
+	 *
+	 * @param jobId the job's id.
+	 * @param status the status with the highest rank among the saved events,
+	 * or <code>null</code> to leave the current status alone. A status is
+	 * stored only if the job's current status does not have a higher rank.
+	 * @param timeStamp the latest time stamp of the saved events, or
+	 * <code>null</code> to leave the last event time alone. It is stored
+	 * only if it is later than the job's last event time.
+	 */
+	public void update(Long jobId, JobStatus status, Date timeStamp) {
+		List<String> assignments = new ArrayList<>(2);
+		List<JobStatus> higher = null;
+		if (status != null) {
+			higher = higherRanked(status);
+			if (higher.isEmpty()) {
+				assignments.add("j.currentStatus = :status");
+			} else {
+				assignments.add("j.currentStatus = CASE WHEN j.currentStatus IN :higher THEN j.currentStatus ELSE :status END");
+			}
+		}
+		if (timeStamp != null) {
+			assignments.add("j.lastEventAt = CASE WHEN j.lastEventAt IS NULL OR j.lastEventAt < :timeStamp THEN :timeStamp ELSE j.lastEventAt END");
+		}
+		if (assignments.isEmpty()) {
+			return;
+		}
+		StringBuilder jpql = new StringBuilder("UPDATE ")
+				.append(JobEntity.class.getSimpleName()).append(" j SET ");
+		for (int i = 0, n = assignments.size(); i < n; i++) {
+			if (i > 0) {
+				jpql.append(", ");
+			}
+			jpql.append(assignments.get(i));
+		}
+		jpql.append(" WHERE j.id = :id");
+		Query query = this.entityManager.createQuery(jpql.toString());
+		query.setParameter("id", jobId);
+		if (status != null) {
+			query.setParameter("status", status);
+			if (!higher.isEmpty()) {
+				query.setParameter("higher", higher);
+			}
+		}
+		if (timeStamp != null) {
+			query.setParameter("timeStamp", timeStamp);
+		}
+		query.executeUpdate();
+	}
+
+	/**
+	 * Gets the statuses that a job's current status must not be replaced
+	 * with the given status from. For a status without a rank, that is all
+	 * ranked statuses.
+	 */
+	private static List<JobStatus> higherRanked(JobStatus status) {
+		Integer rank = JobEventEntityComparator.rank(status);
+		List<JobStatus> result = new ArrayList<>();
+		for (JobStatus other : JobStatus.values()) {
+			Integer otherRank = JobEventEntityComparator.rank(other);
+			if (otherRank != null && (rank == null || otherRank > rank)) {
+				result.add(other);
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,95 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.dao;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Date;
+
+/**
+ * Marks where a page of jobs ends: the creation time and id of the last job
+ * on the page. Its string form is <code>&lt;created millis&gt;.&lt;id&gt;</code>.
+ */
+public final class JobCursor {
+
+	private final Date created;
+	private final Long id;
+
+	public JobCursor(Date inCreated, Long inId) {
+		assert inCreated != null : "inCreated cannot be null";
+		assert inId != null : "inId cannot be null";
+		this.created = inCreated;
+		this.id = inId;
+	}
+
+	/**
+	 * Parses the string form of a cursor.
+	 *
+	 * @param cursor the string form.
+	 * @return the cursor.
+	 * @throws IllegalArgumentException if the string is not a cursor.
+	 */
+	public static JobCursor parse(String cursor) {
+		int dot = cursor.indexOf('.');
+		if (dot < 0) {
+			throw new IllegalArgumentException("Invalid cursor " + cursor);
+		}
+		try {
+			return new JobCursor(
+					new Date(Long.parseLong(cursor.substring(0, dot))),
+					Long.valueOf(cursor.substring(dot + 1)));
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("Invalid cursor " + cursor, ex);
+		}
+	}
+
+	public Date getCreated() {
+		return new Date(this.created.getTime());
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	@Override
+	public String toString() {
+		return this.created.getTime() + "." + this.id;
+	}
+
+}
@@ -66,4 +66,17 @@ public interface JobDao extends Dao<JobEntity, Long> {
 
 	public List<JobEntity> getLatestWithFilter(JobFilter jobFilter);
 
+	/**
+	 * Gets a page of the jobs that meet the given filter criteria, ordered by
+	 * creation time and then id.
+	 *
+	 * @param jobFilter The filter criteria.
+	 * @param after where the previous page ended, or <code>null</code> for the
+	 * first page.
+	 * @param limit the maximum number of jobs to return.
+	 * @param descending whether to return the newest jobs first.
+	 * @return the jobs, without their events.
+	 */
+	public List<JobSummary> getPageWithFilter(JobFilter jobFilter, JobCursor after, int limit, boolean descending);
+
 }
@@ -0,0 +1,137 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.dao;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.DestinationEntity;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.LinkEntity;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.eurekaclinical.eureka.client.comm.Job;
+import org.eurekaclinical.eureka.client.comm.JobEvent;
+import org.eurekaclinical.eureka.client.comm.JobStatus;
+import org.eurekaclinical.eureka.client.comm.Link;
+
+/**
+ * The parts of a job that are shown in job listings. Unlike a
+ * {@link edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEntity}, it has the
+ * job's current status but not its events.
+ */
+public final class JobSummary {
+
+	private final Long id;
+	private final Date created;
+	private final Date finished;
+	private final String name;
+	private final String sourceConfigId;
+	private final DestinationEntity destination;
+	private final String username;
+	private JobStatus status;
+
+	JobSummary(Long inId, Date inCreated, Date inFinished, String inName,
+			String inSourceConfigId, DestinationEntity inDestination,
+			String inUsername) {
+		this.id = inId;
+		this.created = inCreated;
+		this.finished = inFinished;
+		this.name = inName;
+		this.sourceConfigId = inSourceConfigId;
+		this.destination = inDestination;
+		this.username = inUsername;
+		this.status = JobStatus.STARTING;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public Date getCreated() {
+		return created;
+	}
+
+	public JobStatus getStatus() {
+		return status;
+	}
+
+	void setStatus(JobStatus status) {
+		this.status = status;
+	}
+
+	/**
+	 * Gets the cursor for the page of jobs that follows this one.
+	 *
+	 * @return the cursor.
+	 */
+	public JobCursor toCursor() {
+		return new JobCursor(this.created, this.id);
+	}
+
+	/**
+	 * Creates a job like
+	 * {@link edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEntity#toJob()},
+	 * but with an empty list of events.
+	 *
+	 * @return the job.
+	 */
+	public Job toJob() {
+		Job job = new Job();
+		job.setDestinationId(this.destination.getName());
+		job.setSourceConfigId(this.sourceConfigId);
+		job.setStartTimestamp(this.created);
+		job.setId(this.id);
+		job.setUsername(this.username);
+		job.setStatus(this.status);
+		job.setJobEvents(Collections.<JobEvent>emptyList());
+		job.setFinishTimestamp(this.finished);
+		List<LinkEntity> linkEntities = this.destination.getLinks();
+		List<Link> links = new ArrayList<>(linkEntities != null ? linkEntities.size() : 0);
+		if (linkEntities != null) {
+			for (LinkEntity le : linkEntities) {
+				links.add(le.toLink());
+			}
+		}
+		job.setLinks(links);
+		job.setGetStatisticsSupported(this.destination.isGetStatisticsSupported());
+		return job;
+	}
+
+}
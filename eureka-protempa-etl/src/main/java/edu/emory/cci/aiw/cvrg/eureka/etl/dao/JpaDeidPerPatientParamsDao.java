@@ -46,6 +46,7 @@ import com.google.inject.Provider;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.DestinationEntity;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.DeidPerPatientParams;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.DeidPerPatientParams_;
+import java.util.List;
 import javax.inject.Inject;
 import javax.persistence.NoResultException;
 import javax.persistence.Query;
@@ -53,6 +54,7 @@ import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 import org.eurekaclinical.standardapis.dao.GenericDao;
 
@@ -100,4 +102,36 @@ public class JpaDeidPerPatientParamsDao extends GenericDao<DeidPerPatientParams,
 		}
 	}
 
+	@Override
+	public DeidPerPatientParams getByKeyId(DestinationEntity destination, String keyId) {
+		EntityManager entityManager = getEntityManager();
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<DeidPerPatientParams> criteriaQuery = builder.createQuery(DeidPerPatientParams.class);
+		Root<DeidPerPatientParams> root = criteriaQuery.from(DeidPerPatientParams.class);
+		TypedQuery<DeidPerPatientParams> query = entityManager.createQuery(criteriaQuery.where(
+				builder.equal(root.get(DeidPerPatientParams_.destination), destination),
+				builder.equal(root.get(DeidPerPatientParams_.keyId), keyId)));
+		try {
+			return query.getSingleResult();
+		} catch (NoResultException ex) {
+			return null;
+		}
+	}
+
+	@Override
+	public List<DeidPerPatientParams> getPage(DestinationEntity destination, Long afterId, int maxResults) {
+		EntityManager entityManager = getEntityManager();
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<DeidPerPatientParams> criteriaQuery = builder.createQuery(DeidPerPatientParams.class);
+		Root<DeidPerPatientParams> root = criteriaQuery.from(DeidPerPatientParams.class);
+		Path<Long> idPath = root.get(DeidPerPatientParams_.id);
+		Predicate predicate = builder.equal(root.get(DeidPerPatientParams_.destination), destination);
+		if (afterId != null) {
+			predicate = builder.and(predicate, builder.greaterThan(idPath, afterId));
+		}
+		TypedQuery<DeidPerPatientParams> query = entityManager.createQuery(criteriaQuery.where(predicate).orderBy(builder.asc(idPath)));
+		query.setMaxResults(maxResults);
+		return query.getResultList();
+	}
+
 }
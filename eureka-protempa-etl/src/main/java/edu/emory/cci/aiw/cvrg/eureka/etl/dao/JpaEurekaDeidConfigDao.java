@@ -40,14 +40,18 @@ package edu.emory.cci.aiw.cvrg.eureka.etl.dao;
  * #L%
  */
 import com.google.inject.Provider;
+import com.google.inject.util.Providers;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.DeidPerPatientParams;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.DestinationEntity;
 import java.io.IOException;
 import java.security.SecureRandom;
+import java.util.List;
 import java.util.Random;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
+import javax.persistence.LockModeType;
 import javax.persistence.PersistenceException;
 
 /**
@@ -60,16 +64,18 @@ public class JpaEurekaDeidConfigDao implements EurekaDeidConfigDao {
 
 	private final Random random;
 	private final Provider<EntityManager> entityManagerProvider;
+	private final Provider<EntityManagerFactory> entityManagerFactoryProvider;
 	private EntityTransaction transaction;
 	private int count;
 	private EntityManager entityManager;
 	private final DeidPerPatientParamsDao deidPerPatientParamsDao;
 
 	@Inject
-	JpaEurekaDeidConfigDao(Provider<EntityManager> inEntityManagerProvider) {
+	JpaEurekaDeidConfigDao(Provider<EntityManager> inEntityManagerProvider, Provider<EntityManagerFactory> inEntityManagerFactoryProvider) {
 		this.random = new SecureRandom();
 		this.random.setSeed(System.currentTimeMillis());
 		this.entityManagerProvider = inEntityManagerProvider;
+		this.entityManagerFactoryProvider = inEntityManagerFactoryProvider;
 		this.deidPerPatientParamsDao = new JpaDeidPerPatientParamsDao(this.entityManagerProvider);
 	}
 
@@ -78,10 +84,7 @@ public class JpaEurekaDeidConfigDao implements EurekaDeidConfigDao {
 		DeidPerPatientParams deidPerPatientParams = getOrCreatePatientParams(inKeyId, inDestination);
 		Integer offset = deidPerPatientParams.getOffset();
 		if (offset == null) {
-			int offsetInSeconds = this.random.nextInt(MAX_OFFSET_SECONDS);
-			if (!this.random.nextBoolean()) {
-				offsetInSeconds = offsetInSeconds * -1;
-			}
+			int offsetInSeconds = newOffset();
 			beginTx();
 			deidPerPatientParams.setOffset(offsetInSeconds);
 			try {
@@ -102,7 +105,7 @@ public class JpaEurekaDeidConfigDao implements EurekaDeidConfigDao {
 
 	@Override
 	public DeidPerPatientParams getOrCreatePatientParams(String inKeyId, DestinationEntity inDestination) {
-		DeidPerPatientParams offset = this.deidPerPatientParamsDao.getByKeyId(inKeyId);
+		DeidPerPatientParams offset = this.deidPerPatientParamsDao.getByKeyId(inDestination, inKeyId);
 		if (offset == null) {
 			beginTx();
 			try {
@@ -138,6 +141,136 @@ public class JpaEurekaDeidConfigDao implements EurekaDeidConfigDao {
 		}
 	}
 
+	@Override
+	public DeidPerPatientParams getPatientParams(String inKeyId, DestinationEntity inDestination) {
+		DeidPerPatientParams result = this.deidPerPatientParamsDao.getByKeyId(inDestination, inKeyId);
+		if (result != null) {
+			this.entityManagerProvider.get().detach(result);
+		}
+		return result;
+	}
+
+	@Override
+	public List<DeidPerPatientParams> getPatientParams(DestinationEntity inDestination, Long inAfterId, int inMaxResults) {
+		List<DeidPerPatientParams> result = this.deidPerPatientParamsDao.getPage(inDestination, inAfterId, inMaxResults);
+		EntityManager em = this.entityManagerProvider.get();
+		for (DeidPerPatientParams params : result) {
+			em.detach(params);
+		}
+		return result;
+	}
+
+	@Override
+	public DeidPerPatientParams insertOrGet(DeidPerPatientParams inDeidPerPatientParams) {
+		EntityManager em = this.entityManagerFactoryProvider.get().createEntityManager();
+		try {
+			EntityTransaction tx = em.getTransaction();
+			tx.begin();
+			try {
+				em.persist(inDeidPerPatientParams);
+				tx.commit();
+				return inDeidPerPatientParams;
+			} catch (PersistenceException ex) {
+				try {
+					rollbackTx(tx);
+				} catch (PersistenceException ignored) {
+				}
+				/*
+				 * Most likely another job inserted the patient's parameters
+				 * first and the unique constraint on destination and key id
+				 * was violated.
+				 */
+				DeidPerPatientParams stored = getStoredParams(inDeidPerPatientParams);
+				if (stored == null) {
+					throw ex;
+				}
+				return stored;
+			}
+		} finally {
+			em.close();
+		}
+	}
+
+	@Override
+	public List<DeidPerPatientParams> insertAll(List<DeidPerPatientParams> inDeidPerPatientParams) {
+		EntityManager em = this.entityManagerFactoryProvider.get().createEntityManager();
+		try {
+			EntityTransaction tx = em.getTransaction();
+			tx.begin();
+			try {
+				for (DeidPerPatientParams params : inDeidPerPatientParams) {
+					em.persist(params);
+				}
+				tx.commit();
+				return inDeidPerPatientParams;
+			} catch (PersistenceException ex) {
+				try {
+					rollbackTx(tx);
+				} catch (PersistenceException ignored) {
+				}
+				/*
+				 * Ids were assigned when the parameters were persisted, but
+				 * nothing was stored.
+				 */
+				for (DeidPerPatientParams params : inDeidPerPatientParams) {
+					params.setId(null);
+				}
+				throw ex;
+			}
+		} finally {
+			em.close();
+		}
+	}
+
+	@Override
+	public DeidPerPatientParams fillIn(DeidPerPatientParams inDeidPerPatientParams) {
+		EntityManager em = this.entityManagerFactoryProvider.get().createEntityManager();
+		try {
+			EntityTransaction tx = em.getTransaction();
+			tx.begin();
+			try {
+				DeidPerPatientParams stored = em.find(DeidPerPatientParams.class, inDeidPerPatientParams.getId(), LockModeType.PESSIMISTIC_WRITE);
+				if (stored != null) {
+					if (stored.getOffset() == null) {
+						stored.setOffset(inDeidPerPatientParams.getOffset());
+					}
+					if (stored.getCipherKey() == null) {
+						stored.setCipherKey(inDeidPerPatientParams.getCipherKey());
+					}
+					if (stored.getSalt() == null) {
+						stored.setSalt(inDeidPerPatientParams.getSalt());
+					}
+				}
+				tx.commit();
+				if (stored != null) {
+					return stored;
+				}
+			} catch (PersistenceException ex) {
+				try {
+					rollbackTx(tx);
+				} catch (PersistenceException ignored) {
+				}
+				throw ex;
+			}
+		} finally {
+			em.close();
+		}
+		/*
+		 * The parameters were deleted since they were read.
+		 */
+		inDeidPerPatientParams.setId(null);
+		return insertOrGet(inDeidPerPatientParams);
+	}
+
+	@Override
+	public int newOffset() {
+		int offsetInSeconds = this.random.nextInt(MAX_OFFSET_SECONDS);
+		if (!this.random.nextBoolean()) {
+			offsetInSeconds = offsetInSeconds * -1;
+		}
+		return offsetInSeconds;
+	}
+
 	@Override
 	public Random getRandom() {
 		return this.random;
@@ -145,7 +278,7 @@ public class JpaEurekaDeidConfigDao implements EurekaDeidConfigDao {
 
 	@Override
 	public void close() throws IOException {
-		if (this.transaction.isActive()) {
+		if (this.transaction != null && this.transaction.isActive()) {
 			this.transaction.commit();
 		}
 		this.entityManager = null;
@@ -169,8 +302,21 @@ public class JpaEurekaDeidConfigDao implements EurekaDeidConfigDao {
 	}
 
 	private void rollbackTx() {
-		if (this.transaction.isActive()) {
-			this.transaction.rollback();
+		rollbackTx(this.transaction);
+	}
+
+	private DeidPerPatientParams getStoredParams(DeidPerPatientParams inDeidPerPatientParams) {
+		EntityManager em = this.entityManagerFactoryProvider.get().createEntityManager();
+		try {
+			return new JpaDeidPerPatientParamsDao(Providers.of(em)).getByKeyId(inDeidPerPatientParams.getDestination(), inDeidPerPatientParams.getKeyId());
+		} finally {
+			em.close();
+		}
+	}
+
+	private static void rollbackTx(EntityTransaction transaction) {
+		if (transaction.isActive()) {
+			transaction.rollback();
 		}
 	}
 
@@ -44,6 +44,7 @@ import java.util.Date;
 import java.util.List;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.*;
 
@@ -54,10 +55,12 @@ import com.google.inject.Inject;
 import com.google.inject.Provider;
 
 import org.eurekaclinical.eureka.client.comm.JobFilter;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.AuthorizedUserEntity;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.AuthorizedUserEntity_;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.DestinationEntity;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEntity;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEntity_;
-import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEventEntity_;
+import org.eurekaclinical.eureka.client.comm.JobStatus;
 import org.eurekaclinical.standardapis.dao.GenericDao;
 
 /**
@@ -135,6 +138,61 @@ public class JpaJobDao extends GenericDao<JobEntity, Long> implements JobDao {
 		return typedQuery.getResultList();
 	}
 
+	@Override
+	public List<JobSummary> getPageWithFilter(JobFilter jobFilter, JobCursor after, int limit, boolean descending) {
+		EntityManager entityManager = this.getEntityManager();
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Tuple> query = builder.createTupleQuery();
+		Root<JobEntity> root = query.from(JobEntity.class);
+		Join<JobEntity, DestinationEntity> destination = root.join(JobEntity_.destination);
+		Join<JobEntity, AuthorizedUserEntity> user = root.join(JobEntity_.user);
+		Path<Long> idPath = root.get(JobEntity_.id);
+		Path<Date> createdPath = root.get(JobEntity_.created);
+		query.multiselect(idPath, createdPath, root.get(JobEntity_.finished),
+				root.get(JobEntity_.name), root.get(JobEntity_.sourceConfigId),
+				destination, user.get(AuthorizedUserEntity_.username),
+				root.get(JobEntity_.currentStatus));
+		List<Predicate> predicates = new ArrayList<>();
+		for (Predicate predicate : buildWhere(jobFilter, builder, root, null)) {
+			predicates.add(predicate);
+		}
+		if (after != null) {
+			Date afterCreated = after.getCreated();
+			Long afterId = after.getId();
+			if (descending) {
+				predicates.add(builder.or(
+						builder.lessThan(createdPath, afterCreated),
+						builder.and(builder.equal(createdPath, afterCreated), builder.lessThan(idPath, afterId))));
+			} else {
+				predicates.add(builder.or(
+						builder.greaterThan(createdPath, afterCreated),
+						builder.and(builder.equal(createdPath, afterCreated), builder.greaterThan(idPath, afterId))));
+			}
+		}
+		query.where(predicates.toArray(new Predicate[predicates.size()]));
+		if (descending) {
+			query.orderBy(builder.desc(createdPath), builder.desc(idPath));
+		} else {
+			query.orderBy(builder.asc(createdPath), builder.asc(idPath));
+		}
+		TypedQuery<Tuple> typedQuery = entityManager.createQuery(query);
+		typedQuery.setMaxResults(limit);
+		List<JobSummary> result = new ArrayList<>();
+		for (Tuple tuple : typedQuery.getResultList()) {
+			JobSummary summary = new JobSummary(tuple.get(0, Long.class),
+					tuple.get(1, Date.class),
+					tuple.get(2, Date.class), tuple.get(3, String.class),
+					tuple.get(4, String.class),
+					tuple.get(5, DestinationEntity.class),
+					tuple.get(6, String.class));
+			JobStatus status = tuple.get(7, JobStatus.class);
+			if (status != null) {
+				summary.setStatus(status);
+			}
+			result.add(summary);
+		}
+		return result;
+	}
 
 	private Predicate[] buildWhere(JobFilter jobFilter, CriteriaBuilder builder, Root<JobEntity> root, Subquery<Date> subQuery) {
 		List<Predicate> predicates = new ArrayList<>();
@@ -166,7 +224,7 @@ public class JpaJobDao extends GenericDao<JobEntity, Long> implements JobDao {
 			if (jobFilter.getState() != null) {
 				LOGGER.debug("Found state: {}", jobFilter.getState());
 				predicates.add(builder.equal(
-						root.join(JobEntity_.jobEvents).get(JobEventEntity_.status),
+						root.get(JobEntity_.currentStatus),
 						jobFilter.getState()));
 			}
 			LOGGER.debug("Checking for recent.");
@@ -0,0 +1,265 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.dest;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.TabularFileCompression;
+import edu.emory.cci.aiw.cvrg.eureka.etl.job.JobProgress;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes characters to a file on a background thread so that the thread
+ * producing them does not wait on disk I/O or compression. There are two
+ * buffers: the caller fills one while the background thread encodes the
+ * other as UTF-8, compresses it if requested and writes it. If the caller
+ * fills its buffer before the background thread is done with the other one,
+ * it waits. An error on the background thread is rethrown by the next call
+ * to {@link #write}, {@link #flush} or {@link #close}. If given a job's
+ * progress, the bytes written to the file are added to it.
+ */
+final class AsyncFileWriter extends Writer {
+
+	static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private static final Chunk END = new Chunk(0);
+
+	private final BlockingQueue<Chunk> written;
+	private final BlockingQueue<Chunk> free;
+	private final Thread flusher;
+	private Chunk current;
+	private volatile IOException error;
+	private boolean closed;
+
+	AsyncFileWriter(File file, TabularFileCompression compression, JobProgress progress) throws IOException {
+		this(file, compression, progress, DEFAULT_BUFFER_SIZE);
+	}
+
+	AsyncFileWriter(File file, TabularFileCompression compression, JobProgress progress, int bufferSize) throws IOException {
+		final Writer out = new OutputStreamWriter(openStream(file, compression, progress, bufferSize), StandardCharsets.UTF_8);
+		this.written = new ArrayBlockingQueue<>(2);
+		this.free = new ArrayBlockingQueue<>(1);
+		this.free.add(new Chunk(bufferSize));
+		this.current = new Chunk(bufferSize);
+		this.flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain(out);
+			}
+		}, "AsyncFileWriter-" + file.getName());
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0) {
+			Chunk chunk = this.current;
+			int n = Math.min(len, chunk.chars.length - chunk.length);
+			System.arraycopy(cbuf, off, chunk.chars, chunk.length, n);
+			chunk.length += n;
+			off += n;
+			len -= n;
+			if (chunk.length == chunk.chars.length) {
+				handOff();
+			}
+		}
+	}
+
+	/**
+	 * Hands any buffered characters to the background thread. Unlike most
+	 * writers, this does not wait for them to reach the file.
+	 *
+	 * @throws IOException if the background thread failed.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		if (this.current.length > 0) {
+			handOff();
+		}
+	}
+
+	/**
+	 * Writes any buffered characters, waits for the background thread to
+	 * finish and closes the file.
+	 *
+	 * @throws IOException if the background thread failed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		try {
+			if (this.error == null && this.current.length > 0) {
+				handOff();
+			}
+			this.written.put(END);
+			this.flusher.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while closing the file");
+		} finally {
+			this.closed = true;
+		}
+		checkError();
+	}
+
+	private void handOff() throws IOException {
+		checkError();
+		try {
+			this.written.put(this.current);
+			this.current = this.free.take();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the file to be written");
+		}
+		this.current.length = 0;
+	}
+
+	private void drain(Writer out) {
+		try {
+			Chunk chunk;
+			while ((chunk = this.written.take()) != END) {
+				/*
+				 * After an error, keep returning buffers so that the caller
+				 * does not wait forever. It sees the error on its next call.
+				 */
+				if (this.error == null) {
+					try {
+						out.write(chunk.chars, 0, chunk.length);
+					} catch (IOException ex) {
+						this.error = ex;
+					}
+				}
+				this.free.put(chunk);
+			}
+		} catch (InterruptedException ex) {
+			this.error = new InterruptedIOException("Interrupted while writing the file");
+		} finally {
+			try {
+				out.close();
+			} catch (IOException ex) {
+				if (this.error == null) {
+					this.error = ex;
+				}
+			}
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (this.closed) {
+			throw new IOException("Writer closed");
+		}
+		checkError();
+	}
+
+	private void checkError() throws IOException {
+		IOException ex = this.error;
+		if (ex != null) {
+			throw new IOException("Could not write the file", ex);
+		}
+	}
+
+	private static OutputStream openStream(File file, TabularFileCompression compression, JobProgress progress, int bufferSize) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		if (progress != null) {
+			out = new CountingOutputStream(out, progress);
+		}
+		try {
+			switch (compression) {
+				case NONE:
+					return new BufferedOutputStream(out, bufferSize);
+				case GZIP:
+					return new GZIPOutputStream(out, bufferSize);
+				default:
+					throw new AssertionError("Unexpected compression " + compression);
+			}
+		} catch (IOException | RuntimeException | Error ex) {
+			out.close();
+			throw ex;
+		}
+	}
+
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		private final JobProgress progress;
+
+		CountingOutputStream(OutputStream out, JobProgress progress) {
+			super(out);
+			this.progress = progress;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.progress.bytesWritten(1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.progress.bytesWritten(len);
+		}
+	}
+
+	private static final class Chunk {
+
+		private final char[] chars;
+		private int length;
+
+		Chunk(int size) {
+			this.chars = new char[size];
+		}
+	}
+}
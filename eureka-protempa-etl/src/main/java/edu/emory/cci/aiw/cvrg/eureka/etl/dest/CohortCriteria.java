@@ -40,232 +40,247 @@ package edu.emory.cci.aiw.cvrg.eureka.etl.dest;
  * #L%
  */
 import edu.emory.cci.aiw.cvrg.eureka.common.util.AbstractNodeVisitor;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import org.eurekaclinical.eureka.client.comm.BinaryOperator;
 import org.eurekaclinical.eureka.client.comm.Cohort;
 import org.eurekaclinical.eureka.client.comm.Literal;
 import org.eurekaclinical.eureka.client.comm.UnaryOperator;
-import org.eurekaclinical.eureka.client.comm.Node;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.arp.javautil.collections.Collections;
-import org.eurekaclinical.eureka.client.comm.BinaryOperator.Op;
-import static org.neo4j.ext.udc.UdcSettings.interval;
 import org.protempa.KnowledgeSource;
 import org.protempa.KnowledgeSourceReadException;
 import org.protempa.dest.keyloader.Criteria;
 import org.protempa.dest.keyloader.CriteriaEvaluateException;
 import org.protempa.dest.keyloader.CriteriaInitException;
-import org.protempa.proposition.AbstractParameter;
 import org.protempa.proposition.Constant;
-import org.protempa.proposition.Context;
-import org.protempa.proposition.Event;
-import org.protempa.proposition.PrimitiveParameter;
 import org.protempa.proposition.Proposition;
 import org.protempa.proposition.TemporalProposition;
 import org.protempa.proposition.interval.AbsoluteTimeIntervalFactory;
 import org.protempa.proposition.interval.Interval;
 import org.protempa.proposition.interval.Relation;
-import org.protempa.proposition.visitor.AbstractPropositionVisitor;
 
 /**
+ * Selects the patients in a cohort. {@link #init} compiles the cohort's
+ * expression tree into a postfix program with one slot per literal, and a map
+ * from proposition id to the slots of the literals that it satisfies (a
+ * literal's proposition and all of its descendants). Evaluating a patient
+ * sets the bits of the slots that the patient's propositions satisfy and runs
+ * the program over them, reusing per-thread buffers.
  *
  * @author Andrew Post
  */
 class CohortCriteria implements Criteria {
 
+	/*
+	 * Program instructions. Non-negative instructions push the bit of the
+	 * literal slot with that number.
+	 */
+	private static final int NOT = -1;
+	private static final int AND = -2;
+	private static final int OR = -3;
+
 	private final Cohort cohort;
-	private final Map<String, List<String>> cache;
 	private final String[] propIdsSpecified;
+	private final ThreadLocal<EvaluationState> state;
+	private Map<String, int[]> slotsByPropId;
+	private Interval[] intervals;
+	private int[] program;
+	private int stackSize;
 
 	CohortCriteria(Cohort cohort) {
 		assert cohort != null : "cohort cannot be null";
 		this.cohort = cohort;
-		this.cache = new HashMap<>();
 		CollectLiteralNamesNodeVisitor v = new CollectLiteralNamesNodeVisitor();
 		this.cohort.getNode().accept(v);
 		Set<String> literalNames = v.getLiteralNames();
 		this.propIdsSpecified = literalNames.toArray(new String[literalNames.size()]);
+		this.state = new ThreadLocal<EvaluationState>() {
+			@Override
+			protected EvaluationState initialValue() {
+				return new EvaluationState(intervals.length, stackSize);
+			}
+		};
 	}
 
 	@Override
 	public void init(final KnowledgeSource knowledgeSource) throws CriteriaInitException {
-		GetChildrenNodeVisitor nodeVisitorImpl = new GetChildrenNodeVisitor(knowledgeSource);
-		this.cohort.getNode().accept(nodeVisitorImpl);
-		if (nodeVisitorImpl.exception != null) {
-			throw new CriteriaInitException(nodeVisitorImpl.exception);
+		CompileNodeVisitor v = new CompileNodeVisitor(knowledgeSource);
+		this.cohort.getNode().accept(v);
+		if (v.exception != null) {
+			throw new CriteriaInitException(v.exception);
+		}
+		Map<String, int[]> slots = new HashMap<>();
+		for (Map.Entry<String, List<Integer>> me : v.slots.entrySet()) {
+			slots.put(me.getKey(), toIntArray(me.getValue()));
 		}
+		this.slotsByPropId = slots;
+		this.intervals = v.intervals.toArray(new Interval[v.intervals.size()]);
+		this.program = toIntArray(v.program);
+		this.stackSize = v.maxDepth;
 	}
 
 	@Override
 	public boolean evaluate(List<Proposition> propositions) throws CriteriaEvaluateException {
-		Map<String, List<Proposition>> propMap = new HashMap<>();
+		EvaluationState s = this.state.get();
+		long[] bits = s.bits;
+		Arrays.fill(bits, 0L);
 		for (Proposition prop : propositions) {
-			List<String> get = this.cache.get(prop.getId());
-			if (get != null) {
-				for (String literalName : get) {
-					Collections.putList(propMap, literalName, prop);
+			int[] slots = this.slotsByPropId.get(prop.getId());
+			if (slots != null) {
+				for (int slot : slots) {
+					int word = slot >>> 6;
+					long mask = 1L << slot;
+					if ((bits[word] & mask) == 0 && satisfies(slot, prop)) {
+						bits[word] |= mask;
+					}
 				}
 			}
 		}
-		return evaluate(this.cohort.getNode(), propMap);
+
+		boolean[] stack = s.stack;
+		int top = 0;
+		for (int instruction : this.program) {
+			switch (instruction) {
+				case NOT:
+					stack[top - 1] = !stack[top - 1];
+					break;
+				case AND:
+					top--;
+					stack[top - 1] = stack[top - 1] && stack[top];
+					break;
+				case OR:
+					top--;
+					stack[top - 1] = stack[top - 1] || stack[top];
+					break;
+				default:
+					stack[top++] = (bits[instruction >>> 6] & (1L << instruction)) != 0;
+			}
+		}
+		return stack[0];
 	}
-	
-	private boolean evaluate(Node node, Map<String, List<Proposition>> propMap) {
-		if (node instanceof UnaryOperator) {
-			return evaluateUnaryOperator((UnaryOperator) node, propMap);
-		} else if (node instanceof BinaryOperator) {
-			return evaluateBinaryOperator((BinaryOperator) node, propMap);
-		} else if (node instanceof Literal) {
-			return evaluateLiteral((Literal) node, propMap);
+
+	/**
+	 * Checks a proposition against the date range of a literal, if it has
+	 * one. Constants have no interval and always satisfy the date range.
+	 */
+	private boolean satisfies(int slot, Proposition prop) {
+		Interval interval = this.intervals[slot];
+		if (interval == null || prop instanceof Constant) {
+			return true;
+		} else if (prop instanceof TemporalProposition) {
+			return Relation.CONTAINS_OR_EQUALS.hasRelation(interval, ((TemporalProposition) prop).getInterval());
 		} else {
-			throw new AssertionError("Unexpected node type " + node.getClass().getName());
+			return false;
 		}
-    }
-	
-    private boolean evaluateUnaryOperator(UnaryOperator unaryOperator, Map<String, List<Proposition>> propMap) {
-		UnaryOperator.Op op = unaryOperator.getOp();
-        switch (op) {
-            case NOT:
-                return !evaluate(unaryOperator.getNode(), propMap);
-            default:
-                throw new AssertionError("Invalid op " + op);
-        }
-    }
-	
-    private boolean evaluateBinaryOperator(BinaryOperator binaryOperator, Map<String, List<Proposition>> propMap) {
-		Node leftNode = binaryOperator.getLeftNode();
-		Node rightNode = binaryOperator.getRightNode();
-		Op op = binaryOperator.getOp();
-        switch (op) {
-            case AND:
-                return evaluate(leftNode, propMap) && evaluate(rightNode, propMap);
-            case OR:
-                return evaluate(leftNode, propMap) || evaluate(rightNode, propMap);
-            default:
-                throw new AssertionError("Invalid op " + op);
-        }
-    }
-	
-	private boolean evaluateLiteral(Literal literal, Map<String, List<Proposition>> propMap) {
-        List<Proposition> props = propMap.get(literal.getName());
-		Date start = literal.getStart();
-		Date finish = literal.getFinish();
-		Interval interval = null;
-        if (props != null && !props.isEmpty()) {
-            if ((start != null || finish != null)) {
-                interval
-                        = new AbsoluteTimeIntervalFactory().getInstance(
-                                start, null,
-                                finish, null);
-            }
-            if (interval != null) {
-                LiteralEvaluatePropositionVisitor v
-                        = new LiteralEvaluatePropositionVisitor(interval);
-                for (Proposition prop : props) {
-                    prop.accept(v);
-                    if (v.evaluate()) {
-                        return true;
-                    }
-                }
-            } else {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    private class LiteralEvaluatePropositionVisitor extends AbstractPropositionVisitor {
-
-        private boolean result;
-		private final Interval interval;
-
-        LiteralEvaluatePropositionVisitor(Interval interval) {
-			this.interval = interval;
-        }
-
-        boolean evaluate() {
-            return result;
-        }
-
-        @Override
-        public void visit(Context context) {
-            handleTemporalProposition(context);
-        }
-
-        @Override
-        public void visit(Constant constant) {
-            this.result = true;
-        }
+	}
 
-        @Override
-        public void visit(PrimitiveParameter primitiveParameter) {
-            handleTemporalProposition(primitiveParameter);
-        }
+	@Override
+	public String[] getPropositionIdsSpecified() {
+		return this.propIdsSpecified;
+	}
 
-        @Override
-        public void visit(Event event) {
-            handleTemporalProposition(event);
-        }
+	private static int[] toIntArray(List<Integer> list) {
+		int[] result = new int[list.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = list.get(i);
+		}
+		return result;
+	}
 
-        @Override
-        public void visit(AbstractParameter abstractParameter) {
-            handleTemporalProposition(abstractParameter);
-        }
+	private static final class EvaluationState {
 
-        private void handleTemporalProposition(TemporalProposition tempProp) {
-            Interval tempPropIval = tempProp.getInterval();
-            this.result = Relation.CONTAINS_OR_EQUALS.hasRelation(interval, tempPropIval);
-        }
+		private final long[] bits;
+		private final boolean[] stack;
 
-    }
-	
-	@Override
-	public String[] getPropositionIdsSpecified() {
-		return this.propIdsSpecified;
+		EvaluationState(int slots, int stackSize) {
+			this.bits = new long[Math.max(1, (slots + 63) >>> 6)];
+			this.stack = new boolean[Math.max(1, stackSize)];
+		}
 	}
 
-	private class GetChildrenNodeVisitor extends AbstractNodeVisitor {
+	private static class CompileNodeVisitor extends AbstractNodeVisitor {
 
 		private final KnowledgeSource knowledgeSource;
+		private final Map<String, List<Integer>> slots;
+		private final List<Interval> intervals;
+		private final List<Integer> program;
+		private int depth;
+		private int maxDepth;
 		private KnowledgeSourceReadException exception;
 
-		public GetChildrenNodeVisitor(KnowledgeSource knowledgeSource) {
+		CompileNodeVisitor(KnowledgeSource knowledgeSource) {
 			this.knowledgeSource = knowledgeSource;
+			this.slots = new HashMap<>();
+			this.intervals = new ArrayList<>();
+			this.program = new ArrayList<>();
 		}
 
 		@Override
 		public void visit(Literal literal) {
+			if (this.exception != null) {
+				return;
+			}
+			int slot = this.intervals.size();
+			Date start = literal.getStart();
+			Date finish = literal.getFinish();
+			if (start != null || finish != null) {
+				this.intervals.add(new AbsoluteTimeIntervalFactory().getInstance(start, null, finish, null));
+			} else {
+				this.intervals.add(null);
+			}
 			try {
 				Set<String> propIds = this.knowledgeSource.collectPropIdDescendantsUsingAllNarrower(false, literal.getName());
 				for (String propId : propIds) {
-					Collections.putList(cache, propId, literal.getName());
+					Collections.putList(this.slots, propId, slot);
 				}
 			} catch (KnowledgeSourceReadException ex) {
 				this.exception = ex;
 			}
+			emit(slot, 1);
 		}
 
 		@Override
 		public void visit(UnaryOperator unaryOperator) {
-			if (this.exception == null) {
-				GetChildrenNodeVisitor v = new GetChildrenNodeVisitor(this.knowledgeSource);
-				unaryOperator.getNode().accept(v);
+			unaryOperator.getNode().accept(this);
+			UnaryOperator.Op op = unaryOperator.getOp();
+			switch (op) {
+				case NOT:
+					emit(NOT, 0);
+					break;
+				default:
+					throw new AssertionError("Invalid op " + op);
 			}
 		}
 
 		@Override
 		public void visit(BinaryOperator binaryOperator) {
-			if (this.exception == null) {
-				GetChildrenNodeVisitor v = new GetChildrenNodeVisitor(this.knowledgeSource);
-				binaryOperator.getLeftNode().accept(v);
-				binaryOperator.getRightNode().accept(v);
+			binaryOperator.getLeftNode().accept(this);
+			binaryOperator.getRightNode().accept(this);
+			BinaryOperator.Op op = binaryOperator.getOp();
+			switch (op) {
+				case AND:
+					emit(AND, -1);
+					break;
+				case OR:
+					emit(OR, -1);
+					break;
+				default:
+					throw new AssertionError("Invalid op " + op);
 			}
 		}
 
+		private void emit(int instruction, int stackChange) {
+			this.program.add(instruction);
+			this.depth += stackChange;
+			this.maxDepth = Math.max(this.maxDepth, this.depth);
+		}
+
 	}
 
 	private class CollectLiteralNamesNodeVisitor extends AbstractNodeVisitor {
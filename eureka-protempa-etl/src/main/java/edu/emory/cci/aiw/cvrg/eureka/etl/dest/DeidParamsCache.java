@@ -0,0 +1,308 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.dest;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.DeidPerPatientParams;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.DestinationEntity;
+import edu.emory.cci.aiw.cvrg.eureka.etl.dao.EurekaDeidConfigDao;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.PersistenceException;
+import org.apache.commons.collections4.map.LRUMap;
+
+/**
+ * A job's per-patient de-identification parameters, by key id. The first time
+ * parameters are requested, the destination's existing parameters are loaded
+ * in pages of {@link #BATCH_SIZE}, up to the size of the cache.
+ *
+ * New parameters are buffered and inserted {@link #BATCH_SIZE} at a time in
+ * one transaction, and the rest when the cache is flushed. If another job
+ * inserted parameters for one of the patients first, the batch is inserted
+ * again one row at a time, and the stored values of those patients are kept
+ * with only their missing values filled in from the buffered ones. Missing
+ * values in existing parameters are likewise only filled in if no other job
+ * has filled them in already. If the whole destination fit in the cache, a
+ * key id that is not in the cache is buffered without a lookup, relying on
+ * that fallback.
+ *
+ * Database work is done outside the cache's lock, so other threads keep
+ * reading the cache while a batch is inserted.
+ */
+final class DeidParamsCache {
+
+	/**
+	 * Fills in per-patient parameters that have not been assigned yet.
+	 */
+	interface Initializer {
+
+		/**
+		 * Assigns any of the parameters that are <code>null</code>.
+		 *
+		 * @param params the parameters, which may be changed.
+		 * @return whether any parameters were assigned.
+		 */
+		boolean initialize(DeidPerPatientParams params);
+	}
+
+	static final int BATCH_SIZE = 1000;
+
+	private final EurekaDeidConfigDao eurekaDeidConfigDao;
+	private final DestinationEntity destination;
+	private final Initializer initializer;
+	private final int maxSize;
+	private final LRUMap<String, DeidPerPatientParams> params;
+	private Map<String, DeidPerPatientParams> pending;
+	private final Map<String, DeidPerPatientParams> flushing;
+	private boolean loaded;
+	private boolean complete;
+
+	DeidParamsCache(DestinationEntity inDestination, EurekaDeidConfigDao inEurekaDeidConfigDao, int inMaxSize, Initializer inInitializer) {
+		this.destination = inDestination;
+		this.eurekaDeidConfigDao = inEurekaDeidConfigDao;
+		this.initializer = inInitializer;
+		this.maxSize = Math.max(1, inMaxSize);
+		this.params = new LRUMap<String, DeidPerPatientParams>(this.maxSize) {
+			@Override
+			protected boolean removeLRU(LinkEntry<String, DeidPerPatientParams> entry) {
+				/*
+				 * The evicted patient's parameters are saved or buffered, so
+				 * misses have to be looked up from now on.
+				 */
+				complete = false;
+				return true;
+			}
+		};
+		this.pending = new LinkedHashMap<>();
+		this.flushing = new HashMap<>();
+	}
+
+	/**
+	 * Gets a patient's parameters, creating or filling them in with the
+	 * cache's initializer as needed. New parameters may not be saved until
+	 * {@link #BATCH_SIZE} of them are buffered or {@link #flush()} is called.
+	 *
+	 * @param keyId the patient's key id.
+	 * @return the parameters.
+	 */
+	DeidPerPatientParams get(String keyId) {
+		DeidPerPatientParams result;
+		boolean lookup;
+		synchronized (this) {
+			if (!this.loaded) {
+				load();
+			}
+			result = find(keyId);
+			lookup = result == null && !this.complete;
+		}
+		if (lookup) {
+			DeidPerPatientParams stored = this.eurekaDeidConfigDao.getPatientParams(keyId, this.destination);
+			synchronized (this) {
+				result = find(keyId);
+				if (result == null && stored != null) {
+					this.params.put(keyId, stored);
+					result = stored;
+				}
+			}
+		}
+		List<DeidPerPatientParams> batch = null;
+		if (result == null || result.getId() == null) {
+			synchronized (this) {
+				result = find(keyId);
+				if (result == null) {
+					result = new DeidPerPatientParams();
+					result.setKeyId(keyId);
+					result.setDestination(this.destination);
+					this.initializer.initialize(result);
+					batch = buffer(result);
+				} else if (result.getId() == null) {
+					/*
+					 * The buffered parameters may be in a batch that is being
+					 * inserted, so missing values go into a copy that is
+					 * buffered in their place.
+					 */
+					DeidPerPatientParams filled = copy(result);
+					if (this.initializer.initialize(filled)) {
+						result = filled;
+						batch = buffer(result);
+					}
+				}
+			}
+			if (batch != null) {
+				insert(batch);
+			}
+			return result;
+		}
+		/*
+		 * Values are assigned to a copy so that the cached parameters only
+		 * ever hold saved values.
+		 */
+		DeidPerPatientParams filled = copy(result);
+		if (this.initializer.initialize(filled)) {
+			result = this.eurekaDeidConfigDao.fillIn(filled);
+			synchronized (this) {
+				this.params.put(keyId, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Saves any buffered parameters.
+	 */
+	void flush() {
+		List<DeidPerPatientParams> batch;
+		synchronized (this) {
+			batch = startBatch();
+		}
+		if (!batch.isEmpty()) {
+			insert(batch);
+		}
+	}
+
+	private DeidPerPatientParams find(String keyId) {
+		DeidPerPatientParams result = this.params.get(keyId);
+		if (result == null) {
+			result = this.pending.get(keyId);
+			if (result == null) {
+				result = this.flushing.get(keyId);
+			}
+			if (result != null) {
+				this.params.put(keyId, result);
+			}
+		}
+		return result;
+	}
+
+	private List<DeidPerPatientParams> buffer(DeidPerPatientParams p) {
+		this.params.put(p.getKeyId(), p);
+		this.pending.put(p.getKeyId(), p);
+		if (this.pending.size() >= BATCH_SIZE) {
+			return startBatch();
+		} else {
+			return null;
+		}
+	}
+
+	private List<DeidPerPatientParams> startBatch() {
+		List<DeidPerPatientParams> batch = new ArrayList<>(this.pending.values());
+		for (DeidPerPatientParams p : batch) {
+			this.flushing.put(p.getKeyId(), p);
+		}
+		this.pending = new LinkedHashMap<>();
+		return batch;
+	}
+
+	private void insert(List<DeidPerPatientParams> batch) {
+		/*
+		 * Copies are inserted because other threads may be reading the
+		 * buffered parameters.
+		 */
+		List<DeidPerPatientParams> copies = new ArrayList<>(batch.size());
+		for (DeidPerPatientParams p : batch) {
+			copies.add(copy(p));
+		}
+		List<DeidPerPatientParams> saved;
+		try {
+			saved = this.eurekaDeidConfigDao.insertAll(copies);
+		} catch (PersistenceException ex) {
+			/*
+			 * Most likely another job inserted some of the patients'
+			 * parameters first and the unique constraint on destination and
+			 * key id was violated. None of the batch was inserted.
+			 */
+			saved = new ArrayList<>(copies.size());
+			for (DeidPerPatientParams p : copies) {
+				DeidPerPatientParams stored = this.eurekaDeidConfigDao.insertOrGet(p);
+				if (stored != p) {
+					p.setId(stored.getId());
+					stored = this.eurekaDeidConfigDao.fillIn(p);
+				}
+				saved.add(stored);
+			}
+		}
+		synchronized (this) {
+			for (int i = 0, n = batch.size(); i < n; i++) {
+				DeidPerPatientParams p = batch.get(i);
+				String keyId = p.getKeyId();
+				if (this.flushing.get(keyId) == p) {
+					this.flushing.remove(keyId);
+				}
+				if (this.params.get(keyId) == p) {
+					this.params.put(keyId, saved.get(i));
+				}
+			}
+		}
+	}
+
+	private void load() {
+		this.loaded = true;
+		Long afterId = null;
+		int n;
+		List<DeidPerPatientParams> page;
+		do {
+			n = Math.min(BATCH_SIZE, this.maxSize - this.params.size());
+			if (n <= 0) {
+				return;
+			}
+			page = this.eurekaDeidConfigDao.getPatientParams(this.destination, afterId, n);
+			for (DeidPerPatientParams p : page) {
+				this.params.put(p.getKeyId(), p);
+				afterId = p.getId();
+			}
+		} while (page.size() == n);
+		this.complete = true;
+	}
+
+	private static DeidPerPatientParams copy(DeidPerPatientParams p) {
+		DeidPerPatientParams result = new DeidPerPatientParams();
+		result.setId(p.getId());
+		result.setKeyId(p.getKeyId());
+		result.setDestination(p.getDestination());
+		result.setOffset(p.getOffset());
+		result.setCipherKey(p.getCipherKey());
+		result.setSalt(p.getSalt());
+		return result;
+	}
+
+}
@@ -47,7 +47,6 @@ import edu.emory.cci.aiw.cvrg.eureka.etl.dao.EurekaDeidConfigDao;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import javax.crypto.KeyGenerator;
-import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import org.apache.commons.codec.binary.Base64;
 import org.protempa.dest.deid.CipherDeidConfig;
@@ -66,14 +65,34 @@ class EurekaCipherDeidConfig implements EurekaDeidConfig, CipherDeidConfig {
 	private final CipherEncryptionAlgorithm encryptionAlgorithm;
 	private KeyGenerator keyGenerator;
 	private final EurekaDeidConfigDao eurekaDeidConfigDao;
-	private final DestinationEntity destination;
+	private final DeidParamsCache paramsCache;
 
-	EurekaCipherDeidConfig(DestinationEntity inDestination, EurekaDeidConfigDao inEurekaDeidConfigDao) {
+	EurekaCipherDeidConfig(DestinationEntity inDestination, EurekaDeidConfigDao inEurekaDeidConfigDao, int inCacheSize) {
 		assert inDestination != null : "inDestination cannot be null";
 		assert inEurekaDeidConfigDao != null : "inEurekaDeidConfigDao cannot be null";
-		this.destination = inDestination;
 		this.encryptionAlgorithm = (CipherEncryptionAlgorithm) inDestination.getEncryptionAlgorithm();
 		this.eurekaDeidConfigDao = inEurekaDeidConfigDao;
+		this.paramsCache = new DeidParamsCache(inDestination, inEurekaDeidConfigDao, inCacheSize, new DeidParamsCache.Initializer() {
+			@Override
+			public boolean initialize(DeidPerPatientParams params) {
+				boolean result = false;
+				if (params.getOffset() == null) {
+					params.setOffset(eurekaDeidConfigDao.newOffset());
+					result = true;
+				}
+				/*
+				 * The key generator is created by getKey, which fills in the
+				 * key of parameters created before it was.
+				 */
+				KeyGenerator generator = getKeyGenerator();
+				if (params.getCipherKey() == null && generator != null) {
+					byte[] encoded = generator.generateKey().getEncoded();
+					params.setCipherKey(BASE64.encodeToString(encoded));
+					result = true;
+				}
+				return result;
+			}
+		});
 	}
 
 	@Override
@@ -102,28 +121,28 @@ class EurekaCipherDeidConfig implements EurekaDeidConfig, CipherDeidConfig {
 				}
 			}
 		}
-		DeidPerPatientParams byKeyId = this.eurekaDeidConfigDao.getOrCreatePatientParams(keyId, this.destination);
-		String keyStr = byKeyId.getCipherKey();
-		if (keyStr == null) {
-			SecretKey generatedKey = this.keyGenerator.generateKey();
-			byte[] encoded = generatedKey.getEncoded();
-			byKeyId.setCipherKey(BASE64.encodeToString(encoded));
-			this.eurekaDeidConfigDao.update(byKeyId);
-			return generatedKey;
-		} else {
-			byte[] encoded = BASE64.decode(keyStr);
-			return new SecretKeySpec(encoded, this.encryptionAlgorithm.getKeyAlgorithm());
-		}
+		byte[] encoded = BASE64.decode(this.paramsCache.get(keyId).getCipherKey());
+		return new SecretKeySpec(encoded, this.encryptionAlgorithm.getKeyAlgorithm());
 	}
 
 	@Override
 	public Integer getOffset(String keyId) {
-		return this.eurekaDeidConfigDao.getOffset(keyId, this.destination);
+		return this.paramsCache.get(keyId).getOffset();
 	}
 
 	@Override
 	public void close() throws Exception {
-		this.eurekaDeidConfigDao.close();
+		try {
+			this.paramsCache.flush();
+		} finally {
+			this.eurekaDeidConfigDao.close();
+		}
+	}
+
+	private KeyGenerator getKeyGenerator() {
+		synchronized (this.encryptionAlgorithm) {
+			return this.keyGenerator;
+		}
 	}
 
 }
@@ -55,14 +55,30 @@ import org.protempa.dest.deid.MessageDigestEncryption;
 class EurekaMessageDigestDeidConfig implements EurekaDeidConfig, MessageDigestDeidConfig {
 	private final String algorithm;
 	private final EurekaDeidConfigDao eurekaDeidConfigDao;
-	private final DestinationEntity destination;
+	private final DeidParamsCache paramsCache;
 
-	EurekaMessageDigestDeidConfig(DestinationEntity inDestination, EurekaDeidConfigDao inEurekaDeidConfigDao) {
+	EurekaMessageDigestDeidConfig(DestinationEntity inDestination, EurekaDeidConfigDao inEurekaDeidConfigDao, int inCacheSize) {
 		assert inDestination != null : "inDestination cannot be null";
 		assert inEurekaDeidConfigDao != null : "inEurekaDeidConfigDao cannot be null";
-		this.destination = inDestination;
 		this.algorithm = ((MessageDigestEncryptionAlgorithm) inDestination.getEncryptionAlgorithm()).getAlgorithm();
 		this.eurekaDeidConfigDao = inEurekaDeidConfigDao;
+		this.paramsCache = new DeidParamsCache(inDestination, inEurekaDeidConfigDao, inCacheSize, new DeidParamsCache.Initializer() {
+			@Override
+			public boolean initialize(DeidPerPatientParams params) {
+				boolean result = false;
+				if (params.getOffset() == null) {
+					params.setOffset(eurekaDeidConfigDao.newOffset());
+					result = true;
+				}
+				if (params.getSalt() == null) {
+					byte[] salt = new byte[20];
+					eurekaDeidConfigDao.getRandom().nextBytes(salt);
+					params.setSalt(salt);
+					result = true;
+				}
+				return result;
+			}
+		});
 	}
 
 	@Override
@@ -77,25 +93,21 @@ class EurekaMessageDigestDeidConfig implements EurekaDeidConfig, MessageDigestDe
 	
 	@Override
 	public byte[] getSalt(String keyId) {
-		DeidPerPatientParams deidPerPatientParams = this.eurekaDeidConfigDao.getOrCreatePatientParams(keyId, this.destination);
-		byte[] salt = deidPerPatientParams.getSalt();
-		if (salt == null) {
-			salt = new byte[20];
-			this.eurekaDeidConfigDao.getRandom().nextBytes(salt);
-			deidPerPatientParams.setSalt(salt);
-			this.eurekaDeidConfigDao.update(deidPerPatientParams);
-		}
-		return salt;
+		return this.paramsCache.get(keyId).getSalt();
 	}
 
 	@Override
 	public Integer getOffset(String inKeyId) {
-		return this.eurekaDeidConfigDao.getOffset(inKeyId, this.destination);
+		return this.paramsCache.get(inKeyId).getOffset();
 	}
 
 	@Override
 	public void close() throws Exception {
-		this.eurekaDeidConfigDao.close();
+		try {
+			this.paramsCache.flush();
+		} finally {
+			this.eurekaDeidConfigDao.close();
+		}
 	}
 
 }
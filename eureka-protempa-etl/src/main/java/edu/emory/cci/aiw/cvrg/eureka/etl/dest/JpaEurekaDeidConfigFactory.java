@@ -44,6 +44,7 @@ import edu.emory.cci.aiw.cvrg.eureka.common.entity.CipherEncryptionAlgorithm;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.DestinationEntity;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.EncryptionAlgorithm;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.MessageDigestEncryptionAlgorithm;
+import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dao.EurekaDeidConfigDao;
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -55,19 +56,21 @@ import javax.inject.Singleton;
 @Singleton
 public class JpaEurekaDeidConfigFactory implements EurekaDeidConfigFactory {
 	private final EurekaDeidConfigDao eurekaDeidConfigDao;
+	private final EtlProperties etlProperties;
 	
 	@Inject
-	public JpaEurekaDeidConfigFactory(EurekaDeidConfigDao inEurekaDeidConfigDao) {
+	public JpaEurekaDeidConfigFactory(EurekaDeidConfigDao inEurekaDeidConfigDao, EtlProperties inEtlProperties) {
 		this.eurekaDeidConfigDao = inEurekaDeidConfigDao;
+		this.etlProperties = inEtlProperties;
 	}
 	
 	@Override
 	public EurekaDeidConfig getInstance(DestinationEntity inDestination) {
 		EncryptionAlgorithm encryptionAlgorithm = inDestination.getEncryptionAlgorithm();
 		if (encryptionAlgorithm instanceof MessageDigestEncryptionAlgorithm) {
-			return new EurekaMessageDigestDeidConfig(inDestination, this.eurekaDeidConfigDao);
+			return new EurekaMessageDigestDeidConfig(inDestination, this.eurekaDeidConfigDao, this.etlProperties.getDeidCacheSize());
 		} else if (encryptionAlgorithm instanceof CipherEncryptionAlgorithm) {
-			return new EurekaCipherDeidConfig(inDestination, this.eurekaDeidConfigDao);
+			return new EurekaCipherDeidConfig(inDestination, this.eurekaDeidConfigDao, this.etlProperties.getDeidCacheSize());
 		} else {
 			return null;
 		}
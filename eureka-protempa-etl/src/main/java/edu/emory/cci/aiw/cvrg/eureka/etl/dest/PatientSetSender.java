@@ -72,6 +72,18 @@ public class PatientSetSender {
 	void doSend() throws IOException {
 		File file = new File(this.etlProperties.outputFileDirectory(this.patientSetSenderDestinationEntity.getName()), this.fileSupport.getOutputName(this.patientSetSenderDestinationEntity));
 		try (InputStream in = new FileInputStream(file)) {
+			send(in);
+		}
+	}
+
+	/**
+	 * Posts a patient set to the patient set service.
+	 *
+	 * @param in the patient set JSON.
+	 * @throws IOException if the patient set could not be sent.
+	 */
+	void send(InputStream in) throws IOException {
+		try {
 			patientSetClient.postStreaming(in);
 		} catch (ClientException ex) {
 			throw new IOException(ex);
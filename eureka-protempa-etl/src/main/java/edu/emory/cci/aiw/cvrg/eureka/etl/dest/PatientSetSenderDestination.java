@@ -72,7 +72,11 @@ public class PatientSetSenderDestination extends AbstractDestination {
 		if (query.getQueryMode() == QueryMode.UPDATE) {
 			throw new QueryResultsHandlerInitException("Update mode not supported");
 		}
-		return new PatientSetSenderQueryResultsHandler(query, this.patientSetSenderDestinationEntity, this.etlProperties);
+		if (this.etlProperties.isPatientSetStreamingEnabled()) {
+			return new StreamingPatientSetSenderQueryResultsHandler(query, this.patientSetSenderDestinationEntity, this.etlProperties);
+		} else {
+			return new PatientSetSenderQueryResultsHandler(query, this.patientSetSenderDestinationEntity, this.etlProperties);
+		}
 	}
 	
 	@Override
@@ -0,0 +1,361 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.dest;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends a patient set to a remote service while it is being written. The
+ * caller writes the patient set's JSON to this stream, and a background
+ * thread passes it to a {@link Sink} as an input stream. Writers wait while
+ * more than the buffer size of JSON has not been read by the sink yet.
+ *
+ * The remote service can only accept a patient set from its beginning, so a
+ * failed send is retried from there. All JSON is kept until the retention
+ * limit is exceeded. After that, only unsent JSON is kept, and a failure is
+ * final.
+ *
+ * When the stream is aborted, the sink's next read fails. A sink must then
+ * drop its connection rather than end the request normally. Even if it does
+ * not, the service cannot take what it got for a complete patient set,
+ * because an aborted patient set's JSON is never closed: anything written
+ * after {@link #abort()}, including the end of the JSON document, is
+ * discarded.
+ */
+final class PatientSetStream extends OutputStream {
+
+	/**
+	 * Sends a patient set to a remote service.
+	 */
+	interface Sink {
+
+		/**
+		 * Sends the patient set. Must read the input stream to its end.
+		 *
+		 * @param in the patient set JSON.
+		 * @throws IOException if sending failed.
+		 */
+		void send(InputStream in) throws IOException;
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PatientSetStream.class);
+
+	static final int CHUNK_SIZE = 64 * 1024;
+
+	private final Sink sink;
+	private final int bufferSize;
+	private final long retainSize;
+	private final int maxAttempts;
+	private final long retryDelayMillis;
+	private final Thread sender;
+	private final List<byte[]> chunks;
+	private byte[] current;
+	private int currentLength;
+	private long written;
+	private boolean replayable;
+	private int attempt;
+	private int readChunk;
+	private int readOffset;
+	private long readBytes;
+	private boolean closed;
+	private boolean aborted;
+	private boolean done;
+	private Throwable error;
+
+	PatientSetStream(String name, Sink inSink, int inBufferSize, long inRetainSize, int inMaxAttempts, long inRetryDelayMillis) {
+		this.sink = inSink;
+		this.bufferSize = Math.max(CHUNK_SIZE, inBufferSize);
+		this.retainSize = inRetainSize;
+		this.maxAttempts = Math.max(1, inMaxAttempts);
+		this.retryDelayMillis = inRetryDelayMillis;
+		this.chunks = new ArrayList<>();
+		this.current = new byte[CHUNK_SIZE];
+		this.replayable = true;
+		this.sender = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				send();
+			}
+		}, "PatientSetStream-" + name);
+		this.sender.setDaemon(true);
+		this.sender.start();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[]{(byte) b}, 0, 1);
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+		if (this.aborted) {
+			return;
+		}
+		checkWritable();
+		while (len > 0) {
+			int n = Math.min(len, CHUNK_SIZE - this.currentLength);
+			System.arraycopy(b, off, this.current, this.currentLength, n);
+			this.currentLength += n;
+			off += n;
+			len -= n;
+			if (this.currentLength == CHUNK_SIZE) {
+				publish();
+			}
+		}
+	}
+
+	/**
+	 * Makes any written JSON available to the sink. Does not wait for it to
+	 * be sent.
+	 *
+	 * @throws IOException if sending failed.
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		if (!this.aborted) {
+			checkWritable();
+			publish();
+		}
+	}
+
+	/**
+	 * Marks the end of the patient set and waits for it to be sent.
+	 *
+	 * @throws IOException if sending failed.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		if (!this.aborted) {
+			checkWritable();
+			publish();
+		}
+		this.closed = true;
+		notifyAll();
+		try {
+			while (!this.done && !this.aborted) {
+				wait();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while sending the patient set");
+		}
+		if (!this.aborted) {
+			checkError();
+		}
+	}
+
+	/**
+	 * Stops sending without waiting, so that the remote service does not
+	 * receive a partial patient set as if it were complete. Anything written
+	 * afterwards is discarded.
+	 */
+	synchronized void abort() {
+		this.aborted = true;
+		this.chunks.clear();
+		notifyAll();
+	}
+
+	private void publish() throws IOException {
+		if (this.currentLength == 0) {
+			return;
+		}
+		if (this.currentLength == CHUNK_SIZE) {
+			this.chunks.add(this.current);
+			this.current = new byte[CHUNK_SIZE];
+		} else {
+			this.chunks.add(Arrays.copyOf(this.current, this.currentLength));
+		}
+		this.written += this.currentLength;
+		this.currentLength = 0;
+		if (this.replayable && this.written > this.retainSize) {
+			this.replayable = false;
+			this.chunks.subList(0, this.readChunk).clear();
+			this.readChunk = 0;
+		}
+		notifyAll();
+		try {
+			while (this.written - this.readBytes > this.bufferSize && !this.done && !this.aborted) {
+				wait();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while sending the patient set");
+		}
+		checkError();
+	}
+
+	private void send() {
+		for (int i = 1;; i++) {
+			InputStream in;
+			synchronized (this) {
+				this.attempt = i;
+				this.readChunk = 0;
+				this.readOffset = 0;
+				this.readBytes = 0;
+				in = new AttemptInputStream(i);
+				notifyAll();
+			}
+			Throwable failure;
+			try {
+				this.sink.send(in);
+				synchronized (this) {
+					if (this.closed && this.readChunk == this.chunks.size()) {
+						this.done = true;
+						notifyAll();
+						return;
+					}
+				}
+				failure = new IOException("The patient set service stopped reading before the end of the patient set");
+			} catch (IOException | RuntimeException ex) {
+				failure = ex;
+			}
+			synchronized (this) {
+				if (this.aborted || !this.replayable || i >= this.maxAttempts) {
+					this.error = failure;
+					this.done = true;
+					notifyAll();
+					return;
+				}
+				/*
+				 * Rewind now so that nothing is discarded as already sent
+				 * while waiting to retry.
+				 */
+				this.readChunk = 0;
+				this.readOffset = 0;
+				this.readBytes = 0;
+			}
+			LOGGER.warn("Sending patient set failed (attempt {} of {}), retrying", i, this.maxAttempts, failure);
+			try {
+				Thread.sleep(this.retryDelayMillis * i);
+			} catch (InterruptedException ex) {
+				synchronized (this) {
+					this.error = failure;
+					this.done = true;
+					notifyAll();
+				}
+				return;
+			}
+		}
+	}
+
+	private void checkWritable() throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		checkError();
+	}
+
+	private void checkError() throws IOException {
+		if (this.error != null) {
+			throw new IOException("Could not send the patient set", this.error);
+		}
+	}
+
+	private final class AttemptInputStream extends InputStream {
+
+		private final int attemptNumber;
+
+		AttemptInputStream(int inAttemptNumber) {
+			this.attemptNumber = inAttemptNumber;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return n < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			synchronized (PatientSetStream.this) {
+				try {
+					while (true) {
+						if (aborted) {
+							throw new IOException("Patient set cancelled");
+						}
+						if (attempt != this.attemptNumber) {
+							throw new IOException("Stale patient set stream");
+						}
+						if (readChunk < chunks.size()) {
+							byte[] chunk = chunks.get(readChunk);
+							int n = Math.min(len, chunk.length - readOffset);
+							System.arraycopy(chunk, readOffset, b, off, n);
+							readOffset += n;
+							readBytes += n;
+							if (readOffset == chunk.length) {
+								readOffset = 0;
+								if (replayable) {
+									readChunk++;
+								} else {
+									chunks.remove(0);
+								}
+							}
+							PatientSetStream.this.notifyAll();
+							return n;
+						}
+						if (closed) {
+							return -1;
+						}
+						PatientSetStream.this.wait();
+					}
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while reading the patient set");
+				}
+			}
+		}
+	}
+}
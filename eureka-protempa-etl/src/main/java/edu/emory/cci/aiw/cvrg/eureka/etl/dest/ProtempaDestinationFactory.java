@@ -55,6 +55,7 @@ import edu.emory.cci.aiw.cvrg.eureka.common.entity.PatientSetSenderDestinationEn
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.TabularFileDestinationEntity;
 import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dao.DestinationDao;
+import edu.emory.cci.aiw.cvrg.eureka.etl.job.JobProgress;
 import edu.emory.cci.aiw.i2b2etl.dest.I2b2Destination;
 import edu.emory.cci.aiw.i2b2etl.dest.config.ConfigurationInitException;
 import edu.emory.cci.aiw.neo4jetl.Neo4jDestination;
@@ -83,11 +84,30 @@ public class ProtempaDestinationFactory {
 	}
 
 	public org.protempa.dest.Destination getInstance(Long destId, boolean updateData) throws DestinationInitException {
+		return getInstance(destId, updateData, null);
+	}
+
+	/**
+	 * Creates a destination for a job.
+	 *
+	 * @param destId the destination's id.
+	 * @param updateData whether the job updates previously loaded data.
+	 * @param progress the job's progress, which destinations that support
+	 * it update. May be <code>null</code>.
+	 * @return the destination.
+	 * @throws DestinationInitException if the destination could not be
+	 * created.
+	 */
+	public org.protempa.dest.Destination getInstance(Long destId, boolean updateData, JobProgress progress) throws DestinationInitException {
 		DestinationEntity dest = this.destinationDao.retrieve(destId);
-		return getInstance(dest, updateData);
+		return getInstance(dest, updateData, progress);
 	}
 
 	public org.protempa.dest.Destination getInstance(DestinationEntity dest, boolean updateData) throws DestinationInitException {
+		return getInstance(dest, updateData, null);
+	}
+
+	private org.protempa.dest.Destination getInstance(DestinationEntity dest, boolean updateData, JobProgress progress) throws DestinationInitException {
 		org.protempa.dest.Destination result;
 		try {
 			if (dest instanceof I2B2DestinationEntity) {
@@ -103,7 +123,7 @@ public class ProtempaDestinationFactory {
 			} else if (dest instanceof PatientSetSenderDestinationEntity) {
 				result = new PatientSetSenderDestination(this.etlProperties, (PatientSetSenderDestinationEntity) dest);
 			} else if (dest instanceof TabularFileDestinationEntity) {
-				result = new TabularFileDestination(this.etlProperties, (TabularFileDestinationEntity) dest);
+				result = new TabularFileDestination(this.etlProperties, (TabularFileDestinationEntity) dest, progress);
 			} else {
 				throw new AssertionError("Invalid destination entity type " + dest.getClass());
 			}
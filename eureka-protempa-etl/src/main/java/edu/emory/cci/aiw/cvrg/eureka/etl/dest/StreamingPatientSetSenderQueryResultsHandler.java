@@ -0,0 +1,152 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.dest;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.PatientSetSenderDestinationEntity;
+import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.eurekaclinical.patientset.client.PatientSetJsonWriter;
+import org.protempa.PropositionDefinition;
+import org.protempa.dest.AbstractQueryResultsHandler;
+import org.protempa.dest.QueryResultsHandlerCloseException;
+import org.protempa.dest.QueryResultsHandlerProcessingException;
+import org.protempa.dest.QueryResultsHandlerValidationFailedException;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.UniqueId;
+import org.protempa.query.Query;
+
+/**
+ * Sends a patient set to the patient set service while the job runs, instead
+ * of writing it to a file first like
+ * {@link PatientSetSenderQueryResultsHandler}.
+ */
+public class StreamingPatientSetSenderQueryResultsHandler extends AbstractQueryResultsHandler {
+
+	private static final long RETRY_DELAY_MILLIS = 5000;
+
+	private final String queryId;
+	private final String username;
+	private final String name;
+	private final PatientIdExtractor patientIdExtractor;
+	private final PatientSetSender patientSetSender;
+	private final EtlProperties etlProperties;
+	private PatientSetStream stream;
+	private PatientSetJsonWriter jsonGenerator;
+
+	StreamingPatientSetSenderQueryResultsHandler(Query query, PatientSetSenderDestinationEntity inPatientSetSenderDestinationEntity, EtlProperties inEtlProperties) {
+		assert inPatientSetSenderDestinationEntity != null : "inPatientSetSenderDestinationEntity cannot be null";
+
+		this.patientIdExtractor = new PatientIdExtractor(inPatientSetSenderDestinationEntity);
+		this.patientSetSender = new PatientSetSender(inEtlProperties, inPatientSetSenderDestinationEntity);
+		this.etlProperties = inEtlProperties;
+		this.name = inPatientSetSenderDestinationEntity.getName();
+
+		this.queryId = query.getName();
+		this.username = query.getUsername();
+	}
+
+	@Override
+	public void validate() throws QueryResultsHandlerValidationFailedException {
+	}
+
+	@Override
+	public void start(Collection<PropositionDefinition> cache) throws QueryResultsHandlerProcessingException {
+		this.stream = new PatientSetStream(this.name, new PatientSetStream.Sink() {
+			@Override
+			public void send(InputStream in) throws IOException {
+				patientSetSender.send(in);
+			}
+		}, this.etlProperties.getPatientSetStreamingBufferSize() * 1024,
+				this.etlProperties.getPatientSetStreamingRetainSize() * 1024L,
+				this.etlProperties.getPatientSetStreamingAttempts(),
+				RETRY_DELAY_MILLIS);
+		try {
+			this.jsonGenerator = new PatientSetJsonWriter(this.stream, this.queryId, this.username);
+		} catch (IOException ex) {
+			this.stream.abort();
+			throw new QueryResultsHandlerProcessingException("Error starting output", ex);
+		}
+	}
+
+	@Override
+	public void handleQueryResult(String keyId, List<Proposition> propositions, Map<Proposition, List<Proposition>> forwardDerivations, Map<Proposition, List<Proposition>> backwardDerivations, Map<UniqueId, Proposition> references) throws QueryResultsHandlerProcessingException {
+		try {
+			this.jsonGenerator.writePatient(this.patientIdExtractor.extract(keyId, propositions));
+		} catch (IOException ex) {
+			throw new QueryResultsHandlerProcessingException("Error sending patient set", ex);
+		}
+	}
+
+	@Override
+	public void finish() throws QueryResultsHandlerProcessingException {
+		try {
+			this.jsonGenerator.finish();
+			this.jsonGenerator.close();
+			this.jsonGenerator = null;
+			this.stream.close();
+		} catch (IOException ex) {
+			throw new QueryResultsHandlerProcessingException("Error sending patient set", ex);
+		}
+	}
+
+	@Override
+	public void close() throws QueryResultsHandlerCloseException {
+		if (this.jsonGenerator != null) {
+			/*
+			 * The job did not finish, so the patient set service must not
+			 * get what was written as a complete patient set.
+			 */
+			this.stream.abort();
+			try {
+				this.jsonGenerator.close();
+			} catch (IOException ex) {
+				throw new QueryResultsHandlerCloseException("Error closing", ex);
+			} finally {
+				this.jsonGenerator = null;
+			}
+		}
+	}
+
+}
@@ -41,6 +41,7 @@ package edu.emory.cci.aiw.cvrg.eureka.etl.dest;
  */
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.TabularFileDestinationEntity;
 import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
+import edu.emory.cci.aiw.cvrg.eureka.etl.job.JobProgress;
 import java.util.List;
 import org.protempa.DataSource;
 import org.protempa.KnowledgeSource;
@@ -58,11 +59,13 @@ import org.protempa.query.QueryMode;
 public class TabularFileDestination extends AbstractDestination {
 	private final TabularFileDestinationEntity tabularFileDestinationEntity;
 	private final EtlProperties etlProperties;
+	private final JobProgress progress;
 
-	TabularFileDestination(EtlProperties inEtlProperties, TabularFileDestinationEntity inTabularFileDestinationEntity) {
+	TabularFileDestination(EtlProperties inEtlProperties, TabularFileDestinationEntity inTabularFileDestinationEntity, JobProgress inProgress) {
 		assert inTabularFileDestinationEntity != null : "inTabularFileDestinationEntity cannot be null";
 		this.tabularFileDestinationEntity = inTabularFileDestinationEntity;
 		this.etlProperties = inEtlProperties;
+		this.progress = inProgress;
 	}
 
 	@Override
@@ -70,7 +73,7 @@ public class TabularFileDestination extends AbstractDestination {
 		if (query.getQueryMode() == QueryMode.UPDATE) {
 			throw new QueryResultsHandlerInitException("Update mode not supported");
 		}
-		return new TabularFileQueryResultsHandler(query, this.tabularFileDestinationEntity, this.etlProperties, knowledgeSource);
+		return new TabularFileQueryResultsHandler(query, this.tabularFileDestinationEntity, this.etlProperties, knowledgeSource, this.progress);
 	}
 	
 }
@@ -39,12 +39,13 @@ package edu.emory.cci.aiw.cvrg.eureka.etl.dest;
  * <http://www.gnu.org/licenses/gpl-3.0.html>.
  * #L%
  */
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.TabularFileCompression;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.TabularFileDestinationEntity;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.TabularFileDestinationTableColumnEntity;
 import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
+import edu.emory.cci.aiw.cvrg.eureka.etl.job.JobProgress;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -89,12 +90,14 @@ public class TabularFileQueryResultsHandler extends AbstractQueryResultsHandler
 	private Map<String, FileTabularWriter> writers;
 	private Map<String, List<TableColumnSpec>> tableColumnSpecs;
 	private final Map<String, Set<String>> rowPropositionIdMap;
+	private Map<String, TableRoute[]> routes;
 	private final EtlProperties etlProperties;
 	private KnowledgeSource knowledgeSource;
 	private KnowledgeSourceCache ksCache;
 	private final char delimiter;
+	private final JobProgress progress;
 
-	TabularFileQueryResultsHandler(Query query, TabularFileDestinationEntity inTabularFileDestinationEntity, EtlProperties inEtlProperties, KnowledgeSource inKnowledgeSource) {
+	TabularFileQueryResultsHandler(Query query, TabularFileDestinationEntity inTabularFileDestinationEntity, EtlProperties inEtlProperties, KnowledgeSource inKnowledgeSource, JobProgress inProgress) {
 		assert inTabularFileDestinationEntity != null : "inTabularFileDestinationEntity cannot be null";
 		this.etlProperties = inEtlProperties;
 		this.queryId = query.getName();
@@ -108,6 +111,7 @@ public class TabularFileQueryResultsHandler extends AbstractQueryResultsHandler
 			this.delimiter = '\t';
 		}
 		this.rowPropositionIdMap = new HashMap<>();
+		this.progress = inProgress;
 	}
 
 	@Override
@@ -123,11 +127,13 @@ public class TabularFileQueryResultsHandler extends AbstractQueryResultsHandler
 					.map(TabularFileDestinationTableColumnEntity::getTableName)
 					.distinct()
 					.collect(Collectors.toCollection(ArrayList::new));
+			TabularFileCompression compression = this.config.getCompression();
+			String suffix = compression == TabularFileCompression.GZIP ? ".gz" : "";
 			this.writers = new HashMap<>();
 			for (int i = 0, n = tableNames.size(); i < n; i++) {
 				String tableName = tableNames.get(i);
-				File file = new File(outputFileDirectory, tableName);
-				this.writers.put(tableName, new FileTabularWriter(new BufferedWriter(new FileWriter(file)), this.delimiter));
+				File file = new File(outputFileDirectory, tableName + suffix);
+				this.writers.put(tableName, new FileTabularWriter(new BufferedWriter(new AsyncFileWriter(file, compression, this.progress)), this.delimiter));
 			}
 		} catch (IOException ex) {
 			throw new QueryResultsHandlerProcessingException(ex);
@@ -163,6 +169,8 @@ public class TabularFileQueryResultsHandler extends AbstractQueryResultsHandler
 
 		LOGGER.debug("Row concepts: {}", this.rowPropositionIdMap);
 
+		this.routes = buildRoutes();
+
 		for (Map.Entry<String, List<TableColumnSpec>> me : this.tableColumnSpecs.entrySet()) {
 			List<String> columnNames = new ArrayList<>();
 			for (TableColumnSpec columnSpec : me.getValue()) {
@@ -196,32 +204,72 @@ public class TabularFileQueryResultsHandler extends AbstractQueryResultsHandler
 
 	@Override
 	public void handleQueryResult(String keyId, List<Proposition> propositions, Map<Proposition, List<Proposition>> forwardDerivations, Map<Proposition, List<Proposition>> backwardDerivations, Map<UniqueId, Proposition> references) throws QueryResultsHandlerProcessingException {
+		if (this.progress != null && this.progress.isCancelled()) {
+			throw new QueryResultsHandlerProcessingException("Job " + this.progress.getJobId() + " was cancelled");
+		}
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("Data for keyId {}: {}", new Object[]{keyId, propositions});
 		}
 
+		/*
+		 * Each proposition is looked up once and written to just the tables
+		 * that have a row for it. Each table still gets its rows in
+		 * proposition order.
+		 */
+		for (Proposition prop : propositions) {
+			TableRoute[] tableRoutes = this.routes.get(prop.getId());
+			if (tableRoutes != null) {
+				for (TableRoute route : tableRoutes) {
+					FileTabularWriter writer = route.writer;
+					try {
+						for (TableColumnSpec columnSpec : route.columnSpecs) {
+							columnSpec.columnValues(keyId, prop, forwardDerivations, backwardDerivations, references, this.ksCache, writer);
+						}
+						writer.newRow();
+						if (this.progress != null) {
+							this.progress.rowWritten();
+						}
+					} catch (TabularWriterException ex) {
+						throw new QueryResultsHandlerProcessingException("Could not write row" + ex);
+					}
+				}
+			}
+		}
+		if (this.progress != null) {
+			this.progress.keyIdProcessed();
+		}
+	}
+
+	/**
+	 * Inverts the table to row proposition ids map into a map from
+	 * proposition id to the tables that get a row for it. A table appears at
+	 * most once per proposition id even if several of its columns name
+	 * propositions with common descendants.
+	 *
+	 * @return the routing map. It is not modified after this method returns.
+	 */
+	private Map<String, TableRoute[]> buildRoutes() {
+		Map<String, TableRoute> tableRoutes = new HashMap<>();
 		for (Map.Entry<String, List<TableColumnSpec>> me : this.tableColumnSpecs.entrySet()) {
 			String tableName = me.getKey();
 			List<TableColumnSpec> columnSpecs = me.getValue();
-			int n = columnSpecs.size();
-			FileTabularWriter writer = this.writers.get(tableName);
-			Set<String> rowPropIds = this.rowPropositionIdMap.get(tableName);
-			if (rowPropIds != null) {
-				for (Proposition prop : propositions) {
-					if (rowPropIds.contains(prop.getId())) {
-						try {
-							for (int i = 0; i < n; i++) {
-								TableColumnSpec columnSpec = columnSpecs.get(i);
-								columnSpec.columnValues(keyId, prop, forwardDerivations, backwardDerivations, references, this.ksCache, writer);
-							}
-							writer.newRow();
-						} catch (TabularWriterException ex) {
-							throw new QueryResultsHandlerProcessingException("Could not write row" + ex);
-						}
-					}
+			tableRoutes.put(tableName, new TableRoute(this.writers.get(tableName), columnSpecs.toArray(new TableColumnSpec[columnSpecs.size()])));
+		}
+		Map<String, List<TableRoute>> routesByPropId = new HashMap<>();
+		for (Map.Entry<String, Set<String>> me : this.rowPropositionIdMap.entrySet()) {
+			TableRoute route = tableRoutes.get(me.getKey());
+			if (route != null) {
+				for (String propId : me.getValue()) {
+					org.arp.javautil.collections.Collections.putList(routesByPropId, propId, route);
 				}
 			}
 		}
+		Map<String, TableRoute[]> result = new HashMap<>(routesByPropId.size() * 4 / 3 + 1);
+		for (Map.Entry<String, List<TableRoute>> me : routesByPropId.entrySet()) {
+			List<TableRoute> value = me.getValue();
+			result.put(me.getKey(), value.toArray(new TableRoute[value.size()]));
+		}
+		return Collections.unmodifiableMap(result);
 	}
 
 	@Override
@@ -250,6 +298,17 @@ public class TabularFileQueryResultsHandler extends AbstractQueryResultsHandler
 		}
 	}
 
+	private static final class TableRoute {
+
+		private final FileTabularWriter writer;
+		private final TableColumnSpec[] columnSpecs;
+
+		TableRoute(FileTabularWriter writer, TableColumnSpec[] columnSpecs) {
+			this.writer = writer;
+			this.columnSpecs = columnSpecs;
+		}
+	}
+
 	private static TableColumnSpecWrapper toTableColumnSpec(TabularFileDestinationTableColumnEntity tableColumn, TableColumnSpecFormat linksFormat) throws QueryResultsHandlerProcessingException {
 		try {
 			return (TableColumnSpecWrapper) linksFormat.parseObject(tableColumn.getPath());
@@ -43,9 +43,11 @@ import edu.emory.cci.aiw.cvrg.eureka.etl.spreadsheet.*;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.sql.Connection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import org.arp.javautil.io.FileUtil;
@@ -92,8 +94,13 @@ public final class EurekaDataSourceBackend extends RelationalDbDataSourceBackend
 	private static JDBCPositionFormat dtPositionParser
 			= new JDBCDateTimeTimestampPositionParser();
 	private static final String DEFAULT_ROOT_FULL_NAME = "Eureka";
-	private XlsxDataProvider[] dataProviders = null;
+	private StreamingXlsxDataProvider[] dataProviders = null;
 	private boolean dataPopulated;
+	private boolean bulkLoad;
+	private int spreadsheetCacheSize;
+	private String spreadsheetCacheDirectory;
+	private SpreadsheetDatabaseCache databaseCache;
+	private SpreadsheetDatabaseCache.Database cachedDatabase;
 	private String sampleUrl;
 	private String databaseName;
 	private String labsRootFullName;
@@ -147,45 +154,83 @@ public final class EurekaDataSourceBackend extends RelationalDbDataSourceBackend
 			throw new DataSourceBackendInitializationException("Error initializing data source backend " + nameForErrors(), ex);
 		}
 		if (dataFiles != null) {
-			this.dataProviders = new XlsxDataProvider[dataFiles.length];
-			for (int i = 0; i < dataFiles.length; i++) {
-				LOGGER.info("Reading spreadsheet {}", dataFiles[i].getAbsolutePath());
-				if (!dataFiles[i].exists()) {
-					throw new DataSourceBackendInitializationException("Error initializing data source backend " + this.nameForErrors(), new FileNotFoundException(dataFiles[i].getAbsolutePath()));
+			if (this.spreadsheetCacheSize > 0) {
+				if (this.spreadsheetCacheDirectory == null) {
+					throw new DataSourceBackendInitializationException("No spreadsheet cache directory specified for data source backend '" + nameForErrors() + "'");
 				}
 				try {
-					this.dataProviders[i] = new XlsxDataProvider(dataFiles[i], null);
-				} catch (DataProviderException ex) {
-					dataFiles[i].renameTo(FileUtil.replaceExtension(dataFiles[i], ".failed"));
-					for (int j = 0; j < i; j++) {
-						try {
-							this.dataProviders[j].close();
-						} catch (IOException ignore) {
+					this.databaseCache = SpreadsheetDatabaseCache.getInstance(
+							new File(this.spreadsheetCacheDirectory),
+							this.spreadsheetCacheSize * 1024L * 1024L);
+					String key = SpreadsheetDatabaseCache.key(
+							new String(Files.readAllBytes(schemaFile.toPath()), StandardCharsets.UTF_8),
+							dataFiles);
+					this.cachedDatabase = this.databaseCache.acquire(key);
+					if (this.cachedDatabase != null) {
+						LOGGER.info("Reusing the database loaded from spreadsheet(s) {}", Arrays.toString(dataFiles));
+						super.setDatabaseId(fileDatabaseUrl(schemaFile));
+						this.dataPopulated = true;
+						return;
+					}
+					this.cachedDatabase = this.databaseCache.create(key);
+					super.setDatabaseId(fileDatabaseUrl(schemaFile));
+				} catch (IOException ex) {
+					throw new DataSourceBackendInitializationException("Error initializing data source backend " + nameForErrors(), ex);
+				}
+			}
+			this.dataProviders = new StreamingXlsxDataProvider[dataFiles.length];
+			try {
+				for (int i = 0; i < dataFiles.length; i++) {
+					LOGGER.info("Reading spreadsheet {}", dataFiles[i].getAbsolutePath());
+					if (!dataFiles[i].exists()) {
+						throw new DataSourceBackendInitializationException("Error initializing data source backend " + this.nameForErrors(), new FileNotFoundException(dataFiles[i].getAbsolutePath()));
+					}
+					try {
+						this.dataProviders[i] = new StreamingXlsxDataProvider(dataFiles[i], null);
+					} catch (DataProviderException ex) {
+						dataFiles[i].renameTo(FileUtil.replaceExtension(dataFiles[i], ".failed"));
+						for (int j = 0; j < i; j++) {
+							try {
+								this.dataProviders[j].close();
+							} catch (IOException ignore) {
+							}
 						}
+						throw new DataSourceBackendInitializationException("Error initializing data source backend " + this.nameForErrors(), ex);
 					}
-					throw new DataSourceBackendInitializationException("Error initializing data source backend " + this.nameForErrors(), ex);
 				}
+			} catch (DataSourceBackendInitializationException ex) {
+				/*
+				 * The backend is not closed if it fails to initialize, so
+				 * the unpublished database has to be given up here.
+				 */
+				if (this.cachedDatabase != null) {
+					this.databaseCache.release(this.cachedDatabase);
+					this.cachedDatabase = null;
+				}
+				throw ex;
 			}
 		}
 	}
 
+	/**
+	 * Unlike the in-memory database, the file database keeps H2's transaction
+	 * and undo logs, so that a crash while it is loaded or read cannot leave
+	 * a corrupt database behind for later jobs to reuse.
+	 */
+	private String fileDatabaseUrl(File schemaFile) {
+		return "jdbc:h2:file:" + this.cachedDatabase.getPath() + ";INIT=RUNSCRIPT FROM '" + schemaFile + "';LOCK_MODE=0";
+	}
+
 	@Override
 	public DataValidationEvent[] validateData(KnowledgeSource knowledgeSource) throws DataSourceBackendFailedDataValidationException, KnowledgeSourceReadException {
 		List<DataValidationEvent> events = new ArrayList<>();
 		boolean failedValidation = false;
 		if (this.dataProviders != null) {
-			for (XlsxDataProvider dataProvider : this.dataProviders) {
+			for (StreamingXlsxDataProvider dataProvider : this.dataProviders) {
 				DataValidator dataValidator = new DataValidator(dataProvider.getDataFile());
 				try {
-					dataValidator.setPatients(dataProvider.getPatients())
-							.setEncounters(dataProvider.getEncounters())
-							.setProviders(dataProvider.getProviders())
-							.setCpts(dataProvider.getCptCodes())
-							.setIcd9Procedures(dataProvider.getIcd9Procedures())
-							.setIcd9Diagnoses(dataProvider.getIcd9Diagnoses())
-							.setMedications(dataProvider.getMedications())
-							.setLabs(dataProvider.getLabs())
-							.setVitals(dataProvider.getVitals()).validate();
+					dataProvider.read(dataValidator);
+					dataValidator.finish();
 				} catch (DataProviderException e) {
 					throw new DataSourceBackendFailedDataValidationException(e, null);
 				}
@@ -205,59 +250,31 @@ public final class EurekaDataSourceBackend extends RelationalDbDataSourceBackend
 	}
 
 	private void populateDatabase() throws DataSourceReadException {
-		Connection dataInserterConnection = null;
-		Throwable exceptionThrown = null;
 		try {
-			dataInserterConnection
-					= getConnectionSpecInstance().getOrCreate();
 			if (this.dataProviders != null) {
-				for (DataProvider dataProvider : this.dataProviders) {
-					DataInserter dataInserter
-							= new DataInserter(dataInserterConnection);
-					dataInserter.insertPatients(dataProvider.getPatients());
-					dataInserterConnection.commit();
-					dataInserter.insertEncounters(dataProvider.getEncounters());
-					dataInserterConnection.commit();
-					dataInserter.insertProviders(dataProvider.getProviders());
-					dataInserterConnection.commit();
-					dataInserter.insertCptCodes(dataProvider.getCptCodes());
-					dataInserterConnection.commit();
-					dataInserter.insertIcd9Diagnoses(dataProvider
-							.getIcd9Diagnoses());
-					dataInserterConnection.commit();
-					dataInserter.insertIcd9Procedures(dataProvider
-							.getIcd9Procedures());
-					dataInserterConnection.commit();
-					dataInserter.insertLabs(dataProvider.getLabs());
-					dataInserterConnection.commit();
-					dataInserter.insertMedications(dataProvider.getMedications());
-					dataInserterConnection.commit();
-					dataInserter.insertVitals(dataProvider.getVitals());
-					dataInserterConnection.commit();
+				new PipelinedDataLoader(getConnectionSpecInstance(),
+						this.bulkLoad).load(this.dataProviders);
+				if (this.cachedDatabase != null) {
+					publishDatabase();
 				}
 			}
 			this.dataPopulated = true;
-			dataInserterConnection.close();
-		} catch (SQLException | DataProviderException | DataInserterException | InvalidConnectionSpecArguments sqle) {
-			exceptionThrown = sqle;
-			if (dataInserterConnection != null) {
-				try {
-					dataInserterConnection.rollback();
-				} catch (SQLException ignore) {
-					sqle.addSuppressed(ignore);
-				}
-			}
-			throw new DataSourceReadException("Error reading spreadsheets in " + this.fileDataSourceBackendSupport.getDataFileDirectoryName() + " in data source backend " + nameForErrors(), sqle);
-		} finally {
-			if (dataInserterConnection != null) {
-				try {
-					dataInserterConnection.close();
-				} catch (SQLException ignore) {
-					if (exceptionThrown != null) {
-						exceptionThrown.addSuppressed(ignore);
-					}
-				}
-			}
+		} catch (DataProviderException | DataInserterException | InvalidConnectionSpecArguments ex) {
+			throw new DataSourceReadException("Error reading spreadsheets in " + this.fileDataSourceBackendSupport.getDataFileDirectoryName() + " in data source backend " + nameForErrors(), ex);
+		}
+	}
+
+	/**
+	 * Flushes the freshly loaded database to disk and makes it available to
+	 * later jobs over the same spreadsheets. Failure only costs later jobs
+	 * the reuse, so it is logged rather than thrown.
+	 */
+	private void publishDatabase() {
+		try {
+			SQLExecutor.executeSQL(getConnectionSpecInstance(), "CHECKPOINT SYNC", null);
+			this.databaseCache.publish(this.cachedDatabase);
+		} catch (SQLException | InvalidConnectionSpecArguments | IOException ex) {
+			LOGGER.warn("Could not cache the database loaded in data source backend " + nameForErrors(), ex);
 		}
 	}
 
@@ -323,6 +340,53 @@ public final class EurekaDataSourceBackend extends RelationalDbDataSourceBackend
 		return this.fileDataSourceBackendSupport.getFilename();
 	}
 
+	public Boolean getBulkLoad() {
+		return bulkLoad;
+	}
+
+	/**
+	 * Sets whether spreadsheets are loaded into the database with H2's
+	 * <code>CSVREAD</code> rather than with batched inserts. Defaults to
+	 * <code>false</code>.
+	 *
+	 * @param bulkLoad whether to bulk load.
+	 */
+	@BackendProperty
+	public void setBulkLoad(Boolean bulkLoad) {
+		this.bulkLoad = bulkLoad != null && bulkLoad;
+	}
+
+	public Integer getSpreadsheetCacheSize() {
+		return spreadsheetCacheSize;
+	}
+
+	/**
+	 * Sets the disk quota, in megabytes, of the directory in which databases
+	 * loaded from uploaded spreadsheets are kept for reuse by later jobs over
+	 * the same spreadsheets. Defaults to 0, which turns off reuse.
+	 *
+	 * @param spreadsheetCacheSize the quota in megabytes.
+	 */
+	@BackendProperty
+	public void setSpreadsheetCacheSize(Integer spreadsheetCacheSize) {
+		this.spreadsheetCacheSize = spreadsheetCacheSize != null ? spreadsheetCacheSize : 0;
+	}
+
+	public String getSpreadsheetCacheDirectory() {
+		return spreadsheetCacheDirectory;
+	}
+
+	/**
+	 * Sets the directory in which databases loaded from uploaded spreadsheets
+	 * are kept. Required if the spreadsheet cache size is positive.
+	 *
+	 * @param spreadsheetCacheDirectory the directory's path.
+	 */
+	@BackendProperty
+	public void setSpreadsheetCacheDirectory(String spreadsheetCacheDirectory) {
+		this.spreadsheetCacheDirectory = spreadsheetCacheDirectory;
+	}
+
 	@BackendProperty
 	public void setLabsRootFullName(String labsRootFullName) {
 		if (labsRootFullName == null) {
@@ -835,13 +899,25 @@ public final class EurekaDataSourceBackend extends RelationalDbDataSourceBackend
 	public void close() throws BackendCloseException {
 		super.close();
 		BackendCloseException exceptionToThrow = null;
-		try {
-			SQLExecutor.executeSQL(getConnectionSpecInstance(), "DROP ALL OBJECTS", null);
-		} catch (SQLException | InvalidConnectionSpecArguments ex) {
-			exceptionToThrow = new BackendCloseException("Error in data source backend " + nameForErrors() + ": could not drop the database", ex);
+		if (this.cachedDatabase == null) {
+			try {
+				SQLExecutor.executeSQL(getConnectionSpecInstance(), "DROP ALL OBJECTS", null);
+			} catch (SQLException | InvalidConnectionSpecArguments ex) {
+				exceptionToThrow = new BackendCloseException("Error in data source backend " + nameForErrors() + ": could not drop the database", ex);
+			}
+		} else {
+			if (!this.cachedDatabase.isPublished()) {
+				try {
+					SQLExecutor.executeSQL(getConnectionSpecInstance(), "SHUTDOWN", null);
+				} catch (SQLException | InvalidConnectionSpecArguments ex) {
+					LOGGER.warn("Could not shut down the database of data source backend " + nameForErrors(), ex);
+				}
+			}
+			this.databaseCache.release(this.cachedDatabase);
+			this.cachedDatabase = null;
 		}
 		if (dataProviders != null) {
-			for (XlsxDataProvider dataProvider : dataProviders) {
+			for (StreamingXlsxDataProvider dataProvider : dataProviders) {
 				try {
 					dataProvider.close();
 				} catch (IOException ex) {
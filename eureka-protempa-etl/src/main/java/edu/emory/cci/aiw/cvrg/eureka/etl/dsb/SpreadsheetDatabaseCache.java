@@ -0,0 +1,393 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.dsb;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A directory of file-backed H2 databases that have been loaded from
+ * uploaded spreadsheets, so that jobs that run over the same upload can
+ * reuse a database rather than parse and load the spreadsheet again.
+ * <p>
+ * Databases are keyed by a SHA-256 hash of the database schema and the
+ * contents of the uploaded files. A database is loaded under a unique name
+ * and is published under its key by writing a small marker file, named after
+ * the key, that holds the database's name. The marker is written to a
+ * temporary file and moved into place, so readers only ever see complete
+ * databases. If two jobs load the same upload at the same time, the last one
+ * to publish wins, and the other database is deleted once it is no longer in
+ * use.
+ * <p>
+ * Databases in use by a job in this JVM are reference counted and are never
+ * deleted. When the published databases take up more than the quota, the
+ * least recently used ones that are not in use are deleted.
+ */
+final class SpreadsheetDatabaseCache {
+
+	private static final Logger LOGGER
+			= LoggerFactory.getLogger(SpreadsheetDatabaseCache.class);
+	private static final String MARKER_SUFFIX = ".db";
+	private static final Map<File, SpreadsheetDatabaseCache> INSTANCES
+			= new HashMap<>();
+
+	private final File directory;
+	private volatile long maxBytes;
+	private final Map<String, Integer> useCounts;
+
+	private SpreadsheetDatabaseCache(File inDirectory, long inMaxBytes) {
+		this.directory = inDirectory;
+		this.maxBytes = inMaxBytes;
+		this.useCounts = new HashMap<>();
+	}
+
+	/**
+	 * Gets the cache for a directory. There is one instance per directory,
+	 * so that all jobs share its use counts.
+	 *
+	 * @param directory the directory. Created if it does not exist.
+	 * @param maxBytes the quota.
+	 * @return the cache.
+	 * @throws IOException if the directory could not be created.
+	 */
+	static SpreadsheetDatabaseCache getInstance(File directory, long maxBytes)
+			throws IOException {
+		File canonical = directory.getCanonicalFile();
+		synchronized (INSTANCES) {
+			SpreadsheetDatabaseCache result = INSTANCES.get(canonical);
+			if (result == null) {
+				Files.createDirectories(canonical.toPath());
+				result = new SpreadsheetDatabaseCache(canonical, maxBytes);
+				INSTANCES.put(canonical, result);
+			} else {
+				result.maxBytes = maxBytes;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Computes the key of a set of uploaded files.
+	 *
+	 * @param schema the database schema.
+	 * @param dataFiles the uploaded files.
+	 * @return the key, in hexadecimal.
+	 * @throws IOException if a file could not be read.
+	 */
+	static String key(String schema, File[] dataFiles) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new AssertionError("SHA-256 is not supported", ex);
+		}
+		digest.update(schema.getBytes(StandardCharsets.UTF_8));
+		byte[] buffer = new byte[8192];
+		for (File dataFile : dataFiles) {
+			digest.update((byte) 0);
+			try (InputStream in = new DigestInputStream(
+					Files.newInputStream(dataFile.toPath()), digest)) {
+				while (in.read(buffer) != -1) {
+				}
+			}
+		}
+		StringBuilder result = new StringBuilder();
+		for (byte b : digest.digest()) {
+			result.append(String.format("%02x", b));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Looks up the published database for a key, and marks it in use.
+	 *
+	 * @param key the key.
+	 * @return the database, or <code>null</code> if there is none.
+	 */
+	synchronized Database acquire(String key) {
+		File marker = markerFile(key);
+		try {
+			if (marker.exists()) {
+				String name = new String(Files.readAllBytes(marker.toPath()),
+						StandardCharsets.UTF_8).trim();
+				if (!databaseFiles(name).isEmpty()) {
+					marker.setLastModified(System.currentTimeMillis());
+					incrementUseCount(name);
+					return new Database(key, name, true);
+				}
+			}
+		} catch (IOException ex) {
+			LOGGER.warn("Could not read spreadsheet database cache entry " + marker, ex);
+		}
+		return null;
+	}
+
+	/**
+	 * Creates a new, unpublished database for a key, and marks it in use.
+	 *
+	 * @param key the key.
+	 * @return the database.
+	 */
+	synchronized Database create(String key) {
+		String name = key + "-" + UUID.randomUUID();
+		incrementUseCount(name);
+		return new Database(key, name, false);
+	}
+
+	/**
+	 * Publishes a database under its key once it has been loaded, and
+	 * evicts least recently used databases if the cache is over quota.
+	 *
+	 * @param database the database.
+	 * @throws IOException if the marker file could not be written.
+	 */
+	synchronized void publish(Database database) throws IOException {
+		File marker = markerFile(database.key);
+		File tmpMarker = new File(this.directory, database.name + ".tmp");
+		Files.write(tmpMarker.toPath(),
+				database.name.getBytes(StandardCharsets.UTF_8));
+		Files.move(tmpMarker.toPath(), marker.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		database.published = true;
+		evict();
+	}
+
+	/**
+	 * Marks a database as no longer in use by a job. Unpublished databases,
+	 * and databases that were replaced by a later publication, are deleted
+	 * once they are no longer in use.
+	 *
+	 * @param database the database.
+	 */
+	synchronized void release(Database database) {
+		Integer count = this.useCounts.get(database.name);
+		if (count == null || count <= 1) {
+			this.useCounts.remove(database.name);
+			if (!database.name.equals(publishedName(database.key))) {
+				deleteDatabaseFiles(database.name);
+			}
+		} else {
+			this.useCounts.put(database.name, count - 1);
+		}
+	}
+
+	/**
+	 * Deletes the least recently used published databases that are not in
+	 * use until the cache is within quota, and deletes databases that are
+	 * neither published nor in use.
+	 */
+	private void evict() {
+		File[] markers = this.directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.getName().endsWith(MARKER_SUFFIX);
+			}
+		});
+		if (markers == null) {
+			return;
+		}
+		List<String> publishedNames = new ArrayList<>();
+		List<File> lruMarkers = new ArrayList<>();
+		Map<File, String> namesByMarker = new HashMap<>();
+		long totalBytes = 0L;
+		for (File marker : markers) {
+			String key = marker.getName().substring(0,
+					marker.getName().length() - MARKER_SUFFIX.length());
+			String name = publishedName(key);
+			if (name != null) {
+				publishedNames.add(name);
+				namesByMarker.put(marker, name);
+				lruMarkers.add(marker);
+				totalBytes += size(databaseFiles(name));
+			}
+		}
+		File[] files = this.directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = databaseName(file);
+				if (name != null && !publishedNames.contains(name)
+						&& !this.useCounts.containsKey(name)) {
+					deleteDatabaseFiles(name);
+				}
+			}
+		}
+		Collections.sort(lruMarkers, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(f1.lastModified(), f2.lastModified());
+			}
+		});
+		for (File marker : lruMarkers) {
+			if (totalBytes <= this.maxBytes) {
+				break;
+			}
+			String name = namesByMarker.get(marker);
+			if (!this.useCounts.containsKey(name)) {
+				long bytes = size(databaseFiles(name));
+				if (marker.delete()) {
+					deleteDatabaseFiles(name);
+					totalBytes -= bytes;
+					LOGGER.debug("Evicted spreadsheet database {}", name);
+				}
+			}
+		}
+	}
+
+	private String publishedName(String key) {
+		File marker = markerFile(key);
+		try {
+			return marker.exists()
+					? new String(Files.readAllBytes(marker.toPath()),
+							StandardCharsets.UTF_8).trim()
+					: null;
+		} catch (IOException ex) {
+			LOGGER.warn("Could not read spreadsheet database cache entry " + marker, ex);
+			return null;
+		}
+	}
+
+	private void incrementUseCount(String name) {
+		Integer count = this.useCounts.get(name);
+		this.useCounts.put(name, count != null ? count + 1 : 1);
+	}
+
+	private File markerFile(String key) {
+		return new File(this.directory, key + MARKER_SUFFIX);
+	}
+
+	/**
+	 * Gets the name of the database that a file belongs to. H2 names a
+	 * database's files after the database, followed by a suffix such as
+	 * <code>.h2.db</code>, <code>.mv.db</code> or <code>.lock.db</code>.
+	 *
+	 * @param file a file in the cache directory.
+	 * @return the database name, or <code>null</code> if the file is not a
+	 * database file.
+	 */
+	private static String databaseName(File file) {
+		String fileName = file.getName();
+		int dash = fileName.indexOf('-');
+		int dot = fileName.indexOf('.');
+		return dash > 0 && dot > dash ? fileName.substring(0, dot) : null;
+	}
+
+	private List<File> databaseFiles(String name) {
+		List<File> result = new ArrayList<>();
+		File[] files = this.directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (name.equals(databaseName(file))) {
+					result.add(file);
+				}
+			}
+		}
+		return result;
+	}
+
+	private void deleteDatabaseFiles(String name) {
+		for (File file : databaseFiles(name)) {
+			if (!file.delete()) {
+				LOGGER.warn("Could not delete spreadsheet database file {}", file);
+			}
+		}
+	}
+
+	private static long size(List<File> files) {
+		long result = 0L;
+		for (File file : files) {
+			result += file.length();
+		}
+		return result;
+	}
+
+	/**
+	 * A database in the cache.
+	 */
+	final class Database {
+
+		private final String key;
+		private final String name;
+		private boolean published;
+
+		private Database(String inKey, String inName, boolean inPublished) {
+			this.key = inKey;
+			this.name = inName;
+			this.published = inPublished;
+		}
+
+		/**
+		 * Gets whether the database has been loaded and published.
+		 *
+		 * @return whether the database is published.
+		 */
+		boolean isPublished() {
+			return published;
+		}
+
+		/**
+		 * Gets the path of the database in the form that H2 database URLs
+		 * expect, without a file suffix.
+		 *
+		 * @return the path.
+		 */
+		String getPath() {
+			return new File(directory, this.name).getAbsolutePath();
+		}
+	}
+}
@@ -39,11 +39,15 @@
  */
 package edu.emory.cci.aiw.cvrg.eureka.etl.job;
 
+import org.protempa.DataSource;
 import org.protempa.DataSourceFailedDataValidationException;
 import org.protempa.PropositionDefinition;
 import org.protempa.Protempa;
 import org.protempa.ProtempaStartupException;
+import org.protempa.SourceCloseException;
 import org.protempa.SourceFactory;
+import org.protempa.backend.BackendInitializationException;
+import org.protempa.backend.BackendNewInstanceException;
 import org.protempa.backend.Configurations;
 import org.protempa.backend.ConfigurationsLoadException;
 import org.protempa.backend.ConfigurationsNotFoundException;
@@ -57,10 +61,10 @@ import org.slf4j.LoggerFactory;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import com.google.inject.persist.UnitOfWork;
 
 import edu.emory.cci.aiw.cvrg.eureka.common.comm.EtlDestination;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEntity;
-import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEventEntity;
 import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
 import edu.emory.cci.aiw.cvrg.eureka.etl.config.EurekaProtempaConfigurations;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dao.DestinationDao;
@@ -68,6 +72,7 @@ import edu.emory.cci.aiw.cvrg.eureka.etl.dao.EtlGroupDao;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dest.ProtempaDestinationFactory;
 import edu.emory.cci.aiw.cvrg.eureka.etl.resource.Destinations;
 import java.io.IOException;
+import java.util.concurrent.CancellationException;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
 import org.eurekaclinical.eureka.client.comm.JobStatus;
@@ -99,24 +104,72 @@ public class ETL {
 	private final DestinationDao destinationDao;
 	private final ProtempaDestinationFactory protempaDestFactory;
 	private final EtlGroupDao groupDao;
+	private final ProtempaSourcePool sourcePool;
+	private final Provider<EntityManager> entityManagerProvider;
+	private final UnitOfWork unitOfWork;
+	private final JobProgressRegistry progressRegistry;
 
 	@Inject
-	public ETL(EtlProperties inEtlProperties, DestinationDao inDestinationDao, EtlGroupDao inGroupDao, ProtempaDestinationFactory inProtempaDestFactory) {
+	public ETL(EtlProperties inEtlProperties, DestinationDao inDestinationDao, EtlGroupDao inGroupDao, ProtempaDestinationFactory inProtempaDestFactory, ProtempaSourcePool inSourcePool, Provider<EntityManager> inEntityManagerProvider, UnitOfWork inUnitOfWork, JobProgressRegistry inProgressRegistry) {
 		this.etlProperties = inEtlProperties;
 		this.destinationDao = inDestinationDao;
 		this.protempaDestFactory = inProtempaDestFactory;
 		this.groupDao = inGroupDao;
+		this.sourcePool = inSourcePool;
+		this.entityManagerProvider = inEntityManagerProvider;
+		this.unitOfWork = inUnitOfWork;
+		this.progressRegistry = inProgressRegistry;
 	}
 
-	void run(JobEntity job, PropositionDefinition[] inPropositionDefinitions,
+	void run(Task task, JobEntity job,
+			PropositionDefinition[] inPropositionDefinitions,
 			String[] inPropIdsToShow, Filter filter, boolean updateData,
 			Configuration prompts) throws EtlException {
 		assert inPropositionDefinitions != null :
 				"inPropositionDefinitions cannot be null";
 		assert job != null : "job cannot be null";
-		try (Protempa protempa = getNewProtempa(job, prompts)) {
+		JobProgress progress = this.progressRegistry.start(job.getId());
+		if (task.isCancelled()) {
+			/*
+			 * Cancelled after the task's last check but before the job's
+			 * progress was registered.
+			 */
+			progress.cancel();
+		}
+		try (JobEventWriter eventWriter = new JobEventWriter(job.getId(),
+				this.etlProperties, this.entityManagerProvider, this.unitOfWork)) {
+			run(job, eventWriter, progress, inPropositionDefinitions,
+					inPropIdsToShow, filter, updateData, prompts);
+		} finally {
+			this.progressRegistry.finish(progress);
+		}
+	}
+
+	/**
+	 * Stops a running job's query. Protempa event listeners and query
+	 * results handlers see the cancellation through the job's
+	 * {@link JobProgress}.
+	 *
+	 * @param jobId the job's id.
+	 */
+	void cancel(Long jobId) {
+		JobProgress progress = this.progressRegistry.get(jobId);
+		if (progress != null) {
+			progress.cancel();
+		}
+	}
+
+	private void run(final JobEntity job, final JobEventWriter eventWriter,
+			final JobProgress progress,
+			PropositionDefinition[] inPropositionDefinitions,
+			String[] inPropIdsToShow, Filter filter, boolean updateData,
+			Configuration prompts) throws EtlException {
+		try (PooledSources sources = this.sourcePool.lease(job.getSourceConfigId());
+				Protempa protempa = getNewProtempa(job, prompts, sources)) {
+			LOGGER.debug("Got sources for job {}: {}", job.getId(), this.sourcePool);
 			LOGGER.debug("Validating the data source backend data for job {}", job.getId());
-			logValidationEvents(job, protempa.validateDataSourceBackendData(), null);
+			progress.setPhase("Validating data");
+			logValidationEvents(eventWriter, protempa.validateDataSourceBackendData(), null);
 
 			EtlDestination eurekaDestination;
 			org.protempa.dest.Destination protempaDestination;
@@ -125,7 +178,7 @@ public class ETL {
 							this.destinationDao, this.groupDao)
 							.getOne(job.getDestination().getName());
 			protempaDestination
-					= this.protempaDestFactory.getInstance(eurekaDestination.getId(), updateData);
+					= this.protempaDestFactory.getInstance(eurekaDestination.getId(), updateData, progress);
 
 			LOGGER.debug("Constructing Protempa query for job {}", job.getId());
 			DefaultQueryBuilder q = new DefaultQueryBuilder();
@@ -145,19 +198,24 @@ public class ETL {
 			protempa.addEventListener(new ProtempaEventListener() {
 				@Override
 				public void eventFired(ProtempaEvent protempaEvent) {
-					synchronized (job) {
-						JobEventEntity protempaEvt = new JobEventEntity();
-						protempaEvt.setJob(job);
-						protempaEvt.setTimeStamp(protempaEvent.getTimestamp());
-						protempaEvt.setStatus(JobStatus.STARTED);
-						protempaEvt.setMessage(protempaEvent.getType() + " " + protempaEvent.getDescription());
+					if (progress.isCancelled()) {
+						/*
+						 * Protempa calls its listeners on the threads that
+						 * run the query, so this stops the query.
+						 */
+						throw new CancellationException("Job " + job.getId() + " was cancelled");
 					}
+					progress.setPhase(protempaEvent.getDescription());
+					eventWriter.write(JobStatus.STARTED,
+							protempaEvent.getTimestamp(),
+							protempaEvent.getType() + " " + protempaEvent.getDescription(),
+							null);
 				}
 			});
 			LOGGER.debug("Executing Protempa query {}", q);
 			protempa.execute(query, protempaDestination);
 		} catch (DataSourceFailedDataValidationException ex) {
-			logValidationEvents(job, ex.getValidationEvents(), ex);
+			logValidationEvents(eventWriter, ex.getValidationEvents(), ex);
 			throw new EtlException("ETL failed for job " + job.getId(), ex);
 		} catch (Exception ex) {
 			throw new EtlException("ETL failed for job " + job.getId(), ex);
@@ -167,7 +225,7 @@ public class ETL {
 	void close() {
 	}
 
-	private void logValidationEvents(JobEntity job, DataValidationEvent[] events, DataSourceFailedDataValidationException ex) {
+	private void logValidationEvents(JobEventWriter eventWriter, DataValidationEvent[] events, DataSourceFailedDataValidationException ex) {
 		for (DataValidationEvent event : events) {
 			AbstractFileInfo fileInfo;
 			JobStatus jobEventType;
@@ -182,29 +240,48 @@ public class ETL {
 			fileInfo.setText(event.getMessage());
 			fileInfo.setType(event.getType());
 			fileInfo.setURI(event.getURI());
-			JobEventEntity validationJobEvent = new JobEventEntity();
-			validationJobEvent.setJob(job);
-			validationJobEvent.setTimeStamp(event.getTimestamp());
-			validationJobEvent.setStatus(jobEventType);
-			validationJobEvent.setMessage(fileInfo.toUserMessage());
-			validationJobEvent.setExceptionStackTrace(collectThrowableMessages(ex));
+			String stackTrace = collectThrowableMessages(ex);
+			if (jobEventType == JobStatus.WARNING) {
+				eventWriter.writeWarning(event.getType(), event.getTimestamp(),
+						fileInfo.toUserMessage(), stackTrace);
+			} else {
+				eventWriter.write(jobEventType, event.getTimestamp(),
+						fileInfo.toUserMessage(), stackTrace);
+			}
 		}
 	}
 
-	private Protempa getNewProtempa(JobEntity job, Configuration prompts) throws
-			NewProtempaException {
+	/**
+	 * Creates a Protempa instance with a new data source configured with the
+	 * job's prompts and the pooled knowledge, algorithm and term sources.
+	 */
+	private Protempa getNewProtempa(JobEntity job, Configuration prompts,
+			PooledSources sources) throws NewProtempaException {
+		DataSource dataSource = null;
 		try {
 			Configurations configurations = new EurekaProtempaConfigurations(this.etlProperties);
 			Configuration configuration = configurations.load(job.getSourceConfigId());
 			configuration.merge(prompts);
 			SourceFactory sf = new SourceFactory(configuration);
-			return Protempa.newInstance(sf);
-		} catch (IOException | ConfigurationsLoadException | ProtempaStartupException | ConfigurationsNotFoundException | InvalidPropertyNameException | InvalidPropertyValueException ex) {
+			dataSource = sf.newDataSourceInstance();
+			return Protempa.newInstance(dataSource,
+					sources.getKnowledgeSource(), sources.getAlgorithmSource(),
+					sources.getTermSource());
+		} catch (IOException | ConfigurationsLoadException | ProtempaStartupException | ConfigurationsNotFoundException | InvalidPropertyNameException | InvalidPropertyValueException | BackendInitializationException | BackendNewInstanceException ex) {
+			if (dataSource != null) {
+				try {
+					dataSource.close();
+				} catch (SourceCloseException ignore) {
+				}
+			}
 			throw new NewProtempaException("Error creating Protempa for sourceconfig " + job.getSourceConfigId() + " for job " + job.getId(), ex);
 		}
 	}
 
 	private static String collectThrowableMessages(Throwable throwable) {
+		if (throwable == null) {
+			return null;
+		}
 		String msg = throwable.getMessage();
 		Throwable cause = throwable.getCause();
 		if (cause != null) {
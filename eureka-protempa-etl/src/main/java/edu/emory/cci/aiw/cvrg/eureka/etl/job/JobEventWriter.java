@@ -0,0 +1,323 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.job;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.inject.Provider;
+import com.google.inject.persist.UnitOfWork;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEntity;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEventEntity;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEventEntityComparator;
+import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
+import edu.emory.cci.aiw.cvrg.eureka.etl.dao.JobCurrentStatusUpdater;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import org.eurekaclinical.eureka.client.comm.JobStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves a running job's events on a background thread. Events are queued
+ * and saved in batches, when a batch is full or when its oldest event has
+ * waited for the flush interval, so that the job does not wait for a
+ * transaction per event. If the queue fills up, callers wait. Warnings of the
+ * same type beyond a maximum are not saved but counted, and a summary event
+ * with the counts is saved when the writer is closed. Closing the writer
+ * waits until all queued events have been saved.
+ */
+final class JobEventWriter implements AutoCloseable {
+
+	private static final Logger LOGGER
+			= LoggerFactory.getLogger(JobEventWriter.class);
+
+	private static final Event CLOSE = new Event(null, null, null, null);
+
+	private final Long jobId;
+	private final Provider<EntityManager> entityManagerProvider;
+	private final UnitOfWork unitOfWork;
+	private final BlockingQueue<Event> queue;
+	private final int batchSize;
+	private final long flushInterval;
+	private final int maxRepeatedWarnings;
+	private final Map<String, Integer> warningCounts;
+	private final Thread thread;
+	private boolean closed;
+
+	JobEventWriter(Long inJobId, EtlProperties inEtlProperties,
+			Provider<EntityManager> inEntityManagerProvider,
+			UnitOfWork inUnitOfWork) {
+		this.jobId = inJobId;
+		this.entityManagerProvider = inEntityManagerProvider;
+		this.unitOfWork = inUnitOfWork;
+		this.queue = new ArrayBlockingQueue<>(
+				Math.max(1, inEtlProperties.getJobEventQueueSize()));
+		this.batchSize = Math.max(1, inEtlProperties.getJobEventBatchSize());
+		this.flushInterval = inEtlProperties.getJobEventFlushInterval();
+		this.maxRepeatedWarnings = inEtlProperties.getMaxRepeatedJobWarnings();
+		this.warningCounts = new LinkedHashMap<>();
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					doRun();
+				} finally {
+					unitOfWork.end();
+				}
+			}
+		}, "JobEventWriter-" + inJobId);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Queues an event. Events written after the writer is closed are
+	 * dropped.
+	 *
+	 * @param status the event's status.
+	 * @param timeStamp when the event happened.
+	 * @param message the event's message.
+	 * @param exceptionStackTrace the stack trace, if any.
+	 */
+	void write(JobStatus status, Date timeStamp, String message,
+			String exceptionStackTrace) {
+		synchronized (this) {
+			if (this.closed) {
+				LOGGER.warn("Dropping event of job {} written after closing: {}",
+						this.jobId, message);
+				return;
+			}
+		}
+		put(new Event(status, timeStamp, message, exceptionStackTrace));
+	}
+
+	/**
+	 * Queues a warning, unless the maximum number of warnings of its type has
+	 * already been queued.
+	 *
+	 * @param type the warning's type.
+	 * @param timeStamp when the warning happened.
+	 * @param message the warning's message.
+	 * @param exceptionStackTrace the stack trace, if any.
+	 */
+	void writeWarning(String type, Date timeStamp, String message,
+			String exceptionStackTrace) {
+		synchronized (this.warningCounts) {
+			Integer count = this.warningCounts.get(type);
+			int newCount = count != null ? count + 1 : 1;
+			this.warningCounts.put(type, newCount);
+			if (newCount > this.maxRepeatedWarnings) {
+				return;
+			}
+		}
+		write(JobStatus.WARNING, timeStamp, message, exceptionStackTrace);
+	}
+
+	/**
+	 * Saves the summary of warnings that were not saved and waits for all
+	 * queued events to be saved.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+		}
+		synchronized (this.warningCounts) {
+			for (Map.Entry<String, Integer> me : this.warningCounts.entrySet()) {
+				int skipped = me.getValue() - this.maxRepeatedWarnings;
+				if (skipped > 0) {
+					put(new Event(JobStatus.WARNING, new Date(),
+							skipped + " more warning(s) of type " + me.getKey()
+							+ " were not shown", null));
+				}
+			}
+		}
+		put(CLOSE);
+		boolean interrupted = false;
+		while (true) {
+			try {
+				this.thread.join();
+				break;
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Queues an event even if the current thread is interrupted, which
+	 * happens when a job is cancelled.
+	 */
+	private void put(Event event) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				this.queue.put(event);
+				break;
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void doRun() {
+		List<Event> batch = new ArrayList<>(this.batchSize);
+		long deadline = 0L;
+		try {
+			while (true) {
+				Event event;
+				if (batch.isEmpty()) {
+					event = this.queue.take();
+					deadline = System.currentTimeMillis() + this.flushInterval;
+				} else {
+					event = this.queue.poll(
+							deadline - System.currentTimeMillis(),
+							TimeUnit.MILLISECONDS);
+				}
+				if (event == CLOSE) {
+					break;
+				}
+				if (event != null) {
+					batch.add(event);
+				}
+				if (event == null || batch.size() >= this.batchSize) {
+					save(batch);
+				}
+			}
+		} catch (InterruptedException ex) {
+			LOGGER.warn("Interrupted while waiting for events of job {}", this.jobId);
+		}
+		save(batch);
+	}
+
+	private void save(List<Event> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		EntityManager entityManager = this.entityManagerProvider.get();
+		EntityTransaction transaction = entityManager.getTransaction();
+		try {
+			transaction.begin();
+			JobEntity job = entityManager.find(JobEntity.class, this.jobId);
+			if (job != null) {
+				for (Event event : batch) {
+					JobEventEntity jobEvent = new JobEventEntity();
+					jobEvent.setJobReference(job);
+					jobEvent.setTimeStamp(event.timeStamp);
+					jobEvent.setStatus(event.status);
+					jobEvent.setMessage(event.message);
+					jobEvent.setExceptionStackTrace(event.exceptionStackTrace);
+					entityManager.persist(jobEvent);
+				}
+				entityManager.flush();
+				updateCurrentStatus(entityManager, batch);
+			} else {
+				LOGGER.warn("Job {} no longer exists; dropping {} event(s)",
+						this.jobId, batch.size());
+			}
+			transaction.commit();
+		} catch (RuntimeException ex) {
+			LOGGER.error("Could not save " + batch.size() + " event(s) of job "
+					+ this.jobId, ex);
+		} finally {
+			if (transaction.isActive()) {
+				transaction.rollback();
+			}
+			/*
+			 * Saved events are not needed anymore, so do not let them pile up
+			 * in the persistence context for the whole job.
+			 */
+			entityManager.clear();
+			batch.clear();
+		}
+	}
+
+	private void updateCurrentStatus(EntityManager entityManager,
+			List<Event> batch) {
+		JobStatus status = null;
+		Integer statusRank = null;
+		Date latest = null;
+		for (Event event : batch) {
+			Integer rank = JobEventEntityComparator.rank(event.status);
+			if (rank != null && (statusRank == null || rank >= statusRank)) {
+				status = event.status;
+				statusRank = rank;
+			}
+			if (event.timeStamp != null
+					&& (latest == null || event.timeStamp.after(latest))) {
+				latest = event.timeStamp;
+			}
+		}
+		new JobCurrentStatusUpdater(entityManager).update(this.jobId, status,
+				latest);
+	}
+
+	private static final class Event {
+
+		private final JobStatus status;
+		private final Date timeStamp;
+		private final String message;
+		private final String exceptionStackTrace;
+
+		Event(JobStatus inStatus, Date inTimeStamp, String inMessage,
+				String inExceptionStackTrace) {
+			this.status = inStatus;
+			this.timeStamp = inTimeStamp;
+			this.message = inMessage;
+			this.exceptionStackTrace = inExceptionStackTrace;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.job;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.cvrg.eureka.common.comm.JobProgressSnapshot;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters that a running job updates as it goes. They are only kept in
+ * memory; see {@link JobProgressRegistry}. All methods are thread-safe.
+ */
+public final class JobProgress {
+
+	private final Long jobId;
+	private final Date started;
+	private final AtomicLong keyIdsProcessed;
+	private final AtomicLong rowsWritten;
+	private final AtomicLong bytesWritten;
+	private volatile String phase;
+	private volatile boolean running;
+	private volatile boolean cancelled;
+
+	JobProgress(Long inJobId) {
+		this.jobId = inJobId;
+		this.started = new Date();
+		this.keyIdsProcessed = new AtomicLong();
+		this.rowsWritten = new AtomicLong();
+		this.bytesWritten = new AtomicLong();
+		this.running = true;
+	}
+
+	public Long getJobId() {
+		return jobId;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	void finished() {
+		this.running = false;
+	}
+
+	/**
+	 * Gets whether the job has been cancelled. Query results handlers check
+	 * this between patients and stop the query if it is set.
+	 *
+	 * @return <code>true</code> if the job has been cancelled.
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	void cancel() {
+		this.cancelled = true;
+	}
+
+	public void setPhase(String inPhase) {
+		this.phase = inPhase;
+	}
+
+	public void keyIdProcessed() {
+		this.keyIdsProcessed.incrementAndGet();
+	}
+
+	public void rowWritten() {
+		this.rowsWritten.incrementAndGet();
+	}
+
+	public void bytesWritten(long count) {
+		this.bytesWritten.addAndGet(count);
+	}
+
+	/**
+	 * Gets the current values of the counters. The counters are read one at
+	 * a time, so they may be from slightly different moments.
+	 *
+	 * @return a new snapshot.
+	 */
+	public JobProgressSnapshot getSnapshot() {
+		JobProgressSnapshot result = new JobProgressSnapshot();
+		result.setJobId(this.jobId);
+		result.setRunning(this.running);
+		result.setPhase(this.phase);
+		result.setKeyIdsProcessed(this.keyIdsProcessed.get());
+		result.setRowsWritten(this.rowsWritten.get());
+		result.setBytesWritten(this.bytesWritten.get());
+		result.setStarted(this.started);
+		result.setElapsedMillis(System.currentTimeMillis() - this.started.getTime());
+		return result;
+	}
+}
@@ -0,0 +1,145 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.job;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
+import edu.emory.cci.aiw.cvrg.eureka.etl.config.EurekaProtempaConfigurations;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.eurekaclinical.eureka.client.comm.JobSpec;
+import org.eurekaclinical.eureka.client.comm.JobSpec.Side;
+import org.eurekaclinical.eureka.client.comm.SourceConfig;
+import org.eurekaclinical.eureka.client.comm.SourceConfigOption;
+import org.protempa.backend.BackendInstanceSpec;
+import org.protempa.backend.BackendProviderSpecLoaderException;
+import org.protempa.backend.BackendSpecNotFoundException;
+import org.protempa.backend.Configuration;
+import org.protempa.backend.InvalidPropertyNameException;
+import org.protempa.backend.InvalidPropertyValueException;
+import org.protempa.backend.dsb.DataSourceBackend;
+import org.protempa.backend.dsb.filter.DateTimeFilter;
+import org.protempa.backend.dsb.filter.Filter;
+import org.protempa.proposition.interval.Interval;
+import org.protempa.proposition.value.AbsoluteTimeGranularity;
+
+/**
+ * Converts the parts of a job specification that are needed to run a job
+ * into their Protempa equivalents. Used both when a job is submitted and
+ * when a queued job is resumed after a restart.
+ */
+public final class JobSpecConverter {
+
+	private final EtlProperties etlProperties;
+
+	public JobSpecConverter(EtlProperties inEtlProperties) {
+		this.etlProperties = inEtlProperties;
+	}
+
+	/**
+	 * Converts a job's data source backend prompts into a Protempa
+	 * configuration that can be merged into the job's source configuration.
+	 *
+	 * @param prompts the prompts. May be <code>null</code>.
+	 * @return the configuration, or <code>null</code> if there are no prompts.
+	 * @throws IOException if the source configuration directory could not be
+	 * read.
+	 * @throws InvalidJobSpecException if a prompt refers to an unknown data
+	 * source backend or property.
+	 */
+	public Configuration toPrompts(SourceConfig prompts) throws IOException,
+			InvalidJobSpecException {
+		if (prompts != null) {
+			Configuration result = new Configuration();
+			SourceConfig.Section[] dsbSections = prompts.getDataSourceBackends();
+			List<BackendInstanceSpec<DataSourceBackend>> sections = new ArrayList<>();
+			EurekaProtempaConfigurations configurations
+					= new EurekaProtempaConfigurations(this.etlProperties);
+			for (SourceConfig.Section section : dsbSections) {
+				try {
+					BackendInstanceSpec<DataSourceBackend> bis = configurations.newDataSourceBackendSection(section.getId());
+					SourceConfigOption[] options = section.getOptions();
+					for (SourceConfigOption option : options) {
+						bis.setProperty(option.getName(), option.getValue());
+					}
+					sections.add(bis);
+				} catch (BackendSpecNotFoundException | BackendProviderSpecLoaderException | InvalidPropertyNameException | InvalidPropertyValueException ex) {
+					throw new InvalidJobSpecException(ex);
+				}
+			}
+			result.setDataSourceBackendSections(sections);
+			return result;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates the date range filter of a job.
+	 *
+	 * @param jobSpec the job specification.
+	 * @return the filter, or <code>null</code> if the job has no date range.
+	 */
+	public Filter toFilter(JobSpec jobSpec) {
+		String dateRangePhenotypeKey = jobSpec.getDateRangePhenotypeKey();
+		if (dateRangePhenotypeKey != null) {
+			return new DateTimeFilter(
+					new String[]{dateRangePhenotypeKey},
+					jobSpec.getEarliestDate(), AbsoluteTimeGranularity.DAY,
+					jobSpec.getLatestDate(), AbsoluteTimeGranularity.DAY,
+					toProtempaSide(jobSpec.getEarliestDateSide()),
+					toProtempaSide(jobSpec.getLatestDateSide()));
+		} else {
+			return null;
+		}
+	}
+
+	private static Interval.Side toProtempaSide(Side side) {
+		switch (side) {
+			case START:
+				return Interval.Side.START;
+			case FINISH:
+				return Interval.Side.FINISH;
+			default:
+				throw new AssertionError("Unexpected side " + side);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.job;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import org.protempa.AlgorithmSource;
+import org.protempa.KnowledgeSource;
+import org.protempa.SourceCloseException;
+import org.protempa.TermSource;
+
+/**
+ * A knowledge source, algorithm source and term source leased from a
+ * {@link ProtempaSourcePool}. The sources are proxies on which
+ * <code>close()</code> does nothing, so they may be handed to a
+ * {@link org.protempa.Protempa} instance that closes its sources when it is
+ * closed. Call {@link #close() } when done to return them to the pool.
+ */
+public final class PooledSources implements AutoCloseable {
+
+	private final ProtempaSourcePool pool;
+	private final String sourceConfigId;
+	private final long configLastModified;
+	private final PreventCloseKnowledgeSource knowledgeSource;
+	private final PreventCloseAlgorithmSource algorithmSource;
+	private final PreventCloseTermSource termSource;
+	private long returnedAt;
+	private boolean leased;
+
+	PooledSources(ProtempaSourcePool inPool, String inSourceConfigId,
+			long inConfigLastModified,
+			PreventCloseKnowledgeSource inKnowledgeSource,
+			PreventCloseAlgorithmSource inAlgorithmSource,
+			PreventCloseTermSource inTermSource) {
+		this.pool = inPool;
+		this.sourceConfigId = inSourceConfigId;
+		this.configLastModified = inConfigLastModified;
+		this.knowledgeSource = inKnowledgeSource;
+		this.algorithmSource = inAlgorithmSource;
+		this.termSource = inTermSource;
+	}
+
+	public KnowledgeSource getKnowledgeSource() {
+		return this.knowledgeSource;
+	}
+
+	public AlgorithmSource getAlgorithmSource() {
+		return this.algorithmSource;
+	}
+
+	public TermSource getTermSource() {
+		return this.termSource;
+	}
+
+	/**
+	 * Returns the sources to the pool.
+	 */
+	@Override
+	public void close() {
+		this.pool.release(this);
+	}
+
+	String getSourceConfigId() {
+		return this.sourceConfigId;
+	}
+
+	long getConfigLastModified() {
+		return this.configLastModified;
+	}
+
+	boolean isLeased() {
+		return this.leased;
+	}
+
+	void setLeased(boolean leased) {
+		this.leased = leased;
+	}
+
+	long getReturnedAt() {
+		return this.returnedAt;
+	}
+
+	void setReturnedAt(long returnedAt) {
+		this.returnedAt = returnedAt;
+	}
+
+	void reallyClose() throws SourceCloseException {
+		try {
+			this.knowledgeSource.reallyClose();
+		} finally {
+			try {
+				this.algorithmSource.reallyClose();
+			} finally {
+				this.termSource.reallyClose();
+			}
+		}
+	}
+}
@@ -40,6 +40,7 @@
 package edu.emory.cci.aiw.cvrg.eureka.etl.job;
 
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
 import org.protempa.Source;
@@ -70,6 +71,10 @@ final class PreventCloseInvocationHandler implements InvocationHandler {
             this.proxied.close();
             return null;
         }
-        return method.invoke(this.proxied, args);
+        try {
+            return method.invoke(this.proxied, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
     }
 }
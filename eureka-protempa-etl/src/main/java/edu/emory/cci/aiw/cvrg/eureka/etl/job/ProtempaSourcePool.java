@@ -0,0 +1,330 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.job;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
+import edu.emory.cci.aiw.cvrg.eureka.etl.config.SourceConfigRegistry;
+import edu.emory.cci.aiw.cvrg.eureka.etl.resource.ToConfigFile;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.protempa.AlgorithmSource;
+import org.protempa.KnowledgeSource;
+import org.protempa.Source;
+import org.protempa.SourceCloseException;
+import org.protempa.SourceFactory;
+import org.protempa.TermSource;
+import org.protempa.backend.BackendInitializationException;
+import org.protempa.backend.BackendNewInstanceException;
+import org.protempa.backend.Configuration;
+import org.protempa.backend.ConfigurationsLoadException;
+import org.protempa.backend.ConfigurationsNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of warm knowledge sources, algorithm sources and term
+ * sources, keyed by source config id and the modification time of the source
+ * config's INI file. Creating these sources reloads the knowledge source
+ * backend, so reusing them across jobs with the same source config makes job
+ * startup much faster. Data sources are not pooled because they depend on
+ * each job's prompts.
+ * <p>
+ * Each set of sources is leased to one job at a time. Idle sets are kept up
+ * to <code>eureka.etl.sourcepool.size</code> and are closed after
+ * <code>eureka.etl.sourcepool.idletimeout</code> seconds without use. Sets
+ * created from an INI file that has since changed are closed rather than
+ * reused.
+ */
+@Singleton
+public class ProtempaSourcePool implements AutoCloseable {
+
+	private static final Logger LOGGER
+			= LoggerFactory.getLogger(ProtempaSourcePool.class);
+
+	private final EtlProperties etlProperties;
+	private final SourceConfigRegistry sourceConfigRegistry;
+	private final int maxIdle;
+	private final long idleTimeoutMillis;
+	private final LinkedList<PooledSources> idleSources;
+	private final ScheduledExecutorService evictor;
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+	private final AtomicLong evictions;
+	private int leased;
+	private boolean closed;
+
+	@Inject
+	public ProtempaSourcePool(EtlProperties inEtlProperties,
+			SourceConfigRegistry inSourceConfigRegistry) {
+		this.etlProperties = inEtlProperties;
+		this.sourceConfigRegistry = inSourceConfigRegistry;
+		this.maxIdle = inEtlProperties.getSourcePoolSize();
+		this.idleTimeoutMillis
+				= TimeUnit.SECONDS.toMillis(inEtlProperties.getSourcePoolIdleTimeout());
+		this.idleSources = new LinkedList<>();
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.evictions = new AtomicLong();
+		this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ProtempaSourcePool-evictor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long period = Math.max(1000L, Math.min(this.idleTimeoutMillis, 60000L));
+		this.evictor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				evictIdle();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Leases the sources for a source config, creating them if there are no
+	 * idle ones for the source config's current INI file.
+	 *
+	 * @param sourceConfigId the source config id.
+	 * @return the leased sources. Close them to return them to the pool.
+	 * @throws NewProtempaException if the sources could not be created.
+	 */
+	public PooledSources lease(String sourceConfigId)
+			throws NewProtempaException {
+		long lastModified = configLastModified(sourceConfigId);
+		List<PooledSources> stale = new ArrayList<>();
+		PooledSources result = null;
+		synchronized (this) {
+			if (this.closed) {
+				throw new IllegalStateException("Pool is closed");
+			}
+			for (Iterator<PooledSources> itr = this.idleSources.descendingIterator(); itr.hasNext();) {
+				PooledSources sources = itr.next();
+				if (sources.getSourceConfigId().equals(sourceConfigId)) {
+					if (sources.getConfigLastModified() != lastModified) {
+						itr.remove();
+						stale.add(sources);
+					} else if (result == null) {
+						itr.remove();
+						result = sources;
+					}
+				}
+			}
+			if (result != null) {
+				result.setLeased(true);
+				this.leased++;
+			}
+		}
+		closeAll(stale);
+		if (result != null) {
+			this.hits.incrementAndGet();
+			LOGGER.debug("Reusing pooled sources for source config {}", sourceConfigId);
+			return result;
+		}
+		this.misses.incrementAndGet();
+		result = newSources(sourceConfigId, lastModified);
+		synchronized (this) {
+			result.setLeased(true);
+			this.leased++;
+		}
+		return result;
+	}
+
+	void release(PooledSources sources) {
+		List<PooledSources> toClose = new ArrayList<>();
+		synchronized (this) {
+			if (!sources.isLeased()) {
+				return;
+			}
+			sources.setLeased(false);
+			this.leased--;
+			if (this.closed || this.maxIdle < 1
+					|| sources.getConfigLastModified()
+					!= configLastModified(sources.getSourceConfigId())) {
+				toClose.add(sources);
+			} else {
+				sources.setReturnedAt(System.currentTimeMillis());
+				this.idleSources.addLast(sources);
+				while (this.idleSources.size() > this.maxIdle) {
+					toClose.add(this.idleSources.removeFirst());
+					this.evictions.incrementAndGet();
+				}
+			}
+		}
+		closeAll(toClose);
+	}
+
+	/**
+	 * Closes all idle sources. Leased sources are closed when they are
+	 * returned.
+	 */
+	@Override
+	public void close() {
+		List<PooledSources> toClose;
+		synchronized (this) {
+			this.closed = true;
+			toClose = new ArrayList<>(this.idleSources);
+			this.idleSources.clear();
+		}
+		this.evictor.shutdownNow();
+		closeAll(toClose);
+	}
+
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	public long getEvictions() {
+		return this.evictions.get();
+	}
+
+	public synchronized int getIdleCount() {
+		return this.idleSources.size();
+	}
+
+	public synchronized int getLeasedCount() {
+		return this.leased;
+	}
+
+	@Override
+	public String toString() {
+		return "ProtempaSourcePool{hits=" + getHits() + ", misses="
+				+ getMisses() + ", evictions=" + getEvictions() + ", idle="
+				+ getIdleCount() + ", leased=" + getLeasedCount() + '}';
+	}
+
+	private void evictIdle() {
+		List<PooledSources> toClose = new ArrayList<>();
+		long oldest = System.currentTimeMillis() - this.idleTimeoutMillis;
+		synchronized (this) {
+			for (Iterator<PooledSources> itr = this.idleSources.iterator(); itr.hasNext();) {
+				PooledSources sources = itr.next();
+				if (sources.getReturnedAt() < oldest) {
+					itr.remove();
+					toClose.add(sources);
+					this.evictions.incrementAndGet();
+				}
+			}
+		}
+		closeAll(toClose);
+		if (!toClose.isEmpty()) {
+			LOGGER.debug("Evicted {} idle source(s): {}", toClose.size(), this);
+		}
+	}
+
+	private PooledSources newSources(String sourceConfigId, long lastModified)
+			throws NewProtempaException {
+		LOGGER.debug("Creating pooled sources for source config {}", sourceConfigId);
+		KnowledgeSource knowledgeSource = null;
+		AlgorithmSource algorithmSource = null;
+		TermSource termSource = null;
+		try {
+			Configuration configuration
+					= this.sourceConfigRegistry.get(sourceConfigId);
+			SourceFactory sf = new SourceFactory(configuration);
+			knowledgeSource = sf.newKnowledgeSourceInstance();
+			algorithmSource = sf.newAlgorithmSourceInstance();
+			termSource = sf.newTermSourceInstance();
+			return new PooledSources(this, sourceConfigId, lastModified,
+					preventClose(PreventCloseKnowledgeSource.class, knowledgeSource),
+					preventClose(PreventCloseAlgorithmSource.class, algorithmSource),
+					preventClose(PreventCloseTermSource.class, termSource));
+		} catch (IOException | ConfigurationsLoadException | ConfigurationsNotFoundException | BackendInitializationException | BackendNewInstanceException ex) {
+			closeQuietly(knowledgeSource);
+			closeQuietly(algorithmSource);
+			closeQuietly(termSource);
+			throw new NewProtempaException("Error creating sources for sourceconfig " + sourceConfigId, ex);
+		}
+	}
+
+	private long configLastModified(String sourceConfigId) {
+		try {
+			return new File(this.etlProperties.getSourceConfigDirectory(),
+					ToConfigFile.fromSourceConfigId(sourceConfigId)).lastModified();
+		} catch (IOException ex) {
+			LOGGER.warn("Could not get the modification time of source config " + sourceConfigId, ex);
+			return 0L;
+		}
+	}
+
+	private static <S extends ReallyCloseable> S preventClose(Class<S> cls,
+			Source<?, ?, ?> source) {
+		return cls.cast(Proxy.newProxyInstance(cls.getClassLoader(),
+				new Class<?>[]{cls}, new PreventCloseInvocationHandler(source)));
+	}
+
+	private static void closeAll(List<PooledSources> sourcesList) {
+		for (PooledSources sources : sourcesList) {
+			try {
+				sources.reallyClose();
+			} catch (SourceCloseException ex) {
+				LOGGER.warn("Error closing pooled sources for source config "
+						+ sources.getSourceConfigId(), ex);
+			}
+		}
+	}
+
+	private static void closeQuietly(Source<?, ?, ?> source) {
+		if (source != null) {
+			try {
+				source.close();
+			} catch (SourceCloseException ignore) {
+			}
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.job;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Wraps a {@link Task} while it is queued or running in
+ * {@link TaskManager}, which picks the next task to run by user and
+ * submission order.
+ */
+final class QueuedTask implements Runnable {
+
+	private final TaskManager taskManager;
+	private final Task task;
+	private final String username;
+	private final long sequence;
+	private Thread runner;
+	private boolean finished;
+
+	QueuedTask(TaskManager inTaskManager, Task inTask, String inUsername,
+			long inSequence) {
+		this.taskManager = inTaskManager;
+		this.task = inTask;
+		this.username = inUsername;
+		this.sequence = inSequence;
+	}
+
+	Task getTask() {
+		return task;
+	}
+
+	Long getJobId() {
+		return this.task.getJobId();
+	}
+
+	String getUsername() {
+		return username;
+	}
+
+	long getSequence() {
+		return sequence;
+	}
+
+	@Override
+	public void run() {
+		synchronized (this) {
+			this.runner = Thread.currentThread();
+		}
+		try {
+			this.taskManager.taskStarted(this);
+			this.task.run();
+		} finally {
+			synchronized (this) {
+				this.runner = null;
+				this.finished = true;
+				/*
+				 * Clear any interrupt from a late cancel so that it does not
+				 * leak into the next task run by this thread.
+				 */
+				Thread.interrupted();
+			}
+			this.taskManager.taskFinished(this);
+		}
+	}
+
+	/**
+	 * Requests cancellation of a running task. The task stops at its next
+	 * cancellation check, and the thread running it is interrupted so that
+	 * blocking operations return early.
+	 */
+	synchronized void cancel() {
+		this.task.cancel();
+		if (this.runner != null && !this.finished) {
+			this.runner.interrupt();
+		}
+	}
+
+}
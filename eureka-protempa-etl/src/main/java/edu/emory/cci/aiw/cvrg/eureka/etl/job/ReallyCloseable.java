@@ -39,10 +39,12 @@
  */
 package edu.emory.cci.aiw.cvrg.eureka.etl.job;
 
+import org.protempa.SourceCloseException;
+
 /**
  *
  * @author Andrew Post
  */
 interface ReallyCloseable {
-    void reallyClose();
+    void reallyClose() throws SourceCloseException;
 }
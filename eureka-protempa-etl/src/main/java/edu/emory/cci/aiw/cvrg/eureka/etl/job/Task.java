@@ -51,7 +51,9 @@ import com.google.inject.Provider;
 
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEntity;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEventEntity;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEventEntityComparator;
 import org.eurekaclinical.eureka.client.comm.JobStatus;
+import edu.emory.cci.aiw.cvrg.eureka.etl.dao.JobCurrentStatusUpdater;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dao.JobDao;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -72,6 +74,7 @@ public final class Task implements Runnable {
 	private Filter filter;
 	private boolean updateData;
 	private Configuration prompts;
+	private volatile boolean cancelled;
 	private final Provider<EntityManager> entityManagerProvider;
 
 	@Inject
@@ -139,6 +142,50 @@ public final class Task implements Runnable {
 		this.prompts = prompts;
 	}
 
+	boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	/**
+	 * Requests that this task stop. The task checks for cancellation before
+	 * and after running Protempa, and while Protempa runs the query is
+	 * stopped at its next event or, for tabular file destinations, before
+	 * its next patient (see {@link ETL#cancel(java.lang.Long) }).
+	 */
+	void cancel() {
+		this.cancelled = true;
+		this.etl.cancel(this.jobId);
+	}
+
+	/**
+	 * Marks this task's job as failed without running it. Called when the
+	 * job is cancelled while still in the queue.
+	 */
+	void cancelQueued() {
+		this.cancelled = true;
+		EntityManager entityManager = this.entityManagerProvider.get();
+		try {
+			entityManager.getTransaction().begin();
+			JobEntity myJob = this.jobDao.retrieve(this.jobId);
+			Date jobFinishedDate = new Date();
+			myJob.setFinished(jobFinishedDate);
+			JobEventEntity cancelledJobEvent = new JobEventEntity();
+			cancelledJobEvent.setJob(myJob);
+			cancelledJobEvent.setTimeStamp(jobFinishedDate);
+			cancelledJobEvent.setStatus(JobStatus.FAILED);
+			cancelledJobEvent.setMessage("Processing cancelled before it started");
+			this.jobDao.update(myJob);
+			updateCurrentStatus(entityManager, cancelledJobEvent);
+			entityManager.getTransaction().commit();
+			LOGGER.info("Cancelled queued job {} for user {}",
+					myJob.getId(), myJob.getUser().getUsername());
+		} finally {
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+		}
+	}
+
 	@Override
 	public void run() {
 		JobEntity myJob = null;
@@ -146,6 +193,16 @@ public final class Task implements Runnable {
 		try {
 			entityManager.getTransaction().begin();
 			myJob = this.jobDao.retrieve(this.jobId);
+			JobStatus currentStatus = myJob.getCurrentStatus();
+			if (JobStatus.COMPLETED.equals(currentStatus)
+					|| JobStatus.FAILED.equals(currentStatus)) {
+				LOGGER.warn("Skipping job {}, which already has status {}",
+						myJob.getId(), currentStatus);
+				entityManager.getTransaction().commit();
+				myJob = null;
+				return;
+			}
+			checkCancelled(myJob);
 			if (LOGGER.isInfoEnabled()) {
 				LOGGER.info("Just got job {} from user {}",
 						new Object[]{myJob.getId(),
@@ -157,6 +214,7 @@ public final class Task implements Runnable {
 			startedJobEvent.setStatus(JobStatus.STARTED);
 			startedJobEvent.setMessage("Processing started");
 			this.jobDao.update(myJob);
+			updateCurrentStatus(entityManager, startedJobEvent);
 			entityManager.getTransaction().commit();
 
 			PropositionDefinition[] propDefArray
@@ -169,10 +227,11 @@ public final class Task implements Runnable {
 							new String[this.propIdsToShow.size()]);
 
 			entityManager.getTransaction().begin();
-			this.etl.run(myJob, propDefArray, propIdsToShowArray, this.filter, this.updateData, this.prompts);
+			this.etl.run(this, myJob, propDefArray, propIdsToShowArray, this.filter, this.updateData, this.prompts);
 			this.jobDao.update(myJob);
 			entityManager.getTransaction().commit();
 			this.etl.close();
+			checkCancelled(myJob);
 			JobEventEntity completedJobEvent = new JobEventEntity();
 			Date jobFinishedDate = new Date();
 			myJob.setFinished(jobFinishedDate);
@@ -182,6 +241,7 @@ public final class Task implements Runnable {
 			completedJobEvent.setMessage("Processing completed without error");
 			entityManager.getTransaction().begin();
 			this.jobDao.update(myJob);
+			updateCurrentStatus(entityManager, completedJobEvent);
 			entityManager.getTransaction().commit();
 			if (LOGGER.isInfoEnabled()) {
 				LOGGER.info("Completed job {} for user {} without errors.",
@@ -209,6 +269,7 @@ public final class Task implements Runnable {
 								myJob.getId(), myJob.getUser().getUsername()});
 					entityManager.getTransaction().begin();
 					this.jobDao.update(myJob);
+					updateCurrentStatus(entityManager, failedJobEvent);
 					entityManager.getTransaction().commit();
 				} catch (Throwable ignore) {
 					if (entityManager.getTransaction().isActive()) {
@@ -226,6 +287,24 @@ public final class Task implements Runnable {
 
 	}
 
+	/**
+	 * Stores the job's new current status after one of its events is saved.
+	 * The job entity does not write it; see {@link JobCurrentStatusUpdater}.
+	 */
+	private void updateCurrentStatus(EntityManager entityManager,
+			JobEventEntity jobEvent) {
+		entityManager.flush();
+		new JobCurrentStatusUpdater(entityManager).update(this.jobId,
+				JobEventEntityComparator.rank(jobEvent.getStatus()) != null
+				? jobEvent.getStatus() : null, jobEvent.getTimeStamp());
+	}
+
+	private void checkCancelled(JobEntity job) throws EtlException {
+		if (this.cancelled) {
+			throw new EtlException("Job " + job.getId() + " was cancelled");
+		}
+	}
+
 	private void handleError(JobEntity job, Throwable e) {
 		if (job != null) {
 			LOGGER.error("Job " + job.getId() + " for user "
@@ -235,7 +314,7 @@ public final class Task implements Runnable {
 			try (PrintWriter ps = new PrintWriter(sw)) {
 				e.printStackTrace(ps);
 			}
-			String msg = e.getMessage();
+			String msg = this.cancelled ? "Processing cancelled" : e.getMessage();
 			if (msg == null) {
 				msg = e.getClass().getName();
 			}
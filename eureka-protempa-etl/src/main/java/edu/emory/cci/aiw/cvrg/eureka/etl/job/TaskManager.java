@@ -39,52 +39,288 @@
  */
 package edu.emory.cci.aiw.cvrg.eureka.etl.job;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-import org.protempa.PropositionDefinition;
 import org.protempa.backend.dsb.filter.Filter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 
+import edu.emory.cci.aiw.cvrg.eureka.common.comm.JobRequest;
 import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
 import org.protempa.backend.Configuration;
 
+/**
+ * Runs jobs on a fixed-size thread pool (<code>eureka.etl.threadpool.size</code>).
+ * Each user's waiting jobs are kept in submission order. When a thread is
+ * free, it starts the next job of the user with the fewest running jobs at
+ * that moment, and among those users the job that was submitted first. This
+ * interleaves the jobs of different users so that one user's backlog does
+ * not starve everyone else. Queued jobs are saved with
+ * {@link TaskQueueStore} and are resumed by {@link #resumeQueuedTasks() }
+ * after a restart. Queued and running jobs may be cancelled.
+ */
 @Singleton
 public class TaskManager {
-	private final ExecutorService executorService;
+
+	private static final Logger LOGGER
+			= LoggerFactory.getLogger(TaskManager.class);
+	private final ThreadPoolExecutor executorService;
 	private final Provider<Task> taskProvider;
+	private final TaskQueueStore taskQueueStore;
+	private final JobSpecConverter jobSpecConverter;
+	private final Map<Long, QueuedTask> tasks;
+	private final Map<String, Deque<QueuedTask>> waitingTasksByUser;
+	private final Map<String, Integer> runningTasksByUser;
+	private long sequence;
 
 	@Inject
 	public TaskManager (Provider<Task> inTaskProvider,
 		EtlProperties inEtlProperties) {
 		final int poolSize = inEtlProperties.getTaskThreadPoolSize();
 		this.taskProvider = inTaskProvider;
-		this.executorService = Executors.newFixedThreadPool(poolSize);
+		this.executorService = new ThreadPoolExecutor(poolSize, poolSize,
+				0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		this.taskQueueStore = new TaskQueueStore(inEtlProperties);
+		this.jobSpecConverter = new JobSpecConverter(inEtlProperties);
+		this.tasks = new HashMap<>();
+		this.waitingTasksByUser = new LinkedHashMap<>();
+		this.runningTasksByUser = new HashMap<>();
 	}
 
-	public void queueTask (Long inJobId, 
-			List<PropositionDefinition> inPropositionDefinitions, 
-			List<String> propIdsToShow, Filter filter, boolean updateData,
-			Configuration prompts) {
-		Task task = this.taskProvider.get();
-		task.setJobId(inJobId);
-		task.setPropositionDefinitions(inPropositionDefinitions);
-		task.setPropositionIdsToShow(propIdsToShow);
-		task.setFilter(filter);
-		task.setUpdateData(updateData);
-		task.setPrompts(prompts);
-		this.executorService.execute(task);
+	/**
+	 * Queues a job and saves it so that it is resumed if the application is
+	 * restarted before the job starts.
+	 *
+	 * @param inJobId the id of the job.
+	 * @param inUsername the user who submitted the job.
+	 * @param inJobRequest the job request.
+	 * @param prompts the job's data source backend prompts, converted with a
+	 * {@link JobSpecConverter}.
+	 * @param filter the job's date range filter, converted with a
+	 * {@link JobSpecConverter}.
+	 */
+	public void queueTask (Long inJobId, String inUsername,
+			JobRequest inJobRequest, Configuration prompts, Filter filter) {
+		try {
+			this.taskQueueStore.save(
+					new TaskQueueEntry(inJobId, inUsername, inJobRequest));
+		} catch (IOException ex) {
+			LOGGER.warn("Could not save queued job " + inJobId
+					+ "; it will not be resumed if the application restarts before it starts", ex);
+		}
+		doQueueTask(inJobId, inUsername, inJobRequest, prompts, filter);
+	}
+
+	/**
+	 * Queues the jobs that were saved but had not started when the
+	 * application last shut down. Call once at startup, after the
+	 * persistence service has started.
+	 */
+	public void resumeQueuedTasks() {
+		List<TaskQueueEntry> entries;
+		try {
+			entries = this.taskQueueStore.loadAll();
+		} catch (IOException ex) {
+			LOGGER.error("Could not read the job queue; no queued jobs will be resumed", ex);
+			return;
+		}
+		for (TaskQueueEntry entry : entries) {
+			JobRequest jobRequest = entry.getJobRequest();
+			try {
+				doQueueTask(entry.getJobId(), entry.getUsername(), jobRequest,
+						this.jobSpecConverter.toPrompts(jobRequest.getJobSpec().getPrompts()),
+						this.jobSpecConverter.toFilter(jobRequest.getJobSpec()));
+				LOGGER.info("Resumed queued job {} for user {}",
+						entry.getJobId(), entry.getUsername());
+			} catch (IOException | InvalidJobSpecException ex) {
+				/*
+				 * The job will be marked as failed by the job repairer the
+				 * next time the application starts.
+				 */
+				LOGGER.error("Could not resume queued job " + entry.getJobId(), ex);
+				removeFromStore(entry.getJobId());
+			}
+		}
 	}
 
+	/**
+	 * Cancels a queued or running job. A queued job is removed from the
+	 * queue and marked as failed immediately. A running job stops at its next
+	 * cancellation check and is then marked as failed by its task.
+	 *
+	 * @param inJobId the id of the job.
+	 * @return <code>true</code> if the job was queued or running,
+	 * <code>false</code> if it is unknown or already finished.
+	 */
+	public boolean cancel(Long inJobId) {
+		QueuedTask queuedTask;
+		synchronized (this) {
+			queuedTask = this.tasks.get(inJobId);
+			if (queuedTask == null) {
+				return false;
+			}
+			if (removeWaiting(queuedTask)) {
+				this.tasks.remove(inJobId);
+			} else {
+				queuedTask.cancel();
+				return true;
+			}
+		}
+		removeFromStore(inJobId);
+		queuedTask.getTask().cancelQueued();
+		return true;
+	}
+
+	/**
+	 * Gets whether a job is queued or running.
+	 *
+	 * @param inJobId the id of the job.
+	 * @return <code>true</code> if the job is queued or running.
+	 */
+	public synchronized boolean isQueuedOrRunning(Long inJobId) {
+		return this.tasks.containsKey(inJobId);
+	}
+
+	/**
+	 * Stops accepting jobs. Running jobs are allowed to finish. Jobs that
+	 * have not started remain saved and are resumed at the next startup.
+	 */
 	public void shutdown () {
+		this.executorService.getQueue().drainTo(new ArrayList<Runnable>());
 		this.executorService.shutdown();
+		int notStarted = 0;
+		synchronized (this) {
+			for (Deque<QueuedTask> waiting : this.waitingTasksByUser.values()) {
+				notStarted += waiting.size();
+			}
+		}
+		if (notStarted > 0) {
+			LOGGER.info("Leaving {} queued job(s) to be resumed at next startup",
+					notStarted);
+		}
 	}
 
 	public void shutdownNow () {
 		this.executorService.shutdownNow();
 	}
+
+	void taskStarted(QueuedTask queuedTask) {
+		removeFromStore(queuedTask.getJobId());
+	}
+
+	synchronized void taskFinished(QueuedTask queuedTask) {
+		this.tasks.remove(queuedTask.getJobId());
+		String username = queuedTask.getUsername();
+		int running = runningTaskCount(username);
+		if (running <= 1) {
+			this.runningTasksByUser.remove(username);
+		} else {
+			this.runningTasksByUser.put(username, running - 1);
+		}
+	}
+
+	private void doQueueTask(Long inJobId, String inUsername,
+			JobRequest inJobRequest, Configuration prompts, Filter filter) {
+		Task task = this.taskProvider.get();
+		task.setJobId(inJobId);
+		task.setPropositionDefinitions(inJobRequest.getUserPropositions());
+		task.setPropositionIdsToShow(inJobRequest.getPropositionIdsToShow());
+		task.setFilter(filter);
+		task.setUpdateData(inJobRequest.getJobSpec().isUpdateData());
+		task.setPrompts(prompts);
+		synchronized (this) {
+			QueuedTask queuedTask = new QueuedTask(this, task, inUsername,
+					this.sequence++);
+			this.tasks.put(inJobId, queuedTask);
+			Deque<QueuedTask> waiting = this.waitingTasksByUser.get(inUsername);
+			if (waiting == null) {
+				waiting = new ArrayDeque<>();
+				this.waitingTasksByUser.put(inUsername, waiting);
+			}
+			waiting.addLast(queuedTask);
+		}
+		/*
+		 * Each queued job gets one turn on the pool, which runs whichever
+		 * job is next when a thread is free. A turn finds nothing to run if
+		 * a job was cancelled while waiting.
+		 */
+		this.executorService.execute(new Runnable() {
+			@Override
+			public void run() {
+				QueuedTask next = nextTask();
+				if (next != null) {
+					next.run();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Takes the next job to run: the first waiting job of the user with the
+	 * fewest running jobs, and of those users the job submitted first. The
+	 * running counts are read now rather than when the jobs were queued, so
+	 * jobs that finished in the meantime are taken into account.
+	 *
+	 * @return the job, or <code>null</code> if no job is waiting.
+	 */
+	private synchronized QueuedTask nextTask() {
+		QueuedTask result = null;
+		int resultRunning = 0;
+		for (Map.Entry<String, Deque<QueuedTask>> entry
+				: this.waitingTasksByUser.entrySet()) {
+			QueuedTask first = entry.getValue().peekFirst();
+			int running = runningTaskCount(entry.getKey());
+			if (result == null || running < resultRunning
+					|| (running == resultRunning
+					&& first.getSequence() < result.getSequence())) {
+				result = first;
+				resultRunning = running;
+			}
+		}
+		if (result != null) {
+			removeWaiting(result);
+			this.runningTasksByUser.put(result.getUsername(), resultRunning + 1);
+		}
+		return result;
+	}
+
+	private boolean removeWaiting(QueuedTask queuedTask) {
+		String username = queuedTask.getUsername();
+		Deque<QueuedTask> waiting = this.waitingTasksByUser.get(username);
+		if (waiting == null || !waiting.remove(queuedTask)) {
+			return false;
+		}
+		if (waiting.isEmpty()) {
+			this.waitingTasksByUser.remove(username);
+		}
+		return true;
+	}
+
+	private int runningTaskCount(String username) {
+		Integer running = this.runningTasksByUser.get(username);
+		return running != null ? running : 0;
+	}
+
+	private void removeFromStore(Long jobId) {
+		try {
+			this.taskQueueStore.remove(jobId);
+		} catch (IOException ex) {
+			LOGGER.warn("Could not remove job " + jobId + " from the job queue directory", ex);
+		}
+	}
 }
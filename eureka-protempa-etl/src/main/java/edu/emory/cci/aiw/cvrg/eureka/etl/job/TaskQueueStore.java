@@ -0,0 +1,138 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.job;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.cvrg.eureka.common.json.ObjectMapperProvider;
+import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves queued jobs to the job queue directory so that they survive a
+ * restart. There is one JSON file per job, named after the job's id. A job's
+ * file is written when the job is queued and is deleted when the job starts
+ * running or is cancelled.
+ */
+public class TaskQueueStore {
+
+	private static final Logger LOGGER
+			= LoggerFactory.getLogger(TaskQueueStore.class);
+	private static final String SUFFIX = ".json";
+
+	private final EtlProperties etlProperties;
+	private final ObjectMapper mapper;
+
+	public TaskQueueStore(EtlProperties inEtlProperties) {
+		this.etlProperties = inEtlProperties;
+		this.mapper = new ObjectMapperProvider().getContext(TaskQueueEntry.class);
+	}
+
+	void save(TaskQueueEntry entry) throws IOException {
+		File file = entryFile(entry.getJobId());
+		File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		this.mapper.writeValue(tmpFile, entry);
+		Files.move(tmpFile.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	void remove(Long jobId) throws IOException {
+		Files.deleteIfExists(entryFile(jobId).toPath());
+	}
+
+	/**
+	 * Reads all saved jobs, oldest job first. Files that cannot be read are
+	 * logged and skipped.
+	 *
+	 * @return the saved jobs.
+	 * @throws IOException if the job queue directory could not be read.
+	 */
+	List<TaskQueueEntry> loadAll() throws IOException {
+		List<TaskQueueEntry> result = new ArrayList<>();
+		for (Long jobId : getJobIds()) {
+			try {
+				result.add(this.mapper.readValue(entryFile(jobId), TaskQueueEntry.class));
+			} catch (IOException ex) {
+				LOGGER.error("Could not read queued job " + jobId, ex);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the ids of the saved jobs, in ascending order.
+	 *
+	 * @return the job ids.
+	 * @throws IOException if the job queue directory could not be read.
+	 */
+	public Set<Long> getJobIds() throws IOException {
+		List<Long> jobIds = new ArrayList<>();
+		File[] files = this.etlProperties.getJobQueueDirectory().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.endsWith(SUFFIX)) {
+					try {
+						jobIds.add(Long.valueOf(name.substring(0, name.length() - SUFFIX.length())));
+					} catch (NumberFormatException ex) {
+						LOGGER.warn("Ignoring unexpected file {} in the job queue directory", file);
+					}
+				}
+			}
+		}
+		Collections.sort(jobIds);
+		return new LinkedHashSet<>(jobIds);
+	}
+
+	private File entryFile(Long jobId) throws IOException {
+		return new File(this.etlProperties.getJobQueueDirectory(), jobId + SUFFIX);
+	}
+}
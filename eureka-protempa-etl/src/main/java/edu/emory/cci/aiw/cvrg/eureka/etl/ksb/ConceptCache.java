@@ -0,0 +1,599 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.ksb;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
+import edu.emory.cci.aiw.cvrg.eureka.etl.resource.ToConfigFile;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.collections4.map.LRUMap;
+import org.protempa.PropositionDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches a long-lived {@link PropositionDefinitionFinder} per source config,
+ * together with the proposition definitions and search results that have
+ * been read through it. Concept browsing and search then cost one
+ * knowledge source bootstrap per source config rather than one per request.
+ * <p>
+ * Up to <code>eureka.etl.conceptcache.configs</code> source configs are
+ * cached, least recently used first out. Each keeps up to
+ * <code>eureka.etl.conceptcache.size</code> definitions and search results,
+ * which expire after <code>eureka.etl.conceptcache.ttl</code> seconds. A
+ * source config's cache is discarded when its INI file changes.
+ * <p>
+ * The first search of a source config also starts a background walk of its
+ * concept tree that builds a {@link ConceptSearchIndex}. Searches are
+ * answered from the index once it is ready, and from the knowledge source
+ * until then. Source configs with more than
+ * <code>eureka.etl.conceptcache.indexsize</code> concepts are not indexed;
+ * setting it to 0 turns indexing off.
+ * <p>
+ * A source config's knowledge source is created outside of the cache's lock,
+ * so creating it does not hold up requests for other source configs, and
+ * concurrent requests for the same source config wait for one creation.
+ * Requests lease an entry for as long as they use its knowledge source. An
+ * entry that is evicted or invalidated while leased is closed when its last
+ * lease is returned.
+ */
+@Singleton
+public class ConceptCache implements AutoCloseable {
+
+	private static final Logger LOGGER
+			= LoggerFactory.getLogger(ConceptCache.class);
+	private static final int INDEX_BATCH_SIZE = 500;
+
+	private final EtlProperties etlProperties;
+	private final LRUMap<String, Entry> entries;
+	private final int maxDefinitions;
+	private final long ttlMillis;
+	private final int maxIndexSize;
+	private final ExecutorService indexer;
+
+	@Inject
+	public ConceptCache(EtlProperties inEtlProperties) {
+		this.etlProperties = inEtlProperties;
+		this.entries = new LRUMap<>(Math.max(1, inEtlProperties.getConceptCacheConfigs()));
+		this.maxDefinitions = Math.max(1, inEtlProperties.getConceptCacheSize());
+		this.ttlMillis = TimeUnit.SECONDS.toMillis(inEtlProperties.getConceptCacheTtl());
+		this.maxIndexSize = inEtlProperties.getConceptIndexSize();
+		this.indexer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ConceptCache-indexer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Gets a proposition definition.
+	 *
+	 * @param configId the source config id.
+	 * @param propId the proposition id.
+	 * @return the proposition definition, or <code>null</code> if there is
+	 * none with the given id.
+	 * @throws PropositionFinderException if the knowledge source could not
+	 * be read.
+	 */
+	public PropositionDefinition find(String configId, String propId)
+			throws PropositionFinderException {
+		Entry entry = lease(configId);
+		try {
+			PropositionDefinition result = entry.getDefinition(propId);
+			if (result == null) {
+				synchronized (entry) {
+					result = entry.finder.find(propId);
+				}
+				if (result != null) {
+					entry.putDefinition(result);
+				}
+			}
+			return result;
+		} finally {
+			entry.release();
+		}
+	}
+
+	/**
+	 * Gets proposition definitions. Ids with no definition are skipped.
+	 *
+	 * @param configId the source config id.
+	 * @param propIds the proposition ids.
+	 * @return the proposition definitions, in the order of the given ids.
+	 * @throws PropositionFinderException if the knowledge source could not
+	 * be read.
+	 */
+	public List<PropositionDefinition> findAll(String configId,
+			Collection<String> propIds) throws PropositionFinderException {
+		Entry entry = lease(configId);
+		try {
+			Map<String, PropositionDefinition> found = new HashMap<>();
+			List<String> misses = new ArrayList<>();
+			for (String propId : propIds) {
+				PropositionDefinition propDef = entry.getDefinition(propId);
+				if (propDef != null) {
+					found.put(propId, propDef);
+				} else {
+					misses.add(propId);
+				}
+			}
+			if (!misses.isEmpty()) {
+				List<PropositionDefinition> read;
+				synchronized (entry) {
+					read = entry.finder.findAll(misses);
+				}
+				for (PropositionDefinition propDef : read) {
+					if (propDef != null) {
+						found.put(propDef.getId(), propDef);
+					}
+				}
+			}
+			/*
+			 * Build the result before caching what was read so that the
+			 * definitions cache evicting some of them cannot drop them from
+			 * the result.
+			 */
+			List<PropositionDefinition> result = new ArrayList<>(propIds.size());
+			for (String propId : propIds) {
+				PropositionDefinition propDef = found.get(propId);
+				if (propDef != null) {
+					result.add(propDef);
+				}
+			}
+			for (String propId : misses) {
+				PropositionDefinition propDef = found.get(propId);
+				if (propDef != null) {
+					entry.putDefinition(propDef);
+				}
+			}
+			return result;
+		} finally {
+			entry.release();
+		}
+	}
+
+	/**
+	 * Searches for concepts. See
+	 * {@link PropositionDefinitionFinder#getPropIdsBySearchKey(java.lang.String) }.
+	 *
+	 * @param configId the source config id.
+	 * @param searchKey the search string.
+	 * @return the matching concepts and their ancestors.
+	 * @throws PropositionFinderException if the knowledge source could not
+	 * be read.
+	 */
+	public List<String> getPropIdsBySearchKey(String configId,
+			String searchKey) throws PropositionFinderException {
+		Entry entry = lease(configId);
+		try {
+			ConceptSearchIndex index = entry.searchIndex;
+			if (index != null) {
+				return index.search(searchKey, this.etlProperties.getSearchLimit());
+			}
+			startIndexing(entry);
+			List<String> result = entry.getSearchResult(searchKey);
+			if (result == null) {
+				synchronized (entry) {
+					result = entry.finder.getPropIdsBySearchKey(searchKey);
+				}
+				entry.putSearchResult(searchKey, result);
+			}
+			return new ArrayList<>(result);
+		} finally {
+			entry.release();
+		}
+	}
+
+	public List<PropositionDefinition> getPropositionDefinitionsBySearchKey(
+			String configId, String searchKey)
+			throws PropositionFinderException {
+		return findAll(configId, getPropIdsBySearchKey(configId, searchKey));
+	}
+
+	/**
+	 * Discards the cache of a source config. Its knowledge source is closed
+	 * once no request is using it.
+	 *
+	 * @param configId the source config id.
+	 */
+	public void invalidate(String configId) {
+		Entry entry;
+		synchronized (this.entries) {
+			entry = this.entries.remove(configId);
+		}
+		retire(entry);
+	}
+
+	@Override
+	public void close() {
+		this.indexer.shutdownNow();
+		List<Entry> toClose;
+		synchronized (this.entries) {
+			toClose = new ArrayList<>(this.entries.values());
+			this.entries.clear();
+		}
+		for (Entry entry : toClose) {
+			retire(entry);
+		}
+	}
+
+	/**
+	 * Gets the entry of a source config, creating its knowledge source if
+	 * needed, and leases it. Call {@link Entry#release() } when done with it.
+	 */
+	private Entry lease(String configId) throws PropositionFinderException {
+		long lastModified = configLastModified(configId);
+		while (true) {
+			Entry stale = null;
+			Entry evicted = null;
+			Entry created = null;
+			Entry result;
+			synchronized (this.entries) {
+				result = this.entries.get(configId);
+				if (result != null && result.configLastModified != lastModified) {
+					this.entries.remove(configId);
+					stale = result;
+					result = null;
+				}
+				if (result == null) {
+					result = new Entry(configId, lastModified);
+					created = result;
+					if (this.entries.isFull()) {
+						String eldest = this.entries.firstKey();
+						evicted = this.entries.remove(eldest);
+					}
+					this.entries.put(configId, result);
+				}
+			}
+			retire(stale);
+			retire(evicted);
+			if (created != null && !created.create()) {
+				boolean removed = false;
+				synchronized (this.entries) {
+					if (this.entries.get(configId) == created) {
+						this.entries.remove(configId);
+						removed = true;
+					}
+				}
+				if (removed) {
+					retire(created);
+				}
+			}
+			if (result.acquire()) {
+				return result;
+			}
+		}
+	}
+
+	private void startIndexing(final Entry entry)
+			throws PropositionFinderException {
+		if (this.maxIndexSize > 0 && entry.startIndexing()) {
+			/*
+			 * The indexer has its own lease so that the knowledge source stays
+			 * open until indexing stops.
+			 */
+			if (!entry.acquire()) {
+				entry.indexingStopped();
+				return;
+			}
+			try {
+				this.indexer.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							buildIndex(entry);
+						} finally {
+							entry.indexingStopped();
+							entry.release();
+						}
+					}
+				});
+			} catch (RejectedExecutionException ex) {
+				entry.indexingStopped();
+				entry.release();
+				LOGGER.debug("Not indexing concepts; the concept cache is closed");
+			}
+		}
+	}
+
+	private void buildIndex(Entry entry) {
+		long start = System.currentTimeMillis();
+		ConceptSearchIndex.Builder builder = new ConceptSearchIndex.Builder(
+				this.etlProperties.getDefaultSystemPropositions());
+		try {
+			while (builder.hasNext()) {
+				if (builder.size() > this.maxIndexSize) {
+					LOGGER.warn("Not indexing concepts: source config has more than {} concepts. Searches will use the knowledge source", this.maxIndexSize);
+					return;
+				}
+				if (entry.isRetired()) {
+					return;
+				}
+				List<String> batch = builder.nextBatch(INDEX_BATCH_SIZE);
+				List<PropositionDefinition> propDefs;
+				synchronized (entry) {
+					propDefs = entry.finder.findAll(batch);
+				}
+				for (PropositionDefinition propDef : propDefs) {
+					if (propDef != null) {
+						builder.add(propDef);
+					}
+				}
+			}
+			ConceptSearchIndex index = builder.build();
+			entry.searchIndex = index;
+			LOGGER.info("Indexed {} concepts in {} ms", index.size(), System.currentTimeMillis() - start);
+		} catch (PropositionFinderException ex) {
+			LOGGER.error("Error indexing concepts. Searches will use the knowledge source", ex);
+		}
+	}
+
+	private long configLastModified(String configId) {
+		try {
+			return new File(this.etlProperties.getSourceConfigDirectory(),
+					ToConfigFile.fromSourceConfigId(configId)).lastModified();
+		} catch (IOException ex) {
+			LOGGER.warn("Could not get the modification time of source config " + configId, ex);
+			return 0L;
+		}
+	}
+
+	/**
+	 * Drops the cache's own lease on an entry that has been removed from the
+	 * cache.
+	 */
+	private static void retire(Entry entry) {
+		if (entry != null) {
+			entry.retire();
+		}
+	}
+
+	/**
+	 * A source config's knowledge source and cached definitions and search
+	 * results. The knowledge source is used while holding the entry's
+	 * monitor. Its lifecycle is guarded by <code>lock</code>: the cache holds
+	 * one lease while the entry is in the cache, each request holds one while
+	 * it runs, and the knowledge source is closed when the last lease is
+	 * released.
+	 */
+	private final class Entry {
+
+		private final String configId;
+		private final long configLastModified;
+		private final LRUMap<String, Timestamped<PropositionDefinition>> definitions;
+		private final LRUMap<String, Timestamped<List<String>>> searchResults;
+		private final Object lock;
+		private PropositionDefinitionFinder finder;
+		private volatile ConceptSearchIndex searchIndex;
+		private boolean indexing;
+		private PropositionFinderException createException;
+		private boolean created;
+		private boolean retired;
+		private int leases;
+
+		Entry(String inConfigId, long inConfigLastModified) {
+			this.configId = inConfigId;
+			this.configLastModified = inConfigLastModified;
+			this.definitions = new LRUMap<>(maxDefinitions);
+			this.searchResults = new LRUMap<>(maxDefinitions);
+			this.lock = new Object();
+			this.leases = 1;
+		}
+
+		/**
+		 * Creates the knowledge source. Called once, by the request that
+		 * added the entry to the cache, without holding any lock.
+		 *
+		 * @return <code>true</code> if the knowledge source was created.
+		 */
+		boolean create() {
+			LOGGER.debug("Creating concept cache for source config {}", this.configId);
+			PropositionDefinitionFinder newFinder = null;
+			PropositionFinderException exception = null;
+			try {
+				newFinder = new PropositionDefinitionFinder(this.configId,
+						etlProperties);
+			} catch (PropositionFinderException ex) {
+				exception = ex;
+			} catch (RuntimeException ex) {
+				exception = new PropositionFinderException(ex);
+			}
+			boolean closeNow;
+			synchronized (this.lock) {
+				this.finder = newFinder;
+				this.createException = exception;
+				this.created = true;
+				this.lock.notifyAll();
+				closeNow = this.leases == 0;
+			}
+			if (closeNow) {
+				closeFinder();
+			}
+			return exception == null;
+		}
+
+		/**
+		 * Leases this entry, waiting for its knowledge source to be created.
+		 *
+		 * @return <code>false</code> if the entry has already been closed.
+		 * @throws PropositionFinderException if the knowledge source could
+		 * not be created.
+		 */
+		boolean acquire() throws PropositionFinderException {
+			synchronized (this.lock) {
+				while (!this.created) {
+					try {
+						this.lock.wait();
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						throw new PropositionFinderException(ex);
+					}
+				}
+				if (this.createException != null) {
+					throw this.createException;
+				}
+				if (this.leases == 0) {
+					return false;
+				}
+				this.leases++;
+				return true;
+			}
+		}
+
+		void release() {
+			boolean closeNow;
+			synchronized (this.lock) {
+				closeNow = --this.leases == 0 && this.created;
+			}
+			if (closeNow) {
+				closeFinder();
+			}
+		}
+
+		void retire() {
+			synchronized (this.lock) {
+				this.retired = true;
+			}
+			release();
+		}
+
+		boolean isRetired() {
+			synchronized (this.lock) {
+				return this.retired;
+			}
+		}
+
+		private void closeFinder() {
+			if (this.finder != null) {
+				synchronized (this) {
+					try {
+						this.finder.close();
+					} catch (PropositionFinderException ex) {
+						LOGGER.warn("Error closing knowledge source", ex);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Marks this entry as being indexed.
+		 *
+		 * @return <code>true</code> if indexing had not been started yet.
+		 */
+		synchronized boolean startIndexing() {
+			if (this.indexing) {
+				return false;
+			}
+			this.indexing = true;
+			return true;
+		}
+
+		/**
+		 * Marks this entry as no longer being indexed, so that a search
+		 * can start indexing again if no index was built.
+		 */
+		synchronized void indexingStopped() {
+			this.indexing = false;
+		}
+
+		PropositionDefinition getDefinition(String propId) {
+			synchronized (this.definitions) {
+				return unlessExpired(this.definitions, propId);
+			}
+		}
+
+		void putDefinition(PropositionDefinition propDef) {
+			synchronized (this.definitions) {
+				this.definitions.put(propDef.getId(), new Timestamped<>(propDef));
+			}
+		}
+
+		List<String> getSearchResult(String searchKey) {
+			synchronized (this.searchResults) {
+				return unlessExpired(this.searchResults, searchKey);
+			}
+		}
+
+		void putSearchResult(String searchKey, List<String> propIds) {
+			synchronized (this.searchResults) {
+				this.searchResults.put(searchKey, new Timestamped<>(propIds));
+			}
+		}
+
+		private <V> V unlessExpired(LRUMap<String, Timestamped<V>> map, String key) {
+			Timestamped<V> value = map.get(key);
+			if (value == null) {
+				return null;
+			} else if (System.currentTimeMillis() - value.created > ttlMillis) {
+				map.remove(key);
+				return null;
+			} else {
+				return value.value;
+			}
+		}
+	}
+
+	private static final class Timestamped<V> {
+
+		private final V value;
+		private final long created;
+
+		Timestamped(V inValue) {
+			this.value = inValue;
+			this.created = System.currentTimeMillis();
+		}
+	}
+}
@@ -0,0 +1,338 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.ksb;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.protempa.PropositionDefinition;
+
+/**
+ * An in-memory search index over the concepts of a source config. Concepts
+ * are found by case-insensitive substring match on their id or display name,
+ * using a trigram index to narrow down the candidates. Each concept's
+ * ancestors are precomputed, so a search result can be expanded into the
+ * concepts that the concept tree must open without going back to the
+ * knowledge source.
+ * <p>
+ * Concepts are numbered in the order in which they are discovered by a
+ * breadth-first walk down from the default system propositions, so every
+ * concept apart from the roots has a parent with a lower number. Search
+ * results are returned in that order, which lets the concept tree attach
+ * each returned concept to one that it has already loaded.
+ * <p>
+ * Instances are immutable and safe for use by multiple threads. They are
+ * created with a {@link Builder}.
+ */
+final class ConceptSearchIndex {
+
+	private static final int GRAM_LENGTH = 3;
+	private static final int[] EMPTY = new int[0];
+
+	private final String[] propIds;
+	private final String[] texts;
+	private final int[][] ancestors;
+	private final Map<String, int[]> postings;
+
+	private ConceptSearchIndex(String[] inPropIds, String[] inTexts,
+			int[][] inAncestors, Map<String, int[]> inPostings) {
+		this.propIds = inPropIds;
+		this.texts = inTexts;
+		this.ancestors = inAncestors;
+		this.postings = inPostings;
+	}
+
+	int size() {
+		return this.propIds.length;
+	}
+
+	/**
+	 * Finds the concepts whose id or display name contains the search key,
+	 * and returns their ancestors. Has the same semantics as
+	 * {@link PropositionDefinitionFinder#getPropIdsBySearchKey(java.lang.String) }.
+	 *
+	 * @param searchKey the search key.
+	 * @param searchLimit matching concepts stop being processed once more
+	 * than this many ids have been collected.
+	 * @return the ancestors of the matching concepts, parents before
+	 * children.
+	 */
+	List<String> search(String searchKey, int searchLimit) {
+		String key = searchKey.toLowerCase(Locale.ROOT);
+		BitSet found = new BitSet(this.propIds.length);
+		int count = 0;
+		int[] candidates = candidates(key);
+		int n = candidates != null ? candidates.length : this.propIds.length;
+		for (int i = 0; i < n && count <= searchLimit; i++) {
+			int concept = candidates != null ? candidates[i] : i;
+			if (this.texts[concept].contains(key)) {
+				for (int ancestor : this.ancestors[concept]) {
+					if (!found.get(ancestor)) {
+						found.set(ancestor);
+						count++;
+					}
+				}
+			}
+		}
+		List<String> result = new ArrayList<>(count);
+		for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+			result.add(this.propIds[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the smallest trigram posting list of the search key.
+	 *
+	 * @param key the lower-cased search key.
+	 * @return the concepts that contain the rarest trigram of the key, or
+	 * <code>null</code> if the key is too short to have trigrams and every
+	 * concept is a candidate.
+	 */
+	private int[] candidates(String key) {
+		if (key.length() < GRAM_LENGTH) {
+			return null;
+		}
+		int[] result = null;
+		for (int i = 0; i + GRAM_LENGTH <= key.length(); i++) {
+			int[] posting = this.postings.get(key.substring(i, i + GRAM_LENGTH));
+			if (posting == null) {
+				return EMPTY;
+			}
+			if (result == null || posting.length < result.length) {
+				result = posting;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Collects concepts for a {@link ConceptSearchIndex}. The caller reads
+	 * the proposition definitions of the ids returned by
+	 * {@link #nextBatch(int) } and passes them to
+	 * {@link #add(org.protempa.PropositionDefinition) }, which discovers
+	 * their children, until {@link #hasNext() } returns <code>false</code>.
+	 */
+	static final class Builder {
+
+		private final List<String> propIds;
+		private final Map<String, Integer> numbers;
+		private final List<String> texts;
+		private final List<IntList> parents;
+		private int next;
+
+		Builder(Collection<String> roots) {
+			this.propIds = new ArrayList<>();
+			this.numbers = new HashMap<>();
+			this.texts = new ArrayList<>();
+			this.parents = new ArrayList<>();
+			for (String root : roots) {
+				number(root);
+			}
+		}
+
+		/**
+		 * Gets the number of concepts discovered so far.
+		 *
+		 * @return the number of concepts.
+		 */
+		int size() {
+			return this.propIds.size();
+		}
+
+		boolean hasNext() {
+			return this.next < this.propIds.size();
+		}
+
+		/**
+		 * Gets the ids of the next discovered concepts whose definitions
+		 * have not been read yet.
+		 *
+		 * @param batchSize the maximum number of ids to return.
+		 * @return the ids.
+		 */
+		List<String> nextBatch(int batchSize) {
+			int end = Math.min(this.propIds.size(), this.next + batchSize);
+			List<String> result = new ArrayList<>(this.propIds.subList(this.next, end));
+			this.next = end;
+			return result;
+		}
+
+		void add(PropositionDefinition propDef) {
+			Integer number = this.numbers.get(propDef.getId());
+			if (number != null) {
+				String displayName = propDef.getDisplayName();
+				this.texts.set(number, displayName != null
+						? propDef.getId() + '\n' + displayName
+						: propDef.getId());
+				for (String child : propDef.getChildren()) {
+					IntList childParents = this.parents.get(number(child));
+					if (!childParents.contains(number)) {
+						childParents.add(number);
+					}
+				}
+			}
+		}
+
+		ConceptSearchIndex build() {
+			int n = this.propIds.size();
+			String[] texts = new String[n];
+			Map<String, IntList> postingLists = new HashMap<>();
+			for (int i = 0; i < n; i++) {
+				String text = this.texts.get(i);
+				texts[i] = (text != null ? text : this.propIds.get(i)).toLowerCase(Locale.ROOT);
+				for (int j = 0; j + GRAM_LENGTH <= texts[i].length(); j++) {
+					String gram = texts[i].substring(j, j + GRAM_LENGTH);
+					IntList posting = postingLists.get(gram);
+					if (posting == null) {
+						posting = new IntList();
+						postingLists.put(gram, posting);
+					}
+					if (posting.isEmpty() || posting.last() != i) {
+						posting.add(i);
+					}
+				}
+			}
+			Map<String, int[]> postings = new HashMap<>(postingLists.size() * 4 / 3 + 1);
+			for (Map.Entry<String, IntList> me : postingLists.entrySet()) {
+				postings.put(me.getKey(), me.getValue().toArray());
+			}
+			int[][] ancestors = new int[n][];
+			BitSet visiting = new BitSet(n);
+			for (int i = 0; i < n; i++) {
+				ancestors(i, ancestors, visiting);
+			}
+			return new ConceptSearchIndex(
+					this.propIds.toArray(new String[n]), texts, ancestors,
+					postings);
+		}
+
+		private int number(String propId) {
+			Integer result = this.numbers.get(propId);
+			if (result == null) {
+				result = this.propIds.size();
+				this.numbers.put(propId, result);
+				this.propIds.add(propId);
+				this.texts.add(null);
+				this.parents.add(new IntList());
+			}
+			return result;
+		}
+
+		private int[] ancestors(int concept, int[][] ancestors, BitSet visiting) {
+			if (ancestors[concept] != null) {
+				return ancestors[concept];
+			}
+			if (visiting.get(concept)) {
+				// The hierarchy has a cycle. Stop here rather than overflow.
+				return EMPTY;
+			}
+			visiting.set(concept);
+			BitSet result = new BitSet();
+			IntList conceptParents = this.parents.get(concept);
+			for (int i = 0; i < conceptParents.size(); i++) {
+				int parent = conceptParents.get(i);
+				result.set(parent);
+				for (int ancestor : ancestors(parent, ancestors, visiting)) {
+					result.set(ancestor);
+				}
+			}
+			visiting.clear(concept);
+			int[] array = new int[result.cardinality()];
+			int k = 0;
+			for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+				array[k++] = i;
+			}
+			ancestors[concept] = array;
+			return array;
+		}
+	}
+
+	/**
+	 * A growable list of primitive ints.
+	 */
+	private static final class IntList {
+
+		private int[] elements = new int[2];
+		private int size;
+
+		void add(int element) {
+			if (this.size == this.elements.length) {
+				this.elements = Arrays.copyOf(this.elements, this.size * 2);
+			}
+			this.elements[this.size++] = element;
+		}
+
+		int get(int index) {
+			return this.elements[index];
+		}
+
+		int last() {
+			return this.elements[this.size - 1];
+		}
+
+		int size() {
+			return this.size;
+		}
+
+		boolean isEmpty() {
+			return this.size == 0;
+		}
+
+		boolean contains(int element) {
+			for (int i = 0; i < this.size; i++) {
+				if (this.elements[i] == element) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(this.elements, this.size);
+		}
+	}
+}
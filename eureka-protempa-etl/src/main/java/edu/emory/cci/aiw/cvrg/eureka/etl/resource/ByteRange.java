@@ -0,0 +1,143 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.resource;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * A single byte range from an HTTP <code>Range</code> header, resolved
+ * against the length of the file being sent. Only single ranges in bytes are
+ * supported. Requests for several ranges are answered with the whole file,
+ * which HTTP allows.
+ */
+final class ByteRange {
+
+	private static final String BYTES_UNIT = "bytes=";
+
+	private final long first;
+	private final long last;
+	private final long totalLength;
+
+	private ByteRange(long inFirst, long inLast, long inTotalLength) {
+		this.first = inFirst;
+		this.last = inLast;
+		this.totalLength = inTotalLength;
+	}
+
+	/**
+	 * Parses a <code>Range</code> header.
+	 *
+	 * @param header the header's value. May be <code>null</code>.
+	 * @param totalLength the length of the file.
+	 * @return the range, or <code>null</code> if the header is absent, not
+	 * valid or not supported and the whole file should be sent.
+	 */
+	static ByteRange parse(String header, long totalLength) {
+		if (header == null) {
+			return null;
+		}
+		String spec = header.trim();
+		if (!spec.startsWith(BYTES_UNIT)) {
+			return null;
+		}
+		spec = spec.substring(BYTES_UNIT.length()).trim();
+		if (spec.indexOf(',') >= 0) {
+			return null;
+		}
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		String firstStr = spec.substring(0, dash).trim();
+		String lastStr = spec.substring(dash + 1).trim();
+		try {
+			if (firstStr.isEmpty()) {
+				if (lastStr.isEmpty()) {
+					return null;
+				}
+				long suffixLength = Long.parseLong(lastStr);
+				if (suffixLength < 0) {
+					return null;
+				}
+				return new ByteRange(
+						Math.max(0L, totalLength - suffixLength),
+						totalLength - 1, totalLength);
+			}
+			long first = Long.parseLong(firstStr);
+			long last = lastStr.isEmpty() ? totalLength - 1 : Long.parseLong(lastStr);
+			if (first < 0 || last < first) {
+				return null;
+			}
+			return new ByteRange(first, Math.min(last, totalLength - 1), totalLength);
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets whether any of the range is within the file. If not, the server
+	 * responds with status 416.
+	 *
+	 * @return <code>true</code> if the range can be sent.
+	 */
+	boolean isSatisfiable() {
+		return this.first < this.totalLength && this.first <= this.last;
+	}
+
+	long getFirst() {
+		return first;
+	}
+
+	long getLength() {
+		return this.last - this.first + 1;
+	}
+
+	/**
+	 * Gets the value of the <code>Content-Range</code> header for this range.
+	 *
+	 * @return the header value.
+	 */
+	String toContentRange() {
+		if (isSatisfiable()) {
+			return "bytes " + this.first + "-" + this.last + "/" + this.totalLength;
+		} else {
+			return "bytes */" + this.totalLength;
+		}
+	}
+}
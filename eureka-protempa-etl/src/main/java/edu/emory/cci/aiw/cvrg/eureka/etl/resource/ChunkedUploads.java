@@ -0,0 +1,342 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.resource;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Assembles files that are uploaded in chunks by flow.js. Each chunk is
+ * written at its offset into a part file in the upload's temporary directory,
+ * and the chunks received so far are recorded in a bitmap file next to it, so
+ * an upload can be resumed after a restart. The SHA-256 checksum of the file
+ * is computed as the chunks at its start arrive. When every chunk has
+ * arrived, the part file is moved into place. Uploads that have not received
+ * a chunk for an hour are forgotten; if their client comes back, their state
+ * is read again from the bitmap file.
+ */
+@Singleton
+public class ChunkedUploads {
+
+	private static final String PART_SUFFIX = ".part";
+	private static final String CHUNKS_SUFFIX = ".chunks";
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final long STALE_MILLIS = 60L * 60L * 1000L;
+
+	private final Map<File, Upload> uploads;
+
+	public ChunkedUploads() {
+		this.uploads = new HashMap<>();
+	}
+
+	/**
+	 * Gets whether a chunk of an upload has been received. Does not change
+	 * any files or start tracking the upload.
+	 *
+	 * @param tempDir the upload's temporary directory.
+	 * @param fileName the name of the uploaded file.
+	 * @param chunkNumber the chunk's number, starting at 1.
+	 * @param totalChunks the number of chunks in the upload.
+	 * @return <code>true</code> if the chunk has been received.
+	 * @throws IOException if the bitmap file could not be read.
+	 */
+	boolean hasChunk(File tempDir, String fileName, int chunkNumber,
+			int totalChunks) throws IOException {
+		checkFileName(fileName);
+		File partFile = new File(tempDir, fileName + PART_SUFFIX);
+		Upload upload;
+		synchronized (this) {
+			upload = this.uploads.get(partFile);
+		}
+		if (upload != null && upload.totalChunks == totalChunks) {
+			synchronized (upload) {
+				return upload.received.get(chunkNumber - 1);
+			}
+		}
+		BitSet received = Upload.readBitmap(
+				new File(tempDir, fileName + CHUNKS_SUFFIX), totalChunks);
+		return received != null && partFile.exists()
+				&& received.get(chunkNumber - 1);
+	}
+
+	/**
+	 * Checks that a file name is a single path segment, so that an upload
+	 * cannot read or write files outside of its directory.
+	 *
+	 * @param fileName the name of the uploaded file.
+	 * @throws IllegalArgumentException if the file name is not valid.
+	 */
+	static void checkFileName(String fileName) {
+		if (fileName == null || fileName.isEmpty() || fileName.equals(".")
+				|| fileName.equals("..") || fileName.indexOf('/') >= 0
+				|| fileName.indexOf('\\') >= 0 || fileName.indexOf('\0') >= 0
+				|| !new File(fileName).getName().equals(fileName)) {
+			throw new IllegalArgumentException("Invalid file name: " + fileName);
+		}
+	}
+
+	/**
+	 * Writes a chunk of an upload. If it is the last chunk to arrive, the
+	 * uploaded file is moved to the given directory.
+	 *
+	 * @param tempDir the upload's temporary directory.
+	 * @param fileName the name of the uploaded file.
+	 * @param chunkNumber the chunk's number, starting at 1.
+	 * @param totalChunks the number of chunks in the upload.
+	 * @param chunkSize the size of every chunk except possibly the last.
+	 * @param totalSize the size of the file, or a negative number if unknown.
+	 * @param in the chunk's contents.
+	 * @param uploadedDir where to put the file once it is complete.
+	 * @return the file's SHA-256 checksum in hex if the upload is complete,
+	 * or <code>null</code> if chunks are still missing.
+	 * @throws IOException if the chunk could not be written.
+	 */
+	String writeChunk(File tempDir, String fileName, int chunkNumber,
+			int totalChunks, long chunkSize, long totalSize, InputStream in,
+			File uploadedDir) throws IOException {
+		checkFileName(fileName);
+		Upload upload = getUpload(tempDir, fileName, totalChunks);
+		long position = (chunkNumber - 1) * chunkSize;
+		try (FileChannel channel = FileChannel.open(upload.partFile.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.READ)) {
+			if (totalSize >= 0 && channel.size() < totalSize) {
+				preallocate(channel, totalSize);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			byte[] bytes = buffer.array();
+			int n;
+			while ((n = in.read(bytes)) != -1) {
+				buffer.limit(n);
+				while (buffer.hasRemaining()) {
+					position += channel.write(buffer, position);
+				}
+				buffer.clear();
+			}
+			synchronized (upload) {
+				if (upload.done) {
+					return null;
+				}
+				upload.markReceived(chunkNumber - 1);
+				upload.digestReceived(channel, chunkSize);
+				if (upload.received.cardinality() < totalChunks) {
+					return null;
+				}
+				upload.done = true;
+			}
+		}
+		removeUpload(upload);
+		String checksum = upload.checksum();
+		Files.move(upload.partFile.toPath(),
+				new File(uploadedDir, fileName).toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		Files.deleteIfExists(upload.chunksFile.toPath());
+		try {
+			Files.deleteIfExists(tempDir.toPath());
+		} catch (DirectoryNotEmptyException ex) {
+			// Another file is being uploaded into the same directory.
+		}
+		return checksum;
+	}
+
+	private synchronized Upload getUpload(File tempDir, String fileName,
+			int totalChunks) throws IOException {
+		long now = System.currentTimeMillis();
+		removeStaleUploads(now);
+		File partFile = new File(tempDir, fileName + PART_SUFFIX);
+		Upload upload = this.uploads.get(partFile);
+		if (upload == null || upload.totalChunks != totalChunks) {
+			upload = new Upload(partFile,
+					new File(tempDir, fileName + CHUNKS_SUFFIX), totalChunks);
+			this.uploads.put(partFile, upload);
+		}
+		upload.lastUsed = now;
+		return upload;
+	}
+
+	/**
+	 * Forgets uploads whose client has gone away. Their files are left so
+	 * that they still can be resumed.
+	 */
+	private void removeStaleUploads(long now) {
+		for (Iterator<Upload> itr = this.uploads.values().iterator(); itr.hasNext();) {
+			if (now - itr.next().lastUsed > STALE_MILLIS) {
+				itr.remove();
+			}
+		}
+	}
+
+	private synchronized void removeUpload(Upload upload) {
+		this.uploads.remove(upload.partFile, upload);
+	}
+
+	/**
+	 * Extends the part file to its final size so that writing chunks out of
+	 * order does not fragment it.
+	 */
+	private static void preallocate(FileChannel channel, long totalSize)
+			throws IOException {
+		if (totalSize > 0) {
+			channel.write(ByteBuffer.allocate(1), totalSize - 1);
+		}
+	}
+
+	private static final class Upload {
+
+		private final File partFile;
+		private final File chunksFile;
+		private final int totalChunks;
+		private final BitSet received;
+		private final MessageDigest digest;
+		private int digestedChunks;
+		private boolean done;
+		private long lastUsed;
+
+		Upload(File inPartFile, File inChunksFile, int inTotalChunks)
+				throws IOException {
+			this.partFile = inPartFile;
+			this.chunksFile = inChunksFile;
+			this.totalChunks = inTotalChunks;
+			BitSet bits = readBitmap(inChunksFile, inTotalChunks);
+			if (bits == null) {
+				/*
+				 * No bitmap, or one from an upload of the same file with a
+				 * different number of chunks. Start over.
+				 */
+				Files.write(inChunksFile.toPath(), new byte[bitmapLength(inTotalChunks)]);
+				Files.deleteIfExists(inPartFile.toPath());
+				bits = new BitSet(inTotalChunks);
+			}
+			this.received = bits;
+			try {
+				this.digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException ex) {
+				throw new AssertionError("SHA-256 is not available", ex);
+			}
+		}
+
+		/**
+		 * Reads a bitmap file.
+		 *
+		 * @return the chunks received, or <code>null</code> if there is no
+		 * bitmap file for an upload with the given number of chunks.
+		 */
+		static BitSet readBitmap(File chunksFile, int totalChunks)
+				throws IOException {
+			if (chunksFile.exists()) {
+				byte[] bytes = Files.readAllBytes(chunksFile.toPath());
+				if (bytes.length == bitmapLength(totalChunks)) {
+					return BitSet.valueOf(bytes);
+				}
+			}
+			return null;
+		}
+
+		private static int bitmapLength(int totalChunks) {
+			return (totalChunks + 7) / 8;
+		}
+
+		/**
+		 * Records a chunk in the bitmap file by rewriting the byte that holds
+		 * its bit.
+		 */
+		void markReceived(int index) throws IOException {
+			this.received.set(index);
+			int byteIndex = index / 8;
+			byte[] bytes = this.received.get(byteIndex * 8, byteIndex * 8 + 8).toByteArray();
+			try (FileChannel channel = FileChannel.open(this.chunksFile.toPath(),
+					StandardOpenOption.WRITE)) {
+				channel.write(ByteBuffer.wrap(bytes.length > 0 ? bytes : new byte[1]), byteIndex);
+			}
+		}
+
+		/**
+		 * Adds the chunks that directly follow the ones already in the
+		 * checksum to it, reading them back from the part file.
+		 */
+		void digestReceived(FileChannel channel, long chunkSize)
+				throws IOException {
+			ByteBuffer buffer = null;
+			while (this.digestedChunks < this.totalChunks
+					&& this.received.get(this.digestedChunks)) {
+				if (buffer == null) {
+					buffer = ByteBuffer.allocate(BUFFER_SIZE);
+				}
+				long position = this.digestedChunks * chunkSize;
+				long end = this.digestedChunks == this.totalChunks - 1
+						? channel.size() : position + chunkSize;
+				while (position < end) {
+					buffer.clear();
+					buffer.limit((int) Math.min(buffer.capacity(), end - position));
+					int n = channel.read(buffer, position);
+					if (n < 0) {
+						break;
+					}
+					this.digest.update(buffer.array(), 0, n);
+					position += n;
+				}
+				this.digestedChunks++;
+			}
+		}
+
+		String checksum() {
+			StringBuilder result = new StringBuilder();
+			for (byte b : this.digest.digest()) {
+				result.append(String.format("%02x", b));
+			}
+			return result.toString();
+		}
+	}
+}
@@ -57,14 +57,14 @@ import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
 
 import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
-import edu.emory.cci.aiw.cvrg.eureka.etl.ksb.PropositionDefinitionFinder;
+import edu.emory.cci.aiw.cvrg.eureka.etl.ksb.ConceptCache;
 import edu.emory.cci.aiw.cvrg.eureka.etl.ksb.PropositionFinderException;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.FormParam;
-import org.arp.javautil.arrays.Arrays;
 import org.eurekaclinical.standardapis.exception.HttpStatusException;
 
 /**
@@ -78,11 +78,18 @@ public class ConceptResource {
 
 	private static final Logger LOGGER = LoggerFactory
 			.getLogger(ConceptResource.class);
+	/**
+	 * The most levels of descendants that can be requested at once.
+	 */
+	private static final int MAX_DEPTH = 5;
 	private final EtlProperties etlProperties;
+	private final ConceptCache conceptCache;
 
 	@Inject
-	public ConceptResource(EtlProperties inEtlProperties) {
+	public ConceptResource(EtlProperties inEtlProperties,
+			ConceptCache inConceptCache) {
 		this.etlProperties = inEtlProperties;
+		this.conceptCache = inConceptCache;
 	}
 
 	@GET
@@ -91,22 +98,20 @@ public class ConceptResource {
 			@PathParam("configId") String inConfigId,
 			@PathParam("key") String inKey) {
 		if (this.etlProperties.getConfigDir() != null) {
-			try (PropositionDefinitionFinder propositionFinder
-					= new PropositionDefinitionFinder(
-							inConfigId, this.etlProperties)) {
-						PropositionDefinition definition = propositionFinder
-								.find(inKey);
-						if (definition != null) {
-							return definition;
-						} else {
-							throw new HttpStatusException(
-									Response.Status.NOT_FOUND,
-									"No proposition with id " + inKey);
-						}
-					} catch (PropositionFinderException e) {
-						throw new HttpStatusException(
-								Response.Status.INTERNAL_SERVER_ERROR, e);
-					}
+			try {
+				PropositionDefinition definition
+						= this.conceptCache.find(inConfigId, inKey);
+				if (definition != null) {
+					return definition;
+				} else {
+					throw new HttpStatusException(
+							Response.Status.NOT_FOUND,
+							"No proposition with id " + inKey);
+				}
+			} catch (PropositionFinderException e) {
+				throw new HttpStatusException(
+						Response.Status.INTERNAL_SERVER_ERROR, e);
+			}
 		} else {
 			throw new HttpStatusException(
 					Response.Status.INTERNAL_SERVER_ERROR,
@@ -122,8 +127,9 @@ public class ConceptResource {
 	public List<PropositionDefinition> getPropositionsGet(
 			@PathParam("configId") String inConfigId,
 			@QueryParam("key") List<String> inKeys,
-			@QueryParam("withChildren") String withChildren) {
-		return getPropositionsCommon(inConfigId, inKeys, withChildren);
+			@QueryParam("withChildren") String withChildren,
+			@QueryParam("depth") Integer inDepth) {
+		return getPropositionsCommon(inConfigId, inKeys, withChildren, inDepth);
 	}
 
 	@POST
@@ -131,22 +137,60 @@ public class ConceptResource {
 	public List<PropositionDefinition> getPropositionsPost(
 			@PathParam("configId") String inConfigId,
 			@FormParam("key") List<String> inKeys,
-			@FormParam("withChildren") String withChildren) {
-		return getPropositionsCommon(inConfigId, inKeys, withChildren);
+			@FormParam("withChildren") String withChildren,
+			@FormParam("depth") Integer inDepth) {
+		return getPropositionsCommon(inConfigId, inKeys, withChildren, inDepth);
 	}
 
-	private List<PropositionDefinition> getPropositionsCommon(String inConfigId, List<String> inKeys, String withChildren) throws HttpStatusException {
+	/**
+	 * Gets the requested proposition definitions followed by their
+	 * descendants, one level at a time, without duplicates.
+	 *
+	 * @param inConfigId the source configuration id.
+	 * @param inKeys the ids of the proposition definitions to get.
+	 * @param withChildren whether to get the definitions' children as well.
+	 * Ignored if a depth is given.
+	 * @param inDepth how many levels of descendants to get. May be
+	 * <code>null</code>.
+	 * @return the proposition definitions.
+	 */
+	private List<PropositionDefinition> getPropositionsCommon(String inConfigId, List<String> inKeys, String withChildren, Integer inDepth) throws HttpStatusException {
+		int depth;
+		if (inDepth != null) {
+			if (inDepth < 0 || inDepth > MAX_DEPTH) {
+				throw new HttpStatusException(Response.Status.BAD_REQUEST,
+						"depth must be between 0 and " + MAX_DEPTH);
+			}
+			depth = inDepth;
+		} else {
+			depth = Boolean.parseBoolean(withChildren) ? 1 : 0;
+		}
 			if (this.etlProperties.getConfigDir() != null) {
-			try (PropositionDefinitionFinder propositionFinder
-					= new PropositionDefinitionFinder(inConfigId,
-							this.etlProperties)) {
-				List<PropositionDefinition> result = propositionFinder.findAll(inKeys);
-				if (Boolean.parseBoolean(withChildren)) {
-					Set<String> narrower = new HashSet<>();
-					for (PropositionDefinition propDef : result) {
-						Arrays.addAll(narrower, propDef.getChildren());
+			try {
+				List<PropositionDefinition> result
+						= this.conceptCache.findAll(inConfigId, inKeys);
+				Set<String> found = new HashSet<>();
+				for (PropositionDefinition propDef : result) {
+					found.add(propDef.getId());
+				}
+				List<PropositionDefinition> level = result;
+				for (int i = 0; i < depth; i++) {
+					Set<String> narrower = new LinkedHashSet<>();
+					for (PropositionDefinition propDef : level) {
+						for (String child : propDef.getChildren()) {
+							if (!found.contains(child)) {
+								narrower.add(child);
+							}
+						}
+					}
+					if (narrower.isEmpty()) {
+						break;
+					}
+					level = this.conceptCache.findAll(inConfigId, narrower);
+					for (PropositionDefinition propDef : level) {
+						found.add(propDef.getId());
 					}
-					result.addAll(propositionFinder.findAll(narrower));
+					result.addAll(level);
 				}
 				return result;
 			} catch (PropositionFinderException e) {
@@ -172,9 +216,8 @@ public class ConceptResource {
 			LOGGER.debug("Searching for String " + inSearchKey
 					+ " in the system element tree");
 			if (this.etlProperties.getConfigDir() != null) {
-				PropositionDefinitionFinder propositionFinder = new PropositionDefinitionFinder(
-						inSourceConfigId, this.etlProperties);
-				return propositionFinder.getPropIdsBySearchKey(inSearchKey);
+				return this.conceptCache.getPropIdsBySearchKey(
+						inSourceConfigId, inSearchKey);
 			} else {
 				throw new HttpStatusException(
 						Response.Status.INTERNAL_SERVER_ERROR,
@@ -202,9 +245,8 @@ public class ConceptResource {
 			LOGGER.debug("Searching for String " + inSearchKey
 					+ " in the system element tree");
 			if (this.etlProperties.getConfigDir() != null) {
-				PropositionDefinitionFinder propositionFinder = new PropositionDefinitionFinder(
-						inSourceConfigId, this.etlProperties);
-				return propositionFinder.getPropositionDefinitionsBySearchKey(inSearchKey);
+				return this.conceptCache.getPropositionDefinitionsBySearchKey(
+						inSourceConfigId, inSearchKey);
 			} else {
 				throw new HttpStatusException(
 						Response.Status.INTERNAL_SERVER_ERROR,
@@ -46,29 +46,27 @@ import edu.emory.cci.aiw.cvrg.eureka.common.authentication.AuthorizedUserSupport
 import org.eurekaclinical.eureka.client.comm.SourceConfig;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.AuthorizedUserEntity;
 import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
+import edu.emory.cci.aiw.cvrg.eureka.etl.config.SourceConfigRegistry;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dao.EtlGroupDao;
 import edu.emory.cci.aiw.cvrg.eureka.common.dao.AuthorizedUserDao;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dao.SourceConfigDao;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
-import java.util.Arrays;
-import java.util.Comparator;
 import javax.annotation.security.RolesAllowed;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
-import org.apache.commons.io.FileUtils;
 import org.eurekaclinical.standardapis.exception.HttpStatusException;
 
 /**
@@ -84,16 +82,26 @@ public class FileResource {
 	private final SourceConfigDao sourceConfigDao;
 	private final AuthorizedUserSupport authenticationSupport;
 	private final EtlGroupDao groupDao;
+	private final ChunkedUploads chunkedUploads;
+	private final SourceConfigRegistry sourceConfigRegistry;
 
 	@Inject
-	public FileResource(EtlProperties inEtlProperties, AuthorizedUserDao inUserDao, SourceConfigDao inSourceConfigDao, EtlGroupDao inGroupDao) {
+	public FileResource(EtlProperties inEtlProperties, AuthorizedUserDao inUserDao, SourceConfigDao inSourceConfigDao, EtlGroupDao inGroupDao, ChunkedUploads inChunkedUploads, SourceConfigRegistry inSourceConfigRegistry) {
 		this.etlProperties = inEtlProperties;
 		this.userDao = inUserDao;
 		this.sourceConfigDao = inSourceConfigDao;
 		this.authenticationSupport = new AuthorizedUserSupport(this.userDao);
 		this.groupDao = inGroupDao;
+		this.chunkedUploads = inChunkedUploads;
+		this.sourceConfigRegistry = inSourceConfigRegistry;
 	}
 
+	/**
+	 * Receives a chunk of a file uploaded by flow.js. The chunk is written at
+	 * its offset into the file being assembled; see {@link ChunkedUploads}. If
+	 * the client sends the SHA-256 checksum of the whole file as
+	 * <code>flowChecksum</code>, it is checked once the last chunk arrives.
+	 */
 	@POST
 	@Path("/upload/{sourceConfigId}/{sourceId}")
 	@Consumes(MediaType.MULTIPART_FORM_DATA)
@@ -104,50 +112,97 @@ public class FileResource {
 			@FormDataParam("file") InputStream inUploadingInputStream,
 			@FormDataParam("file") FormDataContentDisposition fileDetail,
 			@DefaultValue("1") @FormDataParam("flowChunkNumber") int chunkNumber,
-			@DefaultValue("1") @FormDataParam("flowTotalChunks") int totalChunks) {
-		AuthorizedUserEntity user = this.authenticationSupport.getUser(req);
-		SourceConfigs sources = new SourceConfigs(this.etlProperties, user, this.sourceConfigDao, this.groupDao);
+			@DefaultValue("1") @FormDataParam("flowTotalChunks") int totalChunks,
+			@DefaultValue("0") @FormDataParam("flowChunkSize") long chunkSize,
+			@DefaultValue("-1") @FormDataParam("flowTotalSize") long totalSize,
+			@FormDataParam("flowChecksum") String checksum) {
+		checkChunk(chunkNumber, totalChunks, chunkSize);
+		String fileName = fileDetail.getFileName();
+		checkFileName(fileName);
 		try {
-			SourceConfig sourceConfig = sources.getOne(sourceConfigId);
-			if (sourceConfig == null || !sourceConfig.isExecute()) {
-				throw new HttpStatusException(Status.NOT_FOUND);
-			}
+			checkSourceConfig(req, sourceConfigId);
 			File uploadedDir = this.etlProperties.uploadedDirectory(sourceConfigId, sourceId);
-			try {
-				File tempDir = this.etlProperties.tempUploadedDirectory(sourceConfigId, sourceId);
-				File partialFile = new File(tempDir, String.format(fileDetail.getFileName() + "%05d", chunkNumber));
-				FileUtils.copyInputStreamToFile(inUploadingInputStream, partialFile);
-				File[] partialFiles = tempDir.listFiles();
-				if (partialFiles.length == totalChunks) {
-					Arrays.sort(partialFiles, fileComparator);
-					try (OutputStream out = new FileOutputStream(new File(uploadedDir, fileDetail.getFileName()))) {
-						for (int i = 0; i < totalChunks; i++) {
-							FileUtils.copyFile(partialFiles[i], out);
-						}
-					}
-					FileUtils.deleteDirectory(tempDir);
-				};
-			} catch (IOException ex) {
-				throw new HttpStatusException(
-						Response.Status.INTERNAL_SERVER_ERROR,
-						"Uploading file '" + fileDetail.getFileName() + "' failed",
-						ex);
+			File tempDir = this.etlProperties.tempUploadedDirectory(sourceConfigId, sourceId);
+			String actualChecksum = this.chunkedUploads.writeChunk(tempDir,
+					fileName, chunkNumber, totalChunks, chunkSize, totalSize,
+					inUploadingInputStream, uploadedDir);
+			if (actualChecksum != null && checksum != null
+					&& !checksum.equalsIgnoreCase(actualChecksum)) {
+				Files.deleteIfExists(new File(uploadedDir, fileName).toPath());
+				throw new HttpStatusException(Status.BAD_REQUEST,
+						"Uploaded file '" + fileName + "' does not match its checksum");
 			}
 		} catch (IOException | SecurityException ex) {
 			throw new HttpStatusException(
 					Response.Status.INTERNAL_SERVER_ERROR,
-					"Uploading file '" + fileDetail.getFileName() + "' failed",
+					"Uploading file '" + fileName + "' failed",
 					ex);
 		}
 
 		return Response.status(Status.CREATED).build();
 	}
 
-	private static final Comparator<File> fileComparator = new Comparator<File>() {
-		@Override
-		public int compare(File o1, File o2) {
-			return o1.getName().compareTo(o2.getName());
+	/**
+	 * Tells flow.js whether a chunk has already been received so that an
+	 * interrupted upload can be resumed.
+	 * Only reads the upload's state.
+	 *
+	 * @return status 200 if the chunk has been received, 204 if not.
+	 */
+	@GET
+	@Path("/upload/{sourceConfigId}/{sourceId}")
+	public Response testChunk(
+			@Context HttpServletRequest req,
+			@PathParam("sourceConfigId") String sourceConfigId,
+			@PathParam("sourceId") String sourceId,
+			@QueryParam("flowFilename") String fileName,
+			@DefaultValue("1") @QueryParam("flowChunkNumber") int chunkNumber,
+			@DefaultValue("1") @QueryParam("flowTotalChunks") int totalChunks,
+			@DefaultValue("0") @QueryParam("flowChunkSize") long chunkSize) {
+		checkChunk(chunkNumber, totalChunks, chunkSize);
+		if (fileName == null) {
+			throw new HttpStatusException(Status.BAD_REQUEST, "flowFilename is required");
+		}
+		checkFileName(fileName);
+		try {
+			checkSourceConfig(req, sourceConfigId);
+			File tempDir = this.etlProperties.tempUploadedDirectory(sourceConfigId, sourceId);
+			if (this.chunkedUploads.hasChunk(tempDir, fileName, chunkNumber, totalChunks)) {
+				return Response.ok().build();
+			} else {
+				return Response.noContent().build();
+			}
+		} catch (IOException ex) {
+			throw new HttpStatusException(Status.INTERNAL_SERVER_ERROR, ex);
+		}
+	}
+
+	private void checkSourceConfig(HttpServletRequest req, String sourceConfigId) throws IOException {
+		AuthorizedUserEntity user = this.authenticationSupport.getUser(req);
+		SourceConfigs sources = new SourceConfigs(this.etlProperties, user, this.sourceConfigDao, this.groupDao, this.sourceConfigRegistry);
+		SourceConfig sourceConfig = sources.getOne(sourceConfigId);
+		if (sourceConfig == null || !sourceConfig.isExecute()) {
+			throw new HttpStatusException(Status.NOT_FOUND);
+		}
+	}
+
+	private static void checkFileName(String fileName) {
+		try {
+			ChunkedUploads.checkFileName(fileName);
+		} catch (IllegalArgumentException ex) {
+			throw new HttpStatusException(Status.BAD_REQUEST, ex.getMessage());
 		}
-	};
+	}
+
+	private static void checkChunk(int chunkNumber, int totalChunks, long chunkSize) {
+		if (totalChunks < 1 || chunkNumber < 1 || chunkNumber > totalChunks) {
+			throw new HttpStatusException(Status.BAD_REQUEST,
+					"Invalid chunk " + chunkNumber + " of " + totalChunks);
+		}
+		if (totalChunks > 1 && chunkSize <= 0) {
+			throw new HttpStatusException(Status.BAD_REQUEST,
+					"flowChunkSize is required for uploads with more than one chunk");
+		}
+	}
 
 }
@@ -39,7 +39,11 @@
  */
 package edu.emory.cci.aiw.cvrg.eureka.etl.resource;
 
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -47,6 +51,7 @@ import java.util.List;
 import javax.annotation.security.RolesAllowed;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
@@ -54,12 +59,12 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
-
-import org.protempa.backend.dsb.filter.DateTimeFilter;
-import org.protempa.proposition.value.AbsoluteTimeGranularity;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
 
 import com.google.inject.Inject;
 import com.google.inject.Provider;
@@ -68,43 +73,45 @@ import edu.emory.cci.aiw.cvrg.eureka.common.authentication.AuthorizedUserSupport
 
 import org.eurekaclinical.eureka.client.comm.Job;
 import org.eurekaclinical.eureka.client.comm.JobFilter;
+import edu.emory.cci.aiw.cvrg.eureka.common.comm.JobProgressSnapshot;
 import edu.emory.cci.aiw.cvrg.eureka.common.comm.JobRequest;
 import org.eurekaclinical.eureka.client.comm.JobSpec;
 import org.eurekaclinical.eureka.client.comm.SourceConfig;
-import org.eurekaclinical.eureka.client.comm.SourceConfigOption;
 import org.eurekaclinical.eureka.client.comm.Statistics;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.DestinationEntity;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.AuthorizedUserEntity;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.JobEntity;
-import edu.emory.cci.aiw.cvrg.eureka.etl.config.EurekaProtempaConfigurations;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dao.DestinationDao;
 import edu.emory.cci.aiw.cvrg.eureka.common.dao.AuthorizedUserDao;
 import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
+import edu.emory.cci.aiw.cvrg.eureka.etl.dao.JobCursor;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dao.JobDao;
+import edu.emory.cci.aiw.cvrg.eureka.etl.dao.JobSummary;
+import edu.emory.cci.aiw.cvrg.eureka.common.json.ObjectMapperProvider;
+import edu.emory.cci.aiw.cvrg.eureka.etl.job.InvalidJobSpecException;
+import edu.emory.cci.aiw.cvrg.eureka.etl.job.JobProgress;
+import edu.emory.cci.aiw.cvrg.eureka.etl.job.JobProgressRegistry;
+import edu.emory.cci.aiw.cvrg.eureka.etl.job.JobSpecConverter;
 import edu.emory.cci.aiw.cvrg.eureka.etl.job.TaskManager;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dest.ProtempaDestinationFactory;
 import java.io.IOException;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
-import org.eurekaclinical.eureka.client.comm.JobSpec.Side;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.eurekaclinical.standardapis.exception.HttpStatusException;
-import org.protempa.backend.BackendInstanceSpec;
-import org.protempa.backend.BackendProviderSpecLoaderException;
-import org.protempa.backend.BackendSpecNotFoundException;
 import org.protempa.backend.Configuration;
-import org.protempa.backend.InvalidPropertyNameException;
-import org.protempa.backend.InvalidPropertyValueException;
-import org.protempa.backend.dsb.DataSourceBackend;
 import org.protempa.dest.Destination;
 import org.protempa.dest.DestinationInitException;
 import org.protempa.dest.StatisticsException;
-import org.protempa.proposition.interval.Interval;
 
 @Path("/protected/jobs")
 @RolesAllowed({"researcher"})
 @Consumes(MediaType.APPLICATION_JSON)
 public class JobResource {
 
+	private static final int MAX_PAGE_SIZE = 1000;
+	private static final String EVENT_STREAM = "text/event-stream";
+
 	private final JobDao jobDao;
 	private final AuthorizedUserDao etlUserDao;
 	private final TaskManager taskManager;
@@ -113,13 +120,16 @@ public class JobResource {
 	private final ProtempaDestinationFactory protempaDestinationFactory;
 	private final EtlProperties etlProperties;
 	private final Provider<EntityManager> entityManagerProvider;
+	private final JobSpecConverter jobSpecConverter;
+	private final JobProgressRegistry progressRegistry;
 
 	@Inject
 	public JobResource(JobDao inJobDao, TaskManager inTaskManager,
 			AuthorizedUserDao inEtlUserDao, DestinationDao inDestinationDao,
 			EtlProperties inEtlProperties,
 			ProtempaDestinationFactory inProtempaDestinationFactory,
-			Provider<EntityManager> inEntityManagerProvider) {
+			Provider<EntityManager> inEntityManagerProvider,
+			JobProgressRegistry inProgressRegistry) {
 		this.jobDao = inJobDao;
 		this.taskManager = inTaskManager;
 		this.etlUserDao = inEtlUserDao;
@@ -128,28 +138,73 @@ public class JobResource {
 		this.etlProperties = inEtlProperties;
 		this.protempaDestinationFactory = inProtempaDestinationFactory;
 		this.entityManagerProvider = inEntityManagerProvider;
+		this.jobSpecConverter = new JobSpecConverter(this.etlProperties);
+		this.progressRegistry = inProgressRegistry;
 	}
 
+	/**
+	 * Gets the user's jobs. Without a limit, returns all of them with their
+	 * events. With a limit, returns a page of them without their events,
+	 * ordered by creation time and id, and a <code>Link</code> header with
+	 * <code>rel="next"</code> pointing to the next page if there may be one.
+	 *
+	 * @param request the HTTP request.
+	 * @param uriInfo the request URI.
+	 * @param order <code>desc</code> for newest first, or omitted.
+	 * @param limit the maximum number of jobs to return, or omitted.
+	 * @param cursor where the previous page ended, from the next page link.
+	 * @return the jobs.
+	 */
 	@Transactional
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
-	public List<Job> getAll(@Context HttpServletRequest request,
-			@QueryParam("order") String order) {
+	public Response getAll(@Context HttpServletRequest request,
+			@Context UriInfo uriInfo,
+			@QueryParam("order") String order,
+			@QueryParam("limit") Integer limit,
+			@QueryParam("cursor") String cursor) {
 		JobFilter jobFilter = new JobFilter(null,
 				this.authenticationSupport.getUser(request).getId(), null, null, null, null);
-		List<Job> jobs = new ArrayList<>();
-		List<JobEntity> jobEntities;
-		if (order == null) {
-			jobEntities = this.jobDao.getWithFilter(jobFilter);
-		} else if (order.equals("desc")) {
-			jobEntities = this.jobDao.getWithFilterDesc(jobFilter);
-		} else {
+		if (order != null && !order.equals("desc")) {
 			throw new HttpStatusException(Response.Status.PRECONDITION_FAILED, "Invalid value for the order parameter: " + order);
 		}
-		for (JobEntity jobEntity : jobEntities) {
-			jobs.add(jobEntity.toJob());
+		List<Job> jobs = new ArrayList<>();
+		if (limit == null) {
+			if (cursor != null) {
+				throw new HttpStatusException(Response.Status.PRECONDITION_FAILED, "The cursor parameter requires the limit parameter");
+			}
+			List<JobEntity> jobEntities;
+			if (order == null) {
+				jobEntities = this.jobDao.getWithFilter(jobFilter);
+			} else {
+				jobEntities = this.jobDao.getWithFilterDesc(jobFilter);
+			}
+			for (JobEntity jobEntity : jobEntities) {
+				jobs.add(jobEntity.toJob());
+			}
+			return Response.ok(new GenericEntity<List<Job>>(jobs) {}).build();
 		}
-		return jobs;
+		if (limit < 1 || limit > MAX_PAGE_SIZE) {
+			throw new HttpStatusException(Response.Status.PRECONDITION_FAILED, "The limit parameter must be between 1 and " + MAX_PAGE_SIZE);
+		}
+		JobCursor after;
+		try {
+			after = cursor != null ? JobCursor.parse(cursor) : null;
+		} catch (IllegalArgumentException ex) {
+			throw new HttpStatusException(Response.Status.PRECONDITION_FAILED, ex.getMessage());
+		}
+		List<JobSummary> page = this.jobDao.getPageWithFilter(jobFilter, after, limit, order != null);
+		for (JobSummary jobSummary : page) {
+			jobs.add(jobSummary.toJob());
+		}
+		Response.ResponseBuilder response = Response.ok(new GenericEntity<List<Job>>(jobs) {});
+		if (page.size() == limit) {
+			URI next = uriInfo.getRequestUriBuilder()
+					.replaceQueryParam("cursor", page.get(page.size() - 1).toCursor())
+					.build();
+			response.header("Link", "<" + next + ">; rel=\"next\"");
+		}
+		return response.build();
 	}
 
 	@Transactional
@@ -198,6 +253,88 @@ public class JobResource {
 		return getJobStats(request, inJobId, null);
 	}
 
+	/**
+	 * Gets the progress of a running job from memory.
+	 *
+	 * @param request the HTTP request.
+	 * @param inJobId the id of the job.
+	 * @return the job's progress.
+	 */
+	@Transactional
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	@Path("/{jobId}/progress")
+	public JobProgressSnapshot getProgress(@Context HttpServletRequest request,
+			@PathParam("jobId") Long inJobId) {
+		getJobEntity(request, inJobId);
+		JobProgress progress = this.progressRegistry.get(inJobId);
+		if (progress == null) {
+			throw new HttpStatusException(Status.NOT_FOUND, "Job " + inJobId + " is not running");
+		}
+		return progress.getSnapshot();
+	}
+
+	/**
+	 * Follows a job's progress as a stream of server-sent events. While the
+	 * job runs, a <code>progress</code> event with the job's progress is sent
+	 * at the configured interval. While it is queued, a comment is sent
+	 * instead. When the job is neither queued nor running, a
+	 * <code>done</code> event is sent and the stream ends.
+	 *
+	 * <p>Because each stream holds a request thread, it also ends without a
+	 * <code>done</code> event after the configured stream duration. The
+	 * stream starts with a <code>retry</code> field set to the interval, so
+	 * that an <code>EventSource</code> client reconnects and keeps following
+	 * the job.
+	 *
+	 * @param request the HTTP request.
+	 * @param inJobId the id of the job.
+	 * @return the event stream.
+	 */
+	@GET
+	@Produces(EVENT_STREAM)
+	@Path("/{jobId}/progress/stream")
+	public Response streamProgress(@Context HttpServletRequest request,
+			@PathParam("jobId") final Long inJobId) {
+		getJobEntity(request, inJobId);
+		final long interval = this.etlProperties.getJobProgressInterval();
+		final long duration = this.etlProperties.getJobProgressStreamDuration();
+		final ObjectMapper mapper = new ObjectMapperProvider().getContext(JobProgressSnapshot.class);
+		StreamingOutput output = new StreamingOutput() {
+			@Override
+			public void write(OutputStream out) throws IOException {
+				Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+				long deadline = System.currentTimeMillis() + duration;
+				writer.write("retry: " + interval + "\n\n");
+				while (true) {
+					JobProgress progress = progressRegistry.get(inJobId);
+					if (progress != null) {
+						writer.write("event: progress\ndata: ");
+						writer.write(mapper.writeValueAsString(progress.getSnapshot()));
+						writer.write("\n\n");
+					} else if (taskManager.isQueuedOrRunning(inJobId)) {
+						writer.write(": waiting\n\n");
+					} else {
+						writer.write("event: done\ndata: {}\n\n");
+						writer.flush();
+						return;
+					}
+					writer.flush();
+					if (System.currentTimeMillis() + interval > deadline) {
+						return;
+					}
+					try {
+						Thread.sleep(interval);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+		};
+		return Response.ok(output).header("Cache-Control", "no-cache").build();
+	}
+
 	//Finer grained transactions in the implementation
 	@POST
 	public Response submit(@Context HttpServletRequest request,
@@ -206,6 +343,26 @@ public class JobResource {
 		return Response.created(URI.create("/" + jobId)).build();
 	}
 
+	/**
+	 * Cancels a queued or running job.
+	 *
+	 * @param request the HTTP request.
+	 * @param inJobId the id of the job.
+	 * @return a 204 response. Running jobs stop at their next cancellation
+	 * check, so the job may not have stopped yet when this returns.
+	 */
+	//Finer grained transactions in the implementation
+	@DELETE
+	@Path("/{jobId}")
+	public Response cancel(@Context HttpServletRequest request,
+			@PathParam("jobId") Long inJobId) {
+		getJobEntity(request, inJobId);
+		if (!this.taskManager.cancel(inJobId)) {
+			throw new HttpStatusException(Status.CONFLICT, "Job " + inJobId + " is not queued or running");
+		}
+		return Response.noContent().build();
+	}
+
 	@Transactional
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
@@ -251,39 +408,15 @@ public class JobResource {
 	private Long doCreateJob(JobRequest inJobRequest, HttpServletRequest request) {
 		JobSpec jobSpec = inJobRequest.getJobSpec();
 		Configuration prompts = toConfiguration(jobSpec.getPrompts());
-		JobEntity jobEntity
-				= newJobEntity(jobSpec,
-						this.authenticationSupport.getUser(request));
-		DateTimeFilter dateTimeFilter;
-		String dateRangePhenotypeKey = jobSpec.getDateRangePhenotypeKey();
-		if (dateRangePhenotypeKey != null) {
-			dateTimeFilter = new DateTimeFilter(
-					new String[]{dateRangePhenotypeKey},
-					jobSpec.getEarliestDate(), AbsoluteTimeGranularity.DAY,
-					jobSpec.getLatestDate(), AbsoluteTimeGranularity.DAY,
-					toProtempaSide(jobSpec.getEarliestDateSide()), toProtempaSide(jobSpec.getLatestDateSide()));
-		} else {
-			dateTimeFilter = null;
-		}
+		AuthorizedUserEntity user = this.authenticationSupport.getUser(request);
+		JobEntity jobEntity = newJobEntity(jobSpec, user);
 		this.taskManager.queueTask(jobEntity.getId(),
-				inJobRequest.getUserPropositions(),
-				inJobRequest.getPropositionIdsToShow(),
-				dateTimeFilter,
-				jobSpec.isUpdateData(),
-				prompts);
+				user.getUsername(),
+				inJobRequest,
+				prompts,
+				this.jobSpecConverter.toFilter(jobSpec));
 		return jobEntity.getId();
 	}
-	
-	private static Interval.Side toProtempaSide(Side side) {
-		switch (side) {
-			case START:
-				return Interval.Side.START;
-			case FINISH:
-				return Interval.Side.FINISH;
-			default:
-				throw new AssertionError("Unexpected side " + side);
-		}
-	}
 
 	private JobEntity newJobEntity(JobSpec job, AuthorizedUserEntity etlUser) {
 		JobEntity jobEntity = new JobEntity();
@@ -314,33 +447,12 @@ public class JobResource {
 	}
 
 	private Configuration toConfiguration(SourceConfig prompts) {
-		if (prompts != null) {
-			Configuration result = new Configuration();
-			SourceConfig.Section[] dsbSections = prompts.getDataSourceBackends();
-			List<BackendInstanceSpec<DataSourceBackend>> sections = new ArrayList<>();
-			EurekaProtempaConfigurations configurations;
-			try {
-				configurations = new EurekaProtempaConfigurations(this.etlProperties);
-			} catch (IOException ex) {
-				throw new HttpStatusException(Status.INTERNAL_SERVER_ERROR, ex);
-			}
-			for (int i = 0; i < dsbSections.length; i++) {
-				SourceConfig.Section section = dsbSections[i];
-				try {
-					BackendInstanceSpec<DataSourceBackend> bis = configurations.newDataSourceBackendSection(section.getId());
-					SourceConfigOption[] options = section.getOptions();
-					for (SourceConfigOption option : options) {
-						bis.setProperty(option.getName(), option.getValue());
-					}
-					sections.add(bis);
-				} catch (BackendSpecNotFoundException | BackendProviderSpecLoaderException | InvalidPropertyNameException | InvalidPropertyValueException ex) {
-					throw new HttpStatusException(Status.BAD_REQUEST, ex);
-				}
-			}
-			result.setDataSourceBackendSections(sections);
-			return result;
-		} else {
-			return null;
+		try {
+			return this.jobSpecConverter.toPrompts(prompts);
+		} catch (IOException ex) {
+			throw new HttpStatusException(Status.INTERNAL_SERVER_ERROR, ex);
+		} catch (InvalidJobSpecException ex) {
+			throw new HttpStatusException(Status.BAD_REQUEST, ex.getCause());
 		}
 	}
 
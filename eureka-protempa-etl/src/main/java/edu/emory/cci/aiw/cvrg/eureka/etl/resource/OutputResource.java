@@ -44,9 +44,10 @@ import edu.emory.cci.aiw.cvrg.eureka.common.entity.DestinationEntity;
 import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dao.DestinationDao;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dest.FileSupport;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.Path;
@@ -54,14 +55,22 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.StreamingOutput;
-import org.apache.commons.io.IOUtils;
 import org.eurekaclinical.standardapis.exception.HttpStatusException;
 
 /**
@@ -74,6 +83,10 @@ import org.eurekaclinical.standardapis.exception.HttpStatusException;
 @RolesAllowed({"researcher"})
 public class OutputResource {
 
+	private static final String ACCEPT_ENCODING = "Accept-Encoding";
+	private static final String VARY = "Vary";
+	private static final int BUFFER_SIZE = 64 * 1024;
+
 	private final EtlProperties etlProperties;
 	private final DestinationDao destinationDao;
 	private final FileSupport patientSetSenderSupport;
@@ -89,10 +102,25 @@ public class OutputResource {
 		this.patientSetSenderSupport = inPatientSetSenderSupport;
 	}
 
+	/**
+	 * Sends a destination's output file. Supports conditional requests with a
+	 * strong entity tag derived from the file's length and modification time,
+	 * single byte ranges, and gzip content encoding, either from a
+	 * <code>.gz</code> copy of the file that is at least as new as the file or
+	 * compressed while sending for text output. Range requests are always
+	 * answered from the uncompressed file. Uncompressed content is copied
+	 * from the file to the response through a 64 KB buffer.
+	 *
+	 * @param request the request, for evaluating preconditions.
+	 * @param headers the request headers.
+	 * @param inId the destination's name.
+	 * @return the response.
+	 */
 	@GET
 	@Path("/output/{destinationId}")
 	@Produces(MediaType.APPLICATION_JSON)
-	public Response doGet(@PathParam("destinationId") String inId) {
+	public Response doGet(@Context Request request, @Context HttpHeaders headers,
+			@PathParam("destinationId") String inId) {
 		DestinationEntity dest = this.destinationDao.getByName(inId);
 		if (dest == null) {
 			throw new HttpStatusException(Status.PRECONDITION_FAILED);
@@ -108,22 +136,61 @@ public class OutputResource {
 		if (!outputFile.exists()) {
 			throw new HttpStatusException(Status.NOT_FOUND);
 		}
-		StreamingOutput stream = new StreamingOutput() {
-			@Override
-			public void write(OutputStream os) throws IOException {
-				try (InputStream inputStream = new FileInputStream(outputFile)) {
-					IOUtils.copy(inputStream, os);
-				}
-				os.flush();
-			}
-		};
-
 		String outputType = dest.getOutputType();
 		String outputName = dest.getOutputName();
 		if (outputName == null) {
 			outputName = inId + "_out";
 		}
-		return Response.ok(stream, outputType).header("content-disposition", "attachment; filename = " + outputName).build();
+		long length = outputFile.length();
+		long lastModified = outputFile.lastModified();
+		String rangeHeader = headers.getRequestHeaders().getFirst("Range");
+		File gzipFile = new File(outputFile.getPath() + ".gz");
+		boolean gzip = rangeHeader == null && acceptsGzip(headers);
+		boolean precompressed = gzip && gzipFile.isFile()
+				&& gzipFile.lastModified() >= lastModified;
+		gzip = precompressed || (gzip && isCompressible(outputType));
+		EntityTag entityTag = new EntityTag(Long.toHexString(length) + "-"
+				+ Long.toHexString(lastModified) + (gzip ? "-gzip" : ""));
+
+		Response.ResponseBuilder notModified
+				= request.evaluatePreconditions(new Date(lastModified), entityTag);
+		if (notModified != null) {
+			return notModified.tag(entityTag).header(VARY, ACCEPT_ENCODING).build();
+		}
+
+		Response.ResponseBuilder response;
+		String ifRange = headers.getRequestHeaders().getFirst("If-Range");
+		ByteRange range = ifRange == null || ifRange.equals(entityTag.toString())
+				? ByteRange.parse(rangeHeader, length) : null;
+		if (range != null) {
+			if (!range.isSatisfiable()) {
+				return Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+						.header("Content-Range", range.toContentRange())
+						.build();
+			}
+			response = Response.status(Status.PARTIAL_CONTENT)
+					.entity(new FileRegionOutput(outputFile, range.getFirst(), range.getLength()))
+					.type(outputType)
+					.header("Content-Range", range.toContentRange())
+					.header(HttpHeaders.CONTENT_LENGTH, range.getLength());
+		} else if (precompressed) {
+			response = Response.ok(new FileRegionOutput(gzipFile, 0L, gzipFile.length()), outputType)
+					.header(HttpHeaders.CONTENT_ENCODING, "gzip")
+					.header(HttpHeaders.CONTENT_LENGTH, gzipFile.length());
+		} else if (gzip) {
+			response = Response.ok(new GzipOutput(outputFile), outputType)
+					.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+		} else {
+			response = Response.ok(new FileRegionOutput(outputFile, 0L, length), outputType)
+					.header(HttpHeaders.CONTENT_LENGTH, length);
+		}
+		return response
+				.tag(entityTag)
+				.lastModified(new Date(lastModified))
+				.header("Accept-Ranges", "bytes")
+				.header(VARY, ACCEPT_ENCODING)
+				.header("content-disposition", "attachment; filename = " + outputName)
+				.build();
 	}
 
 	@DELETE
@@ -143,4 +210,85 @@ public class OutputResource {
 		}
 	}
 
+	private static boolean acceptsGzip(HttpHeaders headers) {
+		List<String> values = headers.getRequestHeader(ACCEPT_ENCODING);
+		if (values != null) {
+			for (String value : values) {
+				for (String coding : value.split(",")) {
+					String[] parts = coding.trim().split(";");
+					if (parts[0].trim().equalsIgnoreCase("gzip")) {
+						return parts.length < 2
+								|| !parts[1].replace(" ", "").equals("q=0");
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets whether compressing output of a type is worth it. Other types, such
+	 * as zip files, are usually compressed already.
+	 */
+	private static boolean isCompressible(String outputType) {
+		if (outputType == null) {
+			return false;
+		}
+		String type = outputType.toLowerCase();
+		return type.startsWith("text/") || type.startsWith("application/json")
+				|| type.startsWith("application/xml");
+	}
+
+	/**
+	 * Sends part of a file, copying it through a buffer.
+	 */
+	private static final class FileRegionOutput implements StreamingOutput {
+
+		private final File file;
+		private final long position;
+		private final long count;
+
+		FileRegionOutput(File inFile, long inPosition, long inCount) {
+			this.file = inFile;
+			this.position = inPosition;
+			this.count = inCount;
+		}
+
+		@Override
+		public void write(OutputStream os) throws IOException {
+			try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+				channel.position(this.position);
+				InputStream in = Channels.newInputStream(channel);
+				byte[] buffer = new byte[BUFFER_SIZE];
+				long remaining = this.count;
+				while (remaining > 0) {
+					int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+					if (read < 0) {
+						throw new EOFException("File " + this.file + " is shorter than expected");
+					}
+					os.write(buffer, 0, read);
+					remaining -= read;
+				}
+			}
+			os.flush();
+		}
+	}
+
+	private static final class GzipOutput implements StreamingOutput {
+
+		private final File file;
+
+		GzipOutput(File inFile) {
+			this.file = inFile;
+		}
+
+		@Override
+		public void write(OutputStream os) throws IOException {
+			GZIPOutputStream gzip = new GZIPOutputStream(os, BUFFER_SIZE);
+			Files.copy(this.file.toPath(), gzip);
+			gzip.finish();
+			os.flush();
+		}
+	}
+
 }
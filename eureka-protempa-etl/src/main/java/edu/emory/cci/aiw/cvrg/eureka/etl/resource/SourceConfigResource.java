@@ -46,6 +46,7 @@ import edu.emory.cci.aiw.cvrg.eureka.common.authentication.AuthorizedUserSupport
 import org.eurekaclinical.eureka.client.comm.SourceConfig;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.AuthorizedUserEntity;
 import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
+import edu.emory.cci.aiw.cvrg.eureka.etl.config.SourceConfigRegistry;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dao.EtlGroupDao;
 import edu.emory.cci.aiw.cvrg.eureka.common.dao.AuthorizedUserDao;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dao.SourceConfigDao;
@@ -73,14 +74,16 @@ public class SourceConfigResource {
 	private final SourceConfigDao sourceConfigDao;
 	private final AuthorizedUserSupport authenticationSupport;
 	private final EtlGroupDao groupDao;
+	private final SourceConfigRegistry sourceConfigRegistry;
 
 	@Inject
-	public SourceConfigResource(EtlProperties inEtlProperties, AuthorizedUserDao inUserDao, SourceConfigDao inSourceConfigDao, EtlGroupDao inGroupDao) {
+	public SourceConfigResource(EtlProperties inEtlProperties, AuthorizedUserDao inUserDao, SourceConfigDao inSourceConfigDao, EtlGroupDao inGroupDao, SourceConfigRegistry inSourceConfigRegistry) {
 		this.etlProperties = inEtlProperties;
 		this.userDao = inUserDao;
 		this.sourceConfigDao = inSourceConfigDao;
 		this.authenticationSupport = new AuthorizedUserSupport(this.userDao);
 		this.groupDao = inGroupDao;
+		this.sourceConfigRegistry = inSourceConfigRegistry;
 	}
 
 	@GET
@@ -88,7 +91,7 @@ public class SourceConfigResource {
 	public SourceConfig getSource(@Context HttpServletRequest req,
 			@PathParam("sourceConfigId") String sourceConfigId) {
 		AuthorizedUserEntity user = this.authenticationSupport.getUser(req);
-		SourceConfigs sourceConfigs = new SourceConfigs(this.etlProperties, user, this.sourceConfigDao, this.groupDao);
+		SourceConfigs sourceConfigs = new SourceConfigs(this.etlProperties, user, this.sourceConfigDao, this.groupDao, this.sourceConfigRegistry);
 		SourceConfig sourceConfig = sourceConfigs.getOne(sourceConfigId);
 		if (sourceConfig != null) {
 			return sourceConfig;
@@ -100,7 +103,7 @@ public class SourceConfigResource {
 	@GET
 	public List<SourceConfig> getAll(@Context HttpServletRequest req) {
 		AuthorizedUserEntity user = this.authenticationSupport.getUser(req);
-		SourceConfigs sourceConfigs = new SourceConfigs(this.etlProperties, user, this.sourceConfigDao, this.groupDao);
+		SourceConfigs sourceConfigs = new SourceConfigs(this.etlProperties, user, this.sourceConfigDao, this.groupDao, this.sourceConfigRegistry);
 		return sourceConfigs.getAll();
 	}
 }
@@ -43,6 +43,7 @@ import org.eurekaclinical.eureka.client.comm.SourceConfig;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.AuthorizedUserEntity;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.SourceConfigEntity;
 import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
+import edu.emory.cci.aiw.cvrg.eureka.etl.config.SourceConfigRegistry;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dao.EtlGroupDao;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dao.SourceConfigDao;
 import java.io.IOException;
@@ -63,14 +64,14 @@ final class SourceConfigs {
 	private final SourceConfigDao sourceConfigDao;
 	private final SourceConfigsDTOExtractor extractor;
 
-	SourceConfigs(EtlProperties inEtlProperties, AuthorizedUserEntity inEtlUser, SourceConfigDao inSourceConfigDao, EtlGroupDao inGroupDao) {
+	SourceConfigs(EtlProperties inEtlProperties, AuthorizedUserEntity inEtlUser, SourceConfigDao inSourceConfigDao, EtlGroupDao inGroupDao, SourceConfigRegistry inSourceConfigRegistry) {
 		try {
 			inEtlProperties.getSourceConfigDirectory();
 			this.groupDao = inGroupDao;
 			this.etlProperties = inEtlProperties;
 			this.sourceConfigDao = inSourceConfigDao;
 			this.etlUser = inEtlUser;
-			this.extractor = new SourceConfigsDTOExtractor(this.etlUser, this.groupDao, this.etlProperties);
+			this.extractor = new SourceConfigsDTOExtractor(this.etlUser, this.groupDao, this.etlProperties, inSourceConfigRegistry);
 		} catch (IOException ex) {
 			throw new HttpStatusException(Response.Status.INTERNAL_SERVER_ERROR,
 					"Could not create source config directory", ex);
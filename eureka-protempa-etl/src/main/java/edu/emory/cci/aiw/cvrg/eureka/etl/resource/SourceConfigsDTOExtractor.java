@@ -47,7 +47,7 @@ import org.eurekaclinical.eureka.client.comm.UriSourceConfigOption;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.AuthorizedUserEntity;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.SourceConfigEntity;
 import edu.emory.cci.aiw.cvrg.eureka.etl.config.EtlProperties;
-import edu.emory.cci.aiw.cvrg.eureka.etl.config.EurekaProtempaConfigurations;
+import edu.emory.cci.aiw.cvrg.eureka.etl.config.SourceConfigRegistry;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dao.EtlGroupDao;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dao.ResolvedPermissions;
 import edu.emory.cci.aiw.cvrg.eureka.etl.dsb.FileBackendPropertyValidator;
@@ -81,13 +81,13 @@ class SourceConfigsDTOExtractor extends ConfigsDTOExtractor<SourceConfig, Source
 
 	private final EtlGroupDao groupDao;
 	private final EtlProperties etlProperties;
-	private final EurekaProtempaConfigurations configs;
+	private final SourceConfigRegistry configs;
 
-	SourceConfigsDTOExtractor(AuthorizedUserEntity user, EtlGroupDao inGroupDao, EtlProperties inEtlProperties) throws IOException {
+	SourceConfigsDTOExtractor(AuthorizedUserEntity user, EtlGroupDao inGroupDao, EtlProperties inEtlProperties, SourceConfigRegistry inSourceConfigRegistry) {
 		super(user);
 		this.groupDao = inGroupDao;
 		this.etlProperties = inEtlProperties;
-		this.configs = new EurekaProtempaConfigurations(this.etlProperties);
+		this.configs = inSourceConfigRegistry;
 	}
 
 	@Override
@@ -101,7 +101,7 @@ class SourceConfigsDTOExtractor extends ConfigsDTOExtractor<SourceConfig, Source
 			config.setWrite(perm.write);
 			config.setExecute(perm.execute);
 			config.setOwnerUsername(perm.owner.getUsername());
-			Configuration configuration = configs.load(configId);
+			Configuration configuration = configs.get(configId);
 			List<SourceConfig.Section> dataSourceBackendSections
 					= toSectionsDSB(configuration.getDataSourceBackendSections());
 			config.setDataSourceBackends(
@@ -126,7 +126,7 @@ class SourceConfigsDTOExtractor extends ConfigsDTOExtractor<SourceConfig, Source
 					termSourceBackendSections.toArray(
 							new SourceConfig.Section[termSourceBackendSections.size()]));
 			return config;
-		} catch (ConfigurationsNotFoundException | ConfigurationsLoadException | InvalidPropertyNameException ex) {
+		} catch (IOException | ConfigurationsNotFoundException | ConfigurationsLoadException | InvalidPropertyNameException ex) {
 			LOGGER.warn("Error getting INI file for source config {}. This source config will be ignored.", configEntity.getName(), ex);
 			return null;
 		}
@@ -97,6 +97,7 @@ class TabularFileDestinationsDTOExtractor extends DestinationsDTOExtractor<EtlTa
 			tableColumns.add(tableColumn);
 		}
 		dest.setTableColumns(tableColumns);
+		dest.setCompression(destinationEntity.getCompression());
 		return dest;
 	}
 
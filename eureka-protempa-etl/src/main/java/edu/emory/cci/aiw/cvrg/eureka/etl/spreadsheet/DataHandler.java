@@ -0,0 +1,71 @@
+/*
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package edu.emory.cci.aiw.cvrg.eureka.etl.spreadsheet;
+
+import java.util.List;
+
+/**
+ * Receives the records of a spreadsheet from a
+ * {@link StreamingXlsxDataProvider} in chunks, one worksheet at a time. The
+ * lists passed to the handler methods are only valid for the duration of the
+ * call.
+ *
+ * @param <E> the type of exception that the handler methods may throw.
+ */
+public interface DataHandler<E extends Exception> {
+
+	void handlePatients(List<Patient> patients) throws E;
+
+	void handleEncounters(List<Encounter> encounters) throws E;
+
+	void handleProviders(List<Provider> providers) throws E;
+
+	void handleCptCodes(List<CPT> cptCodes) throws E;
+
+	void handleIcd9Procedures(List<Icd9Procedure> icd9Procedures) throws E;
+
+	void handleIcd9Diagnoses(List<Icd9Diagnosis> icd9Diagnoses) throws E;
+
+	void handleMedications(List<Medication> medications) throws E;
+
+	void handleLabs(List<Lab> labs) throws E;
+
+	void handleVitals(List<Vital> vitals) throws E;
+}
@@ -47,19 +47,21 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Inserts data into a Protempa database.
+ * Inserts data into a Protempa database. As a {@link DataHandler}, it inserts
+ * each chunk of records that it is passed.
  *
  * @author hrathod
  */
-public class DataInserter {
+public class DataInserter implements DataHandler<DataInserterException> {
 
-	private static int BATCH_SIZE = 128;
+	static final int DEFAULT_BATCH_SIZE = 128;
 	/**
 	 * Class level logger.
 	 */
 	private static final Logger LOGGER =
 			LoggerFactory.getLogger(DataInserter.class);
 	private final Connection connection;
+	private int batchSize;
 
 	/**
 	 * Build a new object with the given configuration.
@@ -73,6 +75,24 @@ public class DataInserter {
 			throw new IllegalArgumentException("connection cannot be null");
 		}
 		this.connection = connection;
+		this.batchSize = DEFAULT_BATCH_SIZE;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Sets the number of rows sent to the database at a time. The default is
+	 * {@link #DEFAULT_BATCH_SIZE}.
+	 *
+	 * @param batchSize the batch size. Must be positive.
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be positive");
+		}
+		this.batchSize = batchSize;
 	}
 
 	private abstract class DatabaseExecutor {
@@ -111,7 +131,7 @@ public class DataInserter {
 		void addBatch() throws SQLException {
 			preparedStatement.addBatch();
 			counter++;
-			if (counter >= BATCH_SIZE) {
+			if (counter >= batchSize) {
 				preparedStatement.executeBatch();
 				preparedStatement.clearBatch();
 				counter = 0;
@@ -284,6 +304,51 @@ public class DataInserter {
 		this.insertObservationsWithResult(vitals, "vitals_event");
 	}
 
+	@Override
+	public void handlePatients(List<Patient> patients) throws DataInserterException {
+		insertPatients(patients);
+	}
+
+	@Override
+	public void handleEncounters(List<Encounter> encounters) throws DataInserterException {
+		insertEncounters(encounters);
+	}
+
+	@Override
+	public void handleProviders(List<Provider> providers) throws DataInserterException {
+		insertProviders(providers);
+	}
+
+	@Override
+	public void handleCptCodes(List<CPT> cptCodes) throws DataInserterException {
+		insertCptCodes(cptCodes);
+	}
+
+	@Override
+	public void handleIcd9Procedures(List<Icd9Procedure> icd9Procedures) throws DataInserterException {
+		insertIcd9Procedures(icd9Procedures);
+	}
+
+	@Override
+	public void handleIcd9Diagnoses(List<Icd9Diagnosis> icd9Diagnoses) throws DataInserterException {
+		insertIcd9Diagnoses(icd9Diagnoses);
+	}
+
+	@Override
+	public void handleMedications(List<Medication> medications) throws DataInserterException {
+		insertMedications(medications);
+	}
+
+	@Override
+	public void handleLabs(List<Lab> labs) throws DataInserterException {
+		insertLabs(labs);
+	}
+
+	@Override
+	public void handleVitals(List<Vital> vitals) throws DataInserterException {
+		insertVitals(vitals);
+	}
+
 	/**
 	 * Add the given list of observation objects to a target database using the
 	 * given connection.
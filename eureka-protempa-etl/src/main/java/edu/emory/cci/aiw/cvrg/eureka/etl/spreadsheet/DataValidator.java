@@ -40,20 +40,47 @@
 package edu.emory.cci.aiw.cvrg.eureka.etl.spreadsheet;
 
 import java.io.File;
+import java.net.URI;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import org.protempa.backend.dsb.DataValidationEvent;
 
 /**
  * Validates the incoming data before it is pushed to the Protempa database.
+ * Data may either be set as lists and validated with {@link #validate() },
+ * or be passed in chunks to the {@link DataHandler} methods, for example by
+ * {@link StreamingXlsxDataProvider#read(DataHandler) }, followed by a call to
+ * {@link #finish() }. In the latter case, encounters must be passed in before
+ * the observations that refer to them, and the handler methods must be
+ * called from one thread.
+ * <p>
+ * Each worksheet is validated in the background on an executor, by default
+ * the common fork-join pool, so validation overlaps with reading. Chunks of
+ * the same worksheet are validated in order. Different worksheets are
+ * validated in parallel, except that observations wait for all encounters to
+ * be validated. A duplicate observation id that appears in two observation
+ * worksheets is reported on whichever worksheet reaches it second.
+ * <p>
+ * Ids are kept in primitive hash sets. At most
+ * {@link #DEFAULT_MAX_EVENTS} validation events are kept, unless another
+ * limit is given; any more are counted and summarized in a final event.
  * 
  * @author hrathod
  * 
  */
-public class DataValidator {
+public class DataValidator implements DataHandler<RuntimeException> {
+
+	/**
+	 * The default maximum number of validation events that are kept.
+	 */
+	public static final int DEFAULT_MAX_EVENTS = 1000;
+
 	/**
 	 * Holds a list of patients to validate.
 	 */
@@ -91,30 +118,109 @@ public class DataValidator {
 	 */
 	private List<Vital> vitals;
 	/**
-	 * Holds the unique identifiers for all the encounters, useful when checking
-	 * for orphaned observations.
+	 * Holds the unique identifiers for all the encounters, for duplication
+	 * checking and when checking for orphaned observations. Only written by
+	 * the encounter lane, and only read by observation lanes after it is
+	 * done.
 	 */
-	private Set<Long> encounterIds;
+	private final LongHashSet encounterIds = new LongHashSet();
 	/**
-	 * Holds all the warning/error messages from the validation.
+	 * Holds the unique identifiers for all the observations, for duplication
+	 * checking. Shared by the observation lanes, which synchronize on it.
 	 */
-	final private List<DataValidationEvent> validationEvents = 
-			new ArrayList<>();
+	private final StringHashSet observationIds = new StringHashSet();
 	/**
-	 * Holds the unique identifiers for all the observations, for duplication
-	 * checking.
+	 * Holds all the warning/error messages from the validation, once
+	 * {@link #finish() } has been called.
 	 */
-	final private Set<String> observationIds = new HashSet<>();
+	private final List<DataValidationEvent> validationEvents = 
+			new ArrayList<>();
 	
-	private boolean failed;
-	private final File dataFile;
+	private volatile boolean failed;
+	private boolean finished;
+	private final URI dataFileURI;
+	private final Executor executor;
+	private final int maxEvents;
+	private final Lane<Patient> patientLane;
+	private final Lane<Encounter> encounterLane;
+	private final Lane<Provider> providerLane;
+	private final Lane<CPT> cptLane;
+	private final Lane<Icd9Procedure> icd9ProcedureLane;
+	private final Lane<Icd9Diagnosis> icd9DiagnosisLane;
+	private final Lane<Medication> medicationLane;
+	private final Lane<Lab> labLane;
+	private final Lane<Vital> vitalLane;
+	private final List<Lane<?>> lanes;
 
 	public DataValidator(File dataFile) {
-		this.dataFile = dataFile;
+		this(dataFile, ForkJoinPool.commonPool(), DEFAULT_MAX_EVENTS);
+	}
+
+	/**
+	 * Creates a validator.
+	 *
+	 * @param dataFile the file being validated, for validation events.
+	 * @param inExecutor the executor on which to validate.
+	 * @param inMaxEvents the maximum number of validation events to keep.
+	 */
+	public DataValidator(File dataFile, Executor inExecutor, int inMaxEvents) {
+		if (inExecutor == null) {
+			throw new IllegalArgumentException("inExecutor cannot be null");
+		}
+		this.dataFileURI = dataFile.toURI();
+		this.executor = inExecutor;
+		this.maxEvents = inMaxEvents;
+		this.patientLane = new Lane<Patient>("patient", null) {
+			private final LongHashSet idSet = new LongHashSet();
+
+			@Override
+			void validate(Patient patient, long line) {
+				validateId(patient.getId(), line, this, "bad patient id");
+				validateName(patient.getFirstName(), line, this,
+						"first name");
+				validateName(patient.getLastName(), line, this, "last name");
+				checkDuplicateLongIds(line, this, this.idSet, patient.getId());
+			}
+		};
+		this.encounterLane = new Lane<Encounter>("encounter", null) {
+			@Override
+			void validate(Encounter encounter, long line) {
+				validateId(encounter.getId(), line, this,
+						"bad encounter id");
+				checkDuplicateLongIds(line, this, encounterIds,
+						encounter.getId());
+			}
+		};
+		this.providerLane = new Lane<Provider>("provider", null) {
+			private final LongHashSet idSet = new LongHashSet();
+
+			@Override
+			void validate(Provider provider, long line) {
+				validateId(provider.getId(), line, this, "bad provider id");
+				checkDuplicateLongIds(line, this, this.idSet, provider.getId());
+			}
+		};
+		this.cptLane = new ObservationLane<>("cptcode", "bad cpt id");
+		this.icd9ProcedureLane = new ObservationLane<>("icd9procedure",
+				"bad procedure id");
+		this.icd9DiagnosisLane = new ObservationLane<>("icd9diangosis",
+				"bad diagnoses id");
+		this.medicationLane = new ObservationLane<>("medication",
+				"bad medication id");
+		this.labLane = new ObservationLane<>("lab", "bad lab id");
+		this.vitalLane = new ObservationLane<>("vital", "bad vital id");
+		this.lanes = Arrays.<Lane<?>>asList(this.patientLane,
+				this.encounterLane, this.providerLane, this.cptLane,
+				this.icd9ProcedureLane, this.icd9DiagnosisLane,
+				this.medicationLane, this.labLane, this.vitalLane);
 	}
 	
-	
-	
+	/**
+	 * Gets whether validation found a fatal problem. Only complete after
+	 * {@link #finish() } or {@link #validate() } has returned.
+	 *
+	 * @return whether validation failed.
+	 */
 	public boolean isFailed() {
 		return failed;
 	}
@@ -219,169 +325,99 @@ public class DataValidator {
 	}
 
 	/**
-	 * Run all the validation routines for the data we have.
+	 * Run all the validation routines for the data we have, and wait for
+	 * them to finish.
 	 */
 	public void validate() {
-		this.validatePatients();
-		this.validateEncounters();
-		this.validateProviders();
-		this.validateCptCodes();
-		this.validateIcd9Procedures();
-		this.validateIcd9Diagnoses();
-		this.validateMedications();
-		this.validateLabs();
-		this.validateVitals();
+		this.handlePatients(this.patients);
+		this.handleEncounters(this.encounters);
+		this.handleProviders(this.providers);
+		this.handleCptCodes(this.cptCodes);
+		this.handleIcd9Procedures(this.icd9Procedures);
+		this.handleIcd9Diagnoses(this.icd9diagnoses);
+		this.handleMedications(this.medications);
+		this.handleLabs(this.labs);
+		this.handleVitals(this.vitals);
+		this.finish();
 	}
 
-	/**
-	 * Validate the list of patients.
-	 */
-	private void validatePatients() {
-		long counter = 1L;
-		String type = "patient";
-		Set<Long> idSet = new HashSet<>();
-		for (Patient patient : this.patients) {
-			this.validateId(patient.getId(), counter, type, "bad patient id");
-			this.validateName(patient.getFirstName(), counter, type,
-					"first name");
-			this.validateName(patient.getLastName(), counter, type, "last name");
-			this.checkDuplicateLongIds(counter, type, idSet, patient.getId());
-			counter++;
-		}
+	@Override
+	public void handlePatients(List<Patient> inPatients) {
+		this.patientLane.submit(inPatients);
 	}
 
-	/**
-	 * Validate the list of encounters.
-	 */
-	private void validateEncounters() {
-		long counter = 1;
-		String type = "encounter";
-		Set<Long> idSet = new HashSet<>();
-		for (Encounter encounter : this.encounters) {
-			this.validateId(encounter.getId(), counter, type,
-					"bad encounter id");
-			this.checkDuplicateLongIds(counter, type, idSet, encounter.getId());
-			counter++;
-		}
+	@Override
+	public void handleEncounters(List<Encounter> inEncounters) {
+		this.encounterLane.submit(inEncounters);
 	}
 
-	/**
-	 * Validate the list of providers passed to the object.
-	 */
-	private void validateProviders() {
-		long counter = 1;
-		String type = "provider";
-		Set<Long> idSet = new HashSet<>();
-		for (Provider provider : this.providers) {
-			this.validateId(provider.getId(), counter, type, "bad provider id");
-			this.checkDuplicateLongIds(counter, type, idSet, provider.getId());
-			counter++;
-		}
+	@Override
+	public void handleProviders(List<Provider> inProviders) {
+		this.providerLane.submit(inProviders);
 	}
 
-	/**
-	 * Validate the list of CPT codes.
-	 */
-	private void validateCptCodes() {
-		long counter = 1;
-		String type = "cptcode";
-		for (CPT cpt : this.cptCodes) {
-			this.validateId(cpt.getId(), counter, type, "bad cpt id");
-			this.validateId(cpt.getEncounterId(), counter, type,
-					"bad encounter id");
-			this.checkDuplicateStringIds(counter, type, this.observationIds,
-					cpt.getId());
-			this.checkOrphan(cpt.getEncounterId(), type, counter);
-			counter++;
-		}
+	@Override
+	public void handleCptCodes(List<CPT> inCptCodes) {
+		this.cptLane.submit(inCptCodes);
 	}
 
-	/**
-	 * Validate the list of ICD9 procedure codes.
-	 */
-	private void validateIcd9Procedures() {
-		long counter = 1;
-		String type = "icd9procedure";
-		for (Icd9Procedure procedure : this.icd9Procedures) {
-			this.validateId(procedure.getId(), counter, type,
-					"bad procedure id");
-			this.validateId(procedure.getEncounterId(), counter, type,
-					"bad encounter id");
-			this.checkDuplicateStringIds(counter, type, this.observationIds,
-					procedure.getId());
-			this.checkOrphan(procedure.getEncounterId(), type, counter);
-			counter++;
-		}
+	@Override
+	public void handleIcd9Procedures(List<Icd9Procedure> inIcd9Procedures) {
+		this.icd9ProcedureLane.submit(inIcd9Procedures);
 	}
 
-	/**
-	 * Validate the list of ICD9 diagnosis codes.
-	 */
-	private void validateIcd9Diagnoses() {
-		long counter = 1;
-		String type = "icd9diangosis";
-		for (Icd9Diagnosis diagnosis : this.icd9diagnoses) {
-			this.validateId(diagnosis.getId(), counter, type,
-					"bad diagnoses id");
-			this.validateId(diagnosis.getEncounterId(), counter, type,
-					"bad encounter id");
-			this.checkDuplicateStringIds(counter, type, this.observationIds,
-					diagnosis.getId());
-			this.checkOrphan(diagnosis.getEncounterId(), type, counter);
-			counter++;
-		}
+	@Override
+	public void handleIcd9Diagnoses(List<Icd9Diagnosis> inIcd9Diagnoses) {
+		this.icd9DiagnosisLane.submit(inIcd9Diagnoses);
 	}
 
-	/**
-	 * Validate the list of medications.
-	 */
-	private void validateMedications() {
-		long counter = 1;
-		String type = "medication";
-		for (Medication medication : this.medications) {
-			this.validateId(medication.getId(), counter, type,
-					"bad medication id");
-			this.validateId(medication.getEncounterId(), counter, type,
-					"bad encounter id");
-			this.checkDuplicateStringIds(counter, type, this.observationIds,
-					medication.getId());
-			this.checkOrphan(medication.getEncounterId(), type, counter);
-			counter++;
-		}
+	@Override
+	public void handleMedications(List<Medication> inMedications) {
+		this.medicationLane.submit(inMedications);
 	}
 
-	/**
-	 * Validate the list of labs.
-	 */
-	private void validateLabs() {
-		long counter = 1;
-		String type = "lab";
-		for (Lab lab : this.labs) {
-			this.validateId(lab.getId(), counter, type, "bad lab id");
-			this.validateId(lab.getEncounterId(), counter, type,
-					"bad encounter id");
-			this.checkDuplicateStringIds(counter, type, this.observationIds,
-					lab.getId());
-			this.checkOrphan(lab.getEncounterId(), type, counter);
-			counter++;
-		}
+	@Override
+	public void handleLabs(List<Lab> inLabs) {
+		this.labLane.submit(inLabs);
+	}
+
+	@Override
+	public void handleVitals(List<Vital> inVitals) {
+		this.vitalLane.submit(inVitals);
 	}
 
 	/**
-	 * Validate the list of vitals.
+	 * Waits for all submitted records to be validated, and collects the
+	 * validation events of all worksheets, in worksheet order. May be called
+	 * multiple times; later calls do nothing.
 	 */
-	private void validateVitals() {
-		long counter = 1;
-		String type = "vital";
-		for (Vital vital : this.vitals) {
-			this.validateId(vital.getId(), counter, type, "bad vital id");
-			this.validateId(vital.getEncounterId(), counter, type,
-					"bad encounter id");
-			this.checkDuplicateStringIds(counter, type, this.observationIds,
-					vital.getId());
-			this.checkOrphan(vital.getEncounterId(), type, counter);
-			counter++;
+	public void finish() {
+		if (this.finished) {
+			return;
+		}
+		for (Lane<?> lane : this.lanes) {
+			lane.await();
+		}
+		int suppressed = 0;
+		for (Lane<?> lane : this.lanes) {
+			for (DataValidationEvent event : lane.events) {
+				if (this.validationEvents.size() < this.maxEvents) {
+					this.validationEvents.add(event);
+				} else {
+					suppressed++;
+				}
+			}
+			suppressed += lane.suppressedEvents;
 		}
+		if (suppressed > 0) {
+			DataValidationEvent event = new DataValidationEvent();
+			event.setType("validation");
+			event.setMessage(suppressed + " more problems were found but are not shown");
+			event.setFatal(this.failed);
+			event.setURI(this.dataFileURI);
+			this.validationEvents.add(event);
+		}
+		this.finished = true;
 	}
 
 	/**
@@ -390,137 +426,201 @@ public class DataValidator {
 	 * 
 	 * @param id The unique identifier to check
 	 * @param line The line number where the unique identifier was found.
-	 * @param type The type of the message to create if there is a validation
-	 *            error.
+	 * @param lane The lane of the record type.
 	 * @param message The message to set as the event text.
 	 */
-	private void validateId(Object id, long line, String type, String message) {
+	private void validateId(Object id, long line, Lane<?> lane, String message) {
 		if (id == null) {
-			DataValidationEvent event = new DataValidationEvent();
-			event.setLine(Long.valueOf(line));
-			event.setType(type);
-			event.setMessage(message);
-			event.setFatal(true);
-			event.setURI(this.dataFile.toURI());
-			this.failed = true;
-			this.getValidationEvents().add(event);
+			lane.addEvent(line, message, true);
 		}
 	}
 
 	/**
 	 * Validate a string containing a name; and add a warning event if the
-	 * validation fails.
+	 * validation fails. Names are optional, so a missing name is valid.
 	 * 
-	 * @param name A string containing the name to validate.
+	 * @param name A string containing the name to validate, or
+	 * <code>null</code> if the cell was blank.
 	 * @param line The line number where the name was found.
-	 * @param type The type of the message to create if validation fails.
+	 * @param lane The lane of the record type.
 	 * @param message The message to set as the event text.
 	 */
-	private void validateName(String name, long line, String type,
+	private void validateName(String name, long line, Lane<?> lane,
 			String message) {
-		if (name.length() > 32) {
-			DataValidationEvent event = new DataValidationEvent();
-			event.setLine(Long.valueOf(line));
-			event.setType(type);
-			event.setMessage(message + " too long (> 32 characters)");
-			event.setFatal(false);
-			event.setURI(this.dataFile.toURI());
-			this.getValidationEvents().add(event);
+		if (name != null && name.length() > 32) {
+			lane.addEvent(line, message + " too long (> 32 characters)", false);
 		}
 	}
 
 	/**
 	 * Check if the given unique identifier already is a member of the given
 	 * set. If so, a validation error event is generated. If no, the id is added
-	 * to the given set.
+	 * to the given set. Missing ids are reported by
+	 * {@link #validateId(java.lang.Object, long, Lane, java.lang.String) }
+	 * and are skipped.
 	 * 
 	 * @param line The line number where the unique identifier is found.
-	 * @param type The type of the event to generate.
+	 * @param lane The lane of the record type.
 	 * @param idSet The set which contains the unique identifiers so far.
 	 * @param id The id to check.
 	 */
-	private void checkDuplicateLongIds(long line, String type, Set<Long> idSet,
-			Long id) {
-		if (!idSet.add(id)) {
-			DataValidationEvent event = new DataValidationEvent();
-			event.setFatal(true);
-			this.failed = true;
-			event.setLine(Long.valueOf(line));
-			event.setType(type);
-			event.setMessage("duplicate id");
-			event.setURI(this.dataFile.toURI());
-			this.getValidationEvents().add(event);
+	private void checkDuplicateLongIds(long line, Lane<?> lane,
+			LongHashSet idSet, Long id) {
+		if (id != null && !idSet.add(id.longValue())) {
+			lane.addEvent(line, "duplicate id", true);
 		}
 	}
 
 	/**
-	 * Check if the given unique identifier already is a member of the given
-	 * set. If so, a validation error event is generated. If no, the id is added
-	 * to the given set.
+	 * Check if the given observation id has already been seen in any
+	 * observation worksheet. If so, a validation error event is generated.
+	 * Missing ids are skipped.
 	 * 
 	 * @param line The line number where the unique identifier is found.
-	 * @param type The type of the event to generate.
-	 * @param idSet The set which contains the unique identifiers so far.
+	 * @param lane The lane of the record type.
 	 * @param id The id to check.
 	 */
-	private void checkDuplicateStringIds(long line, String type,
-			Set<String> idSet, String id) {
-		if (!idSet.add(id)) {
-			DataValidationEvent event = new DataValidationEvent();
-			event.setFatal(true);
-			this.failed = true;
-			event.setLine(Long.valueOf(line));
-			event.setType(type);
-			event.setMessage("duplicate id");
-			event.setURI(this.dataFile.toURI());
-			this.getValidationEvents().add(event);
-		}
-	}
-
-	/**
-	 * Return a set of encounter unique identifiers.
-	 * 
-	 * @return A set of encounter unique identifiers.
-	 */
-	private Set<Long> getEncounterIds() {
-		if (this.encounterIds == null) {
-			Set<Long> idSet = new HashSet<>();
-			for (Encounter encounter : this.encounters) {
-				idSet.add(encounter.getId());
+	private void checkDuplicateObservationIds(long line, Lane<?> lane,
+			String id) {
+		if (id != null) {
+			boolean added;
+			synchronized (this.observationIds) {
+				added = this.observationIds.add(id);
+			}
+			if (!added) {
+				lane.addEvent(line, "duplicate id", true);
 			}
-			this.encounterIds = idSet;
 		}
-		return this.encounterIds;
 	}
 
 	/**
 	 * Check if a given id is part of the encounter ID set. If not, the
 	 * observation is orphaned because no encounter points to the observation.
+	 * Missing ids are skipped.
 	 * 
 	 * @param id The id of the observation.
-	 * @param type The type of the observation.
+	 * @param lane The lane of the observation type.
 	 * @param line The line number where the unique identifier was found.
 	 */
-	private void checkOrphan(Long id, String type, long line) {
-		Set<Long> idSet = this.getEncounterIds();
-		if (!idSet.contains(id)) {
-			DataValidationEvent event = new DataValidationEvent();
-			event.setFatal(true);
-			this.failed = true;
-			event.setLine(Long.valueOf(line));
-			event.setType(type);
-			event.setMessage("orphaned record");
-			event.setURI(this.dataFile.toURI());
-			this.getValidationEvents().add(event);
+	private void checkOrphan(Long id, Lane<?> lane, long line) {
+		if (id != null && !this.encounterIds.contains(id.longValue())) {
+			lane.addEvent(line, "orphaned record", true);
 		}
 	}
 
 	/**
-	 * Get the validation events generated after validate() is called.
+	 * Get the validation events generated after validate() or finish() is
+	 * called.
 	 * 
 	 * @return the validationEvents
 	 */
 	public List<DataValidationEvent> getValidationEvents() {
 		return this.validationEvents;
 	}
+
+	/**
+	 * Validates the records of one worksheet, one chunk after another, on
+	 * the executor. Chunks are submitted from the reading thread.
+	 */
+	private abstract class Lane<T> {
+
+		private final String type;
+		private final Lane<?> after;
+		private final List<DataValidationEvent> events;
+		private int suppressedEvents;
+		private long lineCount;
+		private CompletableFuture<Void> tail;
+
+		/**
+		 * Creates a lane.
+		 *
+		 * @param inType the event type.
+		 * @param inAfter a lane whose chunks submitted so far must be
+		 * validated before this lane's first chunk, or <code>null</code>.
+		 */
+		Lane(String inType, Lane<?> inAfter) {
+			this.type = inType;
+			this.after = inAfter;
+			this.events = new ArrayList<>();
+		}
+
+		abstract void validate(T record, long line);
+
+		void submit(List<T> records) {
+			final List<T> chunk = new ArrayList<>(records);
+			final long firstLine = this.lineCount + 1;
+			this.lineCount += chunk.size();
+			if (this.tail == null) {
+				this.tail = this.after != null && this.after.tail != null
+						? this.after.tail
+						: CompletableFuture.<Void>completedFuture(null);
+			}
+			this.tail = this.tail.thenRunAsync(new Runnable() {
+				@Override
+				public void run() {
+					long line = firstLine;
+					for (T record : chunk) {
+						validate(record, line++);
+					}
+				}
+			}, executor);
+		}
+
+		void await() {
+			if (this.tail != null) {
+				try {
+					this.tail.join();
+				} catch (CompletionException ex) {
+					Throwable cause = ex.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					} else if (cause instanceof Error) {
+						throw (Error) cause;
+					} else {
+						throw ex;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Records a validation event. Only called from this lane's tasks,
+		 * which run one at a time.
+		 */
+		void addEvent(long line, String message, boolean fatal) {
+			if (fatal) {
+				failed = true;
+			}
+			if (this.events.size() < maxEvents) {
+				DataValidationEvent event = new DataValidationEvent();
+				event.setLine(Long.valueOf(line));
+				event.setType(this.type);
+				event.setMessage(message);
+				event.setFatal(fatal);
+				event.setURI(dataFileURI);
+				this.events.add(event);
+			} else {
+				this.suppressedEvents++;
+			}
+		}
+	}
+
+	private class ObservationLane<T extends Observation> extends Lane<T> {
+
+		private final String badIdMessage;
+
+		ObservationLane(String inType, String inBadIdMessage) {
+			super(inType, encounterLane);
+			this.badIdMessage = inBadIdMessage;
+		}
+
+		@Override
+		void validate(T observation, long line) {
+			validateId(observation.getId(), line, this, this.badIdMessage);
+			validateId(observation.getEncounterId(), line, this,
+					"bad encounter id");
+			checkDuplicateObservationIds(line, this, observation.getId());
+			checkOrphan(observation.getEncounterId(), this, line);
+		}
+	}
 }
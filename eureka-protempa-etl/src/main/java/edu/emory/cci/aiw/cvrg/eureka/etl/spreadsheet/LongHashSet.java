@@ -0,0 +1,133 @@
+/*
+ * #%L
+ * Eureka Services
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package edu.emory.cci.aiw.cvrg.eureka.etl.spreadsheet;
+
+/**
+ * A set of primitive longs, stored in an open-addressing hash table so that
+ * ids are not boxed. Not thread-safe.
+ */
+final class LongHashSet {
+
+	private static final long EMPTY = 0L;
+
+	private long[] keys;
+	private int size;
+	private boolean containsEmpty;
+
+	LongHashSet() {
+		this.keys = new long[64];
+	}
+
+	/**
+	 * Adds a value.
+	 *
+	 * @param value the value.
+	 * @return <code>true</code> if the set did not already contain the value.
+	 */
+	boolean add(long value) {
+		if (value == EMPTY) {
+			if (this.containsEmpty) {
+				return false;
+			}
+			this.containsEmpty = true;
+			return true;
+		}
+		int mask = this.keys.length - 1;
+		int i = mix(value) & mask;
+		long key;
+		while ((key = this.keys[i]) != EMPTY) {
+			if (key == value) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		this.keys[i] = value;
+		if (++this.size * 2 > this.keys.length) {
+			rehash();
+		}
+		return true;
+	}
+
+	boolean contains(long value) {
+		if (value == EMPTY) {
+			return this.containsEmpty;
+		}
+		int mask = this.keys.length - 1;
+		int i = mix(value) & mask;
+		long key;
+		while ((key = this.keys[i]) != EMPTY) {
+			if (key == value) {
+				return true;
+			}
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	private void rehash() {
+		long[] oldKeys = this.keys;
+		this.keys = new long[oldKeys.length * 2];
+		int mask = this.keys.length - 1;
+		for (long key : oldKeys) {
+			if (key != EMPTY) {
+				int i = mix(key) & mask;
+				while (this.keys[i] != EMPTY) {
+					i = (i + 1) & mask;
+				}
+				this.keys[i] = key;
+			}
+		}
+	}
+
+	/**
+	 * Spreads a value's bits. The low bits of the result pick the value's
+	 * slot.
+	 */
+	static int mix(long value) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return "LongHashSet{" + "size=" + (this.size + (this.containsEmpty ? 1 : 0))
+				+ ", capacity=" + this.keys.length + '}';
+	}
+}
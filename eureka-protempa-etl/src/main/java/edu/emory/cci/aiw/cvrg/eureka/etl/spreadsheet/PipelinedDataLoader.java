@@ -0,0 +1,563 @@
+/*
+ * #%L
+ * Eureka Services
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package edu.emory.cci.aiw.cvrg.eureka.etl.spreadsheet;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.arp.javautil.sql.ConnectionSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads spreadsheets into a Protempa database with a pipeline of threads.
+ * One producer thread per spreadsheet parses it with a
+ * {@link StreamingXlsxDataProvider} and queues chunks of records by table.
+ * One consumer thread per table takes the chunks off its queue and inserts
+ * them using its own database connection, so parsing and inserting overlap
+ * and tables are loaded concurrently. The queues are bounded, which keeps
+ * memory use bounded when the database is slower than parsing.
+ * <p>
+ * By default, consumers insert with batched prepared statements and adjust
+ * their batch size to the throughput that they observe. In bulk mode, they
+ * instead write their records to a temporary CSV file and load it with a
+ * single H2 <code>INSERT ... DIRECT SELECT ... FROM CSVREAD(...)</code>
+ * statement once parsing is done. Bulk mode only works with H2 databases.
+ * <p>
+ * Each table is committed by its consumer once all of its records have been
+ * inserted.
+ */
+public class PipelinedDataLoader {
+
+	private static final Logger LOGGER
+			= LoggerFactory.getLogger(PipelinedDataLoader.class);
+	private static final int QUEUE_CAPACITY = 4;
+	private static final int MIN_BATCH_SIZE = 32;
+	private static final int MAX_BATCH_SIZE = 4096;
+	private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+	/**
+	 * Queued after the last chunk of a table.
+	 */
+	private static final List<Object> END = Collections.emptyList();
+
+	private final ConnectionSpec connectionSpec;
+	private final boolean bulkLoad;
+	private final List<Table<?>> tables;
+	private final Table<Patient> patients;
+	private final Table<Encounter> encounters;
+	private final Table<Provider> providers;
+	private final Table<CPT> cptCodes;
+	private final Table<Icd9Procedure> icd9Procedures;
+	private final Table<Icd9Diagnosis> icd9Diagnoses;
+	private final Table<Medication> medications;
+	private final Table<Lab> labs;
+	private final Table<Vital> vitals;
+
+	/**
+	 * Creates a loader.
+	 *
+	 * @param inConnectionSpec the database to load. Each table gets its own
+	 * connection from it.
+	 * @param inBulkLoad whether to load tables with H2's
+	 * <code>CSVREAD</code> rather than with batched inserts.
+	 */
+	public PipelinedDataLoader(ConnectionSpec inConnectionSpec,
+			boolean inBulkLoad) {
+		if (inConnectionSpec == null) {
+			throw new IllegalArgumentException("inConnectionSpec cannot be null");
+		}
+		this.connectionSpec = inConnectionSpec;
+		this.bulkLoad = inBulkLoad;
+		this.patients = new Table<Patient>("patient") {
+			@Override
+			void insert(DataInserter inserter, List<Patient> records)
+					throws DataInserterException {
+				inserter.insertPatients(records);
+			}
+
+			@Override
+			Object[] toRow(Patient patient) {
+				return new Object[]{patient.getId(), patient.getFirstName(),
+					patient.getLastName(), toSqlDate(patient.getDateOfBirth()),
+					patient.getLanguage(), patient.getMaritalStatus(),
+					patient.getRace(), patient.getGender()};
+			}
+		};
+		this.encounters = new Table<Encounter>("encounter") {
+			@Override
+			void insert(DataInserter inserter, List<Encounter> records)
+					throws DataInserterException {
+				inserter.insertEncounters(records);
+			}
+
+			@Override
+			Object[] toRow(Encounter encounter) {
+				return new Object[]{encounter.getId(),
+					encounter.getPatientId(), encounter.getProviderId(),
+					toTimestamp(encounter.getStart()),
+					toTimestamp(encounter.getEnd()), encounter.getType(),
+					encounter.getDischargeDisposition()};
+			}
+		};
+		this.providers = new Table<Provider>("provider") {
+			@Override
+			void insert(DataInserter inserter, List<Provider> records)
+					throws DataInserterException {
+				inserter.insertProviders(records);
+			}
+
+			@Override
+			Object[] toRow(Provider provider) {
+				return new Object[]{provider.getId(), provider.getFirstName(),
+					provider.getLastName()};
+			}
+		};
+		this.cptCodes = new ObservationTable<CPT>("cpt_event") {
+			@Override
+			void insert(DataInserter inserter, List<CPT> records)
+					throws DataInserterException {
+				inserter.insertCptCodes(records);
+			}
+		};
+		this.icd9Procedures = new ObservationTable<Icd9Procedure>("icd9p_event") {
+			@Override
+			void insert(DataInserter inserter, List<Icd9Procedure> records)
+					throws DataInserterException {
+				inserter.insertIcd9Procedures(records);
+			}
+		};
+		this.icd9Diagnoses = new Table<Icd9Diagnosis>("icd9d_event") {
+			@Override
+			void insert(DataInserter inserter, List<Icd9Diagnosis> records)
+					throws DataInserterException {
+				inserter.insertIcd9Diagnoses(records);
+			}
+
+			@Override
+			Object[] toRow(Icd9Diagnosis diagnosis) {
+				return new Object[]{diagnosis.getId(),
+					diagnosis.getEncounterId(),
+					toTimestamp(diagnosis.getTimestamp()),
+					diagnosis.getEntityId(), diagnosis.getRank()};
+			}
+		};
+		this.medications = new ObservationTable<Medication>("meds_event") {
+			@Override
+			void insert(DataInserter inserter, List<Medication> records)
+					throws DataInserterException {
+				inserter.insertMedications(records);
+			}
+		};
+		this.labs = new ObservationWithResultTable<Lab>("labs_event") {
+			@Override
+			void insert(DataInserter inserter, List<Lab> records)
+					throws DataInserterException {
+				inserter.insertLabs(records);
+			}
+		};
+		this.vitals = new ObservationWithResultTable<Vital>("vitals_event") {
+			@Override
+			void insert(DataInserter inserter, List<Vital> records)
+					throws DataInserterException {
+				inserter.insertVitals(records);
+			}
+		};
+		this.tables = Arrays.<Table<?>>asList(this.patients, this.encounters,
+				this.providers, this.cptCodes, this.icd9Procedures,
+				this.icd9Diagnoses, this.medications, this.labs, this.vitals);
+	}
+
+	/**
+	 * Loads the given spreadsheets. Returns when all tables have been loaded
+	 * and committed, or when loading fails. On failure, all remaining work
+	 * is cancelled.
+	 *
+	 * @param dataProviders the spreadsheets.
+	 * @throws DataProviderException if a spreadsheet could not be read.
+	 * @throws DataInserterException if a table could not be loaded, or
+	 * loading was interrupted.
+	 */
+	public void load(StreamingXlsxDataProvider[] dataProviders)
+			throws DataProviderException, DataInserterException {
+		final int poolNumber = POOL_NUMBER.incrementAndGet();
+		ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "PipelinedDataLoader-" + poolNumber
+						+ "-" + threadNumber.incrementAndGet());
+			}
+		});
+		CompletionService<Void> completionService
+				= new ExecutorCompletionService<>(executor);
+		try {
+			for (Table<?> table : this.tables) {
+				completionService.submit(table);
+			}
+			for (final StreamingXlsxDataProvider dataProvider : dataProviders) {
+				completionService.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						LOGGER.debug("Parsing spreadsheet {}", dataProvider.getDataFile());
+						dataProvider.read(new QueueingHandler());
+						return null;
+					}
+				});
+			}
+			int remainingProducers = dataProviders.length;
+			int remainingTasks = this.tables.size() + remainingProducers;
+			if (remainingProducers == 0) {
+				endTables();
+			}
+			while (remainingTasks > 0) {
+				completionService.take().get();
+				remainingTasks--;
+				if (remainingProducers > 0 && --remainingProducers == 0) {
+					endTables();
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new DataInserterException(ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof DataProviderException) {
+				throw (DataProviderException) cause;
+			} else if (cause instanceof DataInserterException) {
+				throw (DataInserterException) cause;
+			} else {
+				throw new DataInserterException(cause);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Tells the consumers that all chunks have been queued. Only a consumer
+	 * can complete before the producers are done, and only by failing, in
+	 * which case {@link #load(StreamingXlsxDataProvider[]) } throws before
+	 * counting producers. So the producer count reaches zero only after
+	 * every producer has finished.
+	 */
+	private void endTables() throws InterruptedException {
+		for (Table<?> table : this.tables) {
+			table.end();
+		}
+	}
+
+	private static java.sql.Date toSqlDate(Date date) {
+		return date != null ? new java.sql.Date(date.getTime()) : null;
+	}
+
+	private static Timestamp toTimestamp(Date date) {
+		return date != null ? new Timestamp(date.getTime()) : null;
+	}
+
+	/**
+	 * Copies each chunk from a producer into the queue of its table, waiting
+	 * while the queue is full.
+	 */
+	private final class QueueingHandler implements DataHandler<InterruptedException> {
+
+		@Override
+		public void handlePatients(List<Patient> records) throws InterruptedException {
+			patients.put(records);
+		}
+
+		@Override
+		public void handleEncounters(List<Encounter> records) throws InterruptedException {
+			encounters.put(records);
+		}
+
+		@Override
+		public void handleProviders(List<Provider> records) throws InterruptedException {
+			providers.put(records);
+		}
+
+		@Override
+		public void handleCptCodes(List<CPT> records) throws InterruptedException {
+			cptCodes.put(records);
+		}
+
+		@Override
+		public void handleIcd9Procedures(List<Icd9Procedure> records) throws InterruptedException {
+			icd9Procedures.put(records);
+		}
+
+		@Override
+		public void handleIcd9Diagnoses(List<Icd9Diagnosis> records) throws InterruptedException {
+			icd9Diagnoses.put(records);
+		}
+
+		@Override
+		public void handleMedications(List<Medication> records) throws InterruptedException {
+			medications.put(records);
+		}
+
+		@Override
+		public void handleLabs(List<Lab> records) throws InterruptedException {
+			labs.put(records);
+		}
+
+		@Override
+		public void handleVitals(List<Vital> records) throws InterruptedException {
+			vitals.put(records);
+		}
+	}
+
+	/**
+	 * The queue and consumer of a table.
+	 */
+	private abstract class Table<T> implements Callable<Void> {
+
+		private final String name;
+		private final BlockingQueue<List<?>> queue;
+
+		Table(String inName) {
+			this.name = inName;
+			this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		}
+
+		/**
+		 * Inserts records with batched prepared statements.
+		 */
+		abstract void insert(DataInserter inserter, List<T> records)
+				throws DataInserterException;
+
+		/**
+		 * Gets the column values of a record, in table column order, for
+		 * bulk loading.
+		 */
+		abstract Object[] toRow(T record);
+
+		void put(List<T> records) throws InterruptedException {
+			this.queue.put(new ArrayList<>(records));
+		}
+
+		void end() throws InterruptedException {
+			this.queue.put(END);
+		}
+
+		@Override
+		public Void call() throws SQLException, DataInserterException,
+				IOException, InterruptedException {
+			long start = System.currentTimeMillis();
+			int count;
+			try (Connection connection = connectionSpec.getOrCreate()) {
+				connection.setAutoCommit(false);
+				try {
+					if (bulkLoad) {
+						count = bulkLoad(connection);
+					} else {
+						count = batchLoad(connection);
+					}
+					connection.commit();
+				} catch (SQLException | DataInserterException | IOException | InterruptedException | RuntimeException ex) {
+					try {
+						connection.rollback();
+					} catch (SQLException ignore) {
+						ex.addSuppressed(ignore);
+					}
+					throw ex;
+				}
+			}
+			LOGGER.debug("Loaded {} rows into {} in {} ms", count, this.name,
+					System.currentTimeMillis() - start);
+			return null;
+		}
+
+		@SuppressWarnings("unchecked")
+		private List<T> take() throws InterruptedException {
+			List<?> chunk = this.queue.take();
+			return chunk == END ? null : (List<T>) chunk;
+		}
+
+		/**
+		 * Inserts chunks as they arrive. The batch size is doubled or halved
+		 * after each chunk, continuing in the same direction while the
+		 * insert rate improves and reversing when it gets worse.
+		 */
+		private int batchLoad(Connection connection)
+				throws DataInserterException, InterruptedException {
+			DataInserter inserter = new DataInserter(connection);
+			int count = 0;
+			double lastRate = 0.0;
+			boolean growing = true;
+			List<T> chunk;
+			while ((chunk = take()) != null) {
+				long start = System.nanoTime();
+				insert(inserter, chunk);
+				double rate = chunk.size() / (double) Math.max(1L, System.nanoTime() - start);
+				if (rate < lastRate) {
+					growing = !growing;
+				}
+				lastRate = rate;
+				int batchSize = inserter.getBatchSize();
+				inserter.setBatchSize(growing
+						? Math.min(MAX_BATCH_SIZE, batchSize * 2)
+						: Math.max(MIN_BATCH_SIZE, batchSize / 2));
+				count += chunk.size();
+			}
+			return count;
+		}
+
+		/**
+		 * Writes chunks to a temporary CSV file as they arrive, and loads it
+		 * after the last chunk.
+		 */
+		private int bulkLoad(Connection connection) throws IOException,
+				SQLException, InterruptedException {
+			Path csvFile = Files.createTempFile("eureka-" + this.name, ".csv");
+			try {
+				int count = 0;
+				int columnCount = 0;
+				try (Writer writer = Files.newBufferedWriter(csvFile,
+						StandardCharsets.UTF_8)) {
+					List<T> chunk;
+					while ((chunk = take()) != null) {
+						for (T record : chunk) {
+							Object[] row = toRow(record);
+							columnCount = row.length;
+							writeCsvRow(writer, row);
+						}
+						count += chunk.size();
+					}
+				}
+				if (count > 0) {
+					StringBuilder columns = new StringBuilder();
+					for (int i = 1; i <= columnCount; i++) {
+						if (i > 1) {
+							columns.append(',');
+						}
+						columns.append('C').append(i);
+					}
+					try (PreparedStatement stmt = connection.prepareStatement(
+							"insert into " + this.name
+							+ " direct select * from csvread(?, ?, 'charset=UTF-8')")) {
+						stmt.setString(1, csvFile.toString());
+						stmt.setString(2, columns.toString());
+						stmt.executeUpdate();
+					}
+				}
+				return count;
+			} finally {
+				Files.deleteIfExists(csvFile);
+			}
+		}
+
+		/**
+		 * Writes a row in the format that H2's <code>CSVREAD</code> reads
+		 * by default. Strings are quoted, and nulls are written as empty
+		 * unquoted fields.
+		 */
+		private void writeCsvRow(Writer writer, Object[] row) throws IOException {
+			for (int i = 0; i < row.length; i++) {
+				if (i > 0) {
+					writer.write(',');
+				}
+				Object value = row[i];
+				if (value instanceof String) {
+					writer.write('"');
+					writer.write(((String) value).replace("\"", "\"\""));
+					writer.write('"');
+				} else if (value != null) {
+					writer.write(value.toString());
+				}
+			}
+			writer.write('\n');
+		}
+	}
+
+	private abstract class ObservationTable<T extends Observation> extends Table<T> {
+
+		ObservationTable(String inName) {
+			super(inName);
+		}
+
+		@Override
+		Object[] toRow(T observation) {
+			return new Object[]{observation.getId(),
+				observation.getEncounterId(),
+				toTimestamp(observation.getTimestamp()),
+				observation.getEntityId()};
+		}
+	}
+
+	private abstract class ObservationWithResultTable<T extends ObservationWithResult> extends Table<T> {
+
+		ObservationWithResultTable(String inName) {
+			super(inName);
+		}
+
+		@Override
+		Object[] toRow(T observation) {
+			return new Object[]{observation.getId(),
+				observation.getEncounterId(),
+				toTimestamp(observation.getTimestamp()),
+				observation.getEntityId(), observation.getResultAsStr(),
+				observation.getResultAsNum(), observation.getUnits(),
+				observation.getFlag()};
+		}
+	}
+}
@@ -0,0 +1,706 @@
+/*
+ * #%L
+ * Eureka Services
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package edu.emory.cci.aiw.cvrg.eureka.etl.spreadsheet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.DateFormat;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.poi.hssf.util.CellReference;
+import org.apache.poi.openxml4j.exceptions.InvalidOperationException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads an Excel workbook with the same layout as {@link XlsxDataProvider}
+ * without loading it into memory. Each worksheet is parsed with a SAX handler
+ * over the worksheet's XML, and its rows are passed to a {@link DataHandler}
+ * in chunks of {@link #CHUNK_SIZE} records as they are read. Memory use is
+ * bounded by the chunk size and the workbook's shared string table rather
+ * than by the number of rows.
+ */
+public class StreamingXlsxDataProvider {
+
+	/**
+	 * The maximum number of records passed to a {@link DataHandler} at once.
+	 */
+	public static final int CHUNK_SIZE = 1000;
+
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(StreamingXlsxDataProvider.class);
+
+	private static final String RELATIONSHIPS_NS
+			= "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+	/**
+	 * The standard date format for data held in the workbook.
+	 */
+	private static ThreadLocal<DateFormat> dateFormat = new ThreadLocal<DateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat("yyyy.MM.dd HH:mm:ss");
+		}
+	};
+
+	private static final SAXParserFactory SAX_PARSER_FACTORY;
+
+	static {
+		SAX_PARSER_FACTORY = SAXParserFactory.newInstance();
+		SAX_PARSER_FACTORY.setNamespaceAware(true);
+	}
+
+	private final File dataFile;
+	private final OPCPackage opcPackage;
+	private final XSSFReader reader;
+	private final ReadOnlySharedStringsTable sharedStrings;
+	/**
+	 * Relationship ids of the worksheets, keyed by lower-case worksheet name.
+	 */
+	private final Map<String, String> sheetRelIds;
+	private final ResourceBundle messages;
+
+	/**
+	 * Opens the given workbook and checks that it has the required
+	 * worksheets.
+	 *
+	 * @param inDataFile the workbook.
+	 * @param locale the locale for error messages. If <code>null</code>, the
+	 * default locale is used.
+	 * @throws DataProviderException if the workbook could not be read or is
+	 * missing a required worksheet.
+	 */
+	public StreamingXlsxDataProvider(File inDataFile, Locale locale)
+			throws DataProviderException {
+		if (inDataFile == null) {
+			throw new IllegalArgumentException("inDataFile cannot be null");
+		}
+		this.dataFile = inDataFile;
+		this.messages
+				= locale != null
+				? ResourceBundle.getBundle("Messages", locale)
+				: ResourceBundle.getBundle("Messages");
+		LOGGER.debug("Opening workbook {}", inDataFile.getAbsolutePath());
+		try {
+			this.opcPackage = OPCPackage.open(inDataFile.getAbsolutePath(),
+					PackageAccess.READ);
+		} catch (InvalidOperationException | OpenXML4JException ex) {
+			throw new DataProviderException("Invalid XLSX file", ex);
+		}
+		try {
+			this.reader = new XSSFReader(this.opcPackage);
+			this.sharedStrings = new ReadOnlySharedStringsTable(this.opcPackage);
+			this.sheetRelIds = readSheetRelIds();
+			for (String sheetName : new String[]{"patient", "provider", "encounter"}) {
+				if (!this.sheetRelIds.containsKey(sheetName)) {
+					throw new DataProviderException(MessageFormat.format(
+							"Required worksheet {0} is missing", sheetName));
+				}
+			}
+		} catch (DataProviderException ex) {
+			this.opcPackage.revert();
+			throw ex;
+		} catch (InvalidOperationException | OpenXML4JException | SAXException ex) {
+			this.opcPackage.revert();
+			throw new DataProviderException("Invalid XLSX file", ex);
+		} catch (IOException ex) {
+			this.opcPackage.revert();
+			throw new DataProviderException("Error reading XLSX file", ex);
+		}
+	}
+
+	public File getDataFile() {
+		return dataFile;
+	}
+
+	/**
+	 * Reads the workbook's worksheets in the order patient, encounter,
+	 * provider, eCPT, eICD9P, eICD9D, eMEDS, eLABS and eVITALS, and passes
+	 * their records to the given handler. Optional worksheets that are missing
+	 * are skipped. Encounters are always read before the observations that
+	 * refer to them. The first row of each worksheet is a header and is
+	 * skipped.
+	 *
+	 * @param <E> the type of exception thrown by the handler.
+	 * @param handler the handler.
+	 * @throws DataProviderException if the workbook could not be read or has
+	 * an unreadable cell.
+	 * @throws E if the handler threw an exception.
+	 */
+	public <E extends Exception> void read(final DataHandler<E> handler)
+			throws DataProviderException, E {
+		readSheet("patient", new RowReader<Patient, E>() {
+			@Override
+			Patient read(Row row) throws DataProviderException {
+				Patient patient = new Patient();
+				patient.setId(row.readLongValue(0));
+				patient.setFirstName(row.readStringValue(1));
+				patient.setLastName(row.readStringValue(2));
+				patient.setDateOfBirth(row.readDateValue(3));
+				patient.setLanguage(row.readStringValue(4));
+				patient.setMaritalStatus(row.readStringValue(5));
+				patient.setRace(row.readStringValue(6));
+				patient.setGender(row.readStringValue(7));
+				return patient;
+			}
+
+			@Override
+			void handle(List<Patient> records) throws E {
+				handler.handlePatients(records);
+			}
+		});
+		readSheet("encounter", new RowReader<Encounter, E>() {
+			@Override
+			Encounter read(Row row) throws DataProviderException {
+				Encounter encounter = new Encounter();
+				encounter.setId(row.readLongValue(0));
+				encounter.setPatientId(row.readLongValue(1));
+				encounter.setProviderId(row.readLongValue(2));
+				encounter.setStart(row.readDateValue(3));
+				encounter.setEnd(row.readDateValue(4));
+				encounter.setType(row.readStringValue(5));
+				encounter.setDischargeDisposition(row.readStringValue(6));
+				return encounter;
+			}
+
+			@Override
+			void handle(List<Encounter> records) throws E {
+				handler.handleEncounters(records);
+			}
+		});
+		readSheet("provider", new RowReader<Provider, E>() {
+			@Override
+			Provider read(Row row) throws DataProviderException {
+				Provider provider = new Provider();
+				provider.setId(row.readLongValue(0));
+				provider.setFirstName(row.readStringValue(1));
+				provider.setLastName(row.readStringValue(2));
+				return provider;
+			}
+
+			@Override
+			void handle(List<Provider> records) throws E {
+				handler.handleProviders(records);
+			}
+		});
+		readSheet("eCPT", new ObservationReader<CPT, E>() {
+			@Override
+			CPT newObservation() {
+				return new CPT();
+			}
+
+			@Override
+			void handle(List<CPT> records) throws E {
+				handler.handleCptCodes(records);
+			}
+		});
+		readSheet("eICD9P", new ObservationReader<Icd9Procedure, E>() {
+			@Override
+			Icd9Procedure newObservation() {
+				return new Icd9Procedure();
+			}
+
+			@Override
+			void handle(List<Icd9Procedure> records) throws E {
+				handler.handleIcd9Procedures(records);
+			}
+		});
+		readSheet("eICD9D", new RowReader<Icd9Diagnosis, E>() {
+			private final Map<Long, Integer> ranksByEncounter = new HashMap<>();
+
+			@Override
+			Icd9Diagnosis read(Row row) throws DataProviderException {
+				Icd9Diagnosis diagnosis = new Icd9Diagnosis();
+				diagnosis.setId(row.readStringValue(0));
+				Long encId = row.readLongValue(1);
+				diagnosis.setEncounterId(encId);
+				diagnosis.setTimestamp(row.readDateValue(2));
+				diagnosis.setEntityId(row.readStringValue(3));
+				Integer rank = this.ranksByEncounter.get(encId);
+				int newRank = rank == null ? 1 : rank + 1;
+				diagnosis.setRank(newRank);
+				this.ranksByEncounter.put(encId, newRank);
+				return diagnosis;
+			}
+
+			@Override
+			void handle(List<Icd9Diagnosis> records) throws E {
+				handler.handleIcd9Diagnoses(records);
+			}
+		});
+		readSheet("eMEDS", new ObservationReader<Medication, E>() {
+			@Override
+			Medication newObservation() {
+				return new Medication();
+			}
+
+			@Override
+			void handle(List<Medication> records) throws E {
+				handler.handleMedications(records);
+			}
+		});
+		readSheet("eLABS", new ObservationWithResultReader<Lab, E>() {
+			@Override
+			Lab newObservation() {
+				return new Lab();
+			}
+
+			@Override
+			void handle(List<Lab> records) throws E {
+				handler.handleLabs(records);
+			}
+		});
+		readSheet("eVITALS", new ObservationWithResultReader<Vital, E>() {
+			@Override
+			Vital newObservation() {
+				return new Vital();
+			}
+
+			@Override
+			void handle(List<Vital> records) throws E {
+				handler.handleVitals(records);
+			}
+		});
+	}
+
+	/**
+	 * Closes the workbook without saving. May be called multiple times.
+	 *
+	 * @throws IOException if an error occurred closing the workbook.
+	 */
+	public void close() throws IOException {
+		this.opcPackage.revert();
+	}
+
+	private Map<String, String> readSheetRelIds() throws IOException,
+			InvalidOperationException, OpenXML4JException, SAXException {
+		final Map<String, String> result = new HashMap<>();
+		try (InputStream workbookData = this.reader.getWorkbookData()) {
+			parse(workbookData, new DefaultHandler() {
+				@Override
+				public void startElement(String uri, String localName,
+						String qName, Attributes attributes) {
+					if ("sheet".equals(localName)) {
+						result.put(
+								attributes.getValue("name").toLowerCase(Locale.ROOT),
+								attributes.getValue(RELATIONSHIPS_NS, "id"));
+					}
+				}
+			});
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T, E extends Exception> void readSheet(String sheetName,
+			RowReader<T, E> rowReader) throws DataProviderException, E {
+		String relId = this.sheetRelIds.get(sheetName.toLowerCase(Locale.ROOT));
+		if (relId == null) {
+			return;
+		}
+		try (InputStream sheetData = this.reader.getSheet(relId)) {
+			parse(sheetData, new SheetHandler<>(sheetName, rowReader));
+		} catch (StopParsingException ex) {
+			Exception cause = ex.getException();
+			if (cause instanceof DataProviderException) {
+				throw (DataProviderException) cause;
+			} else {
+				throw (E) cause;
+			}
+		} catch (InvalidOperationException | OpenXML4JException | SAXException ex) {
+			throw new DataProviderException("Invalid XLSX file", ex);
+		} catch (IOException ex) {
+			throw new DataProviderException("Error reading XLSX file", ex);
+		}
+	}
+
+	private static void parse(InputStream in, DefaultHandler handler)
+			throws IOException, SAXException {
+		XMLReader xmlReader;
+		try {
+			xmlReader = SAX_PARSER_FACTORY.newSAXParser().getXMLReader();
+		} catch (ParserConfigurationException ex) {
+			throw new SAXException(ex);
+		}
+		xmlReader.setContentHandler(handler);
+		xmlReader.parse(new InputSource(in));
+	}
+
+	/**
+	 * Carries an exception thrown while handling a row out of the SAX parser.
+	 */
+	private static final class StopParsingException extends SAXException {
+
+		private static final long serialVersionUID = 1L;
+
+		StopParsingException(Exception cause) {
+			super(cause);
+		}
+	}
+
+	/**
+	 * Converts rows into records and passes chunks of records on.
+	 */
+	private abstract static class RowReader<T, E extends Exception> {
+
+		abstract T read(Row row) throws DataProviderException;
+
+		abstract void handle(List<T> records) throws E;
+	}
+
+	private abstract static class ObservationReader<T extends Observation, E extends Exception>
+			extends RowReader<T, E> {
+
+		abstract T newObservation();
+
+		@Override
+		T read(Row row) throws DataProviderException {
+			T observation = newObservation();
+			observation.setId(row.readStringValue(0));
+			observation.setEncounterId(row.readLongValue(1));
+			observation.setTimestamp(row.readDateValue(2));
+			observation.setEntityId(row.readStringValue(3));
+			return observation;
+		}
+	}
+
+	private abstract static class ObservationWithResultReader<T extends ObservationWithResult, E extends Exception>
+			extends ObservationReader<T, E> {
+
+		@Override
+		T read(Row row) throws DataProviderException {
+			T observation = super.read(row);
+			observation.setResultAsStr(row.readStringValue(4));
+			observation.setResultAsNum(row.readDoubleValue(5));
+			observation.setUnits(row.readStringValue(6));
+			observation.setFlag(row.readStringValue(7));
+			return observation;
+		}
+	}
+
+	/**
+	 * The cells of the worksheet row being parsed.
+	 */
+	private final class Row {
+
+		private final String sheetName;
+		private final Map<Integer, Cell> cells = new HashMap<>();
+		private int rowIndex;
+
+		Row(String inSheetName) {
+			this.sheetName = inSheetName;
+		}
+
+		void reset(int inRowIndex) {
+			this.rowIndex = inRowIndex;
+			this.cells.clear();
+		}
+
+		void put(int columnIndex, Cell cell) {
+			this.cells.put(columnIndex, cell);
+		}
+
+		String readStringValue(int columnIndex) throws DataProviderException {
+			Cell cell = this.cells.get(columnIndex);
+			if (cell == null) {
+				return null;
+			}
+			switch (cell.type) {
+				case STRING:
+				case BOOLEAN:
+					return cell.value;
+				case NUMERIC:
+					return Double.toString(parseNumber(columnIndex, cell));
+				case BLANK:
+					return null;
+				default:
+					throw parsingException(columnIndex,
+							"Cell type must be a number, string, boolean or blank",
+							null);
+			}
+		}
+
+		Long readLongValue(int columnIndex) throws DataProviderException {
+			Double value = readDoubleValue(columnIndex);
+			return value != null ? Long.valueOf(value.longValue()) : null;
+		}
+
+		Double readDoubleValue(int columnIndex) throws DataProviderException {
+			Cell cell = this.cells.get(columnIndex);
+			if (cell == null) {
+				return null;
+			}
+			switch (cell.type) {
+				case NUMERIC:
+					return Double.valueOf(parseNumber(columnIndex, cell));
+				case BLANK:
+					/*
+					 * XlsxDataProvider reads a cell that is present but empty
+					 * as 0, so we do too.
+					 */
+					return Double.valueOf(0.0);
+				default:
+					throw parsingException(columnIndex,
+							"Cannot get a numeric value from a non-numeric cell",
+							null);
+			}
+		}
+
+		Date readDateValue(int columnIndex) throws DataProviderException {
+			String value = readStringValue(columnIndex);
+			if (value != null) {
+				try {
+					return dateFormat.get().parse(value);
+				} catch (ParseException e) {
+					throw parsingException(columnIndex, e.getMessage(), e);
+				}
+			}
+			return null;
+		}
+
+		private double parseNumber(int columnIndex, Cell cell)
+				throws DataProviderException {
+			try {
+				return Double.parseDouble(cell.value);
+			} catch (NumberFormatException e) {
+				throw parsingException(columnIndex, e.getMessage(), e);
+			}
+		}
+
+		private DataProviderException parsingException(int columnIndex,
+				String problemDescription, Exception cause) {
+			String msgTemplate
+					= messages.getString("xlsxDataProvider.error.parsing");
+			CellReference cellRef
+					= new CellReference(this.rowIndex, columnIndex);
+			String msg = MessageFormat.format(msgTemplate, this.sheetName,
+					cellRef.formatAsString(), problemDescription);
+			return new DataProviderException(msg, cause);
+		}
+	}
+
+	private enum CellType {
+		STRING, NUMERIC, BOOLEAN, BLANK, ERROR
+	}
+
+	private static final class Cell {
+
+		private final CellType type;
+		private final String value;
+
+		Cell(CellType inType, String inValue) {
+			this.type = inType;
+			this.value = inValue;
+		}
+	}
+
+	/**
+	 * Parses the XML of a worksheet, collecting each row's cells and passing
+	 * them to a {@link RowReader}.
+	 */
+	private final class SheetHandler<T> extends DefaultHandler {
+
+		private final RowReader<T, ?> rowReader;
+		private final Row row;
+		private final List<T> chunk;
+		private final StringBuilder text;
+		private boolean headerSkipped;
+		private int nextRowIndex;
+		private int nextColumnIndex;
+		private int columnIndex;
+		private String cellType;
+		private boolean inValue;
+
+		SheetHandler(String sheetName, RowReader<T, ?> inRowReader) {
+			this.rowReader = inRowReader;
+			this.row = new Row(sheetName);
+			this.chunk = new ArrayList<>(CHUNK_SIZE);
+			this.text = new StringBuilder();
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName,
+				Attributes attributes) throws SAXException {
+			switch (localName) {
+				case "row":
+					String r = attributes.getValue("r");
+					int rowIndex;
+					try {
+						rowIndex = r != null ? Integer.parseInt(r) - 1 : this.nextRowIndex;
+					} catch (NumberFormatException ex) {
+						throw new SAXException("Invalid row number " + r, ex);
+					}
+					this.row.reset(rowIndex);
+					this.nextRowIndex = rowIndex + 1;
+					this.nextColumnIndex = 0;
+					break;
+				case "c":
+					String ref = attributes.getValue("r");
+					if (ref != null) {
+						int i = 0;
+						while (i < ref.length() && Character.isLetter(ref.charAt(i))) {
+							i++;
+						}
+						this.columnIndex = CellReference.convertColStringToIndex(ref.substring(0, i));
+					} else {
+						this.columnIndex = this.nextColumnIndex;
+					}
+					this.nextColumnIndex = this.columnIndex + 1;
+					this.cellType = attributes.getValue("t");
+					this.text.setLength(0);
+					break;
+				case "v":
+				case "t":
+					this.inValue = true;
+					break;
+				default:
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			if (this.inValue) {
+				this.text.append(ch, start, length);
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName)
+				throws SAXException {
+			switch (localName) {
+				case "v":
+				case "t":
+					this.inValue = false;
+					break;
+				case "c":
+					Cell cell;
+					try {
+						cell = toCell();
+					} catch (DataProviderException ex) {
+						throw new StopParsingException(ex);
+					}
+					this.row.put(this.columnIndex, cell);
+					break;
+				case "row":
+					if (!this.headerSkipped) {
+						this.headerSkipped = true;
+					} else {
+						try {
+							this.chunk.add(this.rowReader.read(this.row));
+						} catch (DataProviderException ex) {
+							throw new StopParsingException(ex);
+						}
+						if (this.chunk.size() >= CHUNK_SIZE) {
+							flush();
+						}
+					}
+					break;
+				default:
+			}
+		}
+
+		@Override
+		public void endDocument() throws SAXException {
+			flush();
+		}
+
+		private Cell toCell() throws DataProviderException {
+			if (this.cellType == null || "n".equals(this.cellType)) {
+				return this.text.length() > 0
+						? new Cell(CellType.NUMERIC, this.text.toString())
+						: new Cell(CellType.BLANK, null);
+			}
+			switch (this.cellType) {
+				case "s":
+					int index;
+					try {
+						index = Integer.parseInt(this.text.toString().trim());
+					} catch (NumberFormatException ex) {
+						throw this.row.parsingException(this.columnIndex,
+								"Invalid shared string index "
+								+ this.text.toString().trim(), ex);
+					}
+					return new Cell(CellType.STRING,
+							sharedStrings.getEntryAt(index));
+				case "inlineStr":
+				case "str":
+					return new Cell(CellType.STRING, this.text.toString());
+				case "b":
+					return new Cell(CellType.BOOLEAN,
+							Boolean.toString("1".equals(this.text.toString())));
+				default:
+					return new Cell(CellType.ERROR, this.text.toString());
+			}
+		}
+
+		private void flush() throws SAXException {
+			if (!this.chunk.isEmpty()) {
+				try {
+					this.rowReader.handle(this.chunk);
+				} catch (Exception ex) {
+					throw new StopParsingException(ex);
+				}
+				this.chunk.clear();
+			}
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * Eureka Services
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package edu.emory.cci.aiw.cvrg.eureka.etl.spreadsheet;
+
+/**
+ * A set of strings, stored in an open-addressing hash table. Unlike
+ * {@link java.util.HashSet}, it needs no entry object per element, just a
+ * reference and a cached hash code. Not thread-safe. Does not accept
+ * <code>null</code>.
+ */
+final class StringHashSet {
+
+	private String[] keys;
+	private int[] hashes;
+	private int size;
+
+	StringHashSet() {
+		this.keys = new String[64];
+		this.hashes = new int[64];
+	}
+
+	/**
+	 * Adds a string.
+	 *
+	 * @param value the string.
+	 * @return <code>true</code> if the set did not already contain the
+	 * string.
+	 */
+	boolean add(String value) {
+		int hash = mix(value.hashCode());
+		int mask = this.keys.length - 1;
+		int i = hash & mask;
+		String key;
+		while ((key = this.keys[i]) != null) {
+			if (this.hashes[i] == hash && key.equals(value)) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		this.keys[i] = value;
+		this.hashes[i] = hash;
+		if (++this.size * 2 > this.keys.length) {
+			rehash();
+		}
+		return true;
+	}
+
+	private void rehash() {
+		String[] oldKeys = this.keys;
+		int[] oldHashes = this.hashes;
+		this.keys = new String[oldKeys.length * 2];
+		this.hashes = new int[oldKeys.length * 2];
+		int mask = this.keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != null) {
+				int i = oldHashes[j] & mask;
+				while (this.keys[i] != null) {
+					i = (i + 1) & mask;
+				}
+				this.keys[i] = oldKeys[j];
+				this.hashes[i] = oldHashes[j];
+			}
+		}
+	}
+
+	private static int mix(int hash) {
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
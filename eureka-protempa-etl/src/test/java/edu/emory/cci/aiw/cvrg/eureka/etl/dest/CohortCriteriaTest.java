@@ -0,0 +1,268 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.dest;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.eurekaclinical.eureka.client.comm.BinaryOperator;
+import org.eurekaclinical.eureka.client.comm.Cohort;
+import org.eurekaclinical.eureka.client.comm.Literal;
+import org.eurekaclinical.eureka.client.comm.Node;
+import org.eurekaclinical.eureka.client.comm.UnaryOperator;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.protempa.KnowledgeSource;
+import org.protempa.proposition.Proposition;
+
+/**
+ * Checks the compiled program of {@link CohortCriteria} against a direct
+ * recursive evaluation of the cohort's expression tree, for every
+ * combination of propositions.
+ */
+public class CohortCriteriaTest {
+
+	private static final Map<String, Set<String>> DESCENDANTS
+			= new HashMap<>();
+
+	static {
+		DESCENDANTS.put("A", new HashSet<>(Arrays.asList("A", "A1")));
+	}
+
+	private static final String[] PROP_IDS = {"A", "A1", "B", "C"};
+
+	@Test
+	public void testMatchesInterpretedEvaluation() throws Exception {
+		Node a = literal("A");
+		Node b = literal("B");
+		Node c = literal("C");
+		List<Node> trees = Arrays.asList(
+				a,
+				not(a),
+				not(not(b)),
+				and(a, b),
+				or(a, b),
+				not(and(a, b)),
+				not(or(a, b)),
+				and(or(a, b), not(c)),
+				or(and(a, b), and(not(a), c)),
+				not(or(not(a), and(b, c))),
+				and(a, or(b, and(c, not(a)))),
+				and(and(and(a, b), c), not(a)),
+				or(a, not(a)),
+				or(c, or(b, or(a, not(c)))));
+		for (Node tree : trees) {
+			CohortCriteria criteria = criteria(tree);
+			for (int combination = 0; combination < 1 << PROP_IDS.length; combination++) {
+				List<Proposition> props = new ArrayList<>();
+				Set<String> propIds = new HashSet<>();
+				for (int i = 0; i < PROP_IDS.length; i++) {
+					if ((combination & (1 << i)) != 0) {
+						props.add(proposition(PROP_IDS[i]));
+						propIds.add(PROP_IDS[i]);
+					}
+				}
+				assertEquals("wrong result for " + toString(tree) + " with " + propIds,
+						interpret(tree, propIds), criteria.evaluate(props));
+			}
+		}
+	}
+
+	@Test
+	public void testManyLiterals() throws Exception {
+		Node any = literal("L0");
+		Node all = literal("L0");
+		for (int i = 1; i < 70; i++) {
+			any = or(any, literal("L" + i));
+			all = and(all, literal("L" + i));
+		}
+		CohortCriteria anyCriteria = criteria(any);
+		assertFalse("no propositions matched",
+				anyCriteria.evaluate(Collections.<Proposition>emptyList()));
+		assertTrue("last literal not matched",
+				anyCriteria.evaluate(Collections.singletonList(proposition("L69"))));
+		CohortCriteria allCriteria = criteria(all);
+		List<Proposition> props = new ArrayList<>();
+		for (int i = 0; i < 69; i++) {
+			props.add(proposition("L" + i));
+		}
+		assertFalse("missing literal matched", allCriteria.evaluate(props));
+		props.add(proposition("L69"));
+		assertTrue("all literals not matched", allCriteria.evaluate(props));
+	}
+
+	private static CohortCriteria criteria(Node node) throws Exception {
+		Cohort cohort = new Cohort();
+		cohort.setNode(node);
+		CohortCriteria criteria = new CohortCriteria(cohort);
+		criteria.init(knowledgeSource());
+		return criteria;
+	}
+
+	/**
+	 * Evaluates an expression tree directly. A literal is satisfied by its
+	 * proposition id or any of its descendants.
+	 */
+	private static boolean interpret(Node node, Set<String> propIds) {
+		if (node instanceof Literal) {
+			for (String propId : descendants(((Literal) node).getName())) {
+				if (propIds.contains(propId)) {
+					return true;
+				}
+			}
+			return false;
+		} else if (node instanceof UnaryOperator) {
+			return !interpret(((UnaryOperator) node).getNode(), propIds);
+		} else {
+			BinaryOperator bo = (BinaryOperator) node;
+			boolean left = interpret(bo.getLeftNode(), propIds);
+			boolean right = interpret(bo.getRightNode(), propIds);
+			return bo.getOp() == BinaryOperator.Op.AND ? left && right : left || right;
+		}
+	}
+
+	private static String toString(Node node) {
+		if (node instanceof Literal) {
+			return ((Literal) node).getName();
+		} else if (node instanceof UnaryOperator) {
+			return "not " + toString(((UnaryOperator) node).getNode());
+		} else {
+			BinaryOperator bo = (BinaryOperator) node;
+			return "(" + toString(bo.getLeftNode()) + " " + bo.getOp() + " "
+					+ toString(bo.getRightNode()) + ")";
+		}
+	}
+
+	private static Set<String> descendants(String propId) {
+		Set<String> result = DESCENDANTS.get(propId);
+		return result != null ? result : Collections.singleton(propId);
+	}
+
+	private static Literal literal(String name) {
+		Literal literal = new Literal();
+		literal.setName(name);
+		return literal;
+	}
+
+	private static UnaryOperator not(Node node) {
+		UnaryOperator uo = new UnaryOperator();
+		uo.setOp(UnaryOperator.Op.NOT);
+		uo.setNode(node);
+		return uo;
+	}
+
+	private static BinaryOperator and(Node left, Node right) {
+		return binary(BinaryOperator.Op.AND, left, right);
+	}
+
+	private static BinaryOperator or(Node left, Node right) {
+		return binary(BinaryOperator.Op.OR, left, right);
+	}
+
+	private static BinaryOperator binary(BinaryOperator.Op op, Node left, Node right) {
+		BinaryOperator bo = new BinaryOperator();
+		bo.setOp(op);
+		bo.setLeftNode(left);
+		bo.setRightNode(right);
+		return bo;
+	}
+
+	/**
+	 * Makes a knowledge source that only answers
+	 * <code>collectPropIdDescendantsUsingAllNarrower</code>.
+	 */
+	private static KnowledgeSource knowledgeSource() {
+		return (KnowledgeSource) Proxy.newProxyInstance(
+				CohortCriteriaTest.class.getClassLoader(),
+				new Class<?>[]{KnowledgeSource.class},
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("collectPropIdDescendantsUsingAllNarrower")) {
+							String[] propIds = (String[]) args[1];
+							Set<String> result = new HashSet<>();
+							for (String propId : propIds) {
+								result.addAll(descendants(propId));
+							}
+							return result;
+						}
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	/**
+	 * Makes a proposition that only has an id, which is all that cohort
+	 * criteria without date ranges look at.
+	 */
+	private static Proposition proposition(final String id) {
+		return (Proposition) Proxy.newProxyInstance(
+				CohortCriteriaTest.class.getClassLoader(),
+				new Class<?>[]{Proposition.class},
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						switch (method.getName()) {
+							case "getId":
+								return id;
+							case "toString":
+								return id;
+							case "hashCode":
+								return System.identityHashCode(proxy);
+							case "equals":
+								return proxy == args[0];
+							default:
+								throw new UnsupportedOperationException(method.getName());
+						}
+					}
+				});
+	}
+}
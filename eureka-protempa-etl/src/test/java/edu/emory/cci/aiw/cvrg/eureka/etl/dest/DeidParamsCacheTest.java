@@ -0,0 +1,325 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.dest;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.DeidPerPatientParams;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.DestinationEntity;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.PatientSetExtractorDestinationEntity;
+import edu.emory.cci.aiw.cvrg.eureka.etl.dao.EurekaDeidConfigDao;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import javax.persistence.PersistenceException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Gets per-patient parameters through {@link DeidParamsCache} backed by an
+ * in-memory stand-in for the database that enforces the unique key id.
+ */
+public class DeidParamsCacheTest {
+
+	private DestinationEntity destination;
+	private FakeDao dao;
+	private int assigned;
+
+	@Before
+	public void setUp() {
+		this.destination = new PatientSetExtractorDestinationEntity();
+		this.dao = new FakeDao();
+		this.assigned = 0;
+	}
+
+	@Test
+	public void testNewParamsAreInsertedInBatches() {
+		DeidParamsCache cache = newCache(10000);
+		for (int i = 0; i < DeidParamsCache.BATCH_SIZE - 1; i++) {
+			cache.get("p" + i);
+		}
+		Assert.assertTrue(this.dao.batches.isEmpty());
+		Assert.assertTrue(this.dao.rows.isEmpty());
+		Integer offset = cache.get("p" + (DeidParamsCache.BATCH_SIZE - 1)).getOffset();
+		Assert.assertEquals(Arrays.asList(DeidParamsCache.BATCH_SIZE), this.dao.batches);
+		Assert.assertEquals(DeidParamsCache.BATCH_SIZE, this.dao.rows.size());
+		Assert.assertEquals(offset, cache.get("p" + (DeidParamsCache.BATCH_SIZE - 1)).getOffset());
+		Assert.assertEquals(offset, this.dao.rows.get("p" + (DeidParamsCache.BATCH_SIZE - 1)).getOffset());
+
+		for (int i = 0; i < 5; i++) {
+			cache.get("q" + i);
+		}
+		cache.flush();
+		Assert.assertEquals(Arrays.asList(DeidParamsCache.BATCH_SIZE, 5), this.dao.batches);
+		Assert.assertEquals(DeidParamsCache.BATCH_SIZE + 5, this.dao.rows.size());
+		Assert.assertEquals(0, this.dao.singleInserts);
+	}
+
+	@Test
+	public void testConflictKeepsStoredParams() {
+		DeidParamsCache cache = newCache(10000);
+		DeidPerPatientParams a = cache.get("a");
+
+		/*
+		 * Another job inserts the patient's parameters after this cache
+		 * loaded the destination, without a salt.
+		 */
+		DeidPerPatientParams other = new DeidPerPatientParams();
+		other.setKeyId("b");
+		other.setDestination(this.destination);
+		other.setOffset(-42);
+		this.dao.store(other);
+
+		DeidPerPatientParams b = cache.get("b");
+		Assert.assertFalse(Integer.valueOf(-42).equals(b.getOffset()));
+		cache.flush();
+
+		Assert.assertEquals(1, this.dao.failedBatches);
+		Assert.assertEquals(2, this.dao.rows.size());
+		Assert.assertEquals(a.getOffset(), this.dao.rows.get("a").getOffset());
+		DeidPerPatientParams stored = this.dao.rows.get("b");
+		Assert.assertEquals(Integer.valueOf(-42), stored.getOffset());
+		Assert.assertArrayEquals(b.getSalt(), stored.getSalt());
+
+		DeidPerPatientParams cached = cache.get("b");
+		Assert.assertEquals(stored.getId(), cached.getId());
+		Assert.assertEquals(Integer.valueOf(-42), cached.getOffset());
+		Assert.assertArrayEquals(b.getSalt(), cached.getSalt());
+	}
+
+	@Test
+	public void testMissingValuesAreFilledIn() {
+		DeidPerPatientParams existing = new DeidPerPatientParams();
+		existing.setKeyId("c");
+		existing.setDestination(this.destination);
+		existing.setOffset(7);
+		this.dao.store(existing);
+
+		DeidParamsCache cache = newCache(10000);
+		DeidPerPatientParams c = cache.get("c");
+		Assert.assertEquals(Integer.valueOf(7), c.getOffset());
+		Assert.assertNotNull(c.getSalt());
+		Assert.assertArrayEquals(c.getSalt(), this.dao.rows.get("c").getSalt());
+		Assert.assertEquals(1, this.dao.fillIns);
+		Assert.assertTrue(this.dao.batches.isEmpty());
+	}
+
+	@Test
+	public void testBufferedParamsOutliveEviction() {
+		DeidParamsCache cache = newCache(1);
+		Integer offset = cache.get("x").getOffset();
+		cache.get("y");
+		Assert.assertEquals(offset, cache.get("x").getOffset());
+		Assert.assertEquals(0, this.dao.lookups);
+		cache.flush();
+		Assert.assertEquals(Arrays.asList(2), this.dao.batches);
+		Assert.assertEquals(offset, this.dao.rows.get("x").getOffset());
+	}
+
+	@Test
+	public void testEvictedParamsAreLookedUp() {
+		for (String keyId : new String[]{"d", "e", "f"}) {
+			DeidPerPatientParams p = new DeidPerPatientParams();
+			p.setKeyId(keyId);
+			p.setDestination(this.destination);
+			p.setOffset((int) keyId.charAt(0));
+			p.setSalt(new byte[]{(byte) keyId.charAt(0)});
+			this.dao.store(p);
+		}
+		DeidParamsCache cache = newCache(2);
+		Assert.assertEquals(Integer.valueOf('f'), cache.get("f").getOffset());
+		Assert.assertEquals(1, this.dao.lookups);
+		Assert.assertEquals(Integer.valueOf('d'), cache.get("d").getOffset());
+		cache.flush();
+		Assert.assertTrue(this.dao.batches.isEmpty());
+		Assert.assertEquals(3, this.dao.rows.size());
+	}
+
+	private DeidParamsCache newCache(int maxSize) {
+		return new DeidParamsCache(this.destination, this.dao, maxSize, new DeidParamsCache.Initializer() {
+			@Override
+			public boolean initialize(DeidPerPatientParams params) {
+				boolean result = false;
+				if (params.getOffset() == null) {
+					params.setOffset(++assigned);
+					result = true;
+				}
+				if (params.getSalt() == null) {
+					params.setSalt(new byte[]{(byte) ++assigned, (byte) (assigned >> 8)});
+					result = true;
+				}
+				return result;
+			}
+		});
+	}
+
+	private static DeidPerPatientParams copy(DeidPerPatientParams p) {
+		DeidPerPatientParams result = new DeidPerPatientParams();
+		result.setId(p.getId());
+		result.setKeyId(p.getKeyId());
+		result.setDestination(p.getDestination());
+		result.setOffset(p.getOffset());
+		result.setCipherKey(p.getCipherKey());
+		result.setSalt(p.getSalt());
+		return result;
+	}
+
+	/**
+	 * Stores parameters by key id, like a table with a unique constraint on
+	 * destination and key id for a single destination.
+	 */
+	private static class FakeDao implements EurekaDeidConfigDao {
+
+		private final Map<String, DeidPerPatientParams> rows = new HashMap<>();
+		private final List<Integer> batches = new ArrayList<>();
+		private long nextId = 1;
+		private int failedBatches;
+		private int singleInserts;
+		private int fillIns;
+		private int lookups;
+
+		void store(DeidPerPatientParams params) {
+			params.setId(this.nextId++);
+			this.rows.put(params.getKeyId(), copy(params));
+		}
+
+		@Override
+		public DeidPerPatientParams getPatientParams(String inKeyId, DestinationEntity inDestination) {
+			this.lookups++;
+			DeidPerPatientParams result = this.rows.get(inKeyId);
+			return result != null ? copy(result) : null;
+		}
+
+		@Override
+		public List<DeidPerPatientParams> getPatientParams(DestinationEntity inDestination, Long inAfterId, int inMaxResults) {
+			List<DeidPerPatientParams> all = new ArrayList<>(this.rows.values());
+			Collections.sort(all, new Comparator<DeidPerPatientParams>() {
+				@Override
+				public int compare(DeidPerPatientParams o1, DeidPerPatientParams o2) {
+					return o1.getId().compareTo(o2.getId());
+				}
+			});
+			List<DeidPerPatientParams> result = new ArrayList<>();
+			for (DeidPerPatientParams p : all) {
+				if ((inAfterId == null || p.getId() > inAfterId) && result.size() < inMaxResults) {
+					result.add(copy(p));
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public DeidPerPatientParams insertOrGet(DeidPerPatientParams inDeidPerPatientParams) {
+			DeidPerPatientParams stored = this.rows.get(inDeidPerPatientParams.getKeyId());
+			if (stored != null) {
+				return copy(stored);
+			}
+			this.singleInserts++;
+			store(inDeidPerPatientParams);
+			return inDeidPerPatientParams;
+		}
+
+		@Override
+		public List<DeidPerPatientParams> insertAll(List<DeidPerPatientParams> inDeidPerPatientParams) {
+			for (DeidPerPatientParams p : inDeidPerPatientParams) {
+				if (this.rows.containsKey(p.getKeyId())) {
+					this.failedBatches++;
+					throw new PersistenceException("Duplicate key id " + p.getKeyId());
+				}
+			}
+			this.batches.add(inDeidPerPatientParams.size());
+			for (DeidPerPatientParams p : inDeidPerPatientParams) {
+				store(p);
+			}
+			return inDeidPerPatientParams;
+		}
+
+		@Override
+		public DeidPerPatientParams fillIn(DeidPerPatientParams inDeidPerPatientParams) {
+			this.fillIns++;
+			DeidPerPatientParams stored = this.rows.get(inDeidPerPatientParams.getKeyId());
+			if (stored.getOffset() == null) {
+				stored.setOffset(inDeidPerPatientParams.getOffset());
+			}
+			if (stored.getCipherKey() == null) {
+				stored.setCipherKey(inDeidPerPatientParams.getCipherKey());
+			}
+			if (stored.getSalt() == null) {
+				stored.setSalt(inDeidPerPatientParams.getSalt());
+			}
+			return copy(stored);
+		}
+
+		@Override
+		public Integer getOffset(String inKeyId, DestinationEntity inDestination) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public DeidPerPatientParams getOrCreatePatientParams(String inKeyId, DestinationEntity inDestination) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void update(DeidPerPatientParams inDeidPerPatientParams) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int newOffset() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Random getRandom() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
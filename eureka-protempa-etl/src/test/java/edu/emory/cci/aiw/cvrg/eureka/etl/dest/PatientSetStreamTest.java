@@ -0,0 +1,209 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.dest;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sends patient sets through {@link PatientSetStream} to an embedded HTTP
+ * server standing in for the patient set service.
+ */
+public class PatientSetStreamTest {
+
+	private HttpServer server;
+	private List<byte[]> received;
+	private CountDownLatch handled;
+	private int failures;
+	private URL url;
+
+	@Before
+	public void setUp() throws IOException {
+		this.received = Collections.synchronizedList(new ArrayList<byte[]>());
+		this.handled = new CountDownLatch(1);
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		this.server.createContext("/patientsets", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					byte[] body;
+					try (InputStream in = exchange.getRequestBody()) {
+						body = IOUtils.toByteArray(in);
+					}
+					received.add(body);
+					int status;
+					synchronized (PatientSetStreamTest.this) {
+						if (failures > 0) {
+							failures--;
+							status = 503;
+						} else {
+							status = 204;
+						}
+					}
+					exchange.sendResponseHeaders(status, -1);
+					exchange.close();
+				} finally {
+					handled.countDown();
+				}
+			}
+		});
+		this.server.start();
+		this.url = new URL("http://localhost:" + this.server.getAddress().getPort() + "/patientsets");
+	}
+
+	@After
+	public void tearDown() {
+		this.server.stop(0);
+	}
+
+	@Test
+	public void testSend() throws IOException {
+		byte[] data = data(1024 * 1024);
+		try (PatientSetStream stream = newStream(64 * 1024, 64 * 1024, 1)) {
+			write(stream, data);
+		}
+		Assert.assertEquals(1, this.received.size());
+		Assert.assertArrayEquals(data, this.received.get(0));
+	}
+
+	@Test
+	public void testRetry() throws IOException {
+		setFailures(1);
+		byte[] data = data(200 * 1024);
+		try (PatientSetStream stream = newStream(64 * 1024, 1024 * 1024, 2)) {
+			write(stream, data);
+		}
+		Assert.assertEquals(2, this.received.size());
+		Assert.assertArrayEquals(data, this.received.get(1));
+	}
+
+	@Test(expected = IOException.class)
+	public void testNoRetryPastRetainSize() throws IOException {
+		setFailures(1);
+		try (PatientSetStream stream = newStream(64 * 1024, 64 * 1024, 2)) {
+			write(stream, data(200 * 1024));
+		}
+	}
+
+	@Test
+	public void testAbort() throws IOException, InterruptedException {
+		PatientSetStream stream = newStream(64 * 1024, 64 * 1024, 2);
+		/*
+		 * Writing more than the buffer size means the request is under way
+		 * when the stream is aborted.
+		 */
+		write(stream, data(100 * 1024));
+		stream.abort();
+		stream.close();
+		Assert.assertTrue(this.handled.await(10, TimeUnit.SECONDS));
+		Assert.assertTrue(this.received.isEmpty());
+	}
+
+	private synchronized void setFailures(int inFailures) {
+		this.failures = inFailures;
+	}
+
+	private PatientSetStream newStream(int bufferSize, long retainSize, int attempts) {
+		return new PatientSetStream("test", new PatientSetStream.Sink() {
+			@Override
+			public void send(InputStream in) throws IOException {
+				HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+				try {
+					conn.setDoOutput(true);
+					conn.setRequestMethod("POST");
+					conn.setChunkedStreamingMode(8192);
+					OutputStream out = conn.getOutputStream();
+					try {
+						IOUtils.copy(in, out);
+					} catch (IOException ex) {
+						/*
+						 * Closing the output stream would send the last chunk,
+						 * so the server would get a truncated patient set as a
+						 * complete request. Dropping the connection instead
+						 * makes the server fail reading the request.
+						 */
+						conn.disconnect();
+						throw ex;
+					}
+					out.close();
+					int status = conn.getResponseCode();
+					if (status / 100 != 2) {
+						throw new IOException("Unexpected status " + status);
+					}
+				} finally {
+					conn.disconnect();
+				}
+			}
+		}, bufferSize, retainSize, attempts, 10);
+	}
+
+	private static byte[] data(int size) {
+		byte[] result = new byte[size];
+		new Random(size).nextBytes(result);
+		return result;
+	}
+
+	private static void write(OutputStream out, byte[] data) throws IOException {
+		for (int off = 0; off < data.length; off += 1000) {
+			out.write(data, off, Math.min(1000, data.length - off));
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.resource;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests parsing of <code>Range</code> headers by {@link ByteRange}.
+ */
+public class ByteRangeTest {
+
+	@Test
+	public void testNoHeader() {
+		Assert.assertNull(ByteRange.parse(null, 100));
+	}
+
+	@Test
+	public void testClosedRange() {
+		ByteRange range = ByteRange.parse("bytes=10-19", 100);
+		Assert.assertEquals(10, range.getFirst());
+		Assert.assertEquals(10, range.getLength());
+		Assert.assertEquals("bytes 10-19/100", range.toContentRange());
+	}
+
+	@Test
+	public void testOpenRange() {
+		ByteRange range = ByteRange.parse("bytes=90-", 100);
+		Assert.assertEquals(90, range.getFirst());
+		Assert.assertEquals(10, range.getLength());
+	}
+
+	@Test
+	public void testSuffixRange() {
+		ByteRange range = ByteRange.parse("bytes=-30", 100);
+		Assert.assertEquals(70, range.getFirst());
+		Assert.assertEquals(30, range.getLength());
+	}
+
+	@Test
+	public void testLastClippedToLength() {
+		ByteRange range = ByteRange.parse("bytes=50-1000", 100);
+		Assert.assertEquals("bytes 50-99/100", range.toContentRange());
+	}
+
+	@Test
+	public void testUnsatisfiable() {
+		ByteRange range = ByteRange.parse("bytes=100-", 100);
+		Assert.assertFalse(range.isSatisfiable());
+		Assert.assertEquals("bytes */100", range.toContentRange());
+	}
+
+	@Test
+	public void testIgnored() {
+		Assert.assertNull(ByteRange.parse("bytes=0-1,5-6", 100));
+		Assert.assertNull(ByteRange.parse("items=0-1", 100));
+		Assert.assertNull(ByteRange.parse("bytes=5-1", 100));
+		Assert.assertNull(ByteRange.parse("bytes=a-b", 100));
+	}
+}
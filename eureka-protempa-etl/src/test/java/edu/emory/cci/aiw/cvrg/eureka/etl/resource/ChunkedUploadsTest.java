@@ -0,0 +1,112 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.resource;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkedUploadsTest {
+
+	private File dir;
+	private File tempDir;
+	private File uploadedDir;
+	private ChunkedUploads chunkedUploads;
+
+	@Before
+	public void setUp() throws IOException {
+		this.dir = Files.createTempDirectory("chunkeduploads").toFile();
+		this.tempDir = new File(this.dir, "temp");
+		this.uploadedDir = new File(this.dir, "uploaded");
+		this.tempDir.mkdir();
+		this.uploadedDir.mkdir();
+		this.chunkedUploads = new ChunkedUploads();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(this.dir);
+	}
+
+	@Test
+	public void testHasChunkDoesNotCreateFiles() throws IOException {
+		assertFalse(this.chunkedUploads.hasChunk(this.tempDir, "data.txt", 1, 2));
+		assertEquals(0, this.tempDir.list().length);
+	}
+
+	@Test
+	public void testHasChunkDoesNotResetUpload() throws IOException {
+		assertNull(writeChunk(1, "abc"));
+		assertFalse(this.chunkedUploads.hasChunk(this.tempDir, "data.txt", 1, 9));
+		assertTrue(this.chunkedUploads.hasChunk(this.tempDir, "data.txt", 1, 2));
+	}
+
+	@Test
+	public void testAssemblesChunksOutOfOrder() throws IOException {
+		assertNull(writeChunk(2, "def"));
+		assertEquals(64, writeChunk(1, "abc").length());
+		assertEquals("abcdef", FileUtils.readFileToString(
+				new File(this.uploadedDir, "data.txt"), "UTF-8"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsPathInFileName() throws IOException {
+		this.chunkedUploads.hasChunk(this.tempDir, "../data.txt", 1, 1);
+	}
+
+	private String writeChunk(int chunkNumber, String contents)
+			throws IOException {
+		return this.chunkedUploads.writeChunk(this.tempDir, "data.txt",
+				chunkNumber, 2, 3, 6,
+				new ByteArrayInputStream(contents.getBytes("UTF-8")),
+				this.uploadedDir);
+	}
+}
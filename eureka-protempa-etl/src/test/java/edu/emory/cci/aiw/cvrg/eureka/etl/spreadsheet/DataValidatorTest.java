@@ -0,0 +1,121 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.spreadsheet;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.protempa.backend.dsb.DataValidationEvent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Validates small workbooks read with {@link StreamingXlsxDataProvider}.
+ */
+public class DataValidatorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testBlankNames() throws Exception {
+		File file = this.folder.newFile();
+		XSSFWorkbook workbook = new XSSFWorkbook();
+		Sheet patients = header(workbook.createSheet("patient"));
+		Sheet encounters = header(workbook.createSheet("encounter"));
+		/*
+		 * The first patient has no first name cell and a blank last name
+		 * cell, the second a last name that is too long.
+		 */
+		Row patient = patients.createRow(1);
+		patient.createCell(0).setCellValue(1);
+		patient.createCell(2);
+		patient = patients.createRow(2);
+		patient.createCell(0).setCellValue(2);
+		patient.createCell(1).setCellValue("First");
+		patient.createCell(2).setCellValue("A last name longer than 32 characters");
+		for (int i = 1; i <= 2; i++) {
+			Row encounter = encounters.createRow(i);
+			encounter.createCell(0).setCellValue(i);
+			encounter.createCell(1).setCellValue(i);
+			encounter.createCell(2).setCellValue(1);
+		}
+		Row provider = header(workbook.createSheet("provider")).createRow(1);
+		provider.createCell(0).setCellValue(1);
+		provider.createCell(1).setCellValue("Provider");
+		write(workbook, file);
+
+		DataValidator validator = new DataValidator(file);
+		StreamingXlsxDataProvider dataProvider
+				= new StreamingXlsxDataProvider(file, null);
+		try {
+			dataProvider.read(validator);
+		} finally {
+			dataProvider.close();
+		}
+		validator.finish();
+		assertFalse("blank names failed validation", validator.isFailed());
+		List<DataValidationEvent> events = validator.getValidationEvents();
+		assertEquals("wrong number of events", 1, events.size());
+		assertEquals("wrong event", "last name too long (> 32 characters)",
+				events.get(0).getMessage());
+	}
+
+	private static Sheet header(Sheet sheet) {
+		sheet.createRow(0).createCell(0).setCellValue("id");
+		return sheet;
+	}
+
+	private static void write(XSSFWorkbook workbook, File file)
+			throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			workbook.write(out);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.spreadsheet;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class LongHashSetTest {
+
+	@Test
+	public void testAdd() {
+		LongHashSet set = new LongHashSet();
+		assertTrue("new value not added", set.add(42L));
+		assertFalse("duplicate value added", set.add(42L));
+		assertTrue("value not found", set.contains(42L));
+		assertFalse("missing value found", set.contains(43L));
+	}
+
+	@Test
+	public void testZero() {
+		LongHashSet set = new LongHashSet();
+		assertFalse("zero found in empty set", set.contains(0L));
+		assertTrue("zero not added", set.add(0L));
+		assertFalse("duplicate zero added", set.add(0L));
+		assertTrue("zero not found", set.contains(0L));
+	}
+
+	@Test
+	public void testResize() {
+		LongHashSet set = new LongHashSet();
+		for (long i = -5000; i < 5000; i++) {
+			assertTrue("value " + i + " not added", set.add(i * 7919));
+		}
+		assertTrue("minimum not added", set.add(Long.MIN_VALUE));
+		assertTrue("maximum not added", set.add(Long.MAX_VALUE));
+		for (long i = -5000; i < 5000; i++) {
+			assertTrue("value " + i + " lost on resize", set.contains(i * 7919));
+			assertFalse("duplicate " + i + " added", set.add(i * 7919));
+			assertFalse("missing value " + i + " found", set.contains(i * 7919 + 1));
+		}
+		assertTrue("minimum lost on resize", set.contains(Long.MIN_VALUE));
+		assertTrue("maximum lost on resize", set.contains(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testCollisions() {
+		List<Long> values = collidingValues(200);
+		LongHashSet set = new LongHashSet();
+		for (Long value : values) {
+			assertTrue("colliding value " + value + " not added", set.add(value));
+		}
+		for (Long value : values) {
+			assertTrue("colliding value " + value + " not found", set.contains(value));
+			assertFalse("colliding duplicate " + value + " added", set.add(value));
+		}
+	}
+
+	/**
+	 * Finds values that all go to the same slot of the initial table, so
+	 * that each is probed past the ones before it, and past their new
+	 * neighbors after each resize.
+	 */
+	private static List<Long> collidingValues(int count) {
+		List<Long> result = new ArrayList<>(count);
+		int slot = LongHashSet.mix(1L) & 63;
+		for (long value = 1L; result.size() < count; value++) {
+			if ((LongHashSet.mix(value) & 63) == slot) {
+				result.add(value);
+			}
+		}
+		return result;
+	}
+}
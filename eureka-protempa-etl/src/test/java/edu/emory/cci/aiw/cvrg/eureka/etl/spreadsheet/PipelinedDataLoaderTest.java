@@ -0,0 +1,242 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.spreadsheet;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.arp.javautil.sql.ConnectionSpec;
+import org.arp.javautil.sql.DatabaseAPI;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Loads small workbooks into an in-memory H2 database with the data source
+ * backend's schema.
+ */
+public class PipelinedDataLoaderTest {
+
+	private static final AtomicInteger DATABASE_NUMBER = new AtomicInteger();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ConnectionSpec connectionSpec;
+	private StreamingXlsxDataProvider dataProvider;
+
+	@Before
+	public void setUp() throws Exception {
+		this.connectionSpec = DatabaseAPI.DRIVERMANAGER.newConnectionSpecInstance(
+				"jdbc:h2:mem:pipelined" + DATABASE_NUMBER.incrementAndGet()
+				+ ";INIT=RUNSCRIPT FROM 'classpath:/eureka-dsb-schema.sql'"
+				+ ";DB_CLOSE_DELAY=-1", null, null);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (this.dataProvider != null) {
+			this.dataProvider.close();
+		}
+		try (Connection connection = this.connectionSpec.getOrCreate();
+				Statement stmt = connection.createStatement()) {
+			stmt.execute("SHUTDOWN");
+		}
+	}
+
+	@Test
+	public void testBatchLoad() throws Exception {
+		load(workbook(1L, 2L), false);
+		assertEquals("wrong patient count", 2, count("patient"));
+		assertEquals("wrong provider count", 1, count("provider"));
+		assertEquals("wrong encounter count", 2, count("encounter"));
+	}
+
+	@Test
+	public void testBulkLoad() throws Exception {
+		load(workbook(1L, 2L), true);
+		assertEquals("wrong patient count", 2, count("patient"));
+		assertEquals("wrong provider count", 1, count("provider"));
+		assertEquals("wrong encounter count", 2, count("encounter"));
+	}
+
+	@Test
+	public void testNoSpreadsheets() throws Exception {
+		new PipelinedDataLoader(this.connectionSpec, false)
+				.load(new StreamingXlsxDataProvider[0]);
+		assertEquals("wrong patient count", 0, count("patient"));
+		assertLoaderThreadsStop();
+	}
+
+	@Test
+	public void testProviderErrorPropagates() throws Exception {
+		File file = this.folder.newFile();
+		XSSFWorkbook workbook = new XSSFWorkbook();
+		Sheet patients = header(workbook.createSheet("patient"));
+		patients.createRow(1).createCell(0).setCellValue("not a number");
+		header(workbook.createSheet("provider"));
+		header(workbook.createSheet("encounter"));
+		write(workbook, file);
+		try {
+			load(file, false);
+			fail("expected DataProviderException");
+		} catch (DataProviderException ex) {
+			// expected
+		}
+		assertLoaderThreadsStop();
+	}
+
+	@Test
+	public void testInserterErrorPropagates() throws Exception {
+		try {
+			load(workbook(1L, 1L), false);
+			fail("expected DataInserterException");
+		} catch (DataInserterException ex) {
+			// expected
+		}
+		assertLoaderThreadsStop();
+		assertEquals("patient table not rolled back", 0, count("patient"));
+	}
+
+	@Test
+	public void testBulkInserterErrorPropagates() throws Exception {
+		try {
+			load(workbook(1L, 1L), true);
+			fail("expected DataInserterException");
+		} catch (DataInserterException ex) {
+			// expected
+		}
+		assertLoaderThreadsStop();
+		assertEquals("patient table not rolled back", 0, count("patient"));
+	}
+
+	private void load(File file, boolean bulkLoad)
+			throws DataProviderException, DataInserterException {
+		this.dataProvider = new StreamingXlsxDataProvider(file, null);
+		new PipelinedDataLoader(this.connectionSpec, bulkLoad)
+				.load(new StreamingXlsxDataProvider[]{this.dataProvider});
+	}
+
+	/**
+	 * Writes a workbook with one provider, and a patient and an encounter
+	 * for each of the given patient ids.
+	 */
+	private File workbook(long... patientIds) throws IOException {
+		File file = this.folder.newFile();
+		XSSFWorkbook workbook = new XSSFWorkbook();
+		Sheet patients = header(workbook.createSheet("patient"));
+		Sheet encounters = header(workbook.createSheet("encounter"));
+		for (int i = 0; i < patientIds.length; i++) {
+			Row patient = patients.createRow(i + 1);
+			patient.createCell(0).setCellValue(patientIds[i]);
+			patient.createCell(1).setCellValue("First" + i);
+			patient.createCell(2).setCellValue("Last" + i);
+			Row encounter = encounters.createRow(i + 1);
+			encounter.createCell(0).setCellValue(i + 1);
+			encounter.createCell(1).setCellValue(patientIds[i]);
+			encounter.createCell(2).setCellValue(1);
+		}
+		Row provider = header(workbook.createSheet("provider")).createRow(1);
+		provider.createCell(0).setCellValue(1);
+		provider.createCell(1).setCellValue("Provider");
+		write(workbook, file);
+		return file;
+	}
+
+	private static Sheet header(Sheet sheet) {
+		sheet.createRow(0).createCell(0).setCellValue("id");
+		return sheet;
+	}
+
+	private static void write(XSSFWorkbook workbook, File file)
+			throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			workbook.write(out);
+		}
+	}
+
+	private int count(String table) throws Exception {
+		try (Connection connection = this.connectionSpec.getOrCreate();
+				Statement stmt = connection.createStatement();
+				ResultSet rs = stmt.executeQuery("select count(*) from " + table)) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+
+	/**
+	 * Waits for the loader's threads to stop, which they must once
+	 * {@link PipelinedDataLoader#load(StreamingXlsxDataProvider[]) } has
+	 * returned or thrown.
+	 */
+	private static void assertLoaderThreadsStop() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (loaderThreadsAlive()) {
+			if (System.currentTimeMillis() > deadline) {
+				assertFalse("loader threads still running", loaderThreadsAlive());
+			}
+			Thread.sleep(50);
+		}
+	}
+
+	private static boolean loaderThreadsAlive() {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive()
+					&& thread.getName().startsWith("PipelinedDataLoader-")) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
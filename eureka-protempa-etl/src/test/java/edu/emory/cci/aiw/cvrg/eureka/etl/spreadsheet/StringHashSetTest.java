@@ -0,0 +1,105 @@
+package edu.emory.cci.aiw.cvrg.eureka.etl.spreadsheet;
+
+/*-
+ * #%L
+ * Eureka Protempa ETL
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class StringHashSetTest {
+
+	@Test
+	public void testAdd() {
+		StringHashSet set = new StringHashSet();
+		assertTrue("new string not added", set.add("foo"));
+		assertFalse("duplicate string added", set.add("foo"));
+		assertFalse("equal string added", set.add(new String("foo")));
+		assertTrue("different string not added", set.add("bar"));
+		assertTrue("empty string not added", set.add(""));
+		assertFalse("duplicate empty string added", set.add(""));
+	}
+
+	@Test
+	public void testResize() {
+		StringHashSet set = new StringHashSet();
+		for (int i = 0; i < 10000; i++) {
+			assertTrue("string " + i + " not added", set.add("id" + i));
+		}
+		for (int i = 0; i < 10000; i++) {
+			assertFalse("string " + i + " lost on resize", set.add("id" + i));
+		}
+	}
+
+	@Test
+	public void testCollisions() {
+		List<String> values = collidingStrings(10);
+		assertEquals("strings do not collide", values.get(0).hashCode(),
+				values.get(values.size() - 1).hashCode());
+		StringHashSet set = new StringHashSet();
+		for (String value : values) {
+			assertTrue("colliding string " + value + " not added", set.add(value));
+		}
+		for (String value : values) {
+			assertFalse("colliding duplicate " + value + " added", set.add(value));
+		}
+	}
+
+	/**
+	 * Makes 2<sup>n</sup> distinct strings with the same hash code, by
+	 * concatenating n of "Aa" and "BB", which have equal hash codes.
+	 */
+	private static List<String> collidingStrings(int n) {
+		List<String> result = new ArrayList<>();
+		result.add("");
+		for (int i = 0; i < n; i++) {
+			List<String> longer = new ArrayList<>(result.size() * 2);
+			for (String s : result) {
+				longer.add(s + "Aa");
+				longer.add(s + "BB");
+			}
+			result = longer;
+		}
+		return result;
+	}
+}
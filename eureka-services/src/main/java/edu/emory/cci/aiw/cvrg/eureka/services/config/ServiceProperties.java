@@ -241,6 +241,39 @@ public class ServiceProperties extends CasJerseyEurekaClinicalProperties {
 		return this.getValue("eureka.etl.url");
 	}
 
+	/**
+	 * Get the maximum number of phenotypes whose converted proposition
+	 * definitions are cached for job submission.
+	 *
+	 * @return the maximum number of phenotypes, and 1000 if the configuration
+	 * is not found.
+	 */
+	public int getConversionCacheSize() {
+		return this.getIntValue("eureka.services.conversioncache.size", 1000);
+	}
+
+	/**
+	 * Get the maximum number of system proposition definitions that are
+	 * cached after being retrieved from eureka-protempa-etl.
+	 *
+	 * @return the maximum number of proposition definitions, and 10000 if
+	 * the configuration is not found.
+	 */
+	public int getSystemPropositionCacheSize() {
+		return this.getIntValue("eureka.services.systempropositioncache.size", 10000);
+	}
+
+	/**
+	 * Get the number of seconds to keep system proposition definitions and
+	 * source config parameters that were retrieved from eureka-protempa-etl.
+	 *
+	 * @return the number of seconds, and 3600 if the configuration is not
+	 * found.
+	 */
+	public int getSystemPropositionCacheTtl() {
+		return this.getIntValue("eureka.services.systempropositioncache.ttl", 3600);
+	}
+
 	/**
 	 * Get the number of hours to keep a user registration without verification,
 	 * before deleting it from the database.
@@ -62,6 +62,10 @@ public class ConversionSupport {
 		return toPropositionIdWrapped(phenotype.getKey());
 	}
 
+	public boolean isUserPhenotypeKey(String phenotypeKey) {
+		return phenotypeKey != null && phenotypeKey.startsWith(ConversionUtil.USER_KEY_PREFIX);
+	}
+
 	public String toPropositionId(String phenotypeKey) {
 		if (phenotypeKey == null || !phenotypeKey.startsWith(ConversionUtil.USER_KEY_PREFIX)) {
 			return phenotypeKey;
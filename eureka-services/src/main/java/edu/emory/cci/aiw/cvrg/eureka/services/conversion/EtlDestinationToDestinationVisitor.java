@@ -173,6 +173,7 @@ public class EtlDestinationToDestinationVisitor extends AbstractEtlDestinationVi
 			tableColumns.add(tableColumn);
 		}
 		tabularFileDest.setTableColumns(tableColumns);
+		// The client's TabularFileDestination has no compression property yet.
 		this.destination = tabularFileDest;
 	}
 
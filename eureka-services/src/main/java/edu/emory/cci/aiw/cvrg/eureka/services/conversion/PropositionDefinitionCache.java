@@ -0,0 +1,198 @@
+package edu.emory.cci.aiw.cvrg.eureka.services.conversion;
+
+/*-
+ * #%L
+ * Eureka Services
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.PhenotypeEntity;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.PropositionChildrenVisitor;
+import edu.emory.cci.aiw.cvrg.eureka.services.config.ServiceProperties;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.protempa.PropositionDefinition;
+
+/**
+ * Caches the Protempa proposition definitions that are created from users'
+ * phenotypes. A phenotype's entry holds the definitions of the phenotype and
+ * of all user-defined phenotypes that it uses, and is keyed by the
+ * phenotype's id. An entry is reused only while the phenotype and everything
+ * it uses have the same last-modified time as when the entry was created.
+ * The least recently used entries are dropped when the cache is full.
+ */
+@Singleton
+public class PropositionDefinitionCache {
+
+	private final Provider<PropositionDefinitionConverterVisitor> converterVisitorProvider;
+	private final Map<Long, CachedConversion> conversions;
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+
+	@Inject
+	public PropositionDefinitionCache(
+			Provider<PropositionDefinitionConverterVisitor> inConverterVisitorProvider,
+			ServiceProperties inProperties) {
+		this.converterVisitorProvider = inConverterVisitorProvider;
+		final int maxSize = inProperties.getConversionCacheSize();
+		this.conversions = new LinkedHashMap<Long, CachedConversion>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, CachedConversion> eldest) {
+				return size() > maxSize;
+			}
+		};
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+	}
+
+	/**
+	 * Gets the proposition definitions of a phenotype and of the
+	 * user-defined phenotypes that it uses, converting them if they are not
+	 * cached or are out of date.
+	 *
+	 * @param phenotype a user-defined phenotype. Must be attached to the
+	 * current persistence context so that its children can be loaded.
+	 * @return the proposition definitions. The list and its definitions must
+	 * not be modified.
+	 */
+	public List<PropositionDefinition> get(PhenotypeEntity phenotype) {
+		Long id = phenotype.getId();
+		Map<Long, Long> versions = versions(phenotype);
+		CachedConversion conversion;
+		synchronized (this.conversions) {
+			conversion = this.conversions.get(id);
+		}
+		if (conversion != null && conversion.versions.equals(versions)) {
+			this.hits.incrementAndGet();
+			return conversion.propDefs;
+		}
+		this.misses.incrementAndGet();
+		PropositionDefinitionConverterVisitor converterVisitor
+				= this.converterVisitorProvider.get();
+		phenotype.accept(converterVisitor);
+		conversion = new CachedConversion(versions,
+				new ArrayList<>(converterVisitor.getPropositionDefinitions()));
+		synchronized (this.conversions) {
+			this.conversions.put(id, conversion);
+		}
+		return conversion.propDefs;
+	}
+
+	/**
+	 * Drops a phenotype's entry, if any. Call when a phenotype is deleted.
+	 *
+	 * @param phenotypeId the phenotype's id.
+	 */
+	public void remove(Long phenotypeId) {
+		synchronized (this.conversions) {
+			this.conversions.remove(phenotypeId);
+		}
+	}
+
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	public int getSize() {
+		synchronized (this.conversions) {
+			return this.conversions.size();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PropositionDefinitionCache{" + "size=" + getSize()
+				+ ", hits=" + this.hits + ", misses=" + this.misses + '}';
+	}
+
+	/**
+	 * Gets the last-modified times of a phenotype and of the user-defined
+	 * phenotypes that it uses, directly or indirectly.
+	 *
+	 * @param phenotype a phenotype.
+	 * @return a map of phenotype id to last-modified time.
+	 */
+	private static Map<Long, Long> versions(PhenotypeEntity phenotype) {
+		Map<Long, Long> result = new HashMap<>();
+		Deque<PhenotypeEntity> stack = new ArrayDeque<>();
+		stack.push(phenotype);
+		while (!stack.isEmpty()) {
+			PhenotypeEntity next = stack.pop();
+			if (!next.isInSystem() && !result.containsKey(next.getId())) {
+				Date lastModified = next.getLastModified();
+				result.put(next.getId(),
+						lastModified != null ? lastModified.getTime() : null);
+				PropositionChildrenVisitor visitor
+						= new PropositionChildrenVisitor();
+				next.accept(visitor);
+				for (PhenotypeEntity child : visitor.getChildren()) {
+					if (child != null) {
+						stack.push(child);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private static final class CachedConversion {
+
+		private final Map<Long, Long> versions;
+		private final List<PropositionDefinition> propDefs;
+
+		CachedConversion(Map<Long, Long> inVersions,
+				List<PropositionDefinition> inPropDefs) {
+			this.versions = inVersions;
+			this.propDefs = Collections.unmodifiableList(inPropDefs);
+		}
+	}
+}
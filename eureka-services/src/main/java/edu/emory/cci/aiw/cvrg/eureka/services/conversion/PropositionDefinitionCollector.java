@@ -42,31 +42,37 @@ package edu.emory.cci.aiw.cvrg.eureka.services.conversion;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.PhenotypeEntity;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.protempa.PropositionDefinition;
 
 /**
+ * Collects the proposition definitions of some user-defined phenotypes and
+ * of the user-defined phenotypes that they use.
  *
  * @author Andrew Post
  */
 public class PropositionDefinitionCollector {
 
 	public static PropositionDefinitionCollector getInstance(
-			PropositionDefinitionConverterVisitor converterVisitor,
-			List<PhenotypeEntity> phenotypes) {
-		List<PropositionDefinition> userProps
-				= new ArrayList<>();
+			PropositionDefinitionCache cache,
+			Collection<PhenotypeEntity> phenotypes) {
+		ConversionSupport conversionSupport = new ConversionSupport();
+		Map<String, PropositionDefinition> userProps
+				= new LinkedHashMap<>();
 		List<String> toShow = new ArrayList<>();
 		for (PhenotypeEntity de : phenotypes) {
-			de.accept(converterVisitor);
-			Collection<PropositionDefinition> propDefs
-					= converterVisitor.getPropositionDefinitions();
-			userProps.addAll(propDefs);
-			toShow.add(converterVisitor.getPrimaryPropositionId());
+			for (PropositionDefinition propDef : cache.get(de)) {
+				if (!userProps.containsKey(propDef.getId())) {
+					userProps.put(propDef.getId(), propDef);
+				}
+			}
+			toShow.add(conversionSupport.toPropositionId(de));
 		}
 		PropositionDefinitionCollector result
 				= new PropositionDefinitionCollector();
-		result.userPropDefs = userProps;
+		result.userPropDefs = new ArrayList<>(userProps.values());
 		result.toShowPropDefs = toShow;
 		return result;
 	}
@@ -0,0 +1,175 @@
+package edu.emory.cci.aiw.cvrg.eureka.services.dao;
+
+/*-
+ * #%L
+ * Eureka Services
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.PhenotypeDependencyEntity;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.PhenotypeDependencyEntity_;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.PhenotypeEntity;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.PhenotypeEntity_;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.PropositionChildrenVisitor;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
+import org.eurekaclinical.standardapis.dao.GenericDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An implementation of the {@link PhenotypeDependencyDao} interface, backed
+ * by JPA entities and queries. Phenotypes saved before dependencies were
+ * recorded have theirs recorded the first time the phenotypes that use one
+ * of a user's phenotypes are looked up.
+ */
+public class JpaPhenotypeDependencyDao extends GenericDao<PhenotypeDependencyEntity, Long>
+		implements PhenotypeDependencyDao {
+
+	private static final Logger LOGGER
+			= LoggerFactory.getLogger(JpaPhenotypeDependencyDao.class);
+
+	@Inject
+	public JpaPhenotypeDependencyDao(Provider<EntityManager> inProvider) {
+		super(PhenotypeDependencyEntity.class, inProvider);
+	}
+
+	@Override
+	public void setDependencies(PhenotypeEntity inPhenotype) {
+		removeDependencies(inPhenotype.getId());
+		EntityManager entityManager = getEntityManager();
+		for (Long dependencyId : getChildIds(inPhenotype)) {
+			entityManager.persist(new PhenotypeDependencyEntity(
+					inPhenotype.getId(), dependencyId));
+		}
+	}
+
+	@Override
+	public void removeDependencies(Long inPhenotypeId) {
+		getEntityManager().createQuery(
+				"DELETE FROM PhenotypeDependencyEntity d WHERE d.phenotypeId = :p")
+				.setParameter("p", inPhenotypeId)
+				.executeUpdate();
+	}
+
+	@Override
+	public List<PhenotypeEntity> getDependents(Long inUserId, Long inPhenotypeId) {
+		recordMissingDependencies(inUserId);
+		EntityManager entityManager = getEntityManager();
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<PhenotypeEntity> criteriaQuery
+				= builder.createQuery(PhenotypeEntity.class);
+		Root<PhenotypeEntity> root = criteriaQuery.from(PhenotypeEntity.class);
+		Subquery<Long> dependents = criteriaQuery.subquery(Long.class);
+		Root<PhenotypeDependencyEntity> dependency
+				= dependents.from(PhenotypeDependencyEntity.class);
+		dependents.select(dependency.get(PhenotypeDependencyEntity_.phenotypeId))
+				.where(builder.equal(
+								dependency.get(PhenotypeDependencyEntity_.dependencyId),
+								inPhenotypeId));
+		criteriaQuery.where(
+				builder.equal(root.get(PhenotypeEntity_.userId), inUserId),
+				builder.notEqual(root.get(PhenotypeEntity_.id), inPhenotypeId),
+				root.get(PhenotypeEntity_.id).in(dependents));
+		return entityManager.createQuery(criteriaQuery).getResultList();
+	}
+
+	/**
+	 * Records the dependencies of a user's phenotypes that have none
+	 * recorded. Every user-defined phenotype uses at least one other
+	 * phenotype, so these are phenotypes that were saved before dependencies
+	 * were recorded.
+	 *
+	 * @param inUserId the user's id.
+	 */
+	private void recordMissingDependencies(Long inUserId) {
+		EntityManager entityManager = getEntityManager();
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<PhenotypeEntity> criteriaQuery
+				= builder.createQuery(PhenotypeEntity.class);
+		Root<PhenotypeEntity> root = criteriaQuery.from(PhenotypeEntity.class);
+		Subquery<Long> recorded = criteriaQuery.subquery(Long.class);
+		Root<PhenotypeDependencyEntity> dependency
+				= recorded.from(PhenotypeDependencyEntity.class);
+		recorded.select(dependency.get(PhenotypeDependencyEntity_.phenotypeId))
+				.where(builder.equal(
+								dependency.get(PhenotypeDependencyEntity_.phenotypeId),
+								root.get(PhenotypeEntity_.id)));
+		criteriaQuery.where(
+				builder.equal(root.get(PhenotypeEntity_.userId), inUserId),
+				builder.equal(root.get(PhenotypeEntity_.inSystem), false),
+				builder.not(builder.exists(recorded)));
+		List<PhenotypeEntity> phenotypes
+				= entityManager.createQuery(criteriaQuery).getResultList();
+		int numRecorded = 0;
+		for (PhenotypeEntity phenotype : phenotypes) {
+			for (Long dependencyId : getChildIds(phenotype)) {
+				entityManager.persist(new PhenotypeDependencyEntity(
+						phenotype.getId(), dependencyId));
+				numRecorded++;
+			}
+		}
+		if (numRecorded > 0) {
+			LOGGER.info("Recorded {} dependencies of {} phenotype(s) of user {}",
+					new Object[]{numRecorded, phenotypes.size(), inUserId});
+			entityManager.flush();
+		}
+	}
+
+	private static Set<Long> getChildIds(PhenotypeEntity inPhenotype) {
+		PropositionChildrenVisitor visitor = new PropositionChildrenVisitor();
+		inPhenotype.accept(visitor);
+		Set<Long> result = new LinkedHashSet<>();
+		List<? extends PhenotypeEntity> children = visitor.getChildren();
+		if (children != null) {
+			for (PhenotypeEntity child : children) {
+				if (child != null && child.getId() != null) {
+					result.add(child.getId());
+				}
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,78 @@
+package edu.emory.cci.aiw.cvrg.eureka.services.dao;
+
+/*-
+ * #%L
+ * Eureka Services
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.PhenotypeDependencyEntity;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.PhenotypeEntity;
+import java.util.List;
+import org.eurekaclinical.standardapis.dao.Dao;
+
+/**
+ * A data access object interface for the record of which phenotypes use
+ * which other phenotypes.
+ */
+public interface PhenotypeDependencyDao extends Dao<PhenotypeDependencyEntity, Long> {
+
+	/**
+	 * Replaces the recorded dependencies of a phenotype with its current
+	 * children. Call after the phenotype is created or updated.
+	 *
+	 * @param inPhenotype a phenotype that has an id.
+	 */
+	void setDependencies(PhenotypeEntity inPhenotype);
+
+	/**
+	 * Removes the recorded dependencies of a phenotype. Call when the
+	 * phenotype is deleted.
+	 *
+	 * @param inPhenotypeId the phenotype's id.
+	 */
+	void removeDependencies(Long inPhenotypeId);
+
+	/**
+	 * Gets a user's phenotypes that use the given phenotype directly.
+	 *
+	 * @param inUserId the user's id.
+	 * @param inPhenotypeId the id of the phenotype that is used.
+	 * @return the phenotypes that use it.
+	 */
+	List<PhenotypeEntity> getDependents(Long inUserId, Long inPhenotypeId);
+}
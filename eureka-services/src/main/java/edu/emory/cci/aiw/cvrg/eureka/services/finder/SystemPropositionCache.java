@@ -0,0 +1,361 @@
+package edu.emory.cci.aiw.cvrg.eureka.services.finder;
+
+/*-
+ * #%L
+ * Eureka Services
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import edu.emory.cci.aiw.cvrg.eureka.services.config.ServiceProperties;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eurekaclinical.eureka.client.comm.SourceConfigParams;
+import org.protempa.PropositionDefinition;
+
+/**
+ * Caches what eureka-services looks up from eureka-protempa-etl over and
+ * over: the system proposition definitions of each source config, and each
+ * user's list of source config parameters. Entries expire after a
+ * configurable time so that changes in eureka-protempa-etl are eventually
+ * picked up, and the least recently used entries are dropped when the cache
+ * is full. Entries also may be invalidated explicitly.
+ */
+@Singleton
+public class SystemPropositionCache {
+
+	private final long ttlMillis;
+	private final Map<PropositionKey, Timed<PropositionDefinition>> propDefs;
+	private final Map<String, Timed<List<SourceConfigParams>>> sourceConfigParams;
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+	private final AtomicLong sourceConfigParamsHits;
+	private final AtomicLong sourceConfigParamsMisses;
+
+	@Inject
+	public SystemPropositionCache(ServiceProperties inProperties) {
+		this.ttlMillis = TimeUnit.SECONDS.toMillis(
+				inProperties.getSystemPropositionCacheTtl());
+		final int maxSize = inProperties.getSystemPropositionCacheSize();
+		this.propDefs = new LinkedHashMap<PropositionKey, Timed<PropositionDefinition>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<PropositionKey, Timed<PropositionDefinition>> eldest) {
+				return size() > maxSize;
+			}
+		};
+		this.sourceConfigParams = new LinkedHashMap<String, Timed<List<SourceConfigParams>>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Timed<List<SourceConfigParams>>> eldest) {
+				return size() > maxSize;
+			}
+		};
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.sourceConfigParamsHits = new AtomicLong();
+		this.sourceConfigParamsMisses = new AtomicLong();
+	}
+
+	/**
+	 * Gets a cached system proposition definition.
+	 *
+	 * @param sourceConfigId the id of the source config.
+	 * @param key the proposition definition's id.
+	 * @return the proposition definition, or <code>null</code> if it is not
+	 * cached or its entry has expired.
+	 */
+	public PropositionDefinition get(String sourceConfigId, String key) {
+		PropositionKey propKey = new PropositionKey(sourceConfigId, key);
+		PropositionDefinition result;
+		synchronized (this.propDefs) {
+			result = getUnexpired(this.propDefs, propKey);
+		}
+		if (result != null) {
+			this.hits.incrementAndGet();
+		} else {
+			this.misses.incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * Caches system proposition definitions that were retrieved from
+	 * eureka-protempa-etl.
+	 *
+	 * @param sourceConfigId the id of the source config that they were
+	 * retrieved from.
+	 * @param inPropDefs the proposition definitions.
+	 */
+	public void putAll(String sourceConfigId,
+			List<PropositionDefinition> inPropDefs) {
+		long expires = System.currentTimeMillis() + this.ttlMillis;
+		synchronized (this.propDefs) {
+			for (PropositionDefinition propDef : inPropDefs) {
+				this.propDefs.put(
+						new PropositionKey(sourceConfigId, propDef.getId()),
+						new Timed<>(propDef, expires));
+			}
+		}
+	}
+
+	/**
+	 * Gets a user's cached list of source config parameters.
+	 *
+	 * @param username the user's username.
+	 * @return the list, or <code>null</code> if it is not cached or its entry
+	 * has expired. The list must not be modified.
+	 */
+	public List<SourceConfigParams> getSourceConfigParams(String username) {
+		List<SourceConfigParams> result;
+		synchronized (this.sourceConfigParams) {
+			result = getUnexpired(this.sourceConfigParams, username);
+		}
+		if (result != null) {
+			this.sourceConfigParamsHits.incrementAndGet();
+		} else {
+			this.sourceConfigParamsMisses.incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * Caches a user's list of source config parameters.
+	 *
+	 * @param username the user's username.
+	 * @param params the list.
+	 * @return the list that was cached before, expired or not, or
+	 * <code>null</code> if there was none.
+	 */
+	public List<SourceConfigParams> putSourceConfigParams(String username,
+			List<SourceConfigParams> params) {
+		Timed<List<SourceConfigParams>> entry = new Timed<>(
+				Collections.unmodifiableList(params),
+				System.currentTimeMillis() + this.ttlMillis);
+		Timed<List<SourceConfigParams>> old;
+		synchronized (this.sourceConfigParams) {
+			old = this.sourceConfigParams.put(username, entry);
+		}
+		return old != null ? old.value : null;
+	}
+
+	/**
+	 * Drops the cached proposition definitions of a source config.
+	 *
+	 * @param sourceConfigId the id of the source config.
+	 */
+	public void invalidate(String sourceConfigId) {
+		synchronized (this.propDefs) {
+			for (Iterator<PropositionKey> itr = this.propDefs.keySet().iterator(); itr.hasNext();) {
+				if (itr.next().sourceConfigId.equals(sourceConfigId)) {
+					itr.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops a user's cached list of source config parameters.
+	 *
+	 * @param username the user's username.
+	 */
+	public void invalidateSourceConfigParams(String username) {
+		synchronized (this.sourceConfigParams) {
+			this.sourceConfigParams.remove(username);
+		}
+	}
+
+	/**
+	 * Drops every user's cached list of source config parameters.
+	 */
+	public void invalidateAllSourceConfigParams() {
+		synchronized (this.sourceConfigParams) {
+			this.sourceConfigParams.clear();
+		}
+	}
+
+	/**
+	 * Drops all entries.
+	 */
+	public void invalidateAll() {
+		synchronized (this.propDefs) {
+			this.propDefs.clear();
+		}
+		synchronized (this.sourceConfigParams) {
+			this.sourceConfigParams.clear();
+		}
+	}
+
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * Gets the fraction of proposition definition look-ups that were
+	 * answered from the cache.
+	 *
+	 * @return a number between 0 and 1, or 0 if there have been no
+	 * look-ups.
+	 */
+	public double getHitRate() {
+		return hitRate(this.hits.get(), this.misses.get());
+	}
+
+	public long getSourceConfigParamsHits() {
+		return this.sourceConfigParamsHits.get();
+	}
+
+	public long getSourceConfigParamsMisses() {
+		return this.sourceConfigParamsMisses.get();
+	}
+
+	/**
+	 * Gets the fraction of source config parameter list look-ups that were
+	 * answered from the cache.
+	 *
+	 * @return a number between 0 and 1, or 0 if there have been no
+	 * look-ups.
+	 */
+	public double getSourceConfigParamsHitRate() {
+		return hitRate(this.sourceConfigParamsHits.get(),
+				this.sourceConfigParamsMisses.get());
+	}
+
+	public int getSize() {
+		synchronized (this.propDefs) {
+			return this.propDefs.size();
+		}
+	}
+
+	public int getSourceConfigParamsSize() {
+		synchronized (this.sourceConfigParams) {
+			return this.sourceConfigParams.size();
+		}
+	}
+
+	/**
+	 * Gets the current size and hit counts of the cache.
+	 *
+	 * @return a new {@link SystemPropositionCacheStats}.
+	 */
+	public SystemPropositionCacheStats getStats() {
+		SystemPropositionCacheStats stats = new SystemPropositionCacheStats();
+		stats.setSize(getSize());
+		stats.setHits(getHits());
+		stats.setMisses(getMisses());
+		stats.setHitRate(getHitRate());
+		stats.setSourceConfigParamsSize(getSourceConfigParamsSize());
+		stats.setSourceConfigParamsHits(getSourceConfigParamsHits());
+		stats.setSourceConfigParamsMisses(getSourceConfigParamsMisses());
+		stats.setSourceConfigParamsHitRate(getSourceConfigParamsHitRate());
+		return stats;
+	}
+
+	@Override
+	public String toString() {
+		return "SystemPropositionCache{" + "size=" + getSize()
+				+ ", hits=" + this.hits + ", misses=" + this.misses
+				+ ", sourceConfigParamsHits=" + this.sourceConfigParamsHits
+				+ ", sourceConfigParamsMisses=" + this.sourceConfigParamsMisses
+				+ '}';
+	}
+
+	private static double hitRate(long hits, long misses) {
+		long total = hits + misses;
+		return total > 0 ? (double) hits / total : 0.0;
+	}
+
+	private static <K, V> V getUnexpired(Map<K, Timed<V>> map, K key) {
+		Timed<V> entry = map.get(key);
+		if (entry == null) {
+			return null;
+		} else if (entry.expires <= System.currentTimeMillis()) {
+			map.remove(key);
+			return null;
+		} else {
+			return entry.value;
+		}
+	}
+
+	private static final class Timed<V> {
+
+		private final V value;
+		private final long expires;
+
+		Timed(V inValue, long inExpires) {
+			this.value = inValue;
+			this.expires = inExpires;
+		}
+	}
+
+	private static final class PropositionKey {
+
+		private final String sourceConfigId;
+		private final String key;
+
+		PropositionKey(String inSourceConfigId, String inKey) {
+			this.sourceConfigId = inSourceConfigId;
+			this.key = inKey;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.sourceConfigId.hashCode() + this.key.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof PropositionKey)) {
+				return false;
+			}
+			PropositionKey other = (PropositionKey) obj;
+			return this.sourceConfigId.equals(other.sourceConfigId)
+					&& this.key.equals(other.key);
+		}
+	}
+}
@@ -72,4 +72,20 @@ public class SystemPropositionFinder extends AbstractPropositionFinder<String> {
 		return this.retriever.retrieveAll(sourceConfigId, inKeys, withChildren);
 	}
 
+	/**
+	 * Finds system elements and their descendants with one request to the
+	 * ETL layer.
+	 *
+	 * @param sourceConfigId the ID of the source config to use for the look-up
+	 * @param inKeys the keys of the system elements to look up
+	 * @param depth how many levels of descendants to find. 1 finds the
+	 * system elements' children.
+	 * @return the system elements followed by their descendants
+	 * @throws PropositionFindException
+	 */
+	public List<PropositionDefinition> findAllWithDescendants(
+			String sourceConfigId, List<String> inKeys, int depth) throws PropositionFindException {
+		return this.retriever.retrieveAllWithDescendants(sourceConfigId, inKeys, depth);
+	}
+
 }
@@ -49,7 +49,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
 import org.eurekaclinical.common.comm.clients.ClientException;
 
@@ -64,19 +70,28 @@ public class SystemPropositionRetriever implements
 	private static final Logger LOGGER = LoggerFactory
 			.getLogger(SystemPropositionRetriever.class);
 	private final Injector injector;
+	private final SystemPropositionCache cache;
 
 	@Inject
-	public SystemPropositionRetriever(Injector inInjector) {
+	public SystemPropositionRetriever(Injector inInjector,
+			SystemPropositionCache inCache) {
 		this.injector = inInjector;
+		this.cache = inCache;
 	}
 
 	@Override
 	public PropositionDefinition retrieve(String sourceConfigId, String inKey)
 			throws PropositionFindException {
+		PropositionDefinition result = this.cache.get(sourceConfigId, inKey);
+		if (result != null) {
+			return result;
+		}
 		EtlClient etlClient = this.injector.getInstance(EtlClient.class);
-		PropositionDefinition result;
 		try {
 			result = etlClient.getPropositionDefinition(sourceConfigId, inKey);
+			if (result != null) {
+				this.cache.putAll(sourceConfigId, Collections.singletonList(result));
+			}
 		} catch (ClientException e) {
 			ClientResponse.Status status = e.getResponseStatus();
 			if (status == ClientResponse.Status.NOT_FOUND) {
@@ -102,10 +117,17 @@ public class SystemPropositionRetriever implements
 	 */
 	public List<PropositionDefinition> retrieveAll(
 			String sourceConfigId, List<String> inKeys, Boolean withChildren) throws PropositionFindException {
+		if (!Boolean.TRUE.equals(withChildren)) {
+			List<PropositionDefinition> cached = getCached(sourceConfigId, inKeys, 0);
+			if (cached != null) {
+				return cached;
+			}
+		}
 		List<PropositionDefinition> result = new ArrayList<>();
 		EtlClient etlClient = this.injector.getInstance(EtlClient.class);
 		try {
 			result = etlClient.getPropositionDefinitions(sourceConfigId, inKeys, withChildren);
+			this.cache.putAll(sourceConfigId, result);
 		} catch (ClientException e) {
 			LOGGER.error(e.getMessage(), e);
 			ClientResponse.Status status = e.getResponseStatus();
@@ -117,4 +139,68 @@ public class SystemPropositionRetriever implements
 		return result;
 
 	}
+
+	/**
+	 * Retrieves system elements and their descendants in one request.
+	 *
+	 * @param sourceConfigId the ID of the source config to use for the look up
+	 * @param inKeys the keys of the system elements to retrieve
+	 * @param depth how many levels of descendants to retrieve
+	 * @return the system elements followed by their descendants
+	 * @throws PropositionFindException
+	 */
+	public List<PropositionDefinition> retrieveAllWithDescendants(
+			String sourceConfigId, List<String> inKeys, int depth) throws PropositionFindException {
+		List<PropositionDefinition> cached = getCached(sourceConfigId, inKeys, depth);
+		if (cached != null) {
+			return cached;
+		}
+		List<PropositionDefinition> result = new ArrayList<>();
+		EtlClient etlClient = this.injector.getInstance(EtlClient.class);
+		try {
+			result = etlClient.getPropositionDefinitionsWithDescendants(sourceConfigId, inKeys, depth);
+			this.cache.putAll(sourceConfigId, result);
+		} catch (ClientException e) {
+			LOGGER.error(e.getMessage(), e);
+			ClientResponse.Status status = e.getResponseStatus();
+			if (status != ClientResponse.Status.NOT_FOUND) {
+				throw new PropositionFindException(
+						"Could not retrieve proposition definitions " + StringUtils.join(inKeys, ", "), e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets system elements and their descendants from the cache, in the
+	 * same order as eureka-protempa-etl returns them.
+	 *
+	 * @param sourceConfigId the ID of the source config to use for the look up
+	 * @param inKeys the keys of the system elements
+	 * @param depth how many levels of descendants to get
+	 * @return the system elements followed by their descendants, or
+	 * <code>null</code> if any of them is not cached.
+	 */
+	private List<PropositionDefinition> getCached(String sourceConfigId,
+			List<String> inKeys, int depth) {
+		List<PropositionDefinition> result = new ArrayList<>();
+		Set<String> found = new HashSet<>();
+		Collection<String> level = new LinkedHashSet<>(inKeys);
+		for (int i = 0; i <= depth && !level.isEmpty(); i++) {
+			Set<String> narrower = new LinkedHashSet<>();
+			for (String key : level) {
+				if (found.add(key)) {
+					PropositionDefinition propDef = this.cache.get(sourceConfigId, key);
+					if (propDef == null) {
+						return null;
+					}
+					result.add(propDef);
+					narrower.addAll(Arrays.asList(propDef.getChildren()));
+				}
+			}
+			narrower.removeAll(found);
+			level = narrower;
+		}
+		return result;
+	}
 }
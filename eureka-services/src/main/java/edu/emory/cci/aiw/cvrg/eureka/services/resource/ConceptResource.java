@@ -56,7 +56,10 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
@@ -217,13 +220,30 @@ public class ConceptResource {
 			throw new HttpStatusException(Status.INTERNAL_SERVER_ERROR, "No source configs");
 		}
 		String sourceConfigId = scps.get(0).getId();
-		List<PropositionDefinition> definition;
 		try {
-			definition = this.finder.findAll(sourceConfigId, inKeys, Boolean.FALSE);
-			List<SystemPhenotype> result = new ArrayList<>(definition.size());
-			for (PropositionDefinition propDef : definition) {
-				result.add(PropositionUtil.toSystemPhenotype(sourceConfigId, propDef, inSummarize,
-					this.finder));
+			if (inSummarize) {
+				List<PropositionDefinition> definition
+						= this.finder.findAll(sourceConfigId, inKeys, Boolean.FALSE);
+				List<SystemPhenotype> result = new ArrayList<>(definition.size());
+				for (PropositionDefinition propDef : definition) {
+					result.add(PropositionUtil.toSystemPhenotype(sourceConfigId, propDef, true,
+						this.finder));
+				}
+				return result;
+			}
+			/*
+			 * Get the phenotypes and their children in one request rather than
+			 * one request per phenotype.
+			 */
+			Map<String, PropositionDefinition> definitions = PropositionUtil.toMap(
+					this.finder.findAllWithDescendants(sourceConfigId, inKeys, 1));
+			List<SystemPhenotype> result = new ArrayList<>(inKeys.size());
+			for (String key : new LinkedHashSet<>(inKeys)) {
+				PropositionDefinition propDef = definitions.get(key);
+				if (propDef != null) {
+					result.add(PropositionUtil.toSystemPhenotype(propDef, false,
+							definitions));
+				}
 			}
 			return result;
 		} catch (PropositionFindException ex) {
@@ -244,12 +264,22 @@ public class ConceptResource {
 		}
 		PropositionDefinition definition;
 		try {
-			definition = this.finder.find(scps.get(0).getId(), inKey);
+			if (inSummarize) {
+				definition = this.finder.find(scps.get(0).getId(), inKey);
+				if (definition == null) {
+					throw new HttpStatusException(Response.Status.NOT_FOUND);
+				}
+				return PropositionUtil.toSystemPhenotype(scps.get(0).getId(), definition, true,
+						this.finder);
+			}
+			Map<String, PropositionDefinition> definitions = PropositionUtil.toMap(
+					this.finder.findAllWithDescendants(scps.get(0).getId(),
+							Collections.singletonList(inKey), 1));
+			definition = definitions.get(inKey);
 			if (definition == null) {
 				throw new HttpStatusException(Response.Status.NOT_FOUND);
 			}
-			return PropositionUtil.toSystemPhenotype(scps.get(0).getId(), definition, inSummarize,
-					this.finder);
+			return PropositionUtil.toSystemPhenotype(definition, false, definitions);
 		} catch (PropositionFindException ex) {
 			throw new HttpStatusException(
 					Response.Status.INTERNAL_SERVER_ERROR, ex);
@@ -44,15 +44,21 @@ import com.google.inject.persist.Transactional;
 import com.sun.jersey.api.client.ClientResponse;
 import org.eurekaclinical.eureka.client.comm.Job;
 import org.eurekaclinical.eureka.client.comm.JobFilter;
+import edu.emory.cci.aiw.cvrg.eureka.common.comm.AbstractEtlTabularDestination;
+import edu.emory.cci.aiw.cvrg.eureka.common.comm.EtlCohortDestination;
+import edu.emory.cci.aiw.cvrg.eureka.common.comm.EtlDestination;
 import edu.emory.cci.aiw.cvrg.eureka.common.comm.JobRequest;
 import org.eurekaclinical.eureka.client.comm.JobSpec;
+import edu.emory.cci.aiw.cvrg.eureka.common.comm.EtlTableColumn;
 import org.eurekaclinical.common.comm.clients.ClientException;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.PhenotypeEntity;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.UserEntity;
 import edu.emory.cci.aiw.cvrg.eureka.common.comm.clients.EtlClient;
 import edu.emory.cci.aiw.cvrg.eureka.services.config.ServiceProperties;
 import edu.emory.cci.aiw.cvrg.eureka.services.conversion.ConversionSupport;
+import edu.emory.cci.aiw.cvrg.eureka.services.conversion.EtlCohortPhenotypeKeysVisitor;
+import edu.emory.cci.aiw.cvrg.eureka.services.conversion.PropositionDefinitionCache;
 import edu.emory.cci.aiw.cvrg.eureka.services.conversion.PropositionDefinitionCollector;
-import edu.emory.cci.aiw.cvrg.eureka.services.conversion.PropositionDefinitionConverterVisitor;
 import edu.emory.cci.aiw.cvrg.eureka.services.dao.UserDao;
 import org.protempa.PropositionDefinition;
 import org.slf4j.Logger;
@@ -74,8 +80,11 @@ import javax.ws.rs.core.Response.Status;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import org.eurekaclinical.eureka.client.comm.Cohort;
 import edu.emory.cci.aiw.cvrg.eureka.services.dao.PhenotypeEntityDao;
 import org.eurekaclinical.standardapis.exception.HttpStatusException;
 
@@ -108,7 +117,7 @@ public class JobResource {
 	 * Used for converting the different types of Eureka data entities to
 	 * Protempa proposition definitions.
 	 */
-	private final PropositionDefinitionConverterVisitor converterVisitor;
+	private final PropositionDefinitionCache propositionDefinitionCache;
 	private final EtlClient etlClient;
 	private final ConversionSupport conversionSupport;
 	private final ServiceProperties properties;
@@ -118,21 +127,21 @@ public class JobResource {
 	 *
 	 * @param inUserDao The data access object used to fetch information about
 	 * users.
-	 * @param inVisitor The proposition definition converter visitor that will
-	 * be used to determine how to convert proposition definitions
+	 * @param inPropositionDefinitionCache The cache of phenotypes converted to
+	 * proposition definitions.
 	 * @param inPropositionDao The data access object used to fetch information
 	 * about propositions.
 	 * @param inEtlClient The ETL client to use to perform ETL operations.
 	 */
 	@Inject
 	public JobResource(UserDao inUserDao,
-			PropositionDefinitionConverterVisitor inVisitor,
+			PropositionDefinitionCache inPropositionDefinitionCache,
 			PhenotypeEntityDao inPropositionDao,
 			EtlClient inEtlClient,
 			ServiceProperties inProperties) {
 		this.userDao = inUserDao;
 		this.propositionDao = inPropositionDao;
-		this.converterVisitor = inVisitor;
+		this.propositionDefinitionCache = inPropositionDefinitionCache;
 		this.etlClient = inEtlClient;
 		this.conversionSupport = new ConversionSupport();
 		this.properties = inProperties;
@@ -155,8 +164,8 @@ public class JobResource {
 		JobRequest jobRequest = new JobRequest();
 		PropositionDefinitionCollector collector
 				= PropositionDefinitionCollector.getInstance(
-						this.converterVisitor, this.propositionDao
-						.getByUserId(user.getId()));
+						this.propositionDefinitionCache,
+						getJobPhenotypes(user, jobSpec));
 		if (LOGGER.isTraceEnabled()) {
 			LOGGER.trace("Sending {} proposition definitions:", collector.getUserPropDefs().size());
 			for (PropositionDefinition pd : collector.getUserPropDefs()) {
@@ -185,6 +194,95 @@ public class JobResource {
 		return Response.created(URI.create("/" + jobId)).build();
 	}
 
+	/**
+	 * Gets the user-defined phenotypes that a job refers to: its selected
+	 * concepts, its date range phenotype, the phenotypes in the cohort if
+	 * the job's destination is a cohort, and the phenotypes in the table
+	 * column paths if it is a tabular destination. Only these phenotypes and
+	 * the phenotypes that they use need to be sent to the ETL layer.
+	 *
+	 * @param user the user submitting the job.
+	 * @param jobSpec the job.
+	 * @return the user-defined phenotypes.
+	 */
+	private List<PhenotypeEntity> getJobPhenotypes(UserEntity user, JobSpec jobSpec) {
+		Set<String> keys = new LinkedHashSet<>();
+		List<String> conceptIds = jobSpec.getPropositionIds();
+		if (conceptIds != null) {
+			keys.addAll(conceptIds);
+		}
+		keys.add(jobSpec.getDateRangePhenotypeKey());
+		String destinationId = jobSpec.getDestinationId();
+		if (destinationId != null) {
+			try {
+				EtlDestination destination = this.etlClient.getDestination(destinationId);
+				if (destination instanceof EtlCohortDestination) {
+					Cohort cohort = ((EtlCohortDestination) destination).getCohort();
+					if (cohort != null && cohort.getNode() != null) {
+						EtlCohortPhenotypeKeysVisitor visitor
+								= new EtlCohortPhenotypeKeysVisitor();
+						cohort.getNode().accept(visitor);
+						keys.addAll(visitor.getPhenotypeKeys());
+					}
+				} else if (destination instanceof AbstractEtlTabularDestination) {
+					List<EtlTableColumn> tableColumns
+							= ((AbstractEtlTabularDestination) destination).getTableColumns();
+					if (tableColumns != null) {
+						for (EtlTableColumn tableColumn : tableColumns) {
+							addPathPhenotypeKeys(tableColumn.getPath(), keys);
+						}
+					}
+				}
+			} catch (ClientException ex) {
+				/*
+				 * An unknown destination is reported by the ETL layer when
+				 * the job is submitted.
+				 */
+				if (ex.getResponseStatus() != ClientResponse.Status.NOT_FOUND) {
+					throw new HttpStatusException(Status.INTERNAL_SERVER_ERROR, ex);
+				}
+			}
+		}
+		List<PhenotypeEntity> result = new ArrayList<>();
+		for (String key : keys) {
+			if (this.conversionSupport.isUserPhenotypeKey(key)) {
+				PhenotypeEntity phenotype
+						= this.propositionDao.getByUserAndKey(user.getId(), key);
+				if (phenotype != null) {
+					result.add(phenotype);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the phenotype keys of the propositions in a table column path.
+	 * Each link of a path starts with <code>[propId</code>, followed by a
+	 * space or <code>]</code>, as in
+	 * <code>[Encounter Event 0]>patient[PatientDetails Constant 0].id$VALUE</code>.
+	 *
+	 * @param path the path.
+	 * @param keys the keys to add to.
+	 */
+	private void addPathPhenotypeKeys(String path, Set<String> keys) {
+		if (path == null) {
+			return;
+		}
+		int start = path.indexOf('[');
+		while (start >= 0) {
+			int end = start + 1;
+			while (end < path.length() && path.charAt(end) != ' '
+					&& path.charAt(end) != ']') {
+				end++;
+			}
+			String propId = path.substring(start + 1, end);
+			String key = this.conversionSupport.toPhenotypeKey(propId);
+			keys.add(key != null ? key : propId);
+			start = path.indexOf('[', end);
+		}
+	}
+
 	@GET
 	@Path("/{jobId}")
 	@Produces({MediaType.APPLICATION_JSON})
@@ -60,7 +60,8 @@ import com.google.inject.persist.Transactional;
 
 import org.eurekaclinical.eureka.client.comm.Phenotype;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.PhenotypeEntity;
-import edu.emory.cci.aiw.cvrg.eureka.common.entity.PropositionChildrenVisitor;
+import edu.emory.cci.aiw.cvrg.eureka.services.conversion.PropositionDefinitionCache;
+import edu.emory.cci.aiw.cvrg.eureka.services.dao.PhenotypeDependencyDao;
 import edu.emory.cci.aiw.cvrg.eureka.common.entity.UserEntity;
 import org.eurekaclinical.eureka.client.comm.exception.PhenotypeHandlingException;
 import edu.emory.cci.aiw.cvrg.eureka.services.dao.UserDao;
@@ -94,17 +95,23 @@ public class PhenotypeResource {
 	private final PhenotypeEntityTranslatorVisitor pETranslatorVisitor;
 	private final PhenotypeTranslatorVisitor phenotypeTranslatorVisitor;
 	private final SummarizingPhenotypeEntityTranslatorVisitor summpETranslatorVisitor;
+	private final PropositionDefinitionCache propositionDefinitionCache;
+	private final PhenotypeDependencyDao phenotypeDependencyDao;
 
 	@Inject
 	public PhenotypeResource(PhenotypeEntityDao inDao, UserDao inUserDao,
+			PhenotypeDependencyDao inPhenotypeDependencyDao,
 			PhenotypeEntityTranslatorVisitor inPETranslatorVisitor,
 			SummarizingPhenotypeEntityTranslatorVisitor inSummpETranslatorVisitor,
-			PhenotypeTranslatorVisitor inPhenotypeTranslatorVisitor) {
+			PhenotypeTranslatorVisitor inPhenotypeTranslatorVisitor,
+			PropositionDefinitionCache inPropositionDefinitionCache) {
 		this.phenotypeEntityDao = inDao;
 		this.pETranslatorVisitor = inPETranslatorVisitor;
 		this.summpETranslatorVisitor = inSummpETranslatorVisitor;
 		this.phenotypeTranslatorVisitor = inPhenotypeTranslatorVisitor;
 		this.userDao = inUserDao;
+		this.propositionDefinitionCache = inPropositionDefinitionCache;
+		this.phenotypeDependencyDao = inPhenotypeDependencyDao;
 	}
 
 	@GET
@@ -178,6 +185,7 @@ public class PhenotypeResource {
 		phenotypeEntity.setLastModified(now);
 
 		this.phenotypeEntityDao.create(phenotypeEntity);
+		this.phenotypeDependencyDao.setDependencies(phenotypeEntity);
                 
                 Long id;
                 id = phenotypeEntity.getId();
@@ -247,7 +255,8 @@ public class PhenotypeResource {
 		phenotypeEntity.setLastModified(now);
 		phenotypeEntity.setCreated(oldPhenotypeEntity.getCreated());
 		phenotypeEntity.setId(oldPhenotypeEntity.getId());
-		this.phenotypeEntityDao.update(phenotypeEntity);
+		PhenotypeEntity updated = this.phenotypeEntityDao.update(phenotypeEntity);
+		this.phenotypeDependencyDao.setDependencies(updated);
 	}
 
 	@DELETE
@@ -265,7 +274,9 @@ public class PhenotypeResource {
 			deleteFailed(phenotypesUsedIn, phenotypeEntity);
 		}
 
+		this.phenotypeDependencyDao.removeDependencies(phenotypeEntity.getId());
 		this.phenotypeEntityDao.remove(phenotypeEntity);
+		this.propositionDefinitionCache.remove(phenotypeEntity.getId());
 	}
 
 	private void deleteFailed(List<String> phenotypesUsedIn,
@@ -297,20 +308,10 @@ public class PhenotypeResource {
 
 	private List<String> getPhenotypesUsedIn(Long inUserId,
 			PhenotypeEntity proposition) {
-		List<PhenotypeEntity> others
-				= this.phenotypeEntityDao.getByUserId(inUserId);
 		List<String> phenotypesUsedIn = new ArrayList<>();
-		for (PhenotypeEntity other : others) {
-			if (!other.getId().equals(proposition.getId())) {
-				PropositionChildrenVisitor visitor
-						= new PropositionChildrenVisitor();
-				other.accept(visitor);
-				for (PhenotypeEntity child : visitor.getChildren()) {
-					if (child.getId().equals(proposition.getId())) {
-						phenotypesUsedIn.add(other.getDisplayName());
-					}
-				}
-			}
+		for (PhenotypeEntity other
+				: this.phenotypeDependencyDao.getDependents(inUserId, proposition.getId())) {
+			phenotypesUsedIn.add(other.getDisplayName());
 		}
 		return phenotypesUsedIn;
 	}
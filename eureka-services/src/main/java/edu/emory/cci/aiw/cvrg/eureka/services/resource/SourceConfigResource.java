@@ -39,10 +39,14 @@
  */
 package edu.emory.cci.aiw.cvrg.eureka.services.resource;
 
+import java.security.Principal;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.annotation.security.RolesAllowed;
+import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response.Status;
@@ -50,6 +54,8 @@ import javax.ws.rs.core.Response.Status;
 import org.arp.javautil.string.StringUtil;
 
 import com.google.inject.Inject;
+import com.google.inject.OutOfScopeException;
+import com.google.inject.Provider;
 import com.sun.jersey.api.client.ClientResponse;
 import org.eurekaclinical.eureka.client.comm.FileSourceConfigOption;
 import org.eurekaclinical.eureka.client.comm.SourceConfig;
@@ -59,8 +65,12 @@ import org.eurekaclinical.eureka.client.comm.SourceConfigParams;
 import org.eurekaclinical.eureka.client.comm.SourceConfigParams.Upload;
 import org.eurekaclinical.eureka.client.comm.SystemPhenotype;
 import edu.emory.cci.aiw.cvrg.eureka.common.comm.clients.EtlClient;
+import edu.emory.cci.aiw.cvrg.eureka.services.finder.SystemPropositionCache;
+import edu.emory.cci.aiw.cvrg.eureka.services.finder.SystemPropositionCacheStats;
 import org.eurekaclinical.common.comm.clients.ClientException;
 import org.eurekaclinical.standardapis.exception.HttpStatusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Andrew Post
@@ -71,11 +81,20 @@ import org.eurekaclinical.standardapis.exception.HttpStatusException;
 @Consumes(MediaType.APPLICATION_JSON)
 public class SourceConfigResource {
 
+	private static final Logger LOGGER
+			= LoggerFactory.getLogger(SourceConfigResource.class);
+
 	private final EtlClient etlClient;
+	private final SystemPropositionCache cache;
+	private final Provider<HttpServletRequest> requestProvider;
 
 	@Inject
-	public SourceConfigResource(EtlClient inEtlClient) {
+	public SourceConfigResource(EtlClient inEtlClient,
+			SystemPropositionCache inCache,
+			Provider<HttpServletRequest> inRequestProvider) {
 		this.etlClient = inEtlClient;
+		this.cache = inCache;
+		this.requestProvider = inRequestProvider;
 	}
 
 	/**
@@ -91,6 +110,7 @@ public class SourceConfigResource {
 		} catch (ClientException ex) {
 			throw new HttpStatusException(Status.INTERNAL_SERVER_ERROR, ex);
 		}
+		refreshCache(getUsername(), sources);
 		return sources;
 	}
 
@@ -101,6 +121,7 @@ public class SourceConfigResource {
 			return this.etlClient.getSourceConfig(inId);
 		} catch (ClientException ex) {
 			if (ex.getResponseStatus() == ClientResponse.Status.NOT_FOUND) {
+				invalidateRemoved(inId);
 				throw new HttpStatusException(Status.NOT_FOUND);
 			} else {
 				throw new HttpStatusException(Status.INTERNAL_SERVER_ERROR, ex);
@@ -111,15 +132,64 @@ public class SourceConfigResource {
 	@GET
 	@Path("/parameters/list")
 	public List<SourceConfigParams> getParamsList() {
-		List<SourceConfigParams> result = new ArrayList<>();
-		try {
-			for (SourceConfig config : this.etlClient.getSourceConfigs()) {
-				result.add(toParams(config));
+		/*
+		 * The source configs that eureka-protempa-etl returns depend on the
+		 * user, so the cached lists are per user.
+		 */
+		String username = getUsername();
+		if (username != null) {
+			List<SourceConfigParams> cached
+					= this.cache.getSourceConfigParams(username);
+			if (cached != null) {
+				return new ArrayList<>(cached);
 			}
+		}
+		try {
+			return new ArrayList<>(refreshCache(username,
+					this.etlClient.getSourceConfigs()));
 		} catch (ClientException ex) {
 			throw new HttpStatusException(Status.INTERNAL_SERVER_ERROR, ex);
 		}
-		return result;
+	}
+
+	/**
+	 * Drops all cached system proposition definitions and source config
+	 * parameters, for example after source configs or their knowledge
+	 * sources have changed in eureka-protempa-etl.
+	 */
+	@DELETE
+	@Path("/cache")
+	@RolesAllowed({"admin"})
+	public void invalidateCache() {
+		LOGGER.info("Clearing {}", this.cache);
+		this.cache.invalidateAll();
+	}
+
+	/**
+	 * Drops the cached system proposition definitions of one source config,
+	 * and the cached source config parameters, which may mention it.
+	 *
+	 * @param inId the id of the source config.
+	 */
+	@DELETE
+	@Path("/cache/{id}")
+	@RolesAllowed({"admin"})
+	public void invalidateCache(@PathParam("id") String inId) {
+		LOGGER.info("Clearing source config {} from {}", inId, this.cache);
+		this.cache.invalidate(inId);
+		this.cache.invalidateAllSourceConfigParams();
+	}
+
+	/**
+	 * Gets the size and hit counts of the system proposition cache.
+	 *
+	 * @return a {@link SystemPropositionCacheStats}.
+	 */
+	@GET
+	@Path("/cache")
+	@RolesAllowed({"admin"})
+	public SystemPropositionCacheStats getCacheStats() {
+		return this.cache.getStats();
 	}
 
 	@GET
@@ -129,6 +199,7 @@ public class SourceConfigResource {
 			return toParams(this.etlClient.getSourceConfig(inId));
 		} catch (ClientException ex) {
 			if (ex.getResponseStatus() == ClientResponse.Status.NOT_FOUND) {
+				invalidateRemoved(inId);
 				throw new HttpStatusException(Status.NOT_FOUND);
 			} else {
 				throw new HttpStatusException(Status.INTERNAL_SERVER_ERROR, ex);
@@ -136,6 +207,63 @@ public class SourceConfigResource {
 		}
 	}
 
+	/**
+	 * Replaces the user's cached source config parameters with ones made from
+	 * a freshly retrieved list of source configs, and drops the cached system
+	 * proposition definitions of any source config that has disappeared
+	 * since the parameters were cached.
+	 *
+	 * @param username the user's username, or <code>null</code> if there is
+	 * no user, in which case nothing is cached.
+	 * @param sources the source configs that eureka-protempa-etl returned.
+	 * @return the source config parameters.
+	 */
+	private List<SourceConfigParams> refreshCache(String username,
+			List<SourceConfig> sources) {
+		List<SourceConfigParams> params = new ArrayList<>(sources.size());
+		Set<String> ids = new HashSet<>();
+		for (SourceConfig config : sources) {
+			params.add(toParams(config));
+			ids.add(config.getId());
+		}
+		if (username == null) {
+			return params;
+		}
+		List<SourceConfigParams> old
+				= this.cache.putSourceConfigParams(username, params);
+		if (old != null) {
+			for (SourceConfigParams p : old) {
+				if (!ids.contains(p.getId())) {
+					this.cache.invalidate(p.getId());
+				}
+			}
+		}
+		return params;
+	}
+
+	/**
+	 * Drops what is cached about a source config that eureka-protempa-etl
+	 * no longer knows about.
+	 *
+	 * @param inId the id of the source config.
+	 */
+	private void invalidateRemoved(String inId) {
+		this.cache.invalidate(inId);
+		String username = getUsername();
+		if (username != null) {
+			this.cache.invalidateSourceConfigParams(username);
+		}
+	}
+
+	private String getUsername() {
+		try {
+			Principal principal = this.requestProvider.get().getUserPrincipal();
+			return principal != null ? principal.getName() : null;
+		} catch (OutOfScopeException ex) {
+			return null;
+		}
+	}
+
 	private static SourceConfigParams toParams(SourceConfig config) {
 		SourceConfigParams params = new SourceConfigParams();
 		params.setId(config.getId());
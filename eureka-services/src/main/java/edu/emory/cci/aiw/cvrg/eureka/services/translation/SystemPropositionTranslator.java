@@ -40,7 +40,9 @@
 package edu.emory.cci.aiw.cvrg.eureka.services.translation;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.protempa.PropertyDefinition;
 import org.protempa.PropositionDefinition;
@@ -103,14 +105,15 @@ public class SystemPropositionTranslator implements
 			PropositionDefinition propDef = finder.find(scps.get(0).getId(),
 					proposition.getKey());
 			List<SystemPhenotype> children = new ArrayList<>();
+			Map<String, PropositionDefinition> childDefs =
+					PropositionUtil.toMap(finder.findAll(scps.get(0).getId(),
+					Arrays.asList(propDef.getInverseIsA()), Boolean.FALSE));
 			for (String child : propDef.getInverseIsA()) {
-				PropositionDefinition childDef = finder.find(
-						scps.get(0).getId(), child);
-				SystemPhenotype childPhenotype =
-						PropositionUtil.toSystemPhenotype(scps.get(0).getId(), childDef, true,
-						finder);
-
-				children.add(childPhenotype);
+				PropositionDefinition childDef = childDefs.get(child);
+				if (childDef != null) {
+					children.add(PropositionUtil.toSystemPhenotype(childDef, true,
+							childDefs));
+				}
 			}
 			phenotype.setChildren(children);
 
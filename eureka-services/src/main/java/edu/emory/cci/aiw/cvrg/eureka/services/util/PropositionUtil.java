@@ -40,7 +40,9 @@
 package edu.emory.cci.aiw.cvrg.eureka.services.util;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.arp.javautil.arrays.Arrays;
 import org.protempa.PropertyDefinition;
@@ -89,6 +91,35 @@ public final class PropositionUtil {
 		if (inDefinition == null) {
 			throw new IllegalArgumentException("inDefinition cannot be null");
 		}
+		Map<String, PropositionDefinition> children;
+		if (summarize) {
+			children = new HashMap<>();
+		} else {
+			children = toMap(inPropositionFinder.findAll(
+					sourceConfigId,
+			        Arrays.<String> asList(inDefinition.getChildren()),
+			        Boolean.FALSE));
+		}
+		return toSystemPhenotype(inDefinition, summarize, children);
+	}
+
+	/**
+	 * Wraps a proposition definition into a proposition wrapper, taking its
+	 * children from proposition definitions that were already retrieved.
+	 * Children that are not among them are left out.
+	 *
+	 * @param inDefinition a proposition definition.
+	 * @param summarize whether to leave out the children.
+	 * @param inDefinitions retrieved proposition definitions by id, for
+	 * example from {@link SystemPropositionFinder#findAllWithDescendants}.
+	 * @return the wrapper.
+	 */
+	public static SystemPhenotype toSystemPhenotype(
+	        PropositionDefinition inDefinition, boolean summarize,
+	        Map<String, PropositionDefinition> inDefinitions) {
+		if (inDefinition == null) {
+			throw new IllegalArgumentException("inDefinition cannot be null");
+		}
 		SystemPhenotype systemPhenotype = new SystemPhenotype();
 		systemPhenotype.setKey(inDefinition.getId());
 		systemPhenotype.setInSystem(true);
@@ -111,13 +142,11 @@ public final class PropositionUtil {
 
 		if (!summarize) {
 			List<SystemPhenotype> children = new ArrayList<>();
-			List<PropositionDefinition> pds = inPropositionFinder.findAll(
-					sourceConfigId,
-			        Arrays.<String> asList(inDefChildren),
-			        Boolean.FALSE);
-			for (PropositionDefinition pd : pds) {
-				children.add(toSystemPhenotype(sourceConfigId, pd, true,
-				        inPropositionFinder));
+			for (String child : inDefChildren) {
+				PropositionDefinition pd = inDefinitions.get(child);
+				if (pd != null) {
+					children.add(toSystemPhenotype(pd, true, inDefinitions));
+				}
 			}
 			systemPhenotype.setChildren(children);
 
@@ -125,4 +154,19 @@ public final class PropositionUtil {
 
 		return systemPhenotype;
 	}
+
+	/**
+	 * Indexes proposition definitions by id.
+	 *
+	 * @param inDefinitions proposition definitions.
+	 * @return a map of id to proposition definition.
+	 */
+	public static Map<String, PropositionDefinition> toMap(
+			List<PropositionDefinition> inDefinitions) {
+		Map<String, PropositionDefinition> result = new HashMap<>();
+		for (PropositionDefinition pd : inDefinitions) {
+			result.put(pd.getId(), pd);
+		}
+		return result;
+	}
 }
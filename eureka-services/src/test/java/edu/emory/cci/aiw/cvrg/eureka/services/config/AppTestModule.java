@@ -46,6 +46,7 @@ import com.google.inject.persist.jpa.JpaPersistModule;
 
 import edu.emory.cci.aiw.cvrg.eureka.services.dao.FrequencyTypeDao;
 import edu.emory.cci.aiw.cvrg.eureka.services.dao.JpaFrequencyTypeDao;
+import edu.emory.cci.aiw.cvrg.eureka.services.dao.JpaPhenotypeDependencyDao;
 import edu.emory.cci.aiw.cvrg.eureka.services.dao.JpaPhenotypeEntityDao;
 import edu.emory.cci.aiw.cvrg.eureka.services.dao.JpaRelationOperatorDao;
 import edu.emory.cci.aiw.cvrg.eureka.services.dao.JpaRoleDao;
@@ -61,6 +62,7 @@ import edu.emory.cci.aiw.cvrg.eureka.services.dao.UserDao;
 import edu.emory.cci.aiw.cvrg.eureka.services.dao.ValueComparatorDao;
 import edu.emory.cci.aiw.cvrg.eureka.services.finder.PropositionFinder;
 import edu.emory.cci.aiw.cvrg.eureka.services.finder.TestPropositionFinder;
+import edu.emory.cci.aiw.cvrg.eureka.services.dao.PhenotypeDependencyDao;
 import edu.emory.cci.aiw.cvrg.eureka.services.dao.PhenotypeEntityDao;
 
 /**
@@ -84,6 +86,7 @@ public class AppTestModule extends AbstractModule {
 		bind(FrequencyTypeDao.class).to(JpaFrequencyTypeDao.class);
 		bind(RelationOperatorDao.class).to(JpaRelationOperatorDao.class);
 		bind(PhenotypeEntityDao.class).to(JpaPhenotypeEntityDao.class);
+		bind(PhenotypeDependencyDao.class).to(JpaPhenotypeDependencyDao.class);
 		bind(ThresholdsOperatorDao.class).to(JpaThresholdsOperatorDao.class);
 		bind(new TypeLiteral<PropositionFinder<String>>(){}).to(TestPropositionFinder.class);
 	}
@@ -0,0 +1,123 @@
+package edu.emory.cci.aiw.cvrg.eureka.services.conversion;
+
+/*-
+ * #%L
+ * Eureka Services
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import com.google.inject.Provider;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.CategoryEntity;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.CategoryEntity.CategoryType;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.PhenotypeEntity;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.SystemProposition;
+import edu.emory.cci.aiw.cvrg.eureka.services.config.ServiceProperties;
+import edu.emory.cci.aiw.cvrg.eureka.services.test.AbstractServiceTest;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.eurekaclinical.eureka.client.comm.SystemType;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Before;
+import org.junit.Test;
+import org.protempa.PropositionDefinition;
+
+public class PropositionDefinitionCacheTest extends AbstractServiceTest {
+
+	private PropositionDefinitionCache cache;
+	private CategoryEntity inner;
+	private CategoryEntity outer;
+
+	@Before
+	public void setUp() {
+		this.cache = new PropositionDefinitionCache(
+				new Provider<PropositionDefinitionConverterVisitor>() {
+			@Override
+			public PropositionDefinitionConverterVisitor get() {
+				return getInstance(PropositionDefinitionConverterVisitor.class);
+			}
+		}, new ServiceProperties());
+
+		SystemProposition event = new SystemProposition();
+		event.setId(1L);
+		event.setKey("test-event");
+		event.setInSystem(true);
+		event.setSystemType(SystemType.EVENT);
+
+		this.inner = new CategoryEntity();
+		this.inner.setId(2L);
+		this.inner.setKey("test-inner-cat");
+		this.inner.setCategoryType(CategoryType.EVENT);
+		this.inner.setLastModified(new Date(1000L));
+		this.inner.setMembers(Collections.<PhenotypeEntity>singletonList(event));
+
+		this.outer = new CategoryEntity();
+		this.outer.setId(3L);
+		this.outer.setKey("test-outer-cat");
+		this.outer.setCategoryType(CategoryType.EVENT);
+		this.outer.setLastModified(new Date(1000L));
+		this.outer.setMembers(Collections.<PhenotypeEntity>singletonList(this.inner));
+	}
+
+	@Test
+	public void testConvertsPhenotypeAndChildren() {
+		List<PropositionDefinition> propDefs = this.cache.get(this.outer);
+		assertEquals("wrong number of proposition definitions", 2,
+				propDefs.size());
+		assertEquals("wrong primary proposition definition",
+				toPropositionId("test-outer-cat"), propDefs.get(1).getId());
+	}
+
+	@Test
+	public void testReusesUnchangedConversion() {
+		List<PropositionDefinition> first = this.cache.get(this.outer);
+		List<PropositionDefinition> second = this.cache.get(this.outer);
+		assertSame("conversion not reused", first, second);
+		assertEquals("wrong number of hits", 1, this.cache.getHits());
+	}
+
+	@Test
+	public void testConvertsAgainWhenChildChanges() {
+		List<PropositionDefinition> first = this.cache.get(this.outer);
+		this.inner.setLastModified(new Date(2000L));
+		List<PropositionDefinition> second = this.cache.get(this.outer);
+		assertNotSame("stale conversion reused", first, second);
+		assertEquals("wrong number of misses", 2, this.cache.getMisses());
+	}
+}
@@ -0,0 +1,170 @@
+package edu.emory.cci.aiw.cvrg.eureka.services.dao;
+
+/*-
+ * #%L
+ * Eureka Services
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.CategoryEntity;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.CategoryEntity.CategoryType;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.PhenotypeEntity;
+import edu.emory.cci.aiw.cvrg.eureka.common.entity.UserEntity;
+import edu.emory.cci.aiw.cvrg.eureka.services.test.AbstractServiceDataTest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import javax.persistence.EntityManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests recording and looking up phenotype dependencies.
+ */
+public class JpaPhenotypeDependencyDaoTest extends AbstractServiceDataTest {
+
+	private EntityManager entityManager;
+	private PhenotypeDependencyDao dao;
+	private Long userId;
+	private PhenotypeEntity lowLevelAbstraction;
+	private PhenotypeEntity category;
+	private CategoryEntity dependent;
+
+	@Before
+	public void setUp() {
+		this.entityManager = getInstance(EntityManager.class);
+		/*
+		 * The test data's phenotypes were created without collections, so
+		 * they are loaded again as they would be in the application.
+		 */
+		this.entityManager.clear();
+		this.dao = getInstance(PhenotypeDependencyDao.class);
+		UserEntity user = getInstance(UserDao.class).getByName("user@emory.edu");
+		this.userId = user.getId();
+		PhenotypeEntityDao phenotypeDao = getInstance(PhenotypeEntityDao.class);
+		this.lowLevelAbstraction = phenotypeDao.getByUserAndKey(this.userId, "test-low-level");
+		this.category = phenotypeDao.getByUserAndKey(this.userId, "test-cat");
+		this.entityManager.getTransaction().begin();
+		this.dependent = new CategoryEntity();
+		this.dependent.setKey("test-dependent");
+		this.dependent.setDisplayName("Test Dependent");
+		this.dependent.setUserId(this.userId);
+		this.dependent.setCategoryType(CategoryType.EVENT);
+		this.dependent.setCreated(new Date());
+		this.dependent.setMembers(new ArrayList<>(Collections.singletonList(this.lowLevelAbstraction)));
+		this.entityManager.persist(this.dependent);
+		this.entityManager.getTransaction().commit();
+	}
+
+	@After
+	public void tearDown() {
+		this.entityManager.getTransaction().begin();
+		this.entityManager.createQuery("DELETE FROM PhenotypeDependencyEntity")
+				.executeUpdate();
+		this.entityManager.remove(this.dependent);
+		this.entityManager.getTransaction().commit();
+	}
+
+	@Test
+	public void testSetDependencies() {
+		this.entityManager.getTransaction().begin();
+		this.dao.setDependencies(this.dependent);
+		this.entityManager.getTransaction().commit();
+		Assert.assertEquals(Collections.singletonList(this.lowLevelAbstraction.getId()),
+				getDependencyIds(this.dependent.getId()));
+		Assert.assertEquals(Collections.<PhenotypeEntity>singletonList(this.dependent),
+				getDependents(this.lowLevelAbstraction.getId()));
+	}
+
+	@Test
+	public void testUpdateDependencies() {
+		this.entityManager.getTransaction().begin();
+		this.dao.setDependencies(this.dependent);
+		this.dependent.setMembers(new ArrayList<>(Collections.singletonList(this.category)));
+		this.dependent = this.entityManager.merge(this.dependent);
+		this.dao.setDependencies(this.dependent);
+		this.entityManager.getTransaction().commit();
+		Assert.assertEquals(Collections.singletonList(this.category.getId()),
+				getDependencyIds(this.dependent.getId()));
+		Assert.assertTrue(getDependents(this.lowLevelAbstraction.getId()).isEmpty());
+		Assert.assertEquals(Collections.<PhenotypeEntity>singletonList(this.dependent),
+				getDependents(this.category.getId()));
+	}
+
+	@Test
+	public void testRemoveDependencies() {
+		this.entityManager.getTransaction().begin();
+		this.dao.setDependencies(this.dependent);
+		this.dao.removeDependencies(this.dependent.getId());
+		this.entityManager.getTransaction().commit();
+		Assert.assertTrue(getDependencyIds(this.dependent.getId()).isEmpty());
+	}
+
+	/**
+	 * Phenotypes saved before dependencies were recorded get theirs recorded
+	 * when the dependents of one of their user's phenotypes are looked up.
+	 */
+	@Test
+	public void testRecordMissingDependencies() {
+		Assert.assertTrue(getDependencyIds(this.dependent.getId()).isEmpty());
+		Assert.assertEquals(Collections.<PhenotypeEntity>singletonList(this.dependent),
+				getDependents(this.lowLevelAbstraction.getId()));
+		Assert.assertEquals(Collections.singletonList(this.lowLevelAbstraction.getId()),
+				getDependencyIds(this.dependent.getId()));
+	}
+
+	private List<PhenotypeEntity> getDependents(Long inPhenotypeId) {
+		this.entityManager.getTransaction().begin();
+		try {
+			return this.dao.getDependents(this.userId, inPhenotypeId);
+		} finally {
+			this.entityManager.getTransaction().commit();
+		}
+	}
+
+	private List<Long> getDependencyIds(Long inPhenotypeId) {
+		return this.entityManager.createQuery(
+				"SELECT d.dependencyId FROM PhenotypeDependencyEntity d WHERE d.phenotypeId = :p",
+				Long.class)
+				.setParameter("p", inPhenotypeId)
+				.getResultList();
+	}
+
+}
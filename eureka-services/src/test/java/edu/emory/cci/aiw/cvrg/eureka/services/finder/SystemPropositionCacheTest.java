@@ -0,0 +1,121 @@
+package edu.emory.cci.aiw.cvrg.eureka.services.finder;
+
+/*-
+ * #%L
+ * Eureka Services
+ * %%
+ * Copyright (C) 2012 - 2017 Emory University
+ * %%
+ * This program is dual licensed under the Apache 2 and GPLv3 licenses.
+ * 
+ * Apache License, Version 2.0:
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * GNU General Public License version 3:
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.cvrg.eureka.services.config.ServiceProperties;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.eurekaclinical.eureka.client.comm.SourceConfigParams;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Before;
+import org.junit.Test;
+import org.protempa.EventDefinition;
+import org.protempa.PropositionDefinition;
+
+public class SystemPropositionCacheTest {
+
+	private SystemPropositionCache cache;
+
+	@Before
+	public void setUp() {
+		this.cache = new SystemPropositionCache(new ServiceProperties());
+		this.cache.putAll("config1", Arrays.<PropositionDefinition>asList(
+				new EventDefinition("test-event1"),
+				new EventDefinition("test-event2")));
+	}
+
+	@Test
+	public void testGetsCachedDefinition() {
+		assertNotNull("definition not cached",
+				this.cache.get("config1", "test-event1"));
+		assertNull("definition cached for wrong source config",
+				this.cache.get("config2", "test-event1"));
+		assertEquals("wrong hit rate", 0.5, this.cache.getHitRate(), 0.0);
+	}
+
+	@Test
+	public void testInvalidatesSourceConfig() {
+		this.cache.putAll("config2", Collections.<PropositionDefinition>singletonList(
+				new EventDefinition("test-event1")));
+		this.cache.invalidate("config1");
+		assertNull("definition not invalidated",
+				this.cache.get("config1", "test-event1"));
+		assertNotNull("definition of other source config invalidated",
+				this.cache.get("config2", "test-event1"));
+	}
+
+	@Test
+	public void testInvalidatesAll() {
+		this.cache.putSourceConfigParams("user1",
+				Collections.<SourceConfigParams>emptyList());
+		this.cache.invalidateAll();
+		assertEquals("definitions not invalidated", 0, this.cache.getSize());
+		assertNull("source config parameters not invalidated",
+				this.cache.getSourceConfigParams("user1"));
+	}
+
+	@Test
+	public void testPutReturnsPreviousSourceConfigParams() {
+		List<SourceConfigParams> first
+				= Collections.singletonList(new SourceConfigParams());
+		assertNull("unexpected previous list",
+				this.cache.putSourceConfigParams("user1", first));
+		assertEquals("wrong previous list", first,
+				this.cache.putSourceConfigParams("user1",
+						Collections.<SourceConfigParams>emptyList()));
+	}
+
+	@Test
+	public void testStats() {
+		this.cache.get("config1", "test-event1");
+		this.cache.getSourceConfigParams("user1");
+		SystemPropositionCacheStats stats = this.cache.getStats();
+		assertEquals("wrong size", 2, stats.getSize());
+		assertEquals("wrong hits", 1, stats.getHits());
+		assertEquals("wrong source config parameter misses", 1,
+				stats.getSourceConfigParamsMisses());
+		assertEquals("wrong source config parameter hit rate", 0.0,
+				stats.getSourceConfigParamsHitRate(), 0.0);
+	}
+}
@@ -75,10 +75,15 @@ class AppModule extends AbstractModule {
 		bind(RouterTable.class).to(WebappRouterTable.class);
 		bind(WebappProperties.class).toInstance(this.webappProperties);
 		bind(CasEurekaClinicalProperties.class).toInstance(this.webappProperties);
+		/*
+		 * The clients stay session-scoped: the eurekaclinical-common base
+		 * class owns its Jersey client and connection manager, so they cannot
+		 * be pooled per client or shared safely between users from here.
+		 */
 		bind(ServicesClient.class).toProvider(this.servicesClientProvider).in(SessionScoped.class);
 		bind(EtlClient.class).toProvider(this.etlClientProvider).in(SessionScoped.class);
 		bind(EurekaClinicalUserClient.class).toProvider(this.userClientProvider).in(SessionScoped.class);
-		bind(AuthorizingEurekaClinicalClient.class).toProvider(this.userClientProvider).in(SessionScoped.class);
+		bind(AuthorizingEurekaClinicalClient.class).to(EurekaClinicalUserClient.class);
 	}
 
 }